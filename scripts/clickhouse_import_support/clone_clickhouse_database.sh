@@ -218,10 +218,11 @@ function clone_all_source_database_tables_to_destination_database() {
     local pos=0
     local num_tables=${#database_table_list[@]}
     local AUTOINCREMENT_SEQUENCE_STATE_TABLENAME="cbioportal_sequence_state"
+    local AUTOINCREMENT_SEQUENCE_LEASE_TABLENAME="cbioportal_sequence_lease"
 
     while [ "$pos" -lt "$num_tables" ] ; do
         local table_name="${database_table_list[$pos]}"
-        if [ "$table_name" == "$AUTOINCREMENT_SEQUENCE_STATE_TABLENAME" ] || [[ "$table_name" == *_derived ]] ; then
+        if [ "$table_name" == "$AUTOINCREMENT_SEQUENCE_STATE_TABLENAME" ] || [ "$table_name" == "$AUTOINCREMENT_SEQUENCE_LEASE_TABLENAME" ] || [[ "$table_name" == *_derived ]] ; then
             echo "skipping $table_name"
             pos=$(($pos+1))
             continue
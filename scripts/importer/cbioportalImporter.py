@@ -11,6 +11,7 @@ import importlib
 import argparse
 import logging
 import re
+import tempfile
 from pathlib import Path
 from typing import Dict, Tuple
 
@@ -41,7 +42,9 @@ from .cbioportal_common import REMOVE_PATIENTS_CLASS
 from .cbioportal_common import IMPORT_CASE_LIST_CLASS
 from .cbioportal_common import ADD_CASE_LIST_CLASS
 from .cbioportal_common import VERSION_UTIL_CLASS
+from .cbioportal_common import IMPORT_BATCH_CLASS
 from .cbioportal_common import run_java
+from .cbioportal_common import JavaRunException
 from .cbioportal_common import UPDATE_CASE_LIST_CLASS
 from .cbioportal_common import INCREMENTAL_UPLOAD_SUPPORTED_META_TYPES
 
@@ -50,6 +53,9 @@ from .cbioportal_common import INCREMENTAL_UPLOAD_SUPPORTED_META_TYPES
 
 LOGGER = None
 
+# steps queued by run_java_step when running with --single-jvm; None runs each step in its own JVM
+JAVA_BATCH = None
+
 # commands
 IMPORT_CANCER_TYPE = "import-cancer-type"
 IMPORT_STUDY = "import-study"
@@ -64,20 +70,44 @@ COMMANDS = [IMPORT_CANCER_TYPE, IMPORT_STUDY, IMPORT_STUDY_DATA, IMPORT_CASE_LIS
 # ------------------------------------------------------------------------------
 # sub-routines
 
+def run_java_step(jvm_args, args):
+    """Run one importer step, or queue it when steps are batched into a single JVM."""
+    if JAVA_BATCH is None:
+        run_java(*args)
+    else:
+        JAVA_BATCH.append(args[len(jvm_args.split(' ')):])
+
+def run_java_batch(jvm_args, steps):
+    """Run queued importer steps in order in one JVM, through a manifest read by ImportBatch."""
+    for step in steps:
+        if any('\t' in arg or '\n' in arg for arg in step):
+            raise ValueError('Cannot run step with tab or newline in its arguments in a single JVM: ' + ' '.join(step))
+    with tempfile.NamedTemporaryFile('w', prefix='import_batch_', suffix='.tsv', delete=False) as manifest:
+        for step in steps:
+            manifest.write('\t'.join(step) + '\n')
+    try:
+        args = jvm_args.split(' ')
+        args.append(IMPORT_BATCH_CLASS)
+        args.append(manifest.name)
+        args.append("--noprogress") # don't report memory usage and % progress
+        run_java(*args)
+    finally:
+        os.remove(manifest.name)
+
 def import_cancer_type(jvm_args, data_filename):
     args = jvm_args.split(' ')
     args.append(IMPORT_CANCER_TYPE_CLASS)
     args.append(data_filename)
     args.append("false") # don't clobber existing table
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def import_study(jvm_args, meta_filename):
     args = jvm_args.split(' ')
     args.append(IMPORT_STUDY_CLASS)
     args.append(meta_filename)
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def update_study_status(jvm_args, study_id):
     args = jvm_args.split(' ')
@@ -85,7 +115,7 @@ def update_study_status(jvm_args, study_id):
     args.append(study_id)
     args.append("AVAILABLE")
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def remove_study_meta(jvm_args, meta_filename):
     args = jvm_args.split(' ')
@@ -98,14 +128,14 @@ def remove_study_meta(jvm_args, meta_filename):
         return
     args.append(meta_dictionary['cancer_study_identifier'])
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def remove_study_id(jvm_args, study_id):
     args = jvm_args.split(' ')
     args.append(REMOVE_STUDY_CLASS)
     args.append(study_id)
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def remove_samples(jvm_args, study_ids, sample_ids):
     args = jvm_args.split(' ')
@@ -114,11 +144,13 @@ def remove_samples(jvm_args, study_ids, sample_ids):
     args.append(study_ids)
     args.append("--sample_ids")
     args.append(sample_ids)
+    # always the only step of its command, so it runs in its own JVM even with --single-jvm;
+    # queued, its failure would only surface from run_java_batch, past this handler
     try:
         run_java(*args)
     except JavaRunException as jre:
         LOGGER.error('an error occurred during the java process which removes samples from the database.')
-        LOGGER.error('  the exit status returned by the java process was %d' % (jre.java_process_status))
+        LOGGER.error('  the exit status returned by the java process was %d' % (jre.process_return_status))
         LOGGER.error('  the message sent along with this error was %s' % (jre.message))
         LOGGER.error('  %s' % ('-' * 70))
         LOGGER.error('  One step of this process is to adjust the lists of events in table \'genetic_alteration\' and the list of')
@@ -135,7 +167,7 @@ def remove_patients(jvm_args, study_ids, patient_ids):
     args.append(study_ids)
     args.append("--patient_ids")
     args.append(patient_ids)
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def update_case_lists(jvm_args, meta_filename, case_lists_file_or_dir = None):
     args = jvm_args.split(' ')
@@ -145,7 +177,7 @@ def update_case_lists(jvm_args, meta_filename, case_lists_file_or_dir = None):
     if case_lists_file_or_dir:
         args.append("--case-lists")
         args.append(case_lists_file_or_dir)
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def import_data(jvm_args, meta_filename, data_filename, update_generic_assay_entity = None, meta_file_dictionary = None, incremental = False):
     args = jvm_args.split(' ')
@@ -208,14 +240,14 @@ def import_data(jvm_args, meta_filename, data_filename, update_generic_assay_ent
         args.append(data_filename)
 
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def import_case_list(jvm_args, meta_filename):
     args = jvm_args.split(' ')
     args.append(IMPORT_CASE_LIST_CLASS)
     args.append(meta_filename)
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def add_global_case_list(jvm_args, study_id):
     args = jvm_args.split(' ')
@@ -223,7 +255,7 @@ def add_global_case_list(jvm_args, study_id):
     args.append(study_id)
     args.append("all")
     args.append("--noprogress") # don't report memory usage and % progress
-    run_java(*args)
+    run_java_step(jvm_args, args)
 
 def check_version(jvm_args):
     args = jvm_args.split(' ')
@@ -512,7 +544,7 @@ def import_incremental_data(jvm_args, data_directory, update_generic_assay_entit
             except JavaRunException as jre:
                 if meta_file_type == MetaFileTypes.CNA_DISCRETE_LONG:
                     LOGGER.error('an error occurred during the java process which updates CNA profile data incrementally.')
-                    LOGGER.error('  the exit status returned by the java process was %d' % (jre.java_process_status))
+                    LOGGER.error('  the exit status returned by the java process was %d' % (jre.process_return_status))
                     LOGGER.error('  the message sent along with this error was %s' % (jre.message))
                     LOGGER.error('  %s' % ('-' * 70))
                     LOGGER.error('  One step of this process is to adjust the lists of events in table \'genetic_alteration\' and the list of')
@@ -589,6 +621,9 @@ def add_parser_args(parser):
                         help='Path to meta file')
     parser.add_argument('-data', '--data_filename', type=str, required=False,
                         help='Path to Data file')
+    parser.add_argument('--single-jvm', dest='single_jvm', action='store_true', default=False,
+                        help='Run all import steps in one Java process, keeping caches and '
+                             'database connections warm between steps')
 
 def interface(args=None):
     parent_parser = argparse.ArgumentParser(description='cBioPortal meta Importer')
@@ -695,24 +730,34 @@ def main(args):
     # check if DB version and application version are in sync
     check_version(jvm_args)
 
-    if args.data_directory is not None:
-        check_dir(args.data_directory)
-        process_data_directory(jvm_args, args.data_directory, args.update_generic_assay_entity)
-    elif args.study_directory is not None:
-        check_dir(args.study_directory)
-        process_study_directory(jvm_args, args.study_directory, args.update_generic_assay_entity)
-    else:
-        check_args(args.command)
-        check_files(args.meta_filename, args.data_filename)
-        process_command(
-            jvm_args,
-            args.command,
-            args.meta_filename,
-            args.data_filename,
-            args.study_ids,
-            args.patient_ids if hasattr(args, 'patient_ids') else None,
-            args.sample_ids if hasattr(args, 'sample_ids') else None,
-            args.update_generic_assay_entity)
+    global JAVA_BATCH
+    single_jvm = getattr(args, 'single_jvm', False)
+    if single_jvm:
+        JAVA_BATCH = []
+    try:
+        if args.data_directory is not None:
+            check_dir(args.data_directory)
+            process_data_directory(jvm_args, args.data_directory, args.update_generic_assay_entity)
+        elif args.study_directory is not None:
+            check_dir(args.study_directory)
+            process_study_directory(jvm_args, args.study_directory, args.update_generic_assay_entity)
+        else:
+            check_args(args.command)
+            check_files(args.meta_filename, args.data_filename)
+            process_command(
+                jvm_args,
+                args.command,
+                args.meta_filename,
+                args.data_filename,
+                args.study_ids,
+                args.patient_ids if hasattr(args, 'patient_ids') else None,
+                args.sample_ids if hasattr(args, 'sample_ids') else None,
+                args.update_generic_assay_entity)
+        steps = JAVA_BATCH
+    finally:
+        JAVA_BATCH = None
+    if single_jvm and steps:
+        run_java_batch(jvm_args, steps)
 
 # ------------------------------------------------------------------------------
 # ready to roll
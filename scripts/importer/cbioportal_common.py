@@ -39,6 +39,7 @@ IMPORT_CASE_LIST_CLASS = "org.mskcc.cbio.portal.scripts.ImportSampleList"
 ADD_CASE_LIST_CLASS = "org.mskcc.cbio.portal.scripts.AddCaseList"
 UPDATE_CASE_LIST_CLASS = "org.mskcc.cbio.portal.scripts.UpdateCaseListsSampleIds"
 VERSION_UTIL_CLASS = "org.mskcc.cbio.portal.util.VersionUtil"
+IMPORT_BATCH_CLASS = "org.mskcc.cbio.portal.scripts.ImportBatch"
 
 PORTAL_PROPERTY_DATABASE_USER = 'db.user'
 PORTAL_PROPERTY_DATABASE_PW = 'db.password'
@@ -4,8 +4,20 @@ import org.mskcc.cbio.portal.util.ProgressMonitor;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
+/**
+ * Snapshots the rows of the given genetic profiles before an incremental update and
+ * puts them back if the update fails.
+ * <p>
+ * Only the affected profiles are copied to {@code <table>_backup}, so the cost follows
+ * the size of the update rather than the size of the database. On a schema partitioned
+ * by genetic_profile_id (see {@link ClickHouseProfilePartitions}) the snapshot attaches
+ * the profile partitions, which shares the data parts instead of copying them, and the
+ * restore replaces each partition atomically.
+ */
 public class BackupUtil {
 
     @FunctionalInterface
@@ -16,6 +28,7 @@ public class BackupUtil {
     public static void conditionalBackup(
         boolean isIncrementalUpdateMode,
         List<String> tableNames,
+        Collection<Integer> geneticProfileIds,
         ThrowingRunnable fn
     ) throws Exception {
 
@@ -29,20 +42,20 @@ public class BackupUtil {
             return;
         }
 
-        backup(tableNames, fn);
+        backup(tableNames, geneticProfileIds, fn);
     }
 
-    public static void backup(List<String> tableNames, ThrowingRunnable fn) throws Exception {
+    public static void backup(List<String> tableNames, Collection<Integer> geneticProfileIds, ThrowingRunnable fn) throws Exception {
         try {
             for (String table : tableNames) {
-                backup(table);
+                backup(table, geneticProfileIds);
             }
             fn.run();
         } catch (Throwable t) {
             ProgressMonitor.setCurrentMessage("Caught exception. Restoring from backup tables...");
             for (String table : tableNames) {
                 try {
-                    restore(table);
+                    restore(table, geneticProfileIds);
                 } catch (Throwable restoreEx) {
                     t.addSuppressed(restoreEx);
                 }
@@ -55,17 +68,27 @@ public class BackupUtil {
         }
     }
 
-    public static void backup(String tableName) throws DaoException {
+    public static void backup(String tableName, Collection<Integer> geneticProfileIds) throws DaoException {
         String backupTable = tableName + "_backup";
-        ProgressMonitor.setCurrentMessage("Backing up " + tableName + " to " + backupTable + "...");
+        ProgressMonitor.setCurrentMessage("Backing up " + tableName + " for genetic profiles " + geneticProfileIds
+            + " to " + backupTable + "...");
 
         Connection con = null;
         try {
+            boolean partitioned = ClickHouseProfilePartitions.hasPartitionedLayout();
             con = JdbcUtil.getDbConnection(BackupUtil.class);
             con.prepareStatement("DROP TABLE IF EXISTS " + backupTable + ";").executeUpdate();
             con.prepareStatement("CREATE TABLE " + backupTable + " AS " + tableName + ";").executeUpdate();
-            con.prepareStatement("INSERT INTO " + backupTable + " SELECT * FROM " + tableName + ";").executeUpdate();
-            
+            if (partitioned) {
+                for (int geneticProfileId : geneticProfileIds) {
+                    con.prepareStatement("ALTER TABLE " + backupTable + " ATTACH PARTITION " + geneticProfileId
+                        + " FROM " + tableName + ";").executeUpdate();
+                }
+            } else if (!geneticProfileIds.isEmpty()) {
+                con.prepareStatement("INSERT INTO " + backupTable + " SELECT * FROM " + tableName
+                    + " WHERE genetic_profile_id IN (" + inList(geneticProfileIds) + ");").executeUpdate();
+            }
+
             ProgressMonitor.setCurrentMessage(tableName + " successfully backed up.");
         } catch (SQLException e) {
             ProgressMonitor.logWarning("Failed to create a backup table for " + tableName);
@@ -75,14 +98,24 @@ public class BackupUtil {
         }
     }
 
-    public static void restore(String tableName) throws DaoException {
+    public static void restore(String tableName, Collection<Integer> geneticProfileIds) throws DaoException {
         String backupTable = tableName + "_backup";
         ProgressMonitor.setCurrentMessage("Restoring " + tableName + " from " + backupTable + "...");
 
         Connection con = null;
         try {
+            boolean partitioned = ClickHouseProfilePartitions.hasPartitionedLayout();
             con = JdbcUtil.getDbConnection(BackupUtil.class);
-            con.prepareStatement("EXCHANGE TABLES " + backupTable + " AND " + tableName + ";").executeUpdate();
+            if (partitioned) {
+                for (int geneticProfileId : geneticProfileIds) {
+                    con.prepareStatement("ALTER TABLE " + tableName + " REPLACE PARTITION " + geneticProfileId
+                        + " FROM " + backupTable + ";").executeUpdate();
+                }
+            } else if (!geneticProfileIds.isEmpty()) {
+                con.prepareStatement("DELETE FROM " + tableName
+                    + " WHERE genetic_profile_id IN (" + inList(geneticProfileIds) + ");").executeUpdate();
+                con.prepareStatement("INSERT INTO " + tableName + " SELECT * FROM " + backupTable + ";").executeUpdate();
+            }
 
             ProgressMonitor.setCurrentMessage(tableName + " successfully restored.");
         } catch (SQLException e) {
@@ -106,4 +139,8 @@ public class BackupUtil {
             JdbcUtil.closeAll(BackupUtil.class, con, null, null);
         }
     }
+
+    private static String inList(Collection<Integer> geneticProfileIds) {
+        return geneticProfileIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
 }
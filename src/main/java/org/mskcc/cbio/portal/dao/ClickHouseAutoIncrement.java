@@ -38,15 +38,28 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Sequence manager that keeps counters in memory and persists the high-water mark
- * in ClickHouse on shutdown so ids are never reused even if rows are deleted.
+ * Sequence manager that leases blocks of ids from {@code cbioportal_sequence_lease} and hands
+ * them out from memory, so ids are never reused even if rows are deleted, and several importer
+ * processes can allocate from the same sequence at once.
+ * <p>
+ * A lease is taken by reading the high-water mark H, inserting a row (sequence, H + block, owner)
+ * and then checking that no other owner has a row above H. ClickHouse has no transactions, so
+ * this insert-then-verify is the compare-and-set: of two processes racing for the same H at most
+ * one sees itself alone above H, and the loser retries from the new high-water mark. This only
+ * holds if no lease row is ever merged away, so the table is a plain MergeTree; the former
+ * {@code cbioportal_sequence_state} table was a ReplacingMergeTree keyed by sequence name alone,
+ * which kept an arbitrary row per sequence, and its high-water marks are copied over once. The block
+ * grows while ids are consumed quickly and shrinks when a block lasts long, so a bulk import
+ * needs only a handful of leases while a single new study wastes few ids.
  */
 public final class ClickHouseAutoIncrement {
 
@@ -65,11 +78,46 @@ public final class ClickHouseAutoIncrement {
         }
     }
 
+    /**
+     * Ids {@code next} .. {@code last} owned by this process. Handing them out is lock-free.
+     */
+    private static final class Lease {
+        private final AtomicLong next;
+        private final long last;
+        private final long blockSize;
+        private final long leasedAtMillis;
+
+        private Lease(long first, long last, long leasedAtMillis) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+            this.blockSize = last - first + 1;
+            this.leasedAtMillis = leasedAtMillis;
+        }
+
+        /**
+         * @return the next id, or -1 once the lease is used up
+         */
+        private long take() {
+            long id = next.getAndIncrement();
+            return id <= last ? id : -1;
+        }
+    }
+
+    static final long MIN_BLOCK_SIZE = 1;
+    static final long MAX_BLOCK_SIZE = 65536;
+    // a block used up faster than this doubles the next one; one that lasted ten times longer halves it
+    static final long FAST_LEASE_MILLIS = 2000;
+    private static final int MAX_LEASE_ATTEMPTS = 20;
+
     private static final Map<String, SequenceConfig> CONFIG = new ConcurrentHashMap<>();
-    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
-    private static final String SEQUENCE_TABLE = "cbioportal_sequence_state";
+    private static final Map<String, Lease> LEASES = new ConcurrentHashMap<>();
+    // highest id of the table itself, read once per sequence in case rows were written without a lease
+    private static final Map<String, Long> TABLE_MAX = new ConcurrentHashMap<>();
+    private static final String SEQUENCE_TABLE = "cbioportal_sequence_lease";
+    private static final String LEGACY_SEQUENCE_TABLE = "cbioportal_sequence_state";
+    private static final String OWNER = UUID.randomUUID().toString();
+    private static final AtomicLong LEASE_COUNTER = new AtomicLong();
     private static final AtomicBoolean SEQUENCE_TABLE_READY = new AtomicBoolean(false);
-    private static final AtomicBoolean SHUTDOWN_HOOK_REGISTERED = new AtomicBoolean(false);
 
     static {
         register("seq_reference_genome", "reference_genome", "reference_genome_id");
@@ -90,49 +138,80 @@ public final class ClickHouseAutoIncrement {
         register("seq_copy_number_seg", "copy_number_seg", "seg_id");
         register("seq_copy_number_seg_file", "copy_number_seg_file", "seg_file_id");
         register("seq_clinical_event", "clinical_event", "clinical_event_id");
-        registerShutdownHook();
     }
 
     private static void register(String sequenceName, String tableName, String columnName) {
         CONFIG.put(sequenceName, new SequenceConfig(tableName, columnName.toLowerCase(Locale.ROOT)));
     }
 
-    private static void registerShutdownHook() {
-        if (!SHUTDOWN_HOOK_REGISTERED.compareAndSet(false, true)) {
-            return;
-        }
-        Runtime.getRuntime().addShutdownHook(
-            new Thread(ClickHouseAutoIncrement::persistAllSequences, "clickhouse-sequence-persist"));
-    }
-
     public static long nextId(String sequenceName) throws DaoException {
         SequenceConfig config = CONFIG.get(sequenceName);
         if (config == null) {
             throw new DaoException("Unknown sequence: " + sequenceName);
         }
-        AtomicLong counter = COUNTERS.get(sequenceName);
-        if (counter == null) {
-            synchronized (ClickHouseAutoIncrement.class) {
-                counter = COUNTERS.get(sequenceName);
-                if (counter == null) {
-                    long current = initializeCounter(sequenceName, config);
-                    counter = new AtomicLong(current);
-                    COUNTERS.put(sequenceName, counter);
+        Lease lease = LEASES.get(sequenceName);
+        if (lease != null) {
+            long id = lease.take();
+            if (id > 0) {
+                return id;
+            }
+        }
+        synchronized (config) {
+            // another thread may have renewed the lease while this one waited
+            lease = LEASES.get(sequenceName);
+            while (true) {
+                if (lease != null) {
+                    long id = lease.take();
+                    if (id > 0) {
+                        return id;
+                    }
                 }
+                lease = leaseBlock(sequenceName, config, lease);
+                LEASES.put(sequenceName, lease);
             }
         }
-        return counter.incrementAndGet();
     }
 
-    private static long initializeCounter(String sequenceName, SequenceConfig config) throws DaoException {
+    static long nextBlockSize(long previousBlockSize, long elapsedMillis) {
+        if (elapsedMillis < FAST_LEASE_MILLIS) {
+            return Math.min(previousBlockSize * 2, MAX_BLOCK_SIZE);
+        }
+        if (elapsedMillis > 10 * FAST_LEASE_MILLIS) {
+            return Math.max(previousBlockSize / 2, MIN_BLOCK_SIZE);
+        }
+        return previousBlockSize;
+    }
+
+    private static Lease leaseBlock(String sequenceName, SequenceConfig config, Lease previous) throws DaoException {
         ensureSequenceTableExists();
-        long persisted = fetchPersistedMax(sequenceName);
-        long tableMax = fetchCurrentMax(config);
-        long current = Math.max(persisted, tableMax);
-        if (current != persisted) {
-            persistLastValue(sequenceName, current);
+        long now = System.currentTimeMillis();
+        long blockSize = previous == null ? MIN_BLOCK_SIZE : nextBlockSize(previous.blockSize, now - previous.leasedAtMillis);
+        long tableMax = TABLE_MAX.containsKey(sequenceName) ? TABLE_MAX.get(sequenceName) : fetchCurrentMax(config);
+        TABLE_MAX.put(sequenceName, tableMax);
+        for (int attempt = 1; attempt <= MAX_LEASE_ATTEMPTS; attempt++) {
+            long highWater = Math.max(fetchPersistedMax(sequenceName), tableMax);
+            if (previous != null) {
+                highWater = Math.max(highWater, previous.last);
+            }
+            String owner = OWNER + ":" + LEASE_COUNTER.incrementAndGet();
+            persistLease(sequenceName, highWater + blockSize, owner);
+            if (isSoleLeaseAbove(sequenceName, highWater, owner)) {
+                return new Lease(highWater + 1, highWater + blockSize, now);
+            }
+            LOG.debug("Lease of {} ids above {} for {} lost to another process, retrying.", blockSize, highWater, sequenceName);
+            backOff(attempt);
+        }
+        throw new DaoException("Could not lease ids for " + sequenceName + " after " + MAX_LEASE_ATTEMPTS
+            + " attempts; too many processes are allocating from it at once.");
+    }
+
+    private static void backOff(int attempt) throws DaoException {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, 10L * attempt + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException(e);
         }
-        return current;
     }
 
     private static void ensureSequenceTableExists() throws DaoException {
@@ -147,13 +226,26 @@ public final class ClickHouseAutoIncrement {
             PreparedStatement stmt = null;
             try {
                 con = JdbcUtil.getDbConnection(ClickHouseAutoIncrement.class);
+                // every lease row must survive merges, so this is not a ReplacingMergeTree
                 stmt = con.prepareStatement(
                     "CREATE TABLE IF NOT EXISTS " + SEQUENCE_TABLE + " ("
                         + "sequence_name String, "
-                        + "last_value UInt64"
-                        + ") ENGINE = ReplacingMergeTree "
-                        + "ORDER BY sequence_name");
+                        + "last_value UInt64, "
+                        + "lease_owner String DEFAULT ''"
+                        + ") ENGINE = MergeTree "
+                        + "ORDER BY (sequence_name, last_value)");
                 stmt.execute();
+                stmt.close();
+                stmt = null;
+                if (legacySequenceTableExists(con)) {
+                    // carry the high-water marks over while the lease table is still empty; a
+                    // concurrent process doing the same only adds rows with the same values
+                    stmt = con.prepareStatement(
+                        "INSERT INTO " + SEQUENCE_TABLE + " (sequence_name, last_value, lease_owner) "
+                            + "SELECT sequence_name, max(last_value), 'migrated' FROM " + LEGACY_SEQUENCE_TABLE
+                            + " WHERE (SELECT count() FROM " + SEQUENCE_TABLE + ") = 0 GROUP BY sequence_name");
+                    stmt.execute();
+                }
                 SEQUENCE_TABLE_READY.set(true);
             } catch (SQLException ex) {
                 throw new DaoException(ex);
@@ -163,6 +255,15 @@ public final class ClickHouseAutoIncrement {
         }
     }
 
+    private static boolean legacySequenceTableExists(Connection con) throws SQLException {
+        try (PreparedStatement stmt = con.prepareStatement(
+                "SELECT count() FROM system.tables WHERE database = currentDatabase() AND name = '"
+                    + LEGACY_SEQUENCE_TABLE + "'");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() && rs.getLong(1) > 0;
+        }
+    }
+
     private static long fetchPersistedMax(String sequenceName) throws DaoException {
         Connection con = null;
         PreparedStatement stmt = null;
@@ -203,15 +304,16 @@ public final class ClickHouseAutoIncrement {
         }
     }
 
-    private static void persistLastValue(String sequenceName, long value) throws DaoException {
+    private static void persistLease(String sequenceName, long lastValue, String owner) throws DaoException {
         Connection con = null;
         PreparedStatement stmt = null;
         try {
             con = JdbcUtil.getDbConnection(ClickHouseAutoIncrement.class);
             stmt = con.prepareStatement(
-                "INSERT INTO " + SEQUENCE_TABLE + " (sequence_name, last_value) VALUES (?, ?)");
+                "INSERT INTO " + SEQUENCE_TABLE + " (sequence_name, last_value, lease_owner) VALUES (?, ?, ?)");
             stmt.setString(1, sequenceName);
-            stmt.setLong(2, value);
+            stmt.setLong(2, lastValue);
+            stmt.setString(3, owner);
             stmt.executeUpdate();
         } catch (SQLException ex) {
             throw new DaoException(ex);
@@ -220,32 +322,37 @@ public final class ClickHouseAutoIncrement {
         }
     }
 
-    private static void persistAllSequences() {
-        if (COUNTERS.isEmpty()) {
-            return;
-        }
+    /**
+     * @return true if the only row above {@code highWater} is the one just written by {@code owner}
+     */
+    private static boolean isSoleLeaseAbove(String sequenceName, long highWater, String owner) throws DaoException {
+        Connection con = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
         try {
-            ensureSequenceTableExists();
-        } catch (DaoException ex) {
-            LOG.warn("Failed to ensure sequence table during shutdown persistence.", ex);
-            return;
-        }
-        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
-            long value = entry.getValue().get();
-            try {
-                persistLastValue(entry.getKey(), value);
-            } catch (DaoException ex) {
-                LOG.warn(
-                    "Failed to persist sequence {} with value {} during shutdown.",
-                    entry.getKey(),
-                    value,
-                    ex);
-            }
+            con = JdbcUtil.getDbConnection(ClickHouseAutoIncrement.class);
+            stmt = con.prepareStatement(
+                "SELECT countIf(lease_owner = ?), countIf(lease_owner != ?) FROM " + SEQUENCE_TABLE
+                    + " WHERE sequence_name = ? AND last_value > ?");
+            stmt.setString(1, owner);
+            stmt.setString(2, owner);
+            stmt.setString(3, sequenceName);
+            stmt.setLong(4, highWater);
+            rs = stmt.executeQuery();
+            return rs.next() && rs.getLong(1) == 1 && rs.getLong(2) == 0;
+        } catch (SQLException ex) {
+            throw new DaoException(ex);
+        } finally {
+            JdbcUtil.closeAll(ClickHouseAutoIncrement.class, con, stmt, rs);
         }
     }
 
+    /**
+     * Forgets all leases; the unused rest of each leased block is skipped, never reissued.
+     */
     public static void resetCounters() {
-        COUNTERS.clear();
+        LEASES.clear();
+        TABLE_MAX.clear();
         SEQUENCE_TABLE_READY.set(false);
     }
 
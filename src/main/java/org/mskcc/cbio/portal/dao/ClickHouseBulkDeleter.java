@@ -32,7 +32,6 @@
 
 package org.mskcc.cbio.portal.dao;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -44,6 +43,12 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /**
  * Bulk deleter that buffers IDs in memory, streams them into a ClickHouse staging
@@ -51,6 +56,10 @@ import java.util.Map;
  * staging_table) statement. The staging table is a real MergeTree table (not temporary)
  * so that it persists across HTTP requests on ClickHouse Cloud.
  *
+ * Deleters that were given the same set of IDs (e.g. every table keyed by sample id)
+ * share one staging table, and the deletes themselves run concurrently since each one
+ * only reads its own staging table.
+ *
  * Mirrors the structure of ClickHouseBulkLoader.
  */
 public class ClickHouseBulkDeleter {
@@ -59,13 +68,12 @@ public class ClickHouseBulkDeleter {
 
     private final String targetTable;
     private final String idColumn;
-    private final String stagingTable;
     private final List<Long> pendingIds = new ArrayList<>();
+    private String stagingTable;
 
     private ClickHouseBulkDeleter(String targetTable, String idColumn) {
         this.targetTable = targetTable;
         this.idColumn = idColumn;
-        this.stagingTable = "staging_delete_" + targetTable;
     }
 
     public static ClickHouseBulkDeleter getBulkDeleter(String targetTable, String idColumn) {
@@ -83,78 +91,203 @@ public class ClickHouseBulkDeleter {
         }
     }
 
+    /**
+     * Deletes every pending ID and forgets all deleters.
+     * <p>
+     * One staging table is loaded per distinct set of IDs, then every target table is
+     * deleted from on its own pooled connection, at most {@code db.bulk_load_flush_threads}
+     * at a time. Staging tables are dropped afterwards even if a delete failed; every
+     * failed table is reported.
+     *
+     * @return number of rows reported deleted
+     */
     public static int flushAll() throws DaoException {
-        int totalDeleted = 0;
-        for (ClickHouseBulkDeleter deleter : BULK_DELETERS.values()) {
-            totalDeleted += deleter.flushPendingIds();
+        List<StagingTable> stagingTables = planStagingTables(BULK_DELETERS.values());
+        try {
+            Map<String, Throwable> failures = new LinkedHashMap<>();
+            runConcurrently(stagingTables, staging -> staging.name, StagingTable::load, failures);
+            if (!failures.isEmpty()) {
+                throw ClickHouseBulkLoader.flushFailure("bulk delete", failures);
+            }
+            List<ClickHouseBulkDeleter> deleters = new ArrayList<>();
+            for (StagingTable staging : stagingTables) {
+                deleters.addAll(staging.deleters);
+            }
+            int totalDeleted = runConcurrently(deleters, deleter -> deleter.targetTable, ClickHouseBulkDeleter::delete, failures);
+            if (!failures.isEmpty()) {
+                throw ClickHouseBulkLoader.flushFailure("bulk delete", failures);
+            }
+            return totalDeleted;
+        } finally {
+            dropStagingTables(stagingTables);
+            BULK_DELETERS.clear();
         }
+    }
+
+    /**
+     * Forgets every deleter without deleting its pending IDs.
+     */
+    public static void discardAll() {
         BULK_DELETERS.clear();
-        return totalDeleted;
     }
 
-    private int flushPendingIds() throws DaoException {
-        if (pendingIds.isEmpty()) {
-            return 0;
+    /**
+     * Groups deleters with identical ID sets, ignoring order and duplicates, so each
+     * group is staged once. Deleters without pending IDs are left out.
+     */
+    static List<StagingTable> planStagingTables(Collection<ClickHouseBulkDeleter> deleters) {
+        Map<List<Long>, StagingTable> byIds = new LinkedHashMap<>();
+        for (ClickHouseBulkDeleter deleter : deleters) {
+            if (deleter.pendingIds.isEmpty()) {
+                continue;
+            }
+            List<Long> ids = new ArrayList<>(new TreeSet<>(deleter.pendingIds));
+            StagingTable staging = byIds.computeIfAbsent(ids, k -> new StagingTable("staging_delete_" + deleter.targetTable, k));
+            staging.deleters.add(deleter);
+            deleter.stagingTable = staging.name;
         }
+        return new ArrayList<>(byIds.values());
+    }
 
-        Connection con = null;
-        try {
-            con = JdbcUtil.getDbConnection(ClickHouseBulkDeleter.class);
+    private interface Task<T> {
+        int run(T item) throws DaoException;
+    }
 
-            // Drop any leftover staging table from a previous crashed run
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "DROP TABLE IF EXISTS " + stagingTable)) {
-                stmt.executeUpdate();
+    private static <T> int runConcurrently(List<T> items, Function<T, String> name, Task<T> task,
+                                           Map<String, Throwable> failures) {
+        int total = 0;
+        int parallelism = ClickHouseBulkLoader.getFlushParallelism();
+        if (items.size() <= 1 || parallelism <= 1) {
+            for (T item : items) {
+                try {
+                    total += task.run(item);
+                } catch (DaoException | RuntimeException e) {
+                    failures.put(name.apply(item), e);
+                }
             }
+            return total;
+        }
 
-            // Create staging table
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "CREATE TABLE " + stagingTable + " (id Int64) ENGINE = MergeTree() ORDER BY id")) {
-                stmt.executeUpdate();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, items.size()), runnable -> {
+            Thread thread = new Thread(runnable, "clickhouse-bulk-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<T, Future<Integer>> futures = new LinkedHashMap<>();
+            for (T item : items) {
+                futures.put(item, executor.submit(() -> task.run(item)));
             }
-
-            // Insert IDs into staging table via TSV stream
-            byte[] payload = buildTsvPayload();
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "INSERT INTO " + stagingTable + " (id) FORMAT TSVWithNames")) {
-                stmt.setBinaryStream(1, new ByteArrayInputStream(payload));
-                stmt.executeUpdate();
+            for (Map.Entry<T, Future<Integer>> entry : futures.entrySet()) {
+                try {
+                    total += entry.getValue().get();
+                } catch (ExecutionException e) {
+                    failures.put(name.apply(entry.getKey()), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(name.apply(entry.getKey()), e);
+                }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        return total;
+    }
 
-            // Execute delete via staging table
-            int deleted;
+    private int delete() throws DaoException {
+        Connection con = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseBulkDeleter.class);
             try (PreparedStatement stmt = con.prepareStatement(
                     "DELETE FROM " + targetTable + " WHERE " + idColumn + " IN (SELECT id FROM " + stagingTable + ")")) {
-                deleted = stmt.executeUpdate();
+                return stmt.executeUpdate();
             }
-
-            return deleted;
-        } catch (SQLException | IOException e) {
+        } catch (SQLException e) {
             throw new DaoException(e);
         } finally {
-            // Always drop staging table
-            try {
-                if (con != null) {
-                    try (PreparedStatement drop = con.prepareStatement(
-                            "DROP TABLE IF EXISTS " + stagingTable)) {
-                        drop.executeUpdate();
-                    }
+            JdbcUtil.closeAll(ClickHouseBulkDeleter.class, con, null, null);
+        }
+    }
+
+    private static void dropStagingTables(List<StagingTable> stagingTables) {
+        if (stagingTables.isEmpty()) {
+            return;
+        }
+        Connection con = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseBulkDeleter.class);
+            for (StagingTable staging : stagingTables) {
+                try (PreparedStatement drop = con.prepareStatement("DROP TABLE IF EXISTS " + staging.name)) {
+                    drop.executeUpdate();
+                } catch (SQLException ignored) {
                 }
-            } catch (SQLException ignored) {
             }
+        } catch (SQLException ignored) {
+        } finally {
             JdbcUtil.closeAll(ClickHouseBulkDeleter.class, con, null, null);
-            pendingIds.clear();
+            for (StagingTable staging : stagingTables) {
+                for (ClickHouseBulkDeleter deleter : staging.deleters) {
+                    deleter.pendingIds.clear();
+                }
+            }
         }
     }
 
-    private byte[] buildTsvPayload() throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        // header row
-        buffer.write("id\n".getBytes(StandardCharsets.UTF_8));
-        // data rows
-        for (Long id : pendingIds) {
-            buffer.write((id.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+    /**
+     * One staging table holding an ID set shared by one or more deleters.
+     */
+    static final class StagingTable {
+        final String name;
+        final List<Long> ids;
+        final List<ClickHouseBulkDeleter> deleters = new ArrayList<>();
+
+        private StagingTable(String name, List<Long> ids) {
+            this.name = name;
+            this.ids = ids;
+        }
+
+        private int load() throws DaoException {
+            Connection con = null;
+            try {
+                con = JdbcUtil.getDbConnection(ClickHouseBulkDeleter.class);
+
+                // Drop any leftover staging table from a previous crashed run
+                try (PreparedStatement stmt = con.prepareStatement(
+                        "DROP TABLE IF EXISTS " + name)) {
+                    stmt.executeUpdate();
+                }
+
+                try (PreparedStatement stmt = con.prepareStatement(
+                        "CREATE TABLE " + name + " (id Int64) ENGINE = MergeTree() ORDER BY id")) {
+                    stmt.executeUpdate();
+                }
+
+                // Insert IDs into staging table via TSV (or RowBinary) stream
+                boolean rowBinary = ClickHouseBulkLoader.isRowBinaryFormat();
+                byte[] payload = rowBinary ? ClickHouseRowBinaryEncoder.encodeInt64Column(ids) : buildTsvPayload();
+                try (PreparedStatement stmt = con.prepareStatement(
+                        "INSERT INTO " + name + " (id) FORMAT " + ClickHouseBulkUploader.idPayloadFormat(rowBinary))) {
+                    ClickHouseCompressedPayload sent = ClickHouseCompressedPayload.bind(stmt, 1, payload, ClickHouseBulkUploader.idPayloadFormat(rowBinary));
+                    stmt.executeUpdate();
+                    sent.report(name);
+                }
+                return 0;
+            } catch (SQLException | IOException e) {
+                throw new DaoException(e);
+            } finally {
+                JdbcUtil.closeAll(ClickHouseBulkDeleter.class, con, null, null);
+            }
+        }
+
+        private byte[] buildTsvPayload() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            // header row
+            buffer.write("id\n".getBytes(StandardCharsets.UTF_8));
+            // data rows
+            for (Long id : ids) {
+                buffer.write((id.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return buffer.toByteArray();
         }
-        return buffer.toByteArray();
     }
 }
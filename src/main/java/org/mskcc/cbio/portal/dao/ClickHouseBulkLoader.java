@@ -33,64 +33,258 @@
 package org.mskcc.cbio.portal.dao;
 
 import org.mskcc.cbio.portal.dao.DaoException;
+import org.mskcc.cbio.portal.util.DatabaseProperties;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Minimal bulk loader that buffers rows in memory and streams them to ClickHouse via
- * TSVWithNames over the existing JDBC connection. This replaces the previous legacy
- * LOAD DATA LOCAL INFILE implementation.
+ * Minimal bulk loader that streams rows to ClickHouse over the existing JDBC connection.
+ * This replaces the previous legacy LOAD DATA LOCAL INFILE implementation.
+ * <p>
+ * Rows are encoded as soon as they are handed to {@link #insertRecord(String...)} into a
+ * bounded per-table chunk buffer. When the chunk reaches the configured row count
+ * ({@code db.bulk_load_max_rows}) or byte size ({@code db.bulk_load_max_bytes}) it is
+ * sent to ClickHouse on its own, so heap usage no longer grows with the size of the input
+ * file. A threshold of 0 or less disables that particular trigger.
+ * <p>
+ * Rows are written as TabSeparated by default. With {@code db.bulk_load_format=RowBinary}
+ * the loader describes the table before the first row and writes typed RowBinary
+ * instead; tables with column types {@link ClickHouseRowBinaryEncoder} cannot map keep
+ * using TabSeparated. {@link #insertTypedRecord(Object...)} lets callers pass numbers
+ * without turning them into Strings first.
  * <p>
  * The loader keeps the public API intact so that the various DAO classes do not need to
- * change their interaction pattern.
+ * change their interaction pattern. Because {@code insertRecord} does not declare
+ * {@link DaoException}, a failed automatic flush is remembered and rethrown by the next
+ * {@link #flushAll()}.
+ * <p>
+ * The set of loaders is guarded by the class lock, so loaders may be looked up, flushed
+ * and discarded from any thread. The rows of one table must still come from one thread
+ * at a time; importers insert from their main thread only.
  */
 public class ClickHouseBulkLoader {
 
+    private static final int DEFAULT_MAX_BUFFERED_ROWS = 100_000;
+    private static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+    private static final String ROW_BINARY_FORMAT = "RowBinary";
+    private static final int DEFAULT_FLUSH_PARALLELISM = 4;
+
+    // guarded by the class lock
     private static final Map<String, ClickHouseBulkLoader> BULK_LOADERS = new LinkedHashMap<>();
+    private static final long FLUSH_THREAD_KEEP_ALIVE_SECONDS = 60;
 
     private static boolean bulkLoad = false;
     private static boolean relaxedMode = false;
+    private static final int CONFIGURED_MAX_BUFFERED_ROWS = readIntProperty(
+        DatabaseProperties.getInstance().getDbBulkLoadMaxRows(), DEFAULT_MAX_BUFFERED_ROWS);
+    private static final long CONFIGURED_MAX_BUFFERED_BYTES = readLongProperty(
+        DatabaseProperties.getInstance().getDbBulkLoadMaxBytes(), DEFAULT_MAX_BUFFERED_BYTES);
+    private static final int CONFIGURED_FLUSH_PARALLELISM = readIntProperty(
+        DatabaseProperties.getInstance().getDbBulkLoadFlushThreads(), DEFAULT_FLUSH_PARALLELISM);
+
+    private static int maxBufferedRows = CONFIGURED_MAX_BUFFERED_ROWS;
+    private static long maxBufferedBytes = CONFIGURED_MAX_BUFFERED_BYTES;
+    private static boolean rowBinary = isRowBinaryFormat(DatabaseProperties.getInstance().getDbBulkLoadFormat());
+    private static int flushParallelism = CONFIGURED_FLUSH_PARALLELISM;
+    // shared by all flushes, sized to flushParallelism; idle threads end after a while
+    private static ThreadPoolExecutor flushExecutor = null;
 
     private final String tableName;
-    private final List<String[]> pendingRecords = new ArrayList<>();
+    private final ChunkBuffer chunk = new ChunkBuffer();
+    private ClickHouseRowEncoder encoder = null;
     private String[] fieldNames = null;
+    private List<String> resolvedColumns = null;
+    private int bufferedRows = 0;
+    private int recordWidth = -1;
+    private int mismatchedWidth = -1;
+    private int flushedRows = 0;
+    private DaoException deferredFailure = null;
 
     private ClickHouseBulkLoader(String tableName) {
         this.tableName = tableName;
     }
 
-    public static ClickHouseBulkLoader getClickHouseBulkLoader(String tableName) {
+    public static synchronized ClickHouseBulkLoader getClickHouseBulkLoader(String tableName) {
         return BULK_LOADERS.computeIfAbsent(tableName, ClickHouseBulkLoader::new);
     }
 
-    public static int flushAll() throws DaoException {
+    /**
+     * Sends every buffered row to ClickHouse and forgets all loaders.
+     * <p>
+     * Tables are flushed in waves: a table is only sent once every table it references
+     * through a foreign key (see {@link ClickHouseConstraintChecker}) has been sent, and
+     * the tables of one wave are sent concurrently on separate pooled connections, at most
+     * {@code db.bulk_load_flush_threads} at a time. If a table fails, the rest of its wave
+     * still completes, later waves are skipped and every failed table is reported.
+     *
+     * @return number of rows inserted since the previous call, including rows sent by
+     *         automatic size-triggered flushes
+     * @throws DaoException if this or an earlier automatic flush failed
+     */
+    public static synchronized int flushAll() throws DaoException {
         int totalInserted = 0;
-        for (ClickHouseBulkLoader loader : BULK_LOADERS.values()) {
-            totalInserted += loader.flushPendingRecords();
+        try {
+            Map<String, Throwable> failures = new LinkedHashMap<>();
+            for (List<ClickHouseBulkLoader> wave : planFlushWaves(new ArrayList<>(BULK_LOADERS.values()))) {
+                totalInserted += flushWave(wave, failures);
+                if (!failures.isEmpty()) {
+                    throw flushFailure("bulk load", failures);
+                }
+            }
+        } finally {
+            BULK_LOADERS.clear();
         }
+        return totalInserted;
+    }
+
+    /**
+     * Forgets every loader without sending its buffered rows, e.g. after a failed import
+     * step whose rows must not be written by the next one.
+     */
+    public static synchronized void discardAll() {
         BULK_LOADERS.clear();
+    }
+
+    /**
+     * Groups loaders so that each table comes in a later wave than the tables it
+     * references. Within a wave, loaders keep the order in which they were created.
+     */
+    static List<List<ClickHouseBulkLoader>> planFlushWaves(List<ClickHouseBulkLoader> loaders) {
+        Set<String> remaining = new LinkedHashSet<>();
+        for (ClickHouseBulkLoader loader : loaders) {
+            remaining.add(loader.tableName.toLowerCase(Locale.ROOT));
+        }
+        List<List<ClickHouseBulkLoader>> waves = new ArrayList<>();
+        List<ClickHouseBulkLoader> pending = new ArrayList<>(loaders);
+        while (!pending.isEmpty()) {
+            List<ClickHouseBulkLoader> wave = new ArrayList<>();
+            for (ClickHouseBulkLoader loader : pending) {
+                Set<String> parents = ClickHouseConstraintChecker.referencedTables(loader.tableName);
+                if (Collections.disjoint(parents, remaining)) {
+                    wave.add(loader);
+                }
+            }
+            if (wave.isEmpty()) {
+                // reference cycle among pending tables: nothing can go first, send them together
+                wave.addAll(pending);
+            }
+            for (ClickHouseBulkLoader loader : wave) {
+                remaining.remove(loader.tableName.toLowerCase(Locale.ROOT));
+            }
+            pending.removeAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    private static int flushWave(List<ClickHouseBulkLoader> wave, Map<String, Throwable> failures) {
+        int totalInserted = 0;
+        if (wave.size() == 1 || flushParallelism <= 1) {
+            for (ClickHouseBulkLoader loader : wave) {
+                try {
+                    totalInserted += loader.flushRemainingRecords();
+                } catch (DaoException | RuntimeException e) {
+                    failures.put(loader.tableName, e);
+                }
+            }
+            return totalInserted;
+        }
+
+        ExecutorService executor = flushExecutor();
+        Map<ClickHouseBulkLoader, Future<Integer>> futures = new LinkedHashMap<>();
+        for (ClickHouseBulkLoader loader : wave) {
+            futures.put(loader, executor.submit(loader::flushRemainingRecords));
+        }
+        for (Map.Entry<ClickHouseBulkLoader, Future<Integer>> entry : futures.entrySet()) {
+            try {
+                totalInserted += entry.getValue().get();
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey().tableName, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entry.getValue().cancel(true);
+                failures.put(entry.getKey().tableName, e);
+            }
+        }
         return totalInserted;
     }
 
-    private int flushPendingRecords() throws DaoException {
-        if (pendingRecords.isEmpty()) {
-            return 0;
+    /**
+     * @return the executor flushWave sends tables on, with flushParallelism threads at most
+     */
+    private static ExecutorService flushExecutor() {
+        if (flushExecutor == null || flushExecutor.getMaximumPoolSize() != flushParallelism) {
+            if (flushExecutor != null) {
+                flushExecutor.shutdown();
+            }
+            flushExecutor = new ThreadPoolExecutor(flushParallelism, flushParallelism,
+                FLUSH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "clickhouse-bulk-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            flushExecutor.allowCoreThreadTimeOut(true);
         }
+        return flushExecutor;
+    }
+
+    /**
+     * @param operation what failed, for the message when several tables failed
+     * @param failures  table name to failure
+     */
+    static DaoException flushFailure(String operation, Map<String, Throwable> failures) {
+        if (failures.size() == 1) {
+            Throwable failure = failures.values().iterator().next();
+            return failure instanceof DaoException ? (DaoException) failure : new DaoException(toException(failure));
+        }
+        StringBuilder message = new StringBuilder("DB Error: " + operation + " failed for " + failures.size() + " tables:");
+        for (Map.Entry<String, Throwable> entry : failures.entrySet()) {
+            message.append("\n  `").append(entry.getKey()).append("`: ").append(entry.getValue().getMessage());
+        }
+        DaoException exception = new DaoException(message.toString());
+        failures.values().forEach(exception::addSuppressed);
+        return exception;
+    }
 
-        final int expectedRows = pendingRecords.size();
+    private static Exception toException(Throwable throwable) {
+        return throwable instanceof Exception ? (Exception) throwable : new RuntimeException(throwable);
+    }
+
+    private int flushRemainingRecords() throws DaoException {
+        if (deferredFailure != null) {
+            throw deferredFailure;
+        }
+        flushPendingRecords();
+        return flushedRows;
+    }
+
+    private void flushPendingRecords() throws DaoException {
+        if (bufferedRows == 0) {
+            return;
+        }
+
+        final int expectedRows = bufferedRows;
         Connection con = null;
         PreparedStatement stmt = null;
         try {
@@ -98,45 +292,58 @@ public class ClickHouseBulkLoader {
             List<String> columns = resolveColumnNames(con);
             validateRecordWidths(columns.size());
 
-            byte[] payload = buildTsvPayload(columns);
             stmt = con.prepareStatement(buildInsertStatement(columns));
-            stmt.setBinaryStream(1, new ByteArrayInputStream(payload));
+            ClickHouseCompressedPayload payload = chunk.bind(stmt, encoder.getFormat());
 
             int rowsInserted = stmt.executeUpdate();
             if (rowsInserted <= 0) {
                 rowsInserted = expectedRows;
             }
-            ProgressMonitor.setCurrentMessage(" --> records inserted into `" + tableName + "` table: " + rowsInserted);
+            ProgressMonitor.setCurrentMessage(" --> records inserted into `" + tableName + "` table: " + rowsInserted
+                + payload.summary());
 
             if (!relaxedMode && rowsInserted != expectedRows) {
                 throw new DaoException("DB Error: only " + rowsInserted + " of the " + expectedRows
                     + " records were inserted in `" + tableName + "`.");
             }
 
-            pendingRecords.clear();
-            return rowsInserted;
-        } catch (SQLException | IOException exception) {
+            flushedRows += rowsInserted;
+        } catch (SQLException exception) {
             throw new DaoException(exception);
         } finally {
             JdbcUtil.closeAll(ClickHouseBulkLoader.class, con, stmt, null);
+            chunk.reset();
+            bufferedRows = 0;
+            recordWidth = -1;
+            mismatchedWidth = -1;
         }
     }
 
     private String buildInsertStatement(List<String> columnNames) {
         final String columnsClause = columnNames.isEmpty() ? "" : " (" + String.join(",", columnNames) + ")";
-        return "INSERT INTO " + tableName + columnsClause + " FORMAT TSVWithNames";
+        return "INSERT INTO " + tableName + columnsClause + " FORMAT " + encoder.getFormat();
     }
 
     private List<String> resolveColumnNames(Connection con) throws SQLException, DaoException {
         if (fieldNames != null) {
             return Arrays.asList(fieldNames);
         }
+        if (resolvedColumns != null) {
+            return resolvedColumns;
+        }
+        resolvedColumns = new ArrayList<>(describeTable(con).keySet());
+        return resolvedColumns;
+    }
 
+    /**
+     * @return column name to column type, in table order
+     */
+    private Map<String, String> describeTable(Connection con) throws SQLException, DaoException {
         try (PreparedStatement stmt = con.prepareStatement("DESCRIBE TABLE " + tableName);
              ResultSet rs = stmt.executeQuery()) {
-            List<String> columns = new ArrayList<>();
+            Map<String, String> columns = new LinkedHashMap<>();
             while (rs.next()) {
-                columns.add(rs.getString("name"));
+                columns.put(rs.getString("name"), rs.getString("type"));
             }
             if (columns.isEmpty()) {
                 throw new DaoException("DB Error: unable to resolve columns for `" + tableName + "`.");
@@ -146,51 +353,127 @@ public class ClickHouseBulkLoader {
     }
 
     private void validateRecordWidths(int columnCount) throws DaoException {
-        for (String[] record : pendingRecords) {
-            if (record.length != columnCount) {
-                throw new DaoException("DB Error: record column count (" + record.length + ") does not match expected column count ("
-                    + columnCount + ") for `" + tableName + "`.");
-            }
+        int offendingWidth = mismatchedWidth >= 0 ? mismatchedWidth : recordWidth;
+        if (mismatchedWidth >= 0 || recordWidth != columnCount) {
+            throw new DaoException("DB Error: record column count (" + offendingWidth + ") does not match expected column count ("
+                + columnCount + ") for `" + tableName + "`.");
         }
     }
 
-    private byte[] buildTsvPayload(List<String> columnNames) throws DaoException, IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        writeRow(buffer, columnNames);
-        for (String[] record : pendingRecords) {
-            writeRow(buffer, record);
+    /**
+     * Picks the row encoder for this table. RowBinary needs the column types up front, so
+     * the table is described once before the first row; any failure to do so, or a column
+     * type RowBinary cannot represent, falls back to TabSeparated.
+     */
+    private ClickHouseRowEncoder chooseEncoder() {
+        if (!rowBinary) {
+            return new ClickHouseTsvRowEncoder();
         }
-        return buffer.toByteArray();
-    }
-
-    private void writeRow(ByteArrayOutputStream buffer, List<String> values) throws IOException {
-        for (int i = 0; i < values.size(); i++) {
-            if (i > 0) {
-                buffer.write('\t');
+        Connection con = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseBulkLoader.class);
+            Map<String, String> columnTypes = describeTable(con);
+            List<String> columns = fieldNames != null ? Arrays.asList(fieldNames) : new ArrayList<>(columnTypes.keySet());
+            List<String> types = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                String type = columnTypes.get(column);
+                if (type == null) {
+                    return tsvFallback("unknown column " + column);
+                }
+                types.add(type);
+            }
+            ClickHouseRowBinaryEncoder rowBinaryEncoder = ClickHouseRowBinaryEncoder.forColumnTypes(types);
+            if (rowBinaryEncoder == null) {
+                return tsvFallback("unsupported column type in " + types);
+            }
+            if (fieldNames == null) {
+                resolvedColumns = columns;
             }
-            buffer.write(escapeTsvValue(values.get(i)).getBytes(StandardCharsets.UTF_8));
+            return rowBinaryEncoder;
+        } catch (SQLException | DaoException e) {
+            return tsvFallback(e.getMessage());
+        } finally {
+            JdbcUtil.closeAll(ClickHouseBulkLoader.class, con, null, null);
         }
-        buffer.write('\n');
     }
 
-    private void writeRow(ByteArrayOutputStream buffer, String[] values) throws DaoException, IOException {
-        if (values == null) {
-            throw new DaoException("DB Error: encountered null record while preparing bulk insert for `" + tableName + "`.");
-        }
-        for (int i = 0; i < values.length; i++) {
-            if (i > 0) {
-                buffer.write('\t');
-            }
-            buffer.write(escapeTsvValue(values[i]).getBytes(StandardCharsets.UTF_8));
-        }
-        buffer.write('\n');
+    private ClickHouseRowEncoder tsvFallback(String reason) {
+        ProgressMonitor.logDebug("Bulk load of `" + tableName + "` falls back to TabSeparated: " + reason);
+        return new ClickHouseTsvRowEncoder();
     }
 
     public void insertRecord(String... fieldValues) {
+        insertTypedRecord((Object[]) fieldValues);
+    }
+
+    /**
+     * Same as {@link #insertRecord(String...)}, but values may also be boxed numbers or
+     * Booleans, which RowBinary writes without a round trip through String.
+     */
+    public void insertTypedRecord(Object... fieldValues) {
         if (fieldValues.length == 0) {
             return;
         }
-        pendingRecords.add(fieldValues);
+        if (deferredFailure != null) {
+            // the table is already broken; keep memory bounded until flushAll() reports it
+            return;
+        }
+        if (encoder == null) {
+            encoder = chooseEncoder();
+        }
+        if (recordWidth < 0) {
+            recordWidth = fieldValues.length;
+        } else if (fieldValues.length != recordWidth && mismatchedWidth < 0) {
+            mismatchedWidth = fieldValues.length;
+        }
+        try {
+            encoder.writeRow(fieldValues, chunk);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            deferredFailure = new DaoException("DB Error: unable to encode record for `" + tableName + "`: " + e.getMessage());
+            return;
+        }
+        bufferedRows++;
+
+        if ((maxBufferedRows > 0 && bufferedRows >= maxBufferedRows)
+            || (maxBufferedBytes > 0 && chunk.size() >= maxBufferedBytes)) {
+            try {
+                flushPendingRecordsAfterParents(new HashSet<>());
+            } catch (DaoException e) {
+                deferredFailure = e;
+            }
+        }
+    }
+
+    /**
+     * Automatic flushes send one table in the middle of an import, so the rows still
+     * buffered for the tables it references (see {@link ClickHouseConstraintChecker}) are
+     * sent first, keeping the parent-before-child order of {@link #flushAll()}.
+     *
+     * @param visited loaders already flushed or being flushed, to stop at reference cycles
+     */
+    private void flushPendingRecordsAfterParents(Set<ClickHouseBulkLoader> visited) throws DaoException {
+        visited.add(this);
+        Set<String> parents = ClickHouseConstraintChecker.referencedTables(tableName);
+        for (ClickHouseBulkLoader loader : loaders()) {
+            if (visited.contains(loader) || !parents.contains(loader.tableName.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            if (loader.deferredFailure != null) {
+                throw new DaoException("DB Error: `" + tableName + "` was not sent because referenced table `"
+                    + loader.tableName + "` failed: " + loader.deferredFailure.getMessage());
+            }
+            try {
+                loader.flushPendingRecordsAfterParents(visited);
+            } catch (DaoException e) {
+                loader.deferredFailure = e;
+                throw e;
+            }
+        }
+        flushPendingRecords();
+    }
+
+    private static synchronized List<ClickHouseBulkLoader> loaders() {
+        return new ArrayList<>(BULK_LOADERS.values());
     }
 
     public static boolean isBulkLoad() {
@@ -213,36 +496,97 @@ public class ClickHouseBulkLoader {
         relaxedMode = false;
     }
 
+    public static boolean isRelaxedMode() {
+        return relaxedMode;
+    }
+
+    /**
+     * Overrides the automatic flush thresholds configured in application.properties.
+     *
+     * @param maxRows  rows buffered per table before an automatic flush, 0 or less to disable
+     * @param maxBytes encoded bytes buffered per table before an automatic flush, 0 or less to disable
+     */
+    public static void setFlushThresholds(int maxRows, long maxBytes) {
+        maxBufferedRows = maxRows;
+        maxBufferedBytes = maxBytes;
+    }
+
+    /**
+     * Overrides the number of tables {@link #flushAll()} sends concurrently.
+     *
+     * @param parallelism maximum concurrent table flushes, 1 or less for one at a time
+     */
+    public static synchronized void setFlushParallelism(int parallelism) {
+        flushParallelism = parallelism;
+    }
+
+    /**
+     * Restores the flush thresholds and parallelism configured in application.properties.
+     */
+    static synchronized void resetFlushSettings() {
+        maxBufferedRows = CONFIGURED_MAX_BUFFERED_ROWS;
+        maxBufferedBytes = CONFIGURED_MAX_BUFFERED_BYTES;
+        flushParallelism = CONFIGURED_FLUSH_PARALLELISM;
+    }
+
+    static int getFlushParallelism() {
+        return flushParallelism;
+    }
+
+    /**
+     * Overrides the insert format configured in application.properties for loaders that
+     * have not encoded any row yet.
+     *
+     * @param useRowBinary true for RowBinary, false for TabSeparated
+     */
+    public static void setRowBinaryFormat(boolean useRowBinary) {
+        rowBinary = useRowBinary;
+    }
+
+    /**
+     * @return true if {@code db.bulk_load_format} selects RowBinary for bulk inserts
+     */
+    public static boolean isRowBinaryFormat() {
+        return rowBinary;
+    }
+
     public void setFieldNames(String[] fieldNames) {
         this.fieldNames = fieldNames;
     }
 
-    private String escapeTsvValue(String value) {
-        if (value == null || "\\N".equals(value)) {
-            return "\\N";
-        }
-
-        StringBuilder builder = new StringBuilder(value.length());
-        for (int i = 0; i < value.length(); i++) {
-            char ch = value.charAt(i);
-            switch (ch) {
-                case '\\':
-                    builder.append("\\\\");
-                    break;
-                case '\t':
-                    builder.append("\\t");
-                    break;
-                case '\n':
-                    builder.append("\\n");
-                    break;
-                case '\r':
-                    builder.append("\\r");
-                    break;
-                default:
-                    builder.append(ch);
-                    break;
-            }
-        }
-        return builder.toString();
+    private static boolean isRowBinaryFormat(String format) {
+        return format != null && ROW_BINARY_FORMAT.equalsIgnoreCase(format.trim());
+    }
+
+    static int readIntProperty(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long readLongProperty(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Growable byte buffer whose backing array is reused across flushes and exposed to
+     * the JDBC driver without the defensive copy made by ByteArrayOutputStream.toByteArray().
+     */
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        ClickHouseCompressedPayload bind(PreparedStatement stmt, String format) throws SQLException {
+            return ClickHouseCompressedPayload.bind(stmt, 1, buf, count, format);
+        }
     }
 }
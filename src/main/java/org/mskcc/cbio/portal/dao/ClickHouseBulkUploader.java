@@ -32,15 +32,28 @@
 
 package org.mskcc.cbio.portal.dao;
 
+import com.clickhouse.client.ClickHouseRequest;
+import com.clickhouse.data.ClickHouseExternalTable;
+import com.clickhouse.data.ClickHouseFormat;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.UUID;
+import org.mskcc.cbio.portal.util.DatabaseProperties;
 
 /**
  * Uploads a collection of IDs into a short-lived ClickHouse staging table, invokes a
@@ -50,82 +63,231 @@ import java.util.UUID;
  * The staging table is a real MergeTree table (not temporary) so it persists across
  * HTTP requests on ClickHouse Cloud. It is always dropped in a finally block.
  *
+ * Collections of at most {@code db.upload_inline_max_ids} IDs (default 1000) are not
+ * uploaded at all: the callback gets a {@code values(...)} table function holding them,
+ * which it can use exactly like a table name. Between {@link #beginSession()} and
+ * {@link #endSession()}, staging tables are kept and reused for identical ID sets, and
+ * dropped when the session ends.
+ *
+ * Read-only call sites can instead ask for {@link Transport#EXTERNAL_DATA}: the IDs are
+ * then sent with the query itself as a ClickHouse external table, so nothing is created
+ * on the server and nothing is left behind if the process dies. Such callbacks must
+ * prepare their statements through {@link #prepareStatement(Connection, String)}.
+ * External tables only exist for the query they are attached to, so mutations
+ * (ALTER/DELETE) must keep using staging tables.
+ *
  * Mirrors the structure of ClickHouseBulkDeleter.
  */
 public class ClickHouseBulkUploader {
 
+    private static final int DEFAULT_INLINE_MAX_IDS = 1000;
+    private static final int MAX_SESSION_TABLES = 32;
+
+    private static int inlineMaxIds = ClickHouseBulkLoader.readIntProperty(
+        DatabaseProperties.getInstance().getDbUploadInlineMaxIds(), DEFAULT_INLINE_MAX_IDS);
+
+    // content hash -> staging table; access order, so the first entry is the least recently used
+    private static final Map<String, StagingTable> SESSION_TABLES = new LinkedHashMap<>(16, 0.75f, true);
+    private static String sessionToken = null;
+
+    // external tables usable by statements prepared on this thread, by name
+    private static final ThreadLocal<Map<String, ExternalIds>> EXTERNAL_TABLES =
+        ThreadLocal.withInitial(LinkedHashMap::new);
+
+    /**
+     * How IDs that are too many to inline reach the server.
+     */
+    public enum Transport {
+        /** a MergeTree table created before and dropped after the callback */
+        STAGING_TABLE,
+        /** an external table attached to each query prepared by the callback */
+        EXTERNAL_DATA
+    }
+
     @FunctionalInterface
     public interface UploadCallback<T> {
+        /**
+         * @param tableName a table name or table function to select {@code id} from,
+         *                  e.g. {@code IN (SELECT id FROM <tableName>)}; null for no filter
+         */
         T execute(String tableName) throws DaoException, SQLException;
     }
 
+    enum IdType {
+        INT64("Int64"),
+        STRING("String");
+
+        private final String columnType;
+
+        IdType(String columnType) {
+            this.columnType = columnType;
+        }
+    }
+
     /**
      * Uploads ids into a staging table and invokes action with the table name.
      * If ids is null, action is invoked with null as the table name (no staging table created).
      * The callback should treat a null table name as "no filter".
      */
     public static <T> T upload(Collection<? extends Number> ids, UploadCallback<T> action) throws DaoException {
+        return upload(ids, Transport.STAGING_TABLE, action);
+    }
+
+    /**
+     * Like {@link #upload(Collection, UploadCallback)}, sending the IDs as the given transport.
+     */
+    public static <T> T upload(Collection<? extends Number> ids, Transport transport, UploadCallback<T> action) throws DaoException {
         if (ids == null) {
-            try {
-                return action.execute(null);
-            } catch (SQLException e) {
-                throw new DaoException(e);
-            }
+            return execute(action, null);
         }
+        List<String> literals = ids.stream().map(id -> Long.toString(id.longValue())).toList();
+        return upload(IdType.INT64, literals, ids, transport, action);
+    }
 
-        String stagingTable = "staging_upload_" + UUID.randomUUID().toString().replace("-", "");
-        Connection con = null;
-        try {
-            con = JdbcUtil.getDbConnection(ClickHouseBulkUploader.class);
+    /**
+     * Uploads string IDs into a staging table (column type String) and invokes action with the table name.
+     * If ids is null, action is invoked with null as the table name (no staging table created).
+     */
+    public static <T> T uploadStrings(Collection<String> ids, UploadCallback<T> action) throws DaoException {
+        return uploadStrings(ids, Transport.STAGING_TABLE, action);
+    }
 
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "DROP TABLE IF EXISTS " + stagingTable)) {
-                stmt.executeUpdate();
-            }
+    /**
+     * Like {@link #uploadStrings(Collection, UploadCallback)}, sending the IDs as the given transport.
+     */
+    public static <T> T uploadStrings(Collection<String> ids, Transport transport, UploadCallback<T> action) throws DaoException {
+        if (ids == null) {
+            return execute(action, null);
+        }
+        List<String> literals = ids.stream().map(ClickHouseBulkUploader::quote).toList();
+        return upload(IdType.STRING, literals, ids, transport, action);
+    }
 
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "CREATE TABLE " + stagingTable + " (id Int64) ENGINE = MergeTree() ORDER BY id")) {
-                stmt.executeUpdate();
+    /**
+     * Prepares sql on con and attaches every external table of the running
+     * {@link Transport#EXTERNAL_DATA} uploads that sql refers to.
+     *
+     * @throws SQLException if an external table is needed but the statement is not a
+     *                      ClickHouse JDBC statement
+     */
+    public static PreparedStatement prepareStatement(Connection con, String sql) throws SQLException {
+        PreparedStatement stmt = con.prepareStatement(sql);
+        try {
+            for (ExternalIds external : EXTERNAL_TABLES.get().values()) {
+                if (sql.contains(external.name)) {
+                    external.attachTo(stmt);
+                }
             }
+            return stmt;
+        } catch (SQLException | RuntimeException e) {
+            stmt.close();
+            throw e;
+        }
+    }
 
-            byte[] payload = buildTsvPayload(ids);
-            try (PreparedStatement stmt = con.prepareStatement(
-                    "INSERT INTO " + stagingTable + " (id) FORMAT TSVWithNames")) {
-                stmt.setBinaryStream(1, new ByteArrayInputStream(payload));
-                stmt.executeUpdate();
-            }
+    /**
+     * Starts keeping staging tables for reuse. Does nothing if a session is already open.
+     */
+    public static synchronized void beginSession() {
+        if (sessionToken == null) {
+            sessionToken = UUID.randomUUID().toString().replace("-", "").substring(0, 8);
+        }
+    }
 
-            return action.execute(stagingTable);
-        } catch (SQLException | IOException e) {
-            throw new DaoException(e);
-        } finally {
+    /**
+     * Drops every staging table kept since {@link #beginSession()} and stops keeping them.
+     */
+    public static synchronized void endSession() {
+        sessionToken = null;
+        List<String> tables = new ArrayList<>();
+        for (StagingTable staging : SESSION_TABLES.values()) {
+            tables.add(staging.name);
+        }
+        SESSION_TABLES.clear();
+        dropTables(tables);
+    }
+
+    static void setInlineMaxIds(int maxIds) {
+        inlineMaxIds = maxIds;
+    }
+
+    private static <T> T upload(IdType type, List<String> literals, Collection<?> ids, Transport transport,
+                                UploadCallback<T> action) throws DaoException {
+        if (ids.size() <= inlineMaxIds) {
+            return execute(action, inlineTable(type, literals));
+        }
+        if (transport == Transport.EXTERNAL_DATA) {
+            ExternalIds external = new ExternalIds(type, ids);
+            Map<String, ExternalIds> externalTables = EXTERNAL_TABLES.get();
+            externalTables.put(external.name, external);
             try {
-                if (con != null) {
-                    try (PreparedStatement drop = con.prepareStatement(
-                            "DROP TABLE IF EXISTS " + stagingTable)) {
-                        drop.executeUpdate();
-                    }
-                }
-            } catch (SQLException ignored) {
+                return execute(action, external.name);
+            } finally {
+                externalTables.remove(external.name);
             }
-            JdbcUtil.closeAll(ClickHouseBulkUploader.class, con, null, null);
+        }
+        StagingTable staging = acquire(type, literals, ids);
+        try {
+            return execute(action, staging.name);
+        } finally {
+            release(staging);
+        }
+    }
+
+    private static <T> T execute(UploadCallback<T> action, String tableName) throws DaoException {
+        try {
+            return action.execute(tableName);
+        } catch (SQLException e) {
+            throw new DaoException(e);
         }
     }
 
     /**
-     * Uploads string IDs into a staging table (column type String) and invokes action with the table name.
-     * If ids is null, action is invoked with null as the table name (no staging table created).
+     * @return a table function listing the literals, or an empty subquery if there are none
      */
-    public static <T> T uploadStrings(Collection<String> ids, UploadCallback<T> action) throws DaoException {
-        if (ids == null) {
-            try {
-                return action.execute(null);
-            } catch (SQLException e) {
-                throw new DaoException(e);
+    static String inlineTable(IdType type, List<String> literals) {
+        if (literals.isEmpty()) {
+            return "(SELECT defaultValueOfTypeName('" + type.columnType + "') AS id LIMIT 0)";
+        }
+        return "values('id " + type.columnType + "', " + String.join(", ", literals) + ")";
+    }
+
+    private static synchronized StagingTable acquire(IdType type, List<String> literals, Collection<?> ids) throws DaoException {
+        if (sessionToken == null) {
+            StagingTable staging = new StagingTable("staging_upload_" + UUID.randomUUID().toString().replace("-", ""), false);
+            create(staging.name, type, ids);
+            return staging;
+        }
+        String hash = contentHash(type, literals);
+        StagingTable staging = SESSION_TABLES.get(hash);
+        if (staging == null) {
+            staging = new StagingTable("staging_upload_" + sessionToken + "_" + hash, true);
+            create(staging.name, type, ids);
+            SESSION_TABLES.put(hash, staging);
+        }
+        staging.users++;
+        return staging;
+    }
+
+    private static synchronized void release(StagingTable staging) {
+        if (!staging.shared) {
+            dropTables(List.of(staging.name));
+            return;
+        }
+        staging.users--;
+        List<String> evicted = new ArrayList<>();
+        Iterator<StagingTable> leastRecentlyUsed = SESSION_TABLES.values().iterator();
+        while (SESSION_TABLES.size() - evicted.size() > MAX_SESSION_TABLES && leastRecentlyUsed.hasNext()) {
+            StagingTable candidate = leastRecentlyUsed.next();
+            if (candidate.users == 0) {
+                evicted.add(candidate.name);
+                leastRecentlyUsed.remove();
             }
         }
+        dropTables(evicted);
+    }
 
-        String stagingTable = "staging_upload_" + UUID.randomUUID().toString().replace("-", "");
+    private static void create(String stagingTable, IdType type, Collection<?> ids) throws DaoException {
         Connection con = null;
         try {
             con = JdbcUtil.getDbConnection(ClickHouseBulkUploader.class);
@@ -136,34 +298,81 @@ public class ClickHouseBulkUploader {
             }
 
             try (PreparedStatement stmt = con.prepareStatement(
-                    "CREATE TABLE " + stagingTable + " (id String) ENGINE = MergeTree() ORDER BY id")) {
+                    "CREATE TABLE " + stagingTable + " (id " + type.columnType + ") ENGINE = MergeTree() ORDER BY id")) {
                 stmt.executeUpdate();
             }
 
-            byte[] payload = buildStringTsvPayload(ids);
+            boolean rowBinary = ClickHouseBulkLoader.isRowBinaryFormat();
+            byte[] payload = encode(type, ids, rowBinary);
             try (PreparedStatement stmt = con.prepareStatement(
-                    "INSERT INTO " + stagingTable + " (id) FORMAT TSVWithNames")) {
-                stmt.setBinaryStream(1, new ByteArrayInputStream(payload));
+                    "INSERT INTO " + stagingTable + " (id) FORMAT " + idPayloadFormat(rowBinary))) {
+                ClickHouseCompressedPayload sent = ClickHouseCompressedPayload.bind(stmt, 1, payload, idPayloadFormat(rowBinary));
                 stmt.executeUpdate();
+                sent.report(stagingTable);
             }
-
-            return action.execute(stagingTable);
         } catch (SQLException | IOException e) {
+            dropTables(List.of(stagingTable));
             throw new DaoException(e);
         } finally {
-            try {
-                if (con != null) {
-                    try (PreparedStatement drop = con.prepareStatement(
-                            "DROP TABLE IF EXISTS " + stagingTable)) {
-                        drop.executeUpdate();
-                    }
+            JdbcUtil.closeAll(ClickHouseBulkUploader.class, con, null, null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] encode(IdType type, Collection<?> ids, boolean rowBinary) throws IOException {
+        if (type == IdType.INT64) {
+            Collection<? extends Number> numbers = (Collection<? extends Number>) ids;
+            return rowBinary ? ClickHouseRowBinaryEncoder.encodeInt64Column(numbers) : buildTsvPayload(numbers);
+        }
+        Collection<String> strings = (Collection<String>) ids;
+        return rowBinary ? ClickHouseRowBinaryEncoder.encodeStringColumn(strings) : buildStringTsvPayload(strings);
+    }
+
+    private static void dropTables(List<String> stagingTables) {
+        if (stagingTables.isEmpty()) {
+            return;
+        }
+        Connection con = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseBulkUploader.class);
+            for (String stagingTable : stagingTables) {
+                try (PreparedStatement drop = con.prepareStatement(
+                        "DROP TABLE IF EXISTS " + stagingTable)) {
+                    drop.executeUpdate();
+                } catch (SQLException ignored) {
                 }
-            } catch (SQLException ignored) {
             }
+        } catch (SQLException ignored) {
+        } finally {
             JdbcUtil.closeAll(ClickHouseBulkUploader.class, con, null, null);
         }
     }
 
+    /**
+     * Hash of the distinct values, independent of their order.
+     */
+    static String contentHash(IdType type, List<String> literals) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(type.columnType.getBytes(StandardCharsets.UTF_8));
+            for (String literal : new TreeSet<>(literals)) {
+                digest.update((byte) '\n');
+                digest.update(literal.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    static String idPayloadFormat(boolean rowBinary) {
+        return rowBinary ? "RowBinary" : "TSVWithNames";
+    }
+
     private static byte[] buildTsvPayload(Collection<? extends Number> ids) throws IOException {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         buffer.write("id\n".getBytes(StandardCharsets.UTF_8));
@@ -181,4 +390,57 @@ public class ClickHouseBulkUploader {
         }
         return buffer.toByteArray();
     }
+
+    /**
+     * Escapes a value for one TabSeparated field.
+     */
+    private static String escapeTsv(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    /**
+     * IDs sent as an external table; the TabSeparated payload is built once and
+     * attached to every statement that refers to the table.
+     */
+    static final class ExternalIds {
+        final String name;
+        final String columns;
+        final byte[] payload;
+
+        @SuppressWarnings("unchecked")
+        ExternalIds(IdType type, Collection<?> ids) {
+            this.name = "_upload_" + UUID.randomUUID().toString().replace("-", "");
+            this.columns = "id " + type.columnType;
+            StringBuilder tsv = new StringBuilder();
+            for (Object id : ids) {
+                String value = type == IdType.INT64 ? Long.toString(((Number) id).longValue()) : escapeTsv((String) id);
+                tsv.append(value).append('\n');
+            }
+            this.payload = tsv.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void attachTo(PreparedStatement stmt) throws SQLException {
+            if (!stmt.isWrapperFor(ClickHouseRequest.class)) {
+                throw new SQLException("Cannot attach external table " + name + ": not a ClickHouse JDBC statement");
+            }
+            stmt.unwrap(ClickHouseRequest.class).addExternal(ClickHouseExternalTable.builder()
+                .name(name)
+                .columns(columns)
+                .format(ClickHouseFormat.TabSeparated)
+                .content(new ByteArrayInputStream(payload))
+                .asExternalTable()
+                .build());
+        }
+    }
+
+    private static final class StagingTable {
+        private final String name;
+        private final boolean shared;
+        private int users = 0;
+
+        private StagingTable(String name, boolean shared) {
+            this.name = name;
+            this.shared = shared;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mskcc.cbio.portal.dao;
+
+import com.clickhouse.data.ClickHouseCompression;
+import com.clickhouse.data.ClickHouseFormat;
+import com.clickhouse.data.ClickHousePassThruStream;
+import com.clickhouse.data.stream.Lz4OutputStream;
+import org.mskcc.cbio.portal.util.DatabaseProperties;
+import org.mskcc.cbio.portal.util.ProgressMonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binds an insert payload to a prepared statement, optionally compressing it first.
+ *
+ * Compression is selected with {@code db.bulk_load_compression} ({@code none}, {@code lz4}
+ * or {@code gzip}). LZ4 payloads use ClickHouse's native compressed block format and gzip
+ * payloads are sent with a gzip content encoding; in both cases the already compressed
+ * bytes are handed to the driver as a pass-through stream, so they are not compressed twice
+ * and the number of bytes put on the wire is known exactly.
+ *
+ * Used by ClickHouseBulkLoader, ClickHouseBulkUploader and ClickHouseBulkDeleter.
+ */
+public final class ClickHouseCompressedPayload {
+
+    private static final int LZ4_BLOCK_SIZE = 1 << 20;
+    private static final double MIB = 1024.0 * 1024.0;
+
+    private static ClickHouseCompression compression =
+        parseCompression(DatabaseProperties.getInstance().getDbBulkLoadCompression());
+
+    private final ClickHouseCompression algorithm;
+    private final int rawBytes;
+    private final int sentBytes;
+    private final long startNanos;
+
+    private ClickHouseCompressedPayload(ClickHouseCompression algorithm, int rawBytes, int sentBytes, long startNanos) {
+        this.algorithm = algorithm;
+        this.rawBytes = rawBytes;
+        this.sentBytes = sentBytes;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Binds {@code length} bytes of {@code data}, encoded as {@code format}, as parameter
+     * {@code index} of an {@code INSERT ... FORMAT} statement.
+     */
+    static ClickHouseCompressedPayload bind(PreparedStatement stmt, int index, byte[] data, int length, String format)
+            throws SQLException {
+        long startNanos = System.nanoTime();
+        ClickHouseCompression algorithm = compression;
+        if (algorithm == ClickHouseCompression.NONE) {
+            stmt.setBinaryStream(index, new ByteArrayInputStream(data, 0, length), length);
+            return new ClickHouseCompressedPayload(algorithm, length, length, startNanos);
+        }
+        byte[] compressed;
+        try {
+            compressed = compress(algorithm, data, length);
+        } catch (IOException e) {
+            throw new SQLException("Could not " + algorithm.encoding() + "-compress insert payload", e);
+        }
+        stmt.setObject(index, ClickHousePassThruStream.of(new ByteArrayInputStream(compressed), algorithm,
+            ClickHouseFormat.valueOf(format)));
+        return new ClickHouseCompressedPayload(algorithm, length, compressed.length, startNanos);
+    }
+
+    static ClickHouseCompressedPayload bind(PreparedStatement stmt, int index, byte[] data, String format)
+            throws SQLException {
+        return bind(stmt, index, data, data.length, format);
+    }
+
+    static byte[] compress(ClickHouseCompression algorithm, byte[] data, int length) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, length / 4));
+        try (OutputStream out = algorithm == ClickHouseCompression.LZ4
+                ? new Lz4OutputStream(buffer, LZ4_BLOCK_SIZE, null)
+                : new GZIPOutputStream(buffer, 64 * 1024)) {
+            out.write(data, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Logs the size, compression ratio and throughput of a completed transfer. Nothing is
+     * logged for uncompressed payloads.
+     *
+     * @param target table the payload was inserted into
+     */
+    void report(String target) {
+        if (algorithm != ClickHouseCompression.NONE) {
+            ProgressMonitor.logDebug(" --> `" + target + "`:" + summary());
+        }
+    }
+
+    /**
+     * @return " sent ... (ratio ...) in ..." for compressed payloads, an empty string otherwise
+     */
+    String summary() {
+        return algorithm == ClickHouseCompression.NONE ? "" : summary(System.nanoTime() - startNanos);
+    }
+
+    String summary(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1L) / 1e9;
+        double ratio = sentBytes == 0 ? 1.0 : (double) rawBytes / sentBytes;
+        return String.format(Locale.ROOT,
+            " %.2f MiB sent as %.2f MiB %s (ratio %.1fx) in %.2f s (%.1f MiB/s, %.1f MiB/s on the wire)",
+            rawBytes / MIB, sentBytes / MIB, algorithm.encoding(), ratio, seconds,
+            rawBytes / MIB / seconds, sentBytes / MIB / seconds);
+    }
+
+    /**
+     * Overrides the compression configured in application.properties.
+     *
+     * @param algorithm NONE, LZ4 or GZIP
+     */
+    public static void setCompression(ClickHouseCompression algorithm) {
+        compression = supported(algorithm) ? algorithm : ClickHouseCompression.NONE;
+    }
+
+    public static ClickHouseCompression getCompression() {
+        return compression;
+    }
+
+    static ClickHouseCompression parseCompression(String value) {
+        if (value == null || value.trim().isEmpty() || "none".equalsIgnoreCase(value.trim())) {
+            return ClickHouseCompression.NONE;
+        }
+        try {
+            ClickHouseCompression algorithm = ClickHouseCompression.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            if (supported(algorithm)) {
+                return algorithm;
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        ProgressMonitor.logWarning("Unsupported db.bulk_load_compression '" + value
+            + "', expected none, lz4 or gzip; sending bulk inserts uncompressed");
+        return ClickHouseCompression.NONE;
+    }
+
+    private static boolean supported(ClickHouseCompression algorithm) {
+        return algorithm == ClickHouseCompression.NONE
+            || algorithm == ClickHouseCompression.LZ4
+            || algorithm == ClickHouseCompression.GZIP;
+    }
+}
@@ -6,9 +6,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -99,6 +101,22 @@ public class ClickHouseConstraintChecker {
         ));
     }
 
+    /**
+     * Returns the tables that the given table refers to through a foreign key
+     * (lower-case names). Used to keep parent tables ahead of their children when
+     * bulk-loaded data is flushed concurrently.
+     */
+    static Set<String> referencedTables(String table) {
+        String child = table.toLowerCase(Locale.ROOT);
+        Set<String> parents = new LinkedHashSet<>();
+        for (ForeignKey fk : SCHEMA_FOREIGN_KEYS) {
+            if (fk.childTable.equals(child) && !fk.parentTable.equals(child)) {
+                parents.add(fk.parentTable);
+            }
+        }
+        return parents;
+    }
+
     private interface ResultSetMapper<T> {
         T map(ResultSet rs) throws SQLException;
     }
@@ -1,10 +1,21 @@
 package org.mskcc.cbio.portal.dao;
 
+import org.mskcc.cbio.portal.util.ProgressMonitor;
+
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class ClickHouseOptimizer {
 
+    private static final Map<String, Scope> DEFERRED = new LinkedHashMap<>();
+    private static final Map<String, Long> OPTIMIZE_MILLIS = new LinkedHashMap<>();
+    private static int deferDepth = 0;
+
     private ClickHouseOptimizer() {}
 
     /**
@@ -13,16 +24,100 @@ public class ClickHouseOptimizer {
      * ReplacingMergeTree deduplication before the data is read back.
      */
     public static void optimizeTables(String... tableNames) throws DaoException {
+        optimize(null, tableNames);
+    }
+
+    /**
+     * Like {@link #optimizeTables(String...)}, but only the given genetic profiles changed.
+     * On a schema partitioned by genetic_profile_id only those partitions are merged;
+     * otherwise the whole table is.
+     */
+    public static void optimizeProfiles(Collection<Integer> geneticProfileIds, String... tableNames) throws DaoException {
+        optimize(geneticProfileIds, tableNames);
+    }
+
+    /**
+     * Collects optimize requests instead of running them, until
+     * {@link #runDeferredOptimizations()}. Pending bulk-load data is still flushed on
+     * each request, so inserted rows stay visible; only the merges are postponed.
+     * Until then a replaced row and its replacement both exist, so DAO reads of
+     * ReplacingMergeTree tables that may run in the same step use FINAL.
+     * Calls nest: the requests run when the outermost deferral ends.
+     */
+    public static synchronized void deferOptimizations() {
+        deferDepth++;
+    }
+
+    /**
+     * Runs every request collected since {@link #deferOptimizations()} once per table,
+     * merging only the union of the requested partitions, and stops deferring.
+     */
+    public static synchronized void runDeferredOptimizations() throws DaoException {
+        if (deferDepth > 0) {
+            deferDepth--;
+        }
+        if (deferDepth > 0 || DEFERRED.isEmpty()) {
+            return;
+        }
+        Map<String, Scope> requests = new LinkedHashMap<>(DEFERRED);
+        DEFERRED.clear();
+        if (ClickHouseBulkLoader.isBulkLoad()) {
+            ClickHouseBulkLoader.flushAll();
+        }
+        run(requests);
+    }
+
+    /**
+     * Forgets the collected requests and stops deferring, e.g. after a failed import.
+     */
+    public static synchronized void discardDeferredOptimizations() {
+        deferDepth = 0;
+        DEFERRED.clear();
+    }
+
+    /**
+     * @return time spent in OPTIMIZE per table since the start of the process
+     */
+    public static synchronized Map<String, Long> getOptimizeMillis() {
+        return new LinkedHashMap<>(OPTIMIZE_MILLIS);
+    }
+
+    private static synchronized void optimize(Collection<Integer> geneticProfileIds, String... tableNames) throws DaoException {
         // It's important to flush all pending inserts *prior* to OPTIMIZE TABLE
         // so that we can detect duplicates properly
         if (ClickHouseBulkLoader.isBulkLoad()) {
             ClickHouseBulkLoader.flushAll();
         }
+        Map<String, Scope> requests = new LinkedHashMap<>();
+        for (String table : tableNames) {
+            requests.computeIfAbsent(table, t -> new Scope()).add(geneticProfileIds);
+        }
+        if (deferDepth > 0) {
+            requests.forEach((table, scope) -> DEFERRED.computeIfAbsent(table, t -> new Scope()).add(scope));
+            return;
+        }
+        run(requests);
+    }
+
+    private static void run(Map<String, Scope> requests) throws DaoException {
         Connection con = null;
         try {
             con = JdbcUtil.getDbConnection(ClickHouseOptimizer.class);
-            for (String table : tableNames) {
-                con.prepareStatement("OPTIMIZE TABLE " + table + " FINAL").executeUpdate();
+            for (Map.Entry<String, Scope> request : requests.entrySet()) {
+                String table = request.getKey();
+                Scope scope = request.getValue();
+                long start = System.currentTimeMillis();
+                if (scope.wholeTable || !isPartitionedByProfile(table)) {
+                    con.prepareStatement("OPTIMIZE TABLE " + table + " FINAL").executeUpdate();
+                } else {
+                    for (int geneticProfileId : scope.geneticProfileIds) {
+                        con.prepareStatement("OPTIMIZE TABLE " + table + " PARTITION " + geneticProfileId + " FINAL").executeUpdate();
+                    }
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                OPTIMIZE_MILLIS.merge(table, elapsed, Long::sum);
+                ProgressMonitor.logDebug("Optimized " + table + (scope.wholeTable ? "" : " for genetic profiles " + scope.geneticProfileIds)
+                    + " in " + elapsed + " ms");
             }
         } catch (SQLException e) {
             throw new DaoException(e);
@@ -30,4 +125,30 @@ public class ClickHouseOptimizer {
             JdbcUtil.closeAll(ClickHouseOptimizer.class, con, null, null);
         }
     }
+
+    private static boolean isPartitionedByProfile(String table) throws DaoException {
+        return ClickHouseProfilePartitions.PARTITIONED_TABLES.contains(table)
+            && ClickHouseProfilePartitions.hasPartitionedLayout();
+    }
+
+    /**
+     * What to merge in one table: everything, or only some genetic profile partitions.
+     */
+    private static final class Scope {
+        private boolean wholeTable = false;
+        private final Set<Integer> geneticProfileIds = new TreeSet<>();
+
+        private void add(Collection<Integer> geneticProfileIds) {
+            if (geneticProfileIds == null) {
+                wholeTable = true;
+            } else {
+                this.geneticProfileIds.addAll(geneticProfileIds);
+            }
+        }
+
+        private void add(Scope other) {
+            wholeTable |= other.wholeTable;
+            geneticProfileIds.addAll(other.geneticProfileIds);
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.mskcc.cbio.portal.util.DatabaseProperties;
+
+/**
+ * Opt-in study removal for schemas whose large per-profile tables are partitioned by
+ * genetic_profile_id (see clickhouse_partition_by_profile.sql). With
+ * {@code db.delete_by_partition=true}, the rows of a removed study are dropped with
+ * ALTER TABLE ... DROP PARTITION, which only detaches parts, instead of a
+ * DELETE ... WHERE genetic_profile_id IN (...) mutation that has to rewrite them.
+ *
+ * The mode is refused on a schema where any of these tables lacks the partition key.
+ */
+public final class ClickHouseProfilePartitions {
+
+    static final List<String> PARTITIONED_TABLES = List.of(
+        "sample_cna_event",
+        "genetic_alteration",
+        "genetic_profile_samples",
+        "sample_profile",
+        "mutation",
+        "alteration_driver_annotation",
+        "mutation_count_by_keyword",
+        "structural_variant");
+
+    private static final String PARTITION_COLUMN = "genetic_profile_id";
+
+    private static boolean enabled = Boolean.parseBoolean(
+        String.valueOf(DatabaseProperties.getInstance().getDbDeleteByPartition()).trim());
+    private static volatile Boolean partitionedLayout = null;
+
+    private ClickHouseProfilePartitions() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ClickHouseProfilePartitions.enabled = enabled;
+        partitionedLayout = null;
+    }
+
+    /**
+     * Fails unless every table in {@link #PARTITIONED_TABLES} is partitioned by
+     * genetic_profile_id. The result is remembered once the check passes.
+     *
+     * @throws DaoException naming the tables that are not partitioned
+     */
+    public static void verifyLayout() throws DaoException {
+        if (Boolean.TRUE.equals(partitionedLayout)) {
+            return;
+        }
+        List<String> unpartitioned = findUnpartitionedTables();
+        partitionedLayout = unpartitioned.isEmpty();
+        if (!unpartitioned.isEmpty()) {
+            throw new DaoException("DB Error: db.delete_by_partition is set, but these tables are not partitioned by "
+                + PARTITION_COLUMN + ": " + String.join(", ", unpartitioned)
+                + ". Apply clickhouse_partition_by_profile.sql or unset db.delete_by_partition.");
+        }
+    }
+
+    /**
+     * Whether every table in {@link #PARTITIONED_TABLES} is partitioned by
+     * genetic_profile_id, regardless of {@code db.delete_by_partition}. Looked up once.
+     */
+    public static boolean hasPartitionedLayout() throws DaoException {
+        if (partitionedLayout == null) {
+            partitionedLayout = findUnpartitionedTables().isEmpty();
+        }
+        return partitionedLayout;
+    }
+
+    private static List<String> findUnpartitionedTables() throws DaoException {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseProfilePartitions.class);
+            pstmt = con.prepareStatement(
+                "SELECT name, partition_key FROM system.tables WHERE database = currentDatabase() AND name IN ("
+                    + String.join(",", PARTITIONED_TABLES.stream().map(table -> "'" + table + "'").toList()) + ")");
+            rs = pstmt.executeQuery();
+            Map<String, String> partitionKeys = new HashMap<>();
+            while (rs.next()) {
+                partitionKeys.put(rs.getString("name"), rs.getString("partition_key"));
+            }
+            List<String> unpartitioned = new ArrayList<>();
+            for (String table : PARTITIONED_TABLES) {
+                if (!isProfilePartitionKey(partitionKeys.get(table))) {
+                    unpartitioned.add(table);
+                }
+            }
+            return unpartitioned;
+        } catch (SQLException e) {
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(ClickHouseProfilePartitions.class, con, pstmt, rs);
+        }
+    }
+
+    /**
+     * Drops the partitions of the given profiles from every partitioned table.
+     * Partitions that do not exist are ignored by ClickHouse.
+     */
+    public static void dropProfilePartitions(List<Integer> geneticProfileIds) throws DaoException {
+        verifyLayout();
+        if (geneticProfileIds.isEmpty()) {
+            return;
+        }
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = JdbcUtil.getDbConnection(ClickHouseProfilePartitions.class);
+            for (String table : PARTITIONED_TABLES) {
+                for (int geneticProfileId : geneticProfileIds) {
+                    pstmt = con.prepareStatement("ALTER TABLE " + table + " DROP PARTITION " + geneticProfileId);
+                    pstmt.executeUpdate();
+                    pstmt.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(ClickHouseProfilePartitions.class, con, pstmt, null);
+        }
+    }
+
+    static boolean isProfilePartitionKey(String partitionKey) {
+        if (partitionKey == null) {
+            return false;
+        }
+        String key = partitionKey.replace("`", "").replace(" ", "");
+        return key.equals(PARTITION_COLUMN) || key.equals("assumeNotNull(" + PARTITION_COLUMN + ")");
+    }
+}
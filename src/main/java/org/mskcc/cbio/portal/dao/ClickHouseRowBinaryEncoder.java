@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Encodes rows as ClickHouse RowBinary, so the server does not have to parse text and
+ * numeric values are written as little-endian primitives.
+ * <p>
+ * Only plain integer, floating point and String columns (optionally wrapped in
+ * Nullable and/or LowCardinality) are supported. {@link #forColumnTypes(List)} returns
+ * null for any other table layout, and callers fall back to {@link ClickHouseTsvRowEncoder}.
+ * <p>
+ * String input for numeric columns is parsed the way the TSV path would be: an empty
+ * string or null becomes NULL for Nullable columns and the type default otherwise.
+ */
+public class ClickHouseRowBinaryEncoder implements ClickHouseRowEncoder {
+
+    private enum Kind { INT8, INT16, INT32, INT64, UINT8, UINT16, UINT32, UINT64, FLOAT32, FLOAT64, STRING }
+
+    private final Kind[] kinds;
+    private final boolean[] nullable;
+
+    private ClickHouseRowBinaryEncoder(Kind[] kinds, boolean[] nullable) {
+        this.kinds = kinds;
+        this.nullable = nullable;
+    }
+
+    /**
+     * Builds an encoder for the given column types, as reported by DESCRIBE TABLE.
+     *
+     * @return the encoder, or null if any column type is not supported
+     */
+    public static ClickHouseRowBinaryEncoder forColumnTypes(List<String> columnTypes) {
+        Kind[] kinds = new Kind[columnTypes.size()];
+        boolean[] nullable = new boolean[columnTypes.size()];
+        for (int i = 0; i < columnTypes.size(); i++) {
+            String type = columnTypes.get(i).trim();
+            type = unwrap(type, "LowCardinality(");
+            if (type.startsWith("Nullable(")) {
+                nullable[i] = true;
+                type = unwrap(type, "Nullable(");
+            }
+            kinds[i] = toKind(type);
+            if (kinds[i] == null) {
+                return null;
+            }
+        }
+        return new ClickHouseRowBinaryEncoder(kinds, nullable);
+    }
+
+    private static String unwrap(String type, String wrapper) {
+        if (type.startsWith(wrapper) && type.endsWith(")")) {
+            return type.substring(wrapper.length(), type.length() - 1).trim();
+        }
+        return type;
+    }
+
+    private static Kind toKind(String type) {
+        switch (type) {
+            case "Int8": return Kind.INT8;
+            case "Int16": return Kind.INT16;
+            case "Int32": return Kind.INT32;
+            case "Int64": return Kind.INT64;
+            case "UInt8": case "Bool": return Kind.UINT8;
+            case "UInt16": return Kind.UINT16;
+            case "UInt32": return Kind.UINT32;
+            case "UInt64": return Kind.UINT64;
+            case "Float32": return Kind.FLOAT32;
+            case "Float64": return Kind.FLOAT64;
+            case "String": return Kind.STRING;
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return "RowBinary";
+    }
+
+    public int getColumnCount() {
+        return kinds.length;
+    }
+
+    @Override
+    public void writeRow(Object[] values, ByteArrayOutputStream out) {
+        if (values.length != kinds.length) {
+            throw new IllegalArgumentException("record column count (" + values.length
+                + ") does not match expected column count (" + kinds.length + ")");
+        }
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if ("\\N".equals(value) || (value instanceof String && kinds[i] != Kind.STRING && ((String) value).isEmpty())) {
+                value = null;
+            }
+            if (nullable[i]) {
+                out.write(value == null ? 1 : 0);
+                if (value == null) {
+                    continue;
+                }
+            }
+            writeValue(kinds[i], value, out);
+        }
+    }
+
+    private static void writeValue(Kind kind, Object value, ByteArrayOutputStream out) {
+        switch (kind) {
+            case STRING:
+                writeString(value == null ? "" : value.toString(), out);
+                break;
+            case FLOAT32:
+                writeLittleEndian(Float.floatToRawIntBits((float) toDouble(value)), 4, out);
+                break;
+            case FLOAT64:
+                writeLittleEndian(Double.doubleToRawLongBits(toDouble(value)), 8, out);
+                break;
+            case INT8:
+            case UINT8:
+                writeLittleEndian(toLong(value), 1, out);
+                break;
+            case INT16:
+            case UINT16:
+                writeLittleEndian(toLong(value), 2, out);
+                break;
+            case INT32:
+            case UINT32:
+                writeLittleEndian(toLong(value), 4, out);
+                break;
+            default:
+                writeLittleEndian(toLong(value), 8, out);
+                break;
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        String text = value.toString().trim();
+        if (text.equalsIgnoreCase("true")) {
+            return 1L;
+        }
+        if (text.equalsIgnoreCase("false")) {
+            return 0L;
+        }
+        if (!text.isEmpty() && text.charAt(0) != '-') {
+            return Long.parseUnsignedLong(text.charAt(0) == '+' ? text.substring(1) : text);
+        }
+        return Long.parseLong(text);
+    }
+
+    private static double toDouble(Object value) {
+        if (value == null) {
+            return 0d;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        String text = value.toString().trim();
+        switch (text.toLowerCase(Locale.ROOT)) {
+            case "nan": case "+nan": case "-nan": return Double.NaN;
+            case "inf": case "+inf": case "infinity": case "+infinity": return Double.POSITIVE_INFINITY;
+            case "-inf": case "-infinity": return Double.NEGATIVE_INFINITY;
+            default: return Double.parseDouble(text);
+        }
+    }
+
+    private static void writeString(String value, ByteArrayOutputStream out) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarUInt(bytes.length, out);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarUInt(long value, ByteArrayOutputStream out) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeLittleEndian(long value, int byteCount, ByteArrayOutputStream out) {
+        for (int i = 0; i < byteCount; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    /**
+     * Encodes ids as a single-column RowBinary payload for an {@code (id Int64)} table.
+     */
+    public static byte[] encodeInt64Column(Collection<? extends Number> ids) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(ids.size() * 8);
+        for (Number id : ids) {
+            writeLittleEndian(id.longValue(), 8, buffer);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes ids as a single-column RowBinary payload for an {@code (id String)} table.
+     */
+    public static byte[] encodeStringColumn(Collection<String> ids) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (String id : ids) {
+            writeString(id, buffer);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes bulk-load rows into one ClickHouse input format. Implementations append the
+ * bytes of one row at a time so that ClickHouseBulkLoader can stream rows into its
+ * chunk buffer without keeping them around as objects.
+ * <p>
+ * Values are either Strings (as produced by the existing DAO code), boxed numbers,
+ * Booleans or null. The literal string {@code \N} is treated as null, as in TSV.
+ */
+public interface ClickHouseRowEncoder {
+
+    /**
+     * @return the name used in the {@code FORMAT} clause of the INSERT statement
+     */
+    String getFormat();
+
+    /**
+     * Appends one encoded row to the given buffer.
+     *
+     * @throws IllegalArgumentException if a value cannot be represented in its column
+     */
+    void writeRow(Object[] values, ByteArrayOutputStream out);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes rows as ClickHouse TabSeparated text. Works for every column type, so it is
+ * the default encoder and the fallback when a table cannot be written as RowBinary.
+ */
+public class ClickHouseTsvRowEncoder implements ClickHouseRowEncoder {
+
+    private final StringBuilder rowBuilder = new StringBuilder();
+
+    @Override
+    public String getFormat() {
+        return "TabSeparated";
+    }
+
+    @Override
+    public void writeRow(Object[] values, ByteArrayOutputStream out) {
+        rowBuilder.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                rowBuilder.append('\t');
+            }
+            appendValue(rowBuilder, values[i]);
+        }
+        rowBuilder.append('\n');
+        byte[] encoded = rowBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(encoded, 0, encoded.length);
+    }
+
+    private static void appendValue(StringBuilder builder, Object value) {
+        if (value instanceof Boolean) {
+            builder.append((Boolean) value ? '1' : '0');
+        } else if (value instanceof Number) {
+            builder.append(value);
+        } else {
+            appendEscapedTsvValue(builder, (String) value);
+        }
+    }
+
+    static void appendEscapedTsvValue(StringBuilder builder, String value) {
+        if (value == null || "\\N".equals(value)) {
+            builder.append("\\N");
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                default:
+                    builder.append(ch);
+                    break;
+            }
+        }
+    }
+}
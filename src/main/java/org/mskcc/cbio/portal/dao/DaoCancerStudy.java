@@ -505,6 +505,12 @@ public final class DaoCancerStudy {
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
+            boolean dropPartitions = ClickHouseProfilePartitions.isEnabled();
+            if (dropPartitions) {
+                // refuse before anything is deleted if the schema is not partitioned
+                ClickHouseProfilePartitions.verifyLayout();
+            }
+
             // check whether should delete generic assay meta profile by profile
             DaoGenericAssay.checkAndDeleteGenericAssayMetaInStudy(internalCancerStudyId);
             
@@ -524,14 +530,18 @@ public final class DaoCancerStudy {
             List<Integer> gisticIds = collectIds(con,
                 "SELECT gistic_roi_id FROM gistic WHERE cancer_study_id=?", internalCancerStudyId);
 
-            ClickHouseBulkDeleter.getBulkDeleter("sample_cna_event", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("genetic_alteration", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("genetic_profile_samples", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("sample_profile", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("mutation", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("alteration_driver_annotation", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("mutation_count_by_keyword", "genetic_profile_id").addIds(geneticProfileIds);
-            ClickHouseBulkDeleter.getBulkDeleter("structural_variant", "genetic_profile_id").addIds(geneticProfileIds);
+            if (dropPartitions) {
+                ClickHouseProfilePartitions.dropProfilePartitions(geneticProfileIds);
+            } else {
+                ClickHouseBulkDeleter.getBulkDeleter("sample_cna_event", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("genetic_alteration", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("genetic_profile_samples", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("sample_profile", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("mutation", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("alteration_driver_annotation", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("mutation_count_by_keyword", "genetic_profile_id").addIds(geneticProfileIds);
+                ClickHouseBulkDeleter.getBulkDeleter("structural_variant", "genetic_profile_id").addIds(geneticProfileIds);
+            }
             ClickHouseBulkDeleter.getBulkDeleter("genetic_profile_link", "referred_genetic_profile_id").addIds(geneticProfileIds);
 
             ClickHouseBulkDeleter.getBulkDeleter("gistic_to_gene", "gistic_roi_id").addIds(gisticIds);
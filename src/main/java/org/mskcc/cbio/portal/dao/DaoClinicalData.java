@@ -126,7 +126,7 @@ public final class DaoClinicalData {
                                int internalId, String attrId, String attrVal) throws DaoException
     {
         if (ClickHouseBulkLoader.isBulkLoad()) {
-            ClickHouseBulkLoader.getClickHouseBulkLoader(tableName).insertRecord(Integer.toString(internalId),
+            ClickHouseBulkLoader.getClickHouseBulkLoader(tableName).insertTypedRecord(internalId,
                 attrId,
                 attrVal);
             return 1;
@@ -202,7 +202,7 @@ public final class DaoClinicalData {
         try {
             con = JdbcUtil.getDbConnection(DaoClinicalData.class);
 
-            pstmt = con.prepareStatement("SELECT * FROM " + table +
+            pstmt = con.prepareStatement("SELECT * FROM " + table + " FINAL" +
                 " WHERE internal_id=? AND attr_id=?");
             pstmt.setInt(1, internalId);
             pstmt.setString(2, attrId);
@@ -237,7 +237,7 @@ public final class DaoClinicalData {
         ResultSet rs = null;
 
         List<ClinicalData> clinicals = new ArrayList<ClinicalData>();
-        String sql = ("SELECT * FROM " + table + " WHERE `internal_id` IN " +
+        String sql = ("SELECT * FROM " + table + " FINAL WHERE `internal_id` IN " +
             "(" + generateIdsSql(internalIds) + ")");
 
         try {
@@ -467,7 +467,7 @@ public final class DaoClinicalData {
 
         List<ClinicalData> clinicals = new ArrayList<ClinicalData>();
 
-        String sql = ("SELECT * FROM " + table + " WHERE `internal_id` IN " +
+        String sql = ("SELECT * FROM " + table + " FINAL WHERE `internal_id` IN " +
             "(" + generateIdsSql(internalIds) + ") " +
             " AND attr_id IN ('"+ StringUtils.join(attributeIds, "','")+"') ");
 
@@ -498,7 +498,7 @@ public final class DaoClinicalData {
         try {
             con = JdbcUtil.getDbConnection(DaoClinicalData.class);
 
-            pstmt = con.prepareStatement("SELECT * FROM clinical_patient WHERE" +
+            pstmt = con.prepareStatement("SELECT * FROM clinical_patient FINAL WHERE" +
                 " attr_id IN ('" + StringUtils.join(attributeIds, "','") +"') ");
 
             List<Integer> patients = getPatientIdsByCancerStudy(internalCancerStudyId);
@@ -703,14 +703,14 @@ public final class DaoClinicalData {
     // get cancerType from the clinical_sample table to determine whether we have multiple cancer types
     // for given samples
     public static Map<String, Set<String>> getCancerTypeInfoBySamples(List<String> samplesList) throws DaoException {
-        return ClickHouseBulkUploader.uploadStrings(samplesList, stagingTable -> {
+        return ClickHouseBulkUploader.uploadStrings(samplesList, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
             String inClause = stagingTable == null
                     ? "select internal_id from sample"
                     : "select internal_id from sample where stable_id in (select id from " + stagingTable + ")";
             Connection con = null;
             try {
                 con = JdbcUtil.getDbConnection(DaoClinicalData.class);
-                try (PreparedStatement pstmt = con.prepareStatement(
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con,
                         "select distinct attr_value as attributeValue, attr_id as attributeID " +
                         "from clinical_sample " +
                         "where attr_id in (?, ?) and internal_id in (" + inClause + ")")) {
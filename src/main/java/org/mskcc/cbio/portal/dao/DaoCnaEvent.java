@@ -59,10 +59,10 @@ public final class DaoCnaEvent {
                 cnaEvent.setEventId(eventId);
             }
             
-            ClickHouseBulkLoader.getClickHouseBulkLoader("sample_cna_event").insertRecord(
-                    Long.toString(eventId),
-                    Integer.toString(cnaEvent.getSampleId()),
-                    Integer.toString(cnaEvent.getCnaProfileId()),
+            ClickHouseBulkLoader.getClickHouseBulkLoader("sample_cna_event").insertTypedRecord(
+                    eventId,
+                    cnaEvent.getSampleId(),
+                    cnaEvent.getCnaProfileId(),
                     cnaEvent.getAnnotationJson()
             );
 
@@ -76,10 +76,10 @@ public final class DaoCnaEvent {
             ) {
                 ClickHouseBulkLoader
                     .getClickHouseBulkLoader("alteration_driver_annotation")
-                    .insertRecord(
-                        Long.toString(eventId),
-                        Integer.toString(cnaEvent.getCnaProfileId()),
-                        Integer.toString(cnaEvent.getSampleId()),
+                    .insertTypedRecord(
+                        eventId,
+                        cnaEvent.getCnaProfileId(),
+                        cnaEvent.getSampleId(),
                         cnaEvent.getDriverFilter(),
                         cnaEvent.getDriverFilterAnnotation(),
                         cnaEvent.getDriverTiersFilter(),
@@ -98,10 +98,10 @@ public final class DaoCnaEvent {
      */
     private static long addCnaEventDirectly(CnaEvent cnaEvent) throws DaoException {
         long newId = ClickHouseAutoIncrement.nextId(CNA_EVENT_SEQUENCE);
-        ClickHouseBulkLoader.getClickHouseBulkLoader("cna_event").insertRecord(
-            Long.toString(newId),
-            Long.toString(cnaEvent.getEntrezGeneId()),
-            Integer.toString(cnaEvent.getAlteration())
+        ClickHouseBulkLoader.getClickHouseBulkLoader("cna_event").insertTypedRecord(
+            newId,
+            cnaEvent.getEntrezGeneId(),
+            cnaEvent.getAlteration()
         );
         return newId;
     }
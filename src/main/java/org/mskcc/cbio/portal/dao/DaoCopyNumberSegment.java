@@ -167,12 +167,12 @@ public final class DaoCopyNumberSegment {
         if (sampleIds == null || sampleIds.isEmpty()) {
             return Collections.emptyList();
         }
-        return ClickHouseBulkUploader.upload(sampleIds, stagingTable -> {
+        return ClickHouseBulkUploader.upload(sampleIds, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
             List<CopyNumberSegment> segs = new ArrayList<>();
             Connection con = null;
             try {
                 con = JdbcUtil.getDbConnection(DaoCopyNumberSegment.class);
-                try (PreparedStatement pstmt = con.prepareStatement(
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con,
                         "SELECT * FROM copy_number_seg" +
                         " WHERE `sample_id` IN (SELECT id FROM " + stagingTable + ")" +
                         " AND `cancer_study_id`=" + cancerStudyId);
@@ -225,7 +225,7 @@ public final class DaoCopyNumberSegment {
     
     private static Map<Integer,Long> getCopyNumberAlteredLength(Collection<Integer> sampleIds,
             int cancerStudyId, double cutoff) throws DaoException {
-        return ClickHouseBulkUploader.upload(sampleIds, stagingTable -> {
+        return ClickHouseBulkUploader.upload(sampleIds, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
             String cutoffClause = cutoff > 0 ? " AND abs(`segment_mean`)>=" + cutoff : "";
             String sql = "SELECT `sample_id`, sum(`end`-`start`)" +
                     " FROM `copy_number_seg`" +
@@ -237,7 +237,7 @@ public final class DaoCopyNumberSegment {
             Connection con = null;
             try {
                 con = JdbcUtil.getDbConnection(DaoCopyNumberSegment.class);
-                try (PreparedStatement pstmt = con.prepareStatement(sql);
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con, sql);
                      ResultSet rs = pstmt.executeQuery()) {
                     while (rs.next()) {
                         map.put(rs.getInt(1), rs.getLong(2));
@@ -34,6 +34,7 @@ package org.mskcc.cbio.portal.dao;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.mskcc.cbio.portal.model.CanonicalGene;
+import org.mskcc.cbio.portal.model.GeneticAlterationMatrix;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -113,8 +114,8 @@ public class DaoGeneticAlteration {
         
        if (ClickHouseBulkLoader.isBulkLoad() ) {
           //  write to the temp file maintained by the ClickHouseBulkLoader
-          ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_alteration").insertRecord(Integer.toString( geneticProfileId ),
-        		  Integer.toString( geneticEntityId ), valueBuffer.toString());
+          ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_alteration").insertTypedRecord(geneticProfileId,
+        		  geneticEntityId, valueBuffer.toString());
           // return 1 because normal insert will return 1 if no error occurs
           return 1;
         } 
@@ -214,47 +215,106 @@ public class DaoGeneticAlteration {
      * @throws DaoException
      */
     public HashMap<Integer,HashMap<Integer, String>> getGeneticAlterationMapForEntityIds(int geneticProfileId, Collection<Integer> geneticEntityIds) throws DaoException {
+        ArrayList<Integer> orderedSampleList = getOrderedSampleListOrFail(geneticProfileId);
+        HashMap<Integer, HashMap<Integer, String>> result = new HashMap<>();
+        readGeneticAlterations(geneticProfileId, geneticEntityIds, orderedSampleList.size(), false, (geneticEntityId, values) -> {
+            HashMap<Integer, String> mapSampleValue = new HashMap<>();
+            for (int i = 0; i < orderedSampleList.size(); i++) {
+                mapSampleValue.put(orderedSampleList.get(i), values[i]);
+            }
+            result.put(geneticEntityId, mapSampleValue);
+        });
+        return result;
+    }
+
+    /**
+     * Returns the genetic alteration values of a profile as a compact matrix: one shared
+     * sample order plus one float or deduplicated string row per genetic entity. Prefer this
+     * over {@link #getGeneticAlterationMapForEntityIds} when reading a whole profile.
+     *
+     * @param geneticProfileId Genetic Profile ID.
+     * @param geneticEntityIds genetic entities to read, or null for all of them
+     * @return values keyed by genetic entity, in the sample order of genetic_profile_samples
+     * @throws DaoException Database Error.
+     */
+    public GeneticAlterationMatrix getGeneticAlterationMatrix(int geneticProfileId, Collection<Integer> geneticEntityIds) throws DaoException {
+        ArrayList<Integer> orderedSampleList = getOrderedSampleListOrFail(geneticProfileId);
+        GeneticAlterationMatrix matrix = new GeneticAlterationMatrix(orderedSampleList);
+        readGeneticAlterations(geneticProfileId, geneticEntityIds, orderedSampleList.size(), false, matrix::put);
+        return matrix;
+    }
+
+    /**
+     * Receives genetic_alteration rows one at a time. The values array is reused between
+     * rows, so copy anything that must outlive the call.
+     */
+    @FunctionalInterface
+    public interface AlterationRowHandler {
+        void handle(int geneticEntityId, String[] values) throws DaoException;
+    }
+
+    /**
+     * Streams the rows of a profile ordered by genetic_entity_id, so that they can be merged
+     * with other sorted data without holding the profile in memory. Rows are read with
+     * FINAL, so each entity is returned once, in its latest version, even before the table
+     * has been optimized.
+     *
+     * @param geneticProfileId Genetic Profile ID.
+     * @param sampleCount number of values each stored row holds
+     * @param handler called once per row
+     * @throws DaoException Database Error.
+     */
+    public void streamGeneticAlterationsOrderedByEntity(int geneticProfileId, int sampleCount,
+            AlterationRowHandler handler) throws DaoException {
+        readGeneticAlterations(geneticProfileId, null, sampleCount, true, handler);
+    }
+
+    private static ArrayList<Integer> getOrderedSampleListOrFail(int geneticProfileId) throws DaoException {
         ArrayList<Integer> orderedSampleList = DaoGeneticProfileSamples.getOrderedSampleList(geneticProfileId);
         if (orderedSampleList == null || orderedSampleList.size() ==0) {
             throw new IllegalArgumentException ("Could not find any samples for genetic" +
                     " profile ID:  " + geneticProfileId);
         }
+        return orderedSampleList;
+    }
+
+    /**
+     * Streams the rows of a profile to handler, each split into exactly sampleCount values.
+     * The values array is reused between rows. Rows are read from the result set as they
+     * arrive, so only the row being handled is held in memory. FINAL collapses versions of a
+     * row that the ReplacingMergeTree has not merged yet, which an ORDER BY alone would
+     * return in no particular order.
+     */
+    private static void readGeneticAlterations(int geneticProfileId, Collection<Integer> geneticEntityIds,
+            int sampleCount, boolean orderByEntity, AlterationRowHandler handler) throws DaoException {
         Connection con = null;
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
             final Connection queryCon = con;
             Collection<Integer> ids = (geneticEntityIds == null || geneticEntityIds.isEmpty()) ? null : geneticEntityIds;
-            return ClickHouseBulkUploader.upload(ids, stagingTable -> {
+            ClickHouseBulkUploader.upload(ids, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
                 String inClause = stagingTable == null ? "" : " AND genetic_entity_id IN (SELECT id FROM " + stagingTable + ")";
-                HashMap<Integer, HashMap<Integer, String>> result = new HashMap<>();
-                try (PreparedStatement stmt = queryCon.prepareStatement(
-                        "SELECT * FROM genetic_alteration WHERE genetic_profile_id = ?" + inClause)) {
+                String orderClause = orderByEntity ? " ORDER BY genetic_entity_id" : "";
+                String[] valueParts = new String[sampleCount];
+                try (PreparedStatement stmt = ClickHouseBulkUploader.prepareStatement(queryCon,
+                        "SELECT genetic_entity_id, `values` FROM genetic_alteration FINAL WHERE genetic_profile_id = ?" + inClause + orderClause)) {
                     stmt.setInt(1, geneticProfileId);
                     try (ResultSet rs = stmt.executeQuery()) {
                         while (rs.next()) {
-                            HashMap<Integer, String> mapSampleValue = new HashMap<>();
                             int geneticEntityId = rs.getInt("genetic_entity_id");
-                            String values = rs.getString("values");
-                            String[] valueParts = values.split(DELIM, -1);
-                            int valuesLength = valueParts.length;
-                            if (valuesLength - orderedSampleList.size() == 1 && valueParts[valuesLength - 1].isEmpty()) {
-                                valuesLength -= 1;
-                            }
-                            if (valuesLength != orderedSampleList.size()) {
+                            int valuesLength = splitValues(rs.getString("values"), valueParts);
+                            if (valuesLength != sampleCount) {
                                 throw new IllegalStateException(
                                         "Data inconsistency detected: The length of the values for genetic profile with Id = "
                                                 + geneticProfileId + " and genetic entity with id = " + geneticEntityId
                                                 + " (" + valuesLength + " elements) does not match the expected length of the sample list ("
-                                                + orderedSampleList.size() + " elements).");
-                            }
-                            for (int i = 0; i < orderedSampleList.size(); i++) {
-                                mapSampleValue.put(orderedSampleList.get(i), valueParts[i]);
+                                                + sampleCount + " elements).");
                             }
-                            result.put(geneticEntityId, mapSampleValue);
+                            handler.handle(geneticEntityId, valueParts);
                         }
                     }
                 }
-                return result;
+                return null;
             });
         } catch (SQLException e) {
             throw new DaoException(e);
@@ -263,6 +323,34 @@ public class DaoGeneticAlteration {
         }
     }
 
+    /**
+     * Splits a DELIM separated values string into target like {@code values.split(DELIM, -1)},
+     * without allocating the intermediate array. A trailing DELIM (as written by
+     * {@link #addGeneticAlterationsForGeneticEntity}) is not counted as an extra value when
+     * the string otherwise holds exactly target.length values.
+     *
+     * @return the number of values in the string, which may differ from target.length
+     */
+    static int splitValues(String values, String[] target) {
+        int count = 0;
+        int start = 0;
+        int end;
+        while ((end = values.indexOf(DELIM, start)) >= 0) {
+            if (count < target.length) {
+                target[count] = values.substring(start, end);
+            }
+            count++;
+            start = end + DELIM.length();
+        }
+        if (count == target.length && start == values.length() && count > 0) {
+            return count;
+        }
+        if (count < target.length) {
+            target[count] = values.substring(start);
+        }
+        return count + 1;
+    }
+
     /**
      * Process SQL result alteration data
      * @param geneticProfileId  Genetic Profile ID.
@@ -293,7 +381,7 @@ public class DaoGeneticAlteration {
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
 
-            pstmt = con.prepareStatement("SELECT * FROM genetic_alteration WHERE genetic_profile_id = ? LIMIT 3000 OFFSET " + offSet);
+            pstmt = con.prepareStatement("SELECT * FROM genetic_alteration FINAL WHERE genetic_profile_id = ? LIMIT 3000 OFFSET " + offSet);
             pstmt.setInt(1, geneticProfileId);
             rs = pstmt.executeQuery();
             while (rs.next()) {
@@ -334,7 +422,7 @@ public class DaoGeneticAlteration {
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM genetic_alteration WHERE genetic_profile_id = ?");
+                    ("SELECT * FROM genetic_alteration FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
 
             rs = pstmt.executeQuery();
@@ -365,7 +453,7 @@ public class DaoGeneticAlteration {
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM genetic_alteration WHERE genetic_profile_id = ?");
+                    ("SELECT * FROM genetic_alteration FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
 
             rs = pstmt.executeQuery();
@@ -394,7 +482,7 @@ public class DaoGeneticAlteration {
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
             pstmt = con.prepareStatement
-                    ("SELECT count(*) FROM genetic_alteration WHERE genetic_profile_id = ?");
+                    ("SELECT count(*) FROM genetic_alteration FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
             rs = pstmt.executeQuery();
             if (rs.next()) {
@@ -420,7 +508,7 @@ public class DaoGeneticAlteration {
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticAlteration.class);
             pstmt = con.prepareStatement
-                    ("SELECT count(*) FROM genetic_alteration");
+                    ("SELECT count(*) FROM genetic_alteration FINAL");
             rs = pstmt.executeQuery();
             if (rs.next()) {
                 return rs.getInt(1);
@@ -116,7 +116,7 @@ public final class DaoGeneticProfileSamples
         try {
             con = JdbcUtil.getDbConnection(DaoGeneticProfileSamples.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM genetic_profile_samples WHERE genetic_profile_id = ?");
+                    ("SELECT * FROM genetic_profile_samples FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
             rs = pstmt.executeQuery();
             if  (rs.next()) {
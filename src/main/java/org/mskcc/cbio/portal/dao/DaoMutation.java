@@ -91,10 +91,10 @@ public final class DaoMutation {
                 (mutation.getDriverTiersFilter() != null
                 && !mutation.getDriverTiersFilter().isEmpty()
                 && !mutation.getDriverTiersFilter().toLowerCase().equals("na"))) {
-                ClickHouseBulkLoader.getClickHouseBulkLoader("alteration_driver_annotation").insertRecord(
-                    Long.toString(mutation.getMutationEventId()),
-                    Integer.toString(mutation.getGeneticProfileId()),
-                    Integer.toString(mutation.getSampleId()),
+                ClickHouseBulkLoader.getClickHouseBulkLoader("alteration_driver_annotation").insertTypedRecord(
+                    mutation.getMutationEventId(),
+                    mutation.getGeneticProfileId(),
+                    mutation.getSampleId(),
                     mutation.getDriverFilter(),
                     mutation.getDriverFilterAnn(),
                     mutation.getDriverTiersFilter(),
@@ -102,11 +102,11 @@ public final class DaoMutation {
                 );
             }
 
-            ClickHouseBulkLoader.getClickHouseBulkLoader("mutation").insertRecord(
-                    Long.toString(mutation.getMutationEventId()),
-                    Integer.toString(mutation.getGeneticProfileId()),
-                    Integer.toString(mutation.getSampleId()),
-                    Long.toString(mutation.getGene().getEntrezGeneId()),
+            ClickHouseBulkLoader.getClickHouseBulkLoader("mutation").insertTypedRecord(
+                    mutation.getMutationEventId(),
+                    mutation.getGeneticProfileId(),
+                    mutation.getSampleId(),
+                    mutation.getGene().getEntrezGeneId(),
                     mutation.getSequencingCenter(),
                     mutation.getSequencer(),
                     mutation.getMutationStatus(),
@@ -126,10 +126,10 @@ public final class DaoMutation {
                     mutation.getValidationMethod(),
                     mutation.getScore(),
                     mutation.getBamFile(),
-                    (mutation.getTumorAltCount() == null) ? null : Integer.toString(mutation.getTumorAltCount()),
-                    (mutation.getTumorRefCount() == null) ? null : Integer.toString(mutation.getTumorRefCount()),
-                    (mutation.getNormalAltCount() == null) ? null : Integer.toString(mutation.getNormalAltCount()),
-                    (mutation.getNormalRefCount() == null) ? null : Integer.toString(mutation.getNormalRefCount()),
+                    mutation.getTumorAltCount(),
+                    mutation.getTumorRefCount(),
+                    mutation.getNormalAltCount(),
+                    mutation.getNormalRefCount(),
                     //AminoAcidChange column is not used
                     null,
                     mutation.getAnnotationJson());
@@ -141,12 +141,12 @@ public final class DaoMutation {
         // use this code if bulk loading
         // write to the temp file maintained by the ClickHouseBulkLoader
         String keyword = MutationKeywordUtils.guessOncotatorMutationKeyword(event.getProteinChange(), event.getMutationType());
-        ClickHouseBulkLoader.getClickHouseBulkLoader("mutation_event").insertRecord(
-                Long.toString(event.getMutationEventId()),
-                Long.toString(event.getGene().getEntrezGeneId()),
+        ClickHouseBulkLoader.getClickHouseBulkLoader("mutation_event").insertTypedRecord(
+                event.getMutationEventId(),
+                event.getGene().getEntrezGeneId(),
                 event.getChr(),
-                Long.toString(event.getStartPosition()),
-                Long.toString(event.getEndPosition()),
+                event.getStartPosition(),
+                event.getEndPosition(),
                 event.getReferenceAllele(),
                 event.getTumorSeqAllele(),
                 event.getProteinChange(),
@@ -159,8 +159,8 @@ public final class DaoMutation {
                 event.getRefseqMrnaId(),
                 event.getCodonChange(),
                 event.getUniprotAccession(),
-                Integer.toString(event.getProteinPosStart()),
-                Integer.toString(event.getProteinPosEnd()),
+                event.getProteinPosStart(),
+                event.getProteinPosEnd(),
                 boolToStr(event.isCanonicalTranscript()),
                 keyword==null ? "\\N":(event.getGene().getHugoGeneSymbolAllCaps()+" "+keyword));
         return 1;
@@ -194,7 +194,7 @@ public final class DaoMutation {
             selectStmt = con.prepareStatement(
                 "SELECT sample_profile.`sample_id`, count(DISTINCT mutation_event.`chr`, mutation_event.`start_position`, " +
                     "mutation_event.`end_position`, mutation_event.`reference_allele`, mutation_event.`tumor_seq_allele`) AS MUTATION_COUNT " +
-                    "FROM `sample_profile` " +
+                    "FROM `sample_profile` FINAL " +
                     "LEFT JOIN mutation ON mutation.`sample_id` = sample_profile.`sample_id` " +
                     "AND ( UPPER(mutation.`mutation_status`) <> 'GERMLINE' OR mutation.`mutation_status` IS NULL ) " +
                     "LEFT JOIN mutation_event ON mutation.`mutation_event_id` = mutation_event.`mutation_event_id` " +
@@ -305,13 +305,13 @@ public final class DaoMutation {
      */
     public static ArrayList<ExtendedMutation> getMutations (int geneticProfileId, Collection<Integer> targetSampleList,
             long entrezGeneId) throws DaoException {
-        return ClickHouseBulkUploader.upload(targetSampleList, stagingTable -> {
+        return ClickHouseBulkUploader.upload(targetSampleList, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
             ArrayList<ExtendedMutation> mutationList = new ArrayList<>();
             Connection con = null;
             try {
                 con = JdbcUtil.getDbConnection(DaoMutation.class);
                 String inClause = stagingTable == null ? "" : " AND sample_id IN (SELECT id FROM " + stagingTable + ")";
-                try (PreparedStatement pstmt = con.prepareStatement(
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con,
                         "SELECT * FROM mutation " +
                         "INNER JOIN mutation_event ON mutation.mutation_event_id=mutation_event.mutation_event_id " +
                         "WHERE genetic_profile_id = ? AND mutation.entrez_gene_id = ?" + inClause)) {
@@ -458,13 +458,13 @@ public final class DaoMutation {
     }
 
     public static ArrayList<ExtendedMutation> getMutations (int geneticProfileId, List<Integer> sampleIds) throws DaoException {
-        return ClickHouseBulkUploader.upload(sampleIds, stagingTable -> {
+        return ClickHouseBulkUploader.upload(sampleIds, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
             ArrayList<ExtendedMutation> mutationList = new ArrayList<>();
             Connection con = null;
             try {
                 con = JdbcUtil.getDbConnection(DaoMutation.class);
                 String inClause = stagingTable == null ? "" : " AND sample_id IN (SELECT id FROM " + stagingTable + ")";
-                try (PreparedStatement pstmt = con.prepareStatement(
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con,
                         "SELECT * FROM mutation " +
                         "INNER JOIN mutation_event ON mutation.mutation_event_id=mutation_event.mutation_event_id " +
                         "WHERE genetic_profile_id = ?" + inClause)) {
@@ -709,7 +709,7 @@ public final class DaoMutation {
         }
     }
 
-    private static ExtendedMutation.MutationEvent extractMutationEvent(ResultSet rs) throws SQLException, DaoException {
+    static ExtendedMutation.MutationEvent extractMutationEvent(ResultSet rs) throws SQLException, DaoException {
         ExtendedMutation.MutationEvent event = new ExtendedMutation.MutationEvent();
         event.setMutationEventId(rs.getLong("mutation_event_id"));
         long entrezId = rs.getLong("entrez_gene_id");
@@ -1453,6 +1453,81 @@ public final class DaoMutation {
         }
     }
 
+    /**
+     * Reads back the mutations of some samples of a profile together with their driver
+     * annotations, with every column {@link #addMutation(ExtendedMutation, boolean)} stores.
+     */
+    public static ArrayList<ExtendedMutation> getMutationsWithDriverAnnotations(int geneticProfileId, List<Integer> sampleIds) throws DaoException {
+        return ClickHouseBulkUploader.upload(sampleIds, ClickHouseBulkUploader.Transport.EXTERNAL_DATA, stagingTable -> {
+            ArrayList<ExtendedMutation> mutationList = new ArrayList<>();
+            Connection con = null;
+            try {
+                con = JdbcUtil.getDbConnection(DaoMutation.class);
+                String inClause = stagingTable == null ? "" : " AND mutation.sample_id IN (SELECT id FROM " + stagingTable + ")";
+                try (PreparedStatement pstmt = ClickHouseBulkUploader.prepareStatement(con,
+                        "SELECT mutation.*, mutation_event.*, driver_filter, driver_filter_annotation, " +
+                        "driver_tiers_filter, driver_tiers_filter_annotation FROM mutation " +
+                        "INNER JOIN mutation_event ON mutation.mutation_event_id=mutation_event.mutation_event_id " +
+                        "LEFT JOIN alteration_driver_annotation " +
+                        "ON alteration_driver_annotation.alteration_event_id=mutation.mutation_event_id " +
+                        "AND alteration_driver_annotation.genetic_profile_id=mutation.genetic_profile_id " +
+                        "AND alteration_driver_annotation.sample_id=mutation.sample_id " +
+                        "WHERE mutation.genetic_profile_id = ?" + inClause)) {
+                    pstmt.setInt(1, geneticProfileId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            ExtendedMutation mutation = extractMutation(rs);
+                            mutation.setDriverFilter(rs.getString("driver_filter"));
+                            mutation.setDriverFilterAnn(rs.getString("driver_filter_annotation"));
+                            mutation.setDriverTiersFilter(rs.getString("driver_tiers_filter"));
+                            mutation.setDriverTiersFilterAnn(rs.getString("driver_tiers_filter_annotation"));
+                            mutationList.add(mutation);
+                        }
+                    }
+                }
+                return mutationList;
+            } finally {
+                JdbcUtil.closeAll(DaoMutation.class, con, null, null);
+            }
+        });
+    }
+
+    /**
+     * Deletes the given mutations of a profile, and their driver annotations, by sample and
+     * mutation event.
+     */
+    public static void deleteMutations(int geneticProfileId, Collection<ExtendedMutation> mutations) throws DaoException {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        StringBuilder keys = new StringBuilder();
+        for (ExtendedMutation mutation : mutations) {
+            if (keys.length() > 0) {
+                keys.append(',');
+            }
+            keys.append('(').append(mutation.getSampleId()).append(',').append(mutation.getMutationEventId()).append(')');
+        }
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = JdbcUtil.getDbConnection(DaoMutation.class);
+            pstmt = con.prepareStatement("DELETE FROM alteration_driver_annotation WHERE genetic_profile_id = ? " +
+                "AND (sample_id, alteration_event_id) IN (" + keys + ")");
+            pstmt.setInt(1, geneticProfileId);
+            pstmt.executeUpdate();
+            pstmt.close();
+
+            pstmt = con.prepareStatement("DELETE FROM mutation WHERE genetic_profile_id = ? " +
+                "AND (sample_id, mutation_event_id) IN (" + keys + ")");
+            pstmt.setInt(1, geneticProfileId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(DaoMutation.class, con, pstmt, null);
+        }
+    }
+
     public static void deleteAllRecords() throws DaoException {
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -1571,38 +1646,27 @@ public final class DaoMutation {
     }
 
     /**
-     * Returns true if there are duplicates in `mutation_event`.
-     * Compares count(*) of records in `mutation_event` against the count(distinct ...)
-     * records based on the fields specified below.
+     * Returns true if two of the given events share their key under different ids. The key
+     * is entrez_gene_id, chr, start_position, end_position, tumor_seq_allele, protein_change
+     * and mutation_type, compared exactly as they are stored in `mutation_event`.
      *
-     * If the counts do not match then SQL statement returns 0 (false), otherwise returns 1 (true).
-     * @return
-     * @throws DaoException
+     * The importer passes the events it created together with the existing events it
+     * matched them against, so the check needs no query on `mutation_event`.
+     * @param mutationEvents events created or matched by the current import
+     * @return true if duplicates were found
      */
-    public static boolean hasDuplicateMutationEvents() throws DaoException {
-        Connection con = null;
-        PreparedStatement pstmt = null;
-        ResultSet rs = null;
-
-        Integer sqlQueryResult = -1; // default = -1 to indicate mismatched counts from db table
-        try {
-            con = JdbcUtil.getDbConnection(DaoMutation.class);
-            pstmt = con.prepareStatement(
-                    "SELECT "
-                    + "(SELECT count(*) FROM mutation_event) = "
-                    + "(SELECT count(DISTINCT entrez_gene_id, chr, start_position, end_position, tumor_seq_allele, protein_change, mutation_type) FROM mutation_event)");
-            rs = pstmt.executeQuery();
-            if (rs.next()) {
-                sqlQueryResult = rs.getInt(1);
+    public static boolean hasDuplicateMutationEvents(Collection<ExtendedMutation.MutationEvent> mutationEvents) {
+        Map<List<Object>, Long> idsByKey = new HashMap<>();
+        for (ExtendedMutation.MutationEvent event : mutationEvents) {
+            List<Object> key = Arrays.asList(
+                event.getGene() == null ? null : event.getGene().getEntrezGeneId(),
+                event.getChr(), event.getStartPosition(), event.getEndPosition(),
+                event.getTumorSeqAllele(), event.getProteinChange(), event.getMutationType());
+            Long id = idsByKey.putIfAbsent(key, event.getMutationEventId());
+            if (id != null && id != event.getMutationEventId()) {
+                return true;
             }
-        } catch (SQLException e) {
-            throw new DaoException(e);
-        } finally {
-            JdbcUtil.closeAll(DaoMutation.class, con, pstmt, rs);
-        }
-        if (sqlQueryResult == -1) {
-            throw new DaoException("Error occurred while executing SQL query to detect duplicate records in `mutation_event`");
         }
-        return !(sqlQueryResult > 0);
+        return false;
     }
 }
@@ -36,6 +36,7 @@ import java.sql.*;
 import java.util.*;
 import java.util.stream.Collectors;
 import org.mskcc.cbio.portal.model.shared.GeneticAlterationType;
+import org.mskcc.cbio.portal.model.GeneticAlterationMatrix;
 import org.mskcc.cbio.portal.model.GeneticProfile;
 import org.mskcc.cbio.portal.model.Patient;
 import org.mskcc.cbio.portal.model.Sample;
@@ -323,9 +324,9 @@ public class DaoSample {
     /**
      * Removes samples from genetic alteration data for a study.
      * <p>
-     * The affected {@code genetic_alteration} and {@code genetic_profile_samples}
-     * tables are backed up before removal starts and restored from backup if the
-     * operation fails.
+     * The study's rows in {@code genetic_alteration} and {@code genetic_profile_samples}
+     * are backed up before removal starts and restored from backup if the operation
+     * fails.
      *
      * @param internalStudyId internal ID of the study whose genetic alteration sample data should be updated
      * @param internalSampleIdsToRemove internal IDs of samples to remove
@@ -333,8 +334,9 @@ public class DaoSample {
      */
     private static void removeSamplesInGeneticAlterationsForStudy(int internalStudyId, Set<Integer> internalSampleIdsToRemove) throws DaoException {
         try {
-            BackupUtil.backup(List.of("genetic_alteration", "genetic_profile_samples"), () -> {
-                List<GeneticProfile> geneticProfiles = DaoGeneticProfile.getAllGeneticProfiles(internalStudyId);
+            List<GeneticProfile> geneticProfiles = DaoGeneticProfile.getAllGeneticProfiles(internalStudyId);
+            List<Integer> geneticProfileIds = geneticProfiles.stream().map(GeneticProfile::getGeneticProfileId).toList();
+            BackupUtil.backup(List.of("genetic_alteration", "genetic_profile_samples"), geneticProfileIds, () -> {
                 for (GeneticProfile geneticProfile : geneticProfiles) {
                     Set<Integer> removedInternalSampleIds = removeSamplesInGeneticAlterationsForGeneticProfile(geneticProfile, internalSampleIdsToRemove);
                     log.debug("Genetic alterations data for {} sample ids ouf of {} requested have been removed for genetic profile with stable id={}",
@@ -369,13 +371,17 @@ public class DaoSample {
                         + " can't be removed as it contains GSVA data." +
                         " Consider dropping and re-uploading the whole study.");
             }
+            GeneticAlterationMatrix geneticAlterations = DaoGeneticAlteration.getInstance().getGeneticAlterationMatrix(geneticProfileId, null);
             orderedSampleList.removeAll(actualInternalSampleIdsToRemove);
-            HashMap<Integer, HashMap<Integer, String>> geneticAlterationMapForEntityIds = DaoGeneticAlteration.getInstance().getGeneticAlterationMapForEntityIds(geneticProfileId, null);
+            int[] keptSampleIndexes = orderedSampleList.stream().mapToInt(geneticAlterations::indexOfSample).toArray();
             DaoGeneticAlteration.getInstance().deleteAllRecordsInGeneticProfile(geneticProfileId);
             if (!orderedSampleList.isEmpty()) {
-                for (Map.Entry<Integer, HashMap<Integer, String>> entry : geneticAlterationMapForEntityIds.entrySet()) {
-                    String[] values = orderedSampleList.stream().map(isid -> entry.getValue().get(isid)).toArray(String[]::new);
-                    DaoGeneticAlteration.getInstance().addGeneticAlterationsForGeneticEntity(geneticProfileId, entry.getKey(), values);
+                for (int geneticEntityId : geneticAlterations.getGeneticEntityIds()) {
+                    String[] values = new String[keptSampleIndexes.length];
+                    for (int i = 0; i < keptSampleIndexes.length; i++) {
+                        values[i] = geneticAlterations.getValue(geneticEntityId, keptSampleIndexes[i]);
+                    }
+                    DaoGeneticAlteration.getInstance().addGeneticAlterationsForGeneticEntity(geneticProfileId, geneticEntityId, values);
                 }
             }
             DaoGeneticProfileSamples.deleteAllSamplesInGeneticProfile(geneticProfileId);
@@ -42,6 +42,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Data access object for sample_profile table
@@ -71,15 +73,16 @@ public final class DaoSampleProfile {
         if (ClickHouseBulkLoader.isBulkLoad()) {
             upsertWithBulkLoader(idTuples);
             ClickHouseBulkLoader.flushAll();
-            optimizeSampleProfileTable();
+            optimizeSampleProfileTable(idTuples);
             return;
         }
         upsertWithJdbcBatch(idTuples);
-        optimizeSampleProfileTable();
+        optimizeSampleProfileTable(idTuples);
     }
 
-    private static void optimizeSampleProfileTable() throws DaoException {
-        ClickHouseOptimizer.optimizeTables("sample_profile");
+    private static void optimizeSampleProfileTable(Collection<SampleProfileTuple> idTuples) throws DaoException {
+        Set<Integer> geneticProfileIds = idTuples.stream().map(SampleProfileTuple::geneticProfileId).collect(Collectors.toSet());
+        ClickHouseOptimizer.optimizeProfiles(geneticProfileIds, "sample_profile");
     }
 
     private static void upsertWithJdbcBatch(Collection<SampleProfileTuple> idTuples) throws DaoException {
@@ -138,7 +141,7 @@ public final class DaoSampleProfile {
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM sample_profile WHERE sample_id = ? AND genetic_profile_id = ?");
+                    ("SELECT * FROM sample_profile FINAL WHERE sample_id = ? AND genetic_profile_id = ?");
             pstmt.setInt(1, sampleId);
             pstmt.setInt(2, geneticProfileId);
             rs = pstmt.executeQuery();
@@ -161,7 +164,7 @@ public final class DaoSampleProfile {
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
             pstmt = con.prepareStatement
-                    ("SELECT panel_id FROM sample_profile WHERE sample_id = ? AND genetic_profile_id = ?");
+                    ("SELECT panel_id FROM sample_profile FINAL WHERE sample_id = ? AND genetic_profile_id = ?");
             pstmt.setInt(1, sampleId);
             pstmt.setInt(2, geneticProfileId);
             rs = pstmt.executeQuery();
@@ -188,7 +191,7 @@ public final class DaoSampleProfile {
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
             pstmt = con.prepareStatement
-                    ("SELECT count(*) FROM sample_profile WHERE genetic_profile_id = ?");
+                    ("SELECT count(*) FROM sample_profile FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
             rs = pstmt.executeQuery();
             if (rs.next()) {
@@ -209,7 +212,7 @@ public final class DaoSampleProfile {
 
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
-            pstmt = con.prepareStatement("SELECT genetic_profile_id FROM sample_profile WHERE sample_id = ?");
+            pstmt = con.prepareStatement("SELECT genetic_profile_id FROM sample_profile FINAL WHERE sample_id = ?");
             pstmt.setInt(1, sampleId);
             rs = pstmt.executeQuery();
             if( rs.next() ) {
@@ -233,7 +236,7 @@ public final class DaoSampleProfile {
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM sample_profile WHERE genetic_profile_id = ?");
+                    ("SELECT * FROM sample_profile FINAL WHERE genetic_profile_id = ?");
             pstmt.setInt(1, geneticProfileId);
             rs = pstmt.executeQuery();
             ArrayList<Integer> sampleIds = new ArrayList<Integer>();
@@ -258,7 +261,7 @@ public final class DaoSampleProfile {
         try {
             con = JdbcUtil.getDbConnection(DaoSampleProfile.class);
             pstmt = con.prepareStatement
-                    ("SELECT * FROM sample_profile");
+                    ("SELECT * FROM sample_profile FINAL");
             rs = pstmt.executeQuery();
             ArrayList<Integer> sampleIds = new ArrayList<Integer>();
             while (rs.next()) {
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import com.clickhouse.client.ClickHouseRequest;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
+
+/**
+ * Import-session connection scope used by JdbcUtil.
+ *
+ * While a session is open, every thread gets one pooled connection on its first request
+ * and keeps it until the session ends; closing it is a no-op. Prepared statements are
+ * cached per connection by SQL text, so a DAO method called once per row prepares its
+ * statement once. A cached statement that is still open (e.g. its result set is being
+ * read while the same method is re-entered) is not handed out twice; the caller gets a
+ * fresh uncached statement instead. Connections pinned by threads that have since
+ * finished (e.g. flush workers) go back to the pool as soon as another one is pinned.
+ */
+final class JdbcSession {
+
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private static final Set<PinnedConnection> PINNED = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<PinnedConnection> CURRENT = new ThreadLocal<>();
+    private static volatile boolean active = false;
+    private static int depth = 0;
+
+    private JdbcSession() {
+    }
+
+    /**
+     * Opens a session, or nests into the open one.
+     */
+    static synchronized void begin() {
+        depth++;
+        active = true;
+    }
+
+    /**
+     * Ends the outermost session and returns every pinned connection to the pool.
+     */
+    static synchronized void end() {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        active = false;
+        for (PinnedConnection pinned : PINNED) {
+            pinned.release();
+        }
+        PINNED.clear();
+    }
+
+    static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return this thread's pinned connection, borrowing it from dataSource on first use
+     */
+    static Connection connection(DataSource dataSource) throws SQLException {
+        PinnedConnection pinned = CURRENT.get();
+        if (pinned == null || pinned.isStale()) {
+            for (PinnedConnection other : PINNED) {
+                if (!other.owner.isAlive() && PINNED.remove(other)) {
+                    other.release();
+                }
+            }
+            pinned = new PinnedConnection(dataSource.getConnection());
+            CURRENT.set(pinned);
+            PINNED.add(pinned);
+        }
+        return pinned.proxy;
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class PinnedConnection {
+        private final Thread owner = Thread.currentThread();
+        private final Connection delegate;
+        private final Connection proxy;
+        // SQL text -> statement; access order, so the first entry is the least recently used
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile boolean released = false;
+
+        private PinnedConnection(Connection delegate) {
+            this.delegate = delegate;
+            this.proxy = (Connection) Proxy.newProxyInstance(JdbcSession.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (p, method, args) -> switch (method.getName()) {
+                    case "close" -> null;
+                    case "isClosed" -> isStale();
+                    case "prepareStatement" -> args.length == 1 ? prepare((String) args[0]) : forward(delegate, method, args);
+                    default -> forward(delegate, method, args);
+                });
+        }
+
+        private boolean isStale() throws SQLException {
+            return released || delegate.isClosed();
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null) {
+                if (cached.inUse) {
+                    return delegate.prepareStatement(sql);
+                }
+                cached.inUse = true;
+                return cached.proxy;
+            }
+            cached = new CachedStatement(this, sql, delegate.prepareStatement(sql));
+            cached.inUse = true;
+            statements.put(sql, cached);
+            Iterator<CachedStatement> leastRecentlyUsed = statements.values().iterator();
+            while (statements.size() > MAX_CACHED_STATEMENTS && leastRecentlyUsed.hasNext()) {
+                CachedStatement candidate = leastRecentlyUsed.next();
+                if (!candidate.inUse) {
+                    leastRecentlyUsed.remove();
+                    candidate.closeQuietly();
+                }
+            }
+            return cached.proxy;
+        }
+
+        private void release() {
+            released = true;
+            for (CachedStatement cached : statements.values()) {
+                cached.closeQuietly();
+            }
+            statements.clear();
+            try {
+                delegate.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static final class CachedStatement {
+        private final PinnedConnection owner;
+        private final String sql;
+        private final PreparedStatement delegate;
+        private final PreparedStatement proxy;
+        private boolean inUse = false;
+
+        private CachedStatement(PinnedConnection owner, String sql, PreparedStatement delegate) {
+            this.owner = owner;
+            this.sql = sql;
+            this.delegate = delegate;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(JdbcSession.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (p, method, args) -> switch (method.getName()) {
+                    case "close" -> {
+                        giveBack();
+                        yield null;
+                    }
+                    case "isClosed" -> !inUse || delegate.isClosed();
+                    default -> forward(delegate, method, args);
+                });
+        }
+
+        /**
+         * Resets the statement for its next user. Statements carrying external data
+         * are closed instead, so the attached rows are not sent again.
+         */
+        private void giveBack() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            try {
+                if (owner.released || delegate.isClosed() || hasExternalData()) {
+                    throw new SQLException("not reusable");
+                }
+                delegate.clearParameters();
+                delegate.clearBatch();
+            } catch (SQLException | RuntimeException e) {
+                owner.statements.remove(sql, this);
+                closeQuietly();
+            }
+        }
+
+        private boolean hasExternalData() throws SQLException {
+            return delegate.isWrapperFor(ClickHouseRequest.class)
+                && !delegate.unwrap(ClickHouseRequest.class).getExternalTables().isEmpty();
+        }
+
+        private void closeQuietly() {
+            try {
+                delegate.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ package org.mskcc.cbio.portal.dao;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +47,8 @@ import org.slf4j.LoggerFactory;
  */
 public class JdbcUtil {
     private static DataSource dataSource;
-    private static Map<String,Integer> activeConnectionCount = new HashMap<String,Integer>(); // keep track of the number of active connection per class/requester
+    private static Map<String,Integer> activeConnectionCount = new ConcurrentHashMap<String,Integer>(); // keep track of the number of active connection per class/requester
+    private static final Map<String,ConnectionMetrics> connectionMetrics = new ConcurrentHashMap<>();
     private static final Logger LOG = LoggerFactory.getLogger(JdbcUtil.class);
     /**
      * Gets the data source
@@ -67,6 +69,38 @@ public class JdbcUtil {
         dataSource = value;
     }
 
+    /**
+     * Starts an import session: until {@link #endImportSession()}, each thread reuses one
+     * connection and its prepared statements are cached by SQL text. Sessions nest.
+     */
+    public static void beginImportSession() {
+        JdbcSession.begin();
+    }
+
+    /**
+     * Ends the outermost import session, returns the pinned connections to the pool and
+     * reports requesters that did not close every connection they acquired.
+     */
+    public static void endImportSession() {
+        JdbcSession.end();
+        if (JdbcSession.isActive()) {
+            return;
+        }
+        for (Map.Entry<String,ConnectionMetrics> entry : connectionMetrics.entrySet()) {
+            if (entry.getValue().getOpen() > 0) {
+                logMessage("Connection leak: " + entry.getKey() + " did not close " + entry.getValue().getOpen() + " connection(s)");
+            }
+            LOG.debug("Connections of {}: {}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return connection usage per requester class since the JVM started
+     */
+    public static Map<String,ConnectionMetrics> getConnectionMetrics() {
+        return Collections.unmodifiableMap(connectionMetrics);
+    }
+
     /**
      * Gets Connection to the Database.
      *
@@ -86,18 +120,17 @@ public class JdbcUtil {
      * @throws java.sql.SQLException Error Connecting to Database.
      */
     private static Connection getDbConnection(String requester) throws SQLException {
-        // this method should be syncronized
-        // but may slow the speed?
         Connection con;
+        long start = System.nanoTime();
         try {
-            con = getDataSource().getConnection();
+            con = JdbcSession.isActive() ? JdbcSession.connection(getDataSource()) : getDataSource().getConnection();
         } catch (Exception e) {
             logMessage(e.getMessage());
             throw new SQLException(e);
         }
         if (requester != null) {
-            Integer count = activeConnectionCount.get(requester);
-            activeConnectionCount.put(requester, count == null ? 1 : (count + 1));
+            activeConnectionCount.merge(requester, 1, Integer::sum);
+            connectionMetrics.computeIfAbsent(requester, key -> new ConnectionMetrics()).recordAcquire(System.nanoTime() - start);
         }
         return con;
     }
@@ -116,12 +149,8 @@ public class JdbcUtil {
             if (con != null && !con.isClosed()) {
                 con.close();
                 if (requester!=null) {
-                    int count = activeConnectionCount.get(requester) - 1;
-                    if (count < 0) {
-                        // since adding connection is not synchronized, the count may not be the real one
-                        count = 0;
-                    }
-                    activeConnectionCount.put(requester, count);
+                    activeConnectionCount.compute(requester, (key, count) -> count == null || count <= 0 ? 0 : count - 1);
+                    connectionMetrics.computeIfAbsent(requester, key -> new ConnectionMetrics()).recordRelease();
                 }
             }
         } catch (Exception e) {
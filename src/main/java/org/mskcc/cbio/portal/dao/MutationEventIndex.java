@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.mskcc.cbio.portal.model.CanonicalGene;
+import org.mskcc.cbio.portal.model.ExtendedMutation.MutationEvent;
+
+/**
+ * Deduplicates mutation events during an import without loading mutation_event.
+ *
+ * Each event key (gene, chr, start, end, protein change, tumor allele, mutation type;
+ * compared like {@link MutationEvent#equals(Object)}) is reduced to a 64-bit hash, kept
+ * with the event id in a primitive open-addressing table. The keys of existing events are
+ * read one chromosome at a time, the first time an event on that chromosome is looked
+ * up. Only on a hash hit is the full event read (once per id) and compared.
+ *
+ * The table holds two longs per existing event on every chromosome the file touches,
+ * which for a typical MAF is most of mutation_event; what is saved is the MutationEvent
+ * objects, not the per-event entries. mutation_event is not ordered by chr, so each
+ * chromosome load scans the whole table.
+ */
+public final class MutationEventIndex {
+
+    private static final long EMPTY = 0;
+    // id stored for a hash shared by more than one event
+    private static final long AMBIGUOUS = -1;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] hashes = new long[1 << 12];
+    private long[] ids = new long[1 << 12];
+    private int size = 0;
+
+    private final Set<String> loadedChromosomes = new HashSet<String>();
+    // events already compared or added in this import, by id
+    private final Map<Long, MutationEvent> resolved = new HashMap<Long, MutationEvent>();
+
+    /**
+     * @return the existing or previously added event equal to key, or null if there is none
+     */
+    public MutationEvent get(MutationEvent key) throws DaoException {
+        loadChromosome(key.getChr());
+        long id = find(hash(key));
+        if (id == EMPTY) {
+            return null;
+        }
+        if (id == AMBIGUOUS) {
+            return findByKey(key);
+        }
+        MutationEvent event = resolve(id);
+        return key.equals(event) ? event : null;
+    }
+
+    /**
+     * Records an event created by the import; it must already have its id.
+     */
+    public void add(MutationEvent event) {
+        resolved.put(event.getMutationEventId(), event);
+        put(hash(event), event.getMutationEventId());
+    }
+
+    /**
+     * @return the events added by the import and the existing events compared with them
+     */
+    public Collection<MutationEvent> getEvents() {
+        return Collections.unmodifiableCollection(resolved.values());
+    }
+
+    /**
+     * @return number of distinct event hashes held
+     */
+    public int size() {
+        return size;
+    }
+
+    static long hash(MutationEvent event) {
+        CanonicalGene gene = event.getGene();
+        return hash(gene == null ? 0 : gene.getEntrezGeneId(), event.getChr(), event.getStartPosition(),
+            event.getEndPosition(), event.getProteinChange(), event.getTumorSeqAllele(), event.getMutationType());
+    }
+
+    /**
+     * FNV-1a over the key fields. Strings are folded per character the way
+     * {@link String#equalsIgnoreCase(String)} compares them, and null differs from "".
+     */
+    static long hash(long entrezGeneId, String chr, long start, long end, String proteinChange,
+                     String tumorSeqAllele, String mutationType) {
+        long h = FNV_OFFSET;
+        h = mix(h, entrezGeneId);
+        h = mix(h, chr);
+        h = mix(h, start);
+        h = mix(h, end);
+        h = mix(h, proteinChange);
+        h = mix(h, tumorSeqAllele);
+        h = mix(h, mutationType);
+        return h == EMPTY ? 1 : h;
+    }
+
+    private static long mix(long h, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            h = (h ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long mix(long h, String value) {
+        if (value == null) {
+            return (h ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+            h = (h ^ (c & 0xff)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // field separator
+        return (h ^ 0xfe) * FNV_PRIME;
+    }
+
+    private long find(long hash) {
+        int mask = hashes.length - 1;
+        for (int slot = (int) (hash ^ (hash >>> 32)) & mask; hashes[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                return ids[slot];
+            }
+        }
+        return EMPTY;
+    }
+
+    private void put(long hash, long id) {
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (; hashes[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                if (ids[slot] != id) {
+                    ids[slot] = AMBIGUOUS;
+                }
+                return;
+            }
+        }
+        hashes[slot] = hash;
+        ids[slot] = id;
+        if (++size * 2 > hashes.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        long[] oldIds = ids;
+        hashes = new long[oldHashes.length * 2];
+        ids = new long[oldIds.length * 2];
+        size = 0;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                put(oldHashes[i], oldIds[i]);
+            }
+        }
+    }
+
+    private static String chromosomeKey(String chr) {
+        return chr == null ? "" : chr.toUpperCase(Locale.ROOT);
+    }
+
+    private void loadChromosome(String chr) throws DaoException {
+        String chromosome = chromosomeKey(chr);
+        if (!loadedChromosomes.add(chromosome)) {
+            return;
+        }
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = JdbcUtil.getDbConnection(MutationEventIndex.class);
+            pstmt = con.prepareStatement(
+                "SELECT mutation_event_id, entrez_gene_id, chr, start_position, end_position, " +
+                "protein_change, tumor_seq_allele, mutation_type " +
+                "FROM mutation_event WHERE upperUTF8(ifNull(chr, '')) = ?");
+            pstmt.setString(1, chromosome);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                put(hash(rs.getLong("entrez_gene_id"), rs.getString("chr"), rs.getLong("start_position"),
+                        rs.getLong("end_position"), rs.getString("protein_change"),
+                        rs.getString("tumor_seq_allele"), rs.getString("mutation_type")),
+                    rs.getLong("mutation_event_id"));
+            }
+        } catch (SQLException e) {
+            loadedChromosomes.remove(chromosome);
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(MutationEventIndex.class, con, pstmt, rs);
+        }
+    }
+
+    private MutationEvent resolve(long id) throws DaoException {
+        MutationEvent event = resolved.get(id);
+        if (event != null) {
+            return event;
+        }
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = JdbcUtil.getDbConnection(MutationEventIndex.class);
+            pstmt = con.prepareStatement("SELECT * FROM mutation_event WHERE mutation_event_id = ?");
+            pstmt.setLong(1, id);
+            rs = pstmt.executeQuery();
+            if (rs.next()) {
+                event = DaoMutation.extractMutationEvent(rs);
+                resolved.put(id, event);
+            }
+            return event;
+        } catch (SQLException e) {
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(MutationEventIndex.class, con, pstmt, rs);
+        }
+    }
+
+    /**
+     * Full-key lookup for a hash shared by several events, among events of this import
+     * first and then in the database.
+     */
+    private MutationEvent findByKey(MutationEvent key) throws DaoException {
+        for (MutationEvent event : resolved.values()) {
+            if (key.equals(event)) {
+                return event;
+            }
+        }
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = JdbcUtil.getDbConnection(MutationEventIndex.class);
+            pstmt = con.prepareStatement(
+                "SELECT * FROM mutation_event WHERE upperUTF8(ifNull(chr, '')) = ? " +
+                "AND start_position = ? AND end_position = ?");
+            pstmt.setString(1, chromosomeKey(key.getChr()));
+            pstmt.setLong(2, key.getStartPosition());
+            pstmt.setLong(3, key.getEndPosition());
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                MutationEvent event = DaoMutation.extractMutationEvent(rs);
+                if (key.equals(event)) {
+                    resolved.put(event.getMutationEventId(), event);
+                    return event;
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new DaoException(e);
+        } finally {
+            JdbcUtil.closeAll(MutationEventIndex.class, con, pstmt, rs);
+        }
+    }
+}
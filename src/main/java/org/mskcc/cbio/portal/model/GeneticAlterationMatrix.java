@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mskcc.cbio.portal.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, read-mostly view of the genetic_alteration rows of one genetic profile.
+ *
+ * All rows share one sample id array in the order of genetic_profile_samples. A row whose
+ * values are all plain numbers is held as a float[]; cells that a float cannot reproduce
+ * exactly ("NA", "", "1.50", ...) are kept as strings next to it; short ones, which tend to
+ * repeat, share one instance through a small pool. Other rows, such as rows of
+ * high-precision values, are held as a copy of the given String[]. Values read back are
+ * the strings that were stored.
+ */
+public class GeneticAlterationMatrix {
+
+    private final int[] sampleIds;
+    private Map<Integer, Integer> sampleIndex;
+    private final Map<Integer, Row> rows = new LinkedHashMap<>();
+    // only short tokens such as "NA" repeat often enough to be worth sharing
+    private static final int MAX_POOLED_LENGTH = 8;
+    private static final int MAX_POOL_SIZE = 1024;
+
+    private final Map<String, String> stringPool = new HashMap<>();
+
+    /**
+     * @param orderedSampleIds internal sample ids in the order values are stored for the profile
+     */
+    public GeneticAlterationMatrix(List<Integer> orderedSampleIds) {
+        this.sampleIds = orderedSampleIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Adds (or replaces) the values of a genetic entity.
+     *
+     * @param geneticEntityId genetic entity id
+     * @param values one value per sample, in sample order
+     */
+    public void put(int geneticEntityId, String[] values) {
+        if (values.length != sampleIds.length) {
+            throw new IllegalArgumentException("Expected " + sampleIds.length + " values for genetic entity "
+                + geneticEntityId + " but got " + values.length);
+        }
+        rows.put(geneticEntityId, encode(values));
+    }
+
+    public int getSampleCount() {
+        return sampleIds.length;
+    }
+
+    public int getSampleId(int sampleIndex) {
+        return sampleIds[sampleIndex];
+    }
+
+    /**
+     * @return position of the sample in the stored value order, or -1 if it is not part of the profile
+     */
+    public int indexOfSample(int sampleId) {
+        if (sampleIndex == null) {
+            Map<Integer, Integer> index = new HashMap<>(sampleIds.length * 2);
+            for (int i = 0; i < sampleIds.length; i++) {
+                index.put(sampleIds[i], i);
+            }
+            sampleIndex = index;
+        }
+        return sampleIndex.getOrDefault(sampleId, -1);
+    }
+
+    public Set<Integer> getGeneticEntityIds() {
+        return Collections.unmodifiableSet(rows.keySet());
+    }
+
+    public boolean containsGeneticEntity(int geneticEntityId) {
+        return rows.containsKey(geneticEntityId);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    /**
+     * @return true if the values of the entity are held as floats
+     */
+    public boolean isNumeric(int geneticEntityId) {
+        Row row = rows.get(geneticEntityId);
+        return row != null && row.numbers != null;
+    }
+
+    /**
+     * @return the value of one cell, or null if the entity is not in the matrix
+     */
+    public String getValue(int geneticEntityId, int sampleIndex) {
+        Row row = rows.get(geneticEntityId);
+        return row == null ? null : row.get(sampleIndex);
+    }
+
+    /**
+     * @return numeric value of one cell; NaN for cells that are not numbers
+     */
+    public float getFloat(int geneticEntityId, int sampleIndex) {
+        Row row = rows.get(geneticEntityId);
+        if (row == null) {
+            return Float.NaN;
+        }
+        if (row.numbers != null) {
+            return row.numbers[sampleIndex];
+        }
+        return parseLenient(row.strings[sampleIndex]);
+    }
+
+    /**
+     * @return all values of the entity in sample order, or null if the entity is not in the matrix
+     */
+    public String[] getValues(int geneticEntityId) {
+        Row row = rows.get(geneticEntityId);
+        if (row == null) {
+            return null;
+        }
+        String[] values = new String[sampleIds.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Removes an entity and returns its values in sample order, or null if it was not present.
+     */
+    public String[] remove(int geneticEntityId) {
+        String[] values = getValues(geneticEntityId);
+        rows.remove(geneticEntityId);
+        return values;
+    }
+
+    private Row encode(String[] values) {
+        float[] numbers = new float[values.length];
+        Map<Integer, String> exceptions = null;
+        int exceptionLimit = Math.max(1, values.length / 8);
+        for (int i = 0; i < values.length; i++) {
+            Float number = parseExact(values[i]);
+            if (number != null) {
+                numbers[i] = number;
+                continue;
+            }
+            numbers[i] = parseLenient(values[i]);
+            if (exceptions == null) {
+                exceptions = new HashMap<>();
+            }
+            exceptions.put(i, pool(values[i]));
+            if (exceptions.size() > exceptionLimit) {
+                return new Row(null, null, values.clone());
+            }
+        }
+        return new Row(numbers, exceptions, null);
+    }
+
+    private String pool(String value) {
+        if (value == null || value.length() > MAX_POOLED_LENGTH) {
+            return value;
+        }
+        if (stringPool.size() >= MAX_POOL_SIZE) {
+            String pooled = stringPool.get(value);
+            return pooled == null ? value : pooled;
+        }
+        String pooled = stringPool.putIfAbsent(value, value);
+        return pooled == null ? value : pooled;
+    }
+
+    /**
+     * Parses a value only if formatting the parsed float gives back the same string, so that
+     * storing the float loses nothing.
+     */
+    static Float parseExact(String value) {
+        if (value == null || value.isEmpty() || value.length() > 16) {
+            return null;
+        }
+        char first = value.charAt(0);
+        if (first != '-' && (first < '0' || first > '9')) {
+            return null;
+        }
+        float number;
+        try {
+            number = Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return format(number).equals(value) ? number : null;
+    }
+
+    private static float parseLenient(String value) {
+        if (value == null || value.isEmpty()) {
+            return Float.NaN;
+        }
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    static String format(float number) {
+        if (number == (int) number && Math.abs(number) < (1 << 24) && !(number == 0 && 1 / number < 0)) {
+            return Integer.toString((int) number);
+        }
+        return Float.toString(number);
+    }
+
+    private static final class Row {
+        private final float[] numbers;
+        private final Map<Integer, String> exceptions;
+        private final String[] strings;
+
+        private Row(float[] numbers, Map<Integer, String> exceptions, String[] strings) {
+            this.numbers = numbers;
+            this.exceptions = exceptions;
+            this.strings = strings;
+        }
+
+        private String get(int sampleIndex) {
+            if (strings != null) {
+                return strings[sampleIndex];
+            }
+            if (exceptions != null && exceptions.containsKey(sampleIndex)) {
+                return exceptions.get(sampleIndex);
+            }
+            return format(numbers[sampleIndex]);
+        }
+    }
+}
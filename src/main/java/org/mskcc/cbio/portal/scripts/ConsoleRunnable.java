@@ -23,6 +23,8 @@ package org.mskcc.cbio.portal.scripts;
 
 import java.io.IOException;
 import java.util.Date;
+import org.mskcc.cbio.portal.dao.ClickHouseBulkUploader;
+import org.mskcc.cbio.portal.dao.JdbcUtil;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 
@@ -135,12 +137,17 @@ public abstract class ConsoleRunnable implements Runnable {
     
     /**
      * Runs the command as a script and exits with an appropriate exit code.
+     * Staging tables uploaded during the run are shared between identical ID sets
+     * and dropped before exiting, and each thread keeps one database connection
+     * for the whole run.
      */
     public void runInConsole() {
         SysExit status;
         try {
             Date start = new Date();
             ProgressMonitor.setConsoleModeAndParseShowProgress(this.args);
+            ClickHouseBulkUploader.beginSession();
+            JdbcUtil.beginImportSession();
             this.run();
             ConsoleUtil.showMessages();
             System.err.println("Done.");
@@ -159,6 +166,10 @@ public abstract class ConsoleRunnable implements Runnable {
             t.printStackTrace();
             status = SysExit.select(t);
         }
+        finally {
+            ClickHouseBulkUploader.endSession();
+            JdbcUtil.endImportSession();
+        }
         System.exit(status.getStatusCode());
     }
 }
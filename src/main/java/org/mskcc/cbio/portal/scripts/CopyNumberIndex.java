@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mskcc.cbio.portal.scripts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact, read-mostly index of a discrete copy number (CNA) file.
+ *
+ * Calls are packed one byte per gene and sample into a row-major matrix, allocated in
+ * blocks of rows so that the file does not have to be counted up front and no block
+ * ever needs to be copied. A gene maps to its row, a sample name to its column; both
+ * are the file's own positions, so columns before the first sample column are unused.
+ * Values other than the discrete calls -2..2 are stored as {@link #NO_CALL}.
+ */
+public final class CopyNumberIndex {
+
+    public static final byte NO_CALL = Byte.MIN_VALUE;
+    private static final int ROWS_PER_BLOCK = 1024;
+
+    private final int columns;
+    private final HashMap<String, Integer> columnOfSample = new HashMap<String, Integer>();
+    private final HashMap<Long, Integer> rowOfGene = new HashMap<Long, Integer>();
+    private final List<byte[]> blocks = new ArrayList<byte[]>();
+    private int rows = 0;
+
+    /**
+     * @param sampleNames sample name per file column; null for columns that are not samples
+     */
+    public CopyNumberIndex(String[] sampleNames) {
+        this.columns = sampleNames.length;
+        for (int i = 0; i < sampleNames.length; i++) {
+            if (sampleNames[i] != null) {
+                columnOfSample.put(sampleNames[i], i);
+            }
+        }
+    }
+
+    /**
+     * Stores the calls of one file row. Columns missing at the end of a short row get
+     * {@link #NO_CALL}.
+     *
+     * @return the row, to be passed to {@link #putGene(long, int)}
+     */
+    public int addRow(String[] values, int firstSampleColumn) {
+        int row = rows++;
+        if (row % ROWS_PER_BLOCK == 0) {
+            byte[] block = new byte[ROWS_PER_BLOCK * columns];
+            Arrays.fill(block, NO_CALL);
+            blocks.add(block);
+        }
+        byte[] block = blocks.get(row / ROWS_PER_BLOCK);
+        int offset = (row % ROWS_PER_BLOCK) * columns;
+        int end = Math.min(values.length, columns);
+        for (int i = firstSampleColumn; i < end; i++) {
+            block[offset + i] = parseCall(values[i]);
+        }
+        return row;
+    }
+
+    public void putGene(long entrezGeneId, int row) {
+        rowOfGene.put(entrezGeneId, row);
+    }
+
+    public void removeGene(long entrezGeneId) {
+        rowOfGene.remove(entrezGeneId);
+    }
+
+    public boolean containsGene(long entrezGeneId) {
+        return rowOfGene.containsKey(entrezGeneId);
+    }
+
+    /**
+     * @return the row of the gene, or -1 if the gene is not indexed
+     */
+    public int getRow(long entrezGeneId) {
+        Integer row = rowOfGene.get(entrezGeneId);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * @return the column of the sample, or -1 if the file has no such sample
+     */
+    public int getColumn(String sampleName) {
+        Integer column = columnOfSample.get(sampleName);
+        return column == null ? -1 : column;
+    }
+
+    public int getGeneCount() {
+        return rowOfGene.size();
+    }
+
+    /**
+     * @return the call at row and column; {@link #NO_CALL} if there is none or column is -1
+     */
+    public byte getCall(int row, int column) {
+        if (column < 0 || column >= columns) {
+            return NO_CALL;
+        }
+        return blocks.get(row / ROWS_PER_BLOCK)[(row % ROWS_PER_BLOCK) * columns + column];
+    }
+
+    public boolean isDiploid(int row, int column) {
+        return getCall(row, column) == 0;
+    }
+
+    /**
+     * Parses a discrete call. Only the exact strings -2, -1, 0, 1 and 2 are calls, so
+     * e.g. "0.0" is not diploid.
+     */
+    static byte parseCall(String value) {
+        switch (value) {
+            case "-2": return -2;
+            case "-1": return -1;
+            case "0": return 0;
+            case "1": return 1;
+            case "2": return 2;
+            default: return NO_CALL;
+        }
+    }
+}
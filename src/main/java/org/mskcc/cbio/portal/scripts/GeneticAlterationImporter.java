@@ -44,10 +44,21 @@ public class GeneticAlterationImporter {
             String geneSymbol
     ) throws DaoException {
         ensureNumberOfValuesIsCorrect(values.length);
-        if (importSetOfGenes.add(gene.getEntrezGeneId())) {
+        if (markGeneImported(gene, geneSymbol)) {
             daoGeneticAlteration.addGeneticAlterations(geneticProfileId, gene.getEntrezGeneId(), values);
             return true;
         }
+        return false;
+    }
+
+    /**
+     * Records that a gene is being imported.
+     * @return false (and logs a warning) if the gene was already imported from this file
+     */
+    protected boolean markGeneImported(CanonicalGene gene, String geneSymbol) {
+        if (importSetOfGenes.add(gene.getEntrezGeneId())) {
+            return true;
+        }
         String geneSymbolMessage = "";
         if (geneSymbol != null && !geneSymbol.equalsIgnoreCase(gene.getHugoGeneSymbolAllCaps())) {
             geneSymbolMessage = " (given as alias in your file as: " + geneSymbol + ")";
@@ -74,10 +85,21 @@ public class GeneticAlterationImporter {
             String[] values
     ) throws DaoException {
         ensureNumberOfValuesIsCorrect(values.length);
-        if (importSetOfGeneticEntityIds.add(geneticEntityId)) {
+        if (markGeneticEntityImported(geneticEntityId)) {
             daoGeneticAlteration.addGeneticAlterationsForGeneticEntity(geneticProfileId, geneticEntityId, values);
             return true;
         }
+        return false;
+    }
+
+    /**
+     * Records that a genetic entity is being imported.
+     * @return false (and logs a warning) if the entity was already imported from this file
+     */
+    protected boolean markGeneticEntityImported(int geneticEntityId) {
+        if (importSetOfGeneticEntityIds.add(geneticEntityId)) {
+            return true;
+        }
         ProgressMonitor.logWarning("Data for genetic entity with id " + geneticEntityId + " already imported from file. Record will be skipped.");
         return false;
     }
@@ -2,18 +2,28 @@ package org.mskcc.cbio.portal.scripts;
 
 import java.util.*;
 
+import org.mskcc.cbio.portal.dao.ClickHouseBulkLoader;
 import org.mskcc.cbio.portal.dao.ClickHouseOptimizer;
 import org.mskcc.cbio.portal.dao.DaoException;
 import org.mskcc.cbio.portal.dao.DaoGeneticAlteration;
 import org.mskcc.cbio.portal.dao.DaoGeneticProfileSamples;
 import org.mskcc.cbio.portal.model.CanonicalGene;
-import org.mskcc.cbio.portal.util.ArrayUtil;
 
+/**
+ * Adds the samples of a file to a genetic profile that already holds data.
+ *
+ * Rows read from the file are kept (at file width) until {@link #complete()}, which streams the
+ * stored rows of the profile in genetic_entity_id order and merges them with the file rows,
+ * sorted the same way. Each merged row is written straight away, so apart from the file rows
+ * only the row being merged is held in memory, whatever the size of the existing profile.
+ */
 public class GeneticAlterationIncrementalImporter extends GeneticAlterationImporter {
 
     private final List<Integer> fileOrderedSampleList;
     private final DaoGeneticAlteration daoGeneticAlteration = DaoGeneticAlteration.getInstance();
-    private HashMap<Integer, HashMap<Integer, String>> geneticAlterationMap;
+    private final TreeMap<Integer, String[]> fileRows = new TreeMap<>();
+    private int savedSampleCount;
+    private int[] fileSamplePositions;
 
     public GeneticAlterationIncrementalImporter(
             int geneticProfileId,
@@ -26,36 +36,39 @@ public class GeneticAlterationIncrementalImporter extends GeneticAlterationImpor
 
     @Override
     public boolean store(String[] values, CanonicalGene gene, String geneSymbol) throws DaoException {
-        int geneticEntityId = gene.getGeneticEntityId();
-        String[] expandedValues = extendValues(geneticEntityId, values);
-        return super.store(expandedValues, gene, geneSymbol);
+        ensureNumberOfFileValuesIsCorrect(values.length);
+        if (!markGeneImported(gene, geneSymbol)) {
+            return false;
+        }
+        fileRows.put(gene.getGeneticEntityId(), values);
+        return true;
     }
 
     @Override
     public boolean store(int geneticEntityId, String[] values) throws DaoException {
-        String[] expandedValues = extendValues(geneticEntityId, values);
-        return super.store(geneticEntityId, expandedValues);
+        ensureNumberOfFileValuesIsCorrect(values.length);
+        if (!markGeneticEntityImported(geneticEntityId)) {
+            return false;
+        }
+        fileRows.put(geneticEntityId, values);
+        return true;
     }
 
     @Override
     public void initialize() {
         try {
-            this.geneticAlterationMap = daoGeneticAlteration.getGeneticAlterationMapForEntityIds(geneticProfileId, null);
             ArrayList <Integer> savedOrderedSampleList = DaoGeneticProfileSamples.getOrderedSampleList(this.geneticProfileId);
-            int initialOrderSampleListSize = savedOrderedSampleList.size();
-            geneticAlterationMap.forEach((geneticEntityId, sampleToValue) -> {
-                if (sampleToValue.size() != initialOrderSampleListSize) {
-                    throw new IllegalStateException("Number of samples ("
-                            + sampleToValue.size() + ") for genetic entity with id "
-                            + geneticEntityId + " does not match with the number in the preexisting sample list ("
-                            + initialOrderSampleListSize + "). Consider reuploading the entire study instead of doing an incremental update.");
-                }
-            });
+            this.savedSampleCount = savedOrderedSampleList.size();
             // add all new sample ids at the end
             this.orderedSampleList = new ArrayList<>(savedOrderedSampleList);
             Set<Integer> savedSampleSet = new HashSet<>(savedOrderedSampleList);
-            List<Integer> newSampleIds = this.fileOrderedSampleList.stream().filter(sampleId -> !savedSampleSet.contains(sampleId)).toList();
+            List<Integer> newSampleIds = this.fileOrderedSampleList.stream().filter(sampleId -> !savedSampleSet.contains(sampleId)).distinct().toList();
             this.orderedSampleList.addAll(newSampleIds);
+            Map<Integer, Integer> sampleIdToPosition = new HashMap<>();
+            for (int i = 0; i < orderedSampleList.size(); i++) {
+                sampleIdToPosition.putIfAbsent(orderedSampleList.get(i), i);
+            }
+            this.fileSamplePositions = fileOrderedSampleList.stream().mapToInt(sampleIdToPosition::get).toArray();
         } catch (DaoException e) {
             throw new RuntimeException(e);
         }
@@ -64,45 +77,54 @@ public class GeneticAlterationIncrementalImporter extends GeneticAlterationImpor
 
     @Override
     public void complete() throws DaoException {
-        expandRemainingGeneticEntityTabDelimitedRowsWithBlankValue();
+        mergeWithSavedRows();
         super.complete();
-        ClickHouseOptimizer.optimizeTables("genetic_alteration", "genetic_profile_samples");
+        if (ClickHouseBulkLoader.isBulkLoad()) {
+            ClickHouseBulkLoader.flushAll();
+        }
+        ClickHouseOptimizer.optimizeProfiles(List.of(geneticProfileId), "genetic_alteration", "genetic_profile_samples");
     }
 
-    private String[] extendValues(int geneticEntityId, String[] values) {
-        Map<Integer, String> sampleIdToValue = mapWithFileOrderedSampleList(values);
-        String[] updatedSampleValues = new String[orderedSampleList.size()];
-        for (int i = 0; i < orderedSampleList.size(); i++) {
-            updatedSampleValues[i] = "";
-            int sampleId = orderedSampleList.get(i);
-            if (geneticAlterationMap.containsKey(geneticEntityId)) {
-                HashMap<Integer, String> savedSampleIdToValue = geneticAlterationMap.get(geneticEntityId);
-                updatedSampleValues[i] = savedSampleIdToValue.containsKey(sampleId) ? savedSampleIdToValue.remove(sampleId): "";
-                if (savedSampleIdToValue.isEmpty()) {
-                    geneticAlterationMap.remove(geneticEntityId);
-                }
-            }
-            if (sampleIdToValue.containsKey(sampleId)) {
-                updatedSampleValues[i] = sampleIdToValue.get(sampleId);
-            }
+    /**
+     * Merge join of the saved rows (streamed in genetic_entity_id order) with the file rows.
+     * Saved entities missing from the file get blank values for the file's samples; file
+     * entities missing from the profile get blank values for the saved samples.
+     */
+    private void mergeWithSavedRows() throws DaoException {
+        if (savedSampleCount > 0) {
+            daoGeneticAlteration.streamGeneticAlterationsOrderedByEntity(geneticProfileId, savedSampleCount,
+                (geneticEntityId, savedValues) -> {
+                    writeFileRowsBefore(geneticEntityId);
+                    writeMergedRow(geneticEntityId, savedValues, fileRows.remove(geneticEntityId));
+                });
         }
-        return updatedSampleValues;
+        writeFileRowsBefore(null);
     }
 
-    private Map<Integer, String> mapWithFileOrderedSampleList(String[] values) {
-        return ArrayUtil.zip(fileOrderedSampleList.toArray(Integer[]::new), values);
+    /**
+     * Writes the file rows of entities ordered before geneticEntityId, or all of them if it is null.
+     */
+    private void writeFileRowsBefore(Integer geneticEntityId) throws DaoException {
+        while (!fileRows.isEmpty() && (geneticEntityId == null || fileRows.firstKey() < geneticEntityId)) {
+            Map.Entry<Integer, String[]> entry = fileRows.pollFirstEntry();
+            writeMergedRow(entry.getKey(), null, entry.getValue());
+        }
     }
 
-    private void expandRemainingGeneticEntityTabDelimitedRowsWithBlankValue() {
-        // Expand remaining genetic entity id rows that were not mentioned in the file
-        new HashSet<>(geneticAlterationMap.keySet()).forEach(geneticEntityId -> {
-            try {
-                String[] values = new String[fileOrderedSampleList.size()];
-                Arrays.fill(values, "");
-                this.store(geneticEntityId, values);
-            } catch (DaoException e) {
-                throw new RuntimeException(e);
-            }
-        });
+    private void writeMergedRow(int geneticEntityId, String[] savedValues, String[] fileValues) throws DaoException {
+        String[] mergedValues = new String[orderedSampleList.size()];
+        for (int i = 0; i < mergedValues.length; i++) {
+            mergedValues[i] = savedValues != null && i < savedSampleCount ? savedValues[i] : "";
+        }
+        for (int j = 0; j < fileSamplePositions.length; j++) {
+            mergedValues[fileSamplePositions[j]] = fileValues == null ? "" : fileValues[j];
+        }
+        daoGeneticAlteration.addGeneticAlterationsForGeneticEntity(geneticProfileId, geneticEntityId, mergedValues);
+    }
+
+    private void ensureNumberOfFileValuesIsCorrect(int valuesNumber) {
+        if (valuesNumber != fileOrderedSampleList.size()) {
+            throw new IllegalArgumentException("There has to be " + fileOrderedSampleList.size() + " values, but only " + valuesNumber+ " has passed.");
+        }
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2026 Memorial Sloan-Kettering Cancer Center.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, WITHOUT EVEN THE IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+ * FOR A PARTICULAR PURPOSE. The software and documentation provided hereunder
+ * is on an "as is" basis, and Memorial Sloan-Kettering Cancer Center has no
+ * obligations to provide maintenance, support, updates, enhancements or
+ * modifications. In no event shall Memorial Sloan-Kettering Cancer Center be
+ * liable to any party for direct, indirect, special, incidental or
+ * consequential damages, including lost profits, arising out of the use of this
+ * software and its documentation, even if Memorial Sloan-Kettering Cancer
+ * Center has been advised of the possibility of such damage.
+ */
+
+/*
+ * This file is part of cBioPortal.
+ *
+ * cBioPortal is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.mskcc.cbio.portal.scripts;
+
+import org.mskcc.cbio.portal.dao.ClickHouseBulkDeleter;
+import org.mskcc.cbio.portal.dao.ClickHouseBulkLoader;
+import org.mskcc.cbio.portal.dao.ClickHouseOptimizer;
+import org.mskcc.cbio.portal.dao.DaoClinicalData;
+import org.mskcc.cbio.portal.dao.DaoException;
+import org.mskcc.cbio.portal.dao.DaoPatient;
+import org.mskcc.cbio.portal.dao.DaoSample;
+import org.mskcc.cbio.portal.util.ConsoleUtil;
+import org.mskcc.cbio.portal.util.ProgressMonitor;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command Line Tool to run several import steps in one JVM.
+ *
+ * The manifest holds one step per line: the fully qualified name of a ConsoleRunnable in this
+ * package followed by its arguments, separated by tabs. Blank lines and lines starting with
+ * '#' are ignored. Steps run in order with the caches of DaoGeneOptimized, DaoCancerStudy,
+ * DaoPatient and DaoSample kept warm between them. Bulk and relaxed load mode are switched
+ * off after every step, and a failed step's buffered rows, deletes and OPTIMIZE requests are
+ * dropped. The batch stops at the first step that fails, exiting with that step's exit status.
+ */
+public class ImportBatch extends ConsoleRunnable {
+
+    private static final String STEP_PACKAGE = ImportBatch.class.getPackageName() + ".";
+
+    public void run() {
+        String progName = "importBatch";
+        String argSpec = "<manifest file>";
+        if (args.length < 1) {
+            // an extra --noprogress option can be given to avoid the messages regarding memory usage and % complete
+            throw new UsageException(progName, null, argSpec);
+        }
+        List<String[]> steps;
+        try {
+            steps = readManifest(Path.of(args[0]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            runStep(i + 1, steps.size(), steps.get(i));
+        }
+        ClickHouseOptimizer.getOptimizeMillis().forEach((table, millis) ->
+            ProgressMonitor.setCurrentMessage("OPTIMIZE " + table + ": " + millis + " ms"));
+    }
+
+    static List<String[]> readManifest(Path manifest) throws IOException {
+        List<String[]> steps = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            steps.add(line.split("\t", -1));
+        }
+        return steps;
+    }
+
+    void runStep(int stepNumber, int stepCount, String[] step) {
+        String className = step[0].trim();
+        String[] stepArgs = Arrays.copyOfRange(step, 1, step.length);
+        ProgressMonitor.setConsoleModeAndParseShowProgress(stepArgs);
+        ProgressMonitor.setCurrentMessage("> [" + stepNumber + "/" + stepCount + "] " + className + " " + String.join(" ", stepArgs));
+        ConsoleRunnable runner = createStep(className, stepArgs);
+        long start = System.currentTimeMillis();
+        ProgressMonitor.setCurValue(0);
+        ClickHouseOptimizer.deferOptimizations();
+        try {
+            runner.run();
+            // a step that left rows buffered would otherwise see them sent by the next step
+            ClickHouseBulkLoader.flushAll();
+            ClickHouseOptimizer.runDeferredOptimizations();
+        } catch (RuntimeException e) {
+            discardStep(stepNumber, className);
+            throw e;
+        } catch (DaoException e) {
+            discardStep(stepNumber, className);
+            throw new RuntimeException(e);
+        } finally {
+            resetStepState();
+        }
+        ConsoleUtil.showMessages();
+        ProgressMonitor.resetWarnings();
+        ProgressMonitor.resetDebugMessages();
+        ProgressMonitor.setCurrentMessage("Step " + stepNumber + " done in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Drops what a failed step left pending, so that none of it is written later, and
+     * reloads the caches that may list patients, samples or attributes whose rows were
+     * dropped with it.
+     */
+    private static void discardStep(int stepNumber, String className) {
+        ClickHouseOptimizer.discardDeferredOptimizations();
+        ClickHouseBulkLoader.discardAll();
+        ClickHouseBulkDeleter.discardAll();
+        DaoPatient.reCache();
+        DaoSample.reCache();
+        DaoClinicalData.reCache();
+        ProgressMonitor.setCurrentMessage("Step " + stepNumber + " (" + className + ") failed.");
+    }
+
+    /**
+     * Importers switch bulk and relaxed mode on without always switching them off, and keep
+     * some per-import counters in static fields; none of that may carry into the next step.
+     */
+    private static void resetStepState() {
+        ClickHouseBulkLoader.bulkLoadOff();
+        ClickHouseBulkLoader.relaxedModeOff();
+        ImportGenesetData.skippedGenes = 0;
+    }
+
+    private static ConsoleRunnable createStep(String className, String[] stepArgs) {
+        if (!className.startsWith(STEP_PACKAGE) || className.equals(ImportBatch.class.getName())) {
+            throw new IllegalArgumentException("Not an import step: " + className);
+        }
+        try {
+            Class<? extends ConsoleRunnable> stepClass = Class.forName(className).asSubclass(ConsoleRunnable.class);
+            Constructor<? extends ConsoleRunnable> constructor = stepClass.getConstructor(String[].class);
+            return constructor.newInstance((Object) stepArgs);
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException e) {
+            throw new IllegalArgumentException("Not an import step: " + className, e);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes an instance to run with the given command line arguments.
+     *
+     * @param args  the command line arguments to be used
+     */
+    public ImportBatch(String[] args) {
+        super(args);
+    }
+
+    /**
+     * Runs the command as a script and exits with an appropriate exit code.
+     *
+     * @param args  the arguments given on the command line
+     */
+    public static void main(String[] args) {
+        ConsoleRunnable runner = new ImportBatch(args);
+        runner.runInConsole();
+    }
+}
@@ -167,8 +167,7 @@ public class ImportClinicalData extends ConsoleRunnable {
             ClickHouseBulkLoader.relaxedModeOn();
         }    
         
-        try (FileReader reader = new FileReader(clinicalDataFile);
-             BufferedReader buff = new BufferedReader(reader)) {
+        try (BufferedReader buff = FileUtil.openProgressReader(clinicalDataFile)) {
             List<ClinicalAttribute> columnAttrs = grabAttrs(buff);
 
             int patientIdIndex = findPatientIdColumn(columnAttrs);
@@ -708,9 +707,6 @@ public class ImportClinicalData extends ConsoleRunnable {
                 throw new IllegalArgumentException("Unknown cancer study: " + cancerStudyStableId);
             }
             ProgressMonitor.setCurrentMessage("Reading data from:  " + clinical_f.getAbsolutePath());
-            int numLines = FileUtil.getNumLines(clinical_f);
-            ProgressMonitor.setCurrentMessage(" --> total number of lines:  " + numLines);
-            ProgressMonitor.setMaxValue(numLines);
 
             setFile(cancerStudy, clinical_f, attributesDatatype, relaxed);
             importData();
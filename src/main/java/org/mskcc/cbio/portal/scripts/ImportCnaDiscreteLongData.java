@@ -41,6 +41,7 @@ import org.mskcc.cbio.portal.model.shared.GeneticAlterationType;
 import org.mskcc.cbio.portal.model.shared.MolecularProfileDataType;
 import org.mskcc.cbio.portal.util.CnaUtil;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
+import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.GeneticProfileUtil;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 import org.mskcc.cbio.portal.util.StableIdUtil;
@@ -104,9 +105,8 @@ public class ImportCnaDiscreteLongData {
        this(cnaFile, geneticProfileId, genePanel, daoGene, namespaces, false);
     }
     public void importData() throws Exception {
-        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples", "sample_cna_event", "sample_profile"), () -> {
-            try (FileReader reader = new FileReader(this.cnaFile);
-                 BufferedReader buf = new BufferedReader(reader)) {
+        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples", "sample_cna_event", "sample_profile"), List.of(geneticProfileId), () -> {
+            try (BufferedReader buf = FileUtil.openProgressReader(this.cnaFile)) {
 
                 ProgressMonitor.setCurrentMessage("Importing CNA discrete long data from file: " + this.cnaFile.getAbsolutePath());
 
@@ -64,8 +64,7 @@ public class ImportCopyNumberSegmentData extends ConsoleRunnable {
     private Set<Integer> processedSampleIds;
 
     private void importData(File file, int cancerStudyId) throws IOException, DaoException {
-        FileReader reader = new FileReader(file);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(file);
         try {
             String line = buf.readLine(); // skip header line
             long segId = DaoCopyNumberSegment.getLargestId();
@@ -145,10 +144,13 @@ public class ImportCopyNumberSegmentData extends ConsoleRunnable {
                  throw new IllegalArgumentException("Seg data for cancer study " + cancerStudy.getCancerStudyStableId() + " has already been imported: " + dataFile);
             }
             ClickHouseBulkLoader.bulkLoadOn();
+            // clinical_sample is also optimized while deriving fraction genome altered; merge it once
+            ClickHouseOptimizer.deferOptimizations();
             importCopyNumberSegmentFileMetadata(cancerStudy, properties);
             importCopyNumberSegmentFileData(cancerStudy, dataFile);
             DaoCopyNumberSegment.createFractionGenomeAlteredClinicalData(cancerStudy.getInternalId(), processedSampleIds, isIncrementalUpdateMode);
             ClickHouseOptimizer.optimizeTables("clinical_sample", "clinical_patient");
+            ClickHouseOptimizer.runDeferredOptimizations();
             ClickHouseBulkLoader.bulkLoadOff();
         } catch (RuntimeException e) {
             throw e;
@@ -200,9 +202,6 @@ public class ImportCopyNumberSegmentData extends ConsoleRunnable {
 
     private void importCopyNumberSegmentFileData(CancerStudy cancerStudy, String dataFilename) throws IOException, DaoException {
         File file = new File(dataFilename);
-        int numLines = FileUtil.getNumLines(file);
-        ProgressMonitor.setCurrentMessage(" --> total number of data lines:  " + (numLines-1));
-        ProgressMonitor.setMaxValue(numLines);
         entriesSkipped = 0;
         importData(file, cancerStudy.getInternalId());
         ProgressMonitor.setCurrentMessage(" --> total number of entries skipped:  " + entriesSkipped);
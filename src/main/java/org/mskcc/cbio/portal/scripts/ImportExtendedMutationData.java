@@ -34,6 +34,10 @@ package org.mskcc.cbio.portal.scripts;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.*;
 import org.apache.commons.lang3.StringUtils;
 import org.mskcc.cbio.maf.MafRecord;
@@ -48,6 +52,7 @@ import org.mskcc.cbio.portal.dao.DaoMutation;
 import org.mskcc.cbio.portal.dao.DaoReferenceGenome;
 import org.mskcc.cbio.portal.dao.DaoSample;
 import org.mskcc.cbio.portal.dao.DaoSampleProfile;
+import org.mskcc.cbio.portal.dao.MutationEventIndex;
 import org.mskcc.cbio.portal.model.AlleleSpecificCopyNumber;
 import org.mskcc.cbio.portal.model.CancerStudy;
 import org.mskcc.cbio.portal.model.CanonicalGene;
@@ -58,6 +63,7 @@ import org.mskcc.cbio.portal.model.GeneticProfile;
 import org.mskcc.cbio.portal.model.Sample;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
 import org.mskcc.cbio.portal.util.ExtendedMutationUtil;
+import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.GeneticProfileUtil;
 import org.mskcc.cbio.portal.util.GlobalProperties;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
@@ -90,11 +96,34 @@ public class ImportExtendedMutationData {
     private Set<String> namespaces = new HashSet<String>();
     private Pattern SEQUENCE_SAMPLES_REGEX = Pattern.compile("^.*sequenced_samples:(.*)$");
     private final String ASCN_NAMESPACE = "ASCN";
+    // most records carry no namespace data, so their (identical) JSON is only written once
+    private boolean emptyAnnotationJsonKnown = false;
+    private String emptyAnnotationJson;
 
     private final Integer genePanelId;
 
     private final boolean overwriteExisting;
 
+    private static final int ROWS_PER_TASK = 256;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+
+    // state of the running import; only the thread reading the file touches it
+    private DaoGeneOptimized daoGene;
+    private MafUtil mafUtil;
+    private int cancerStudyId;
+    private String genomeBuildName;
+    private HashSet<String> sequencedCaseSet;
+    private MutationEventIndex existingEvents;
+    private long mutationEventId;
+    private Set<Integer> processedSamples;
+    // the sample whose rows are being read; written once a row of another sample follows
+    private Integer currentSampleId;
+    private SampleMutations currentSampleMutations;
+    // mutation event ids already written for each sample, sorted
+    private Map<Integer, long[]> writtenEventIds;
+    // later lines repeating a written mutation, in file order; merged with it at the end
+    private Map<ExtendedMutation, List<ExtendedMutation>> lateRepeats;
+
     /**
      * construct an ImportExtendedMutationData.
      * Filter mutations according to the no argument MutationFilter().
@@ -131,33 +160,39 @@ public class ImportExtendedMutationData {
         this.swissprotIsAccession = swissprotIsAccession;
     }
 
+    /**
+     * Sets the number of threads that parse data rows and resolve their genes. With a single
+     * thread, rows are parsed on the thread that reads the file.
+     *
+     * @param parseThreads  number of parsing threads
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = Math.max(1, parseThreads);
+    }
+
     public void importData() throws IOException, DaoException {
         ClickHouseBulkLoader.bulkLoadOn();
 
-        HashSet <String> sequencedCaseSet = new HashSet<String>();
+        sequencedCaseSet = new HashSet<String>();
 
-        Map<MutationEvent,MutationEvent> existingEvents = new HashMap<MutationEvent,MutationEvent>();
-        ProgressMonitor.setCurrentMessage("Starting to load existing mutation events...");
-        for(MutationEvent mutationEvent: DaoMutation.getAllMutationEvents()) {
-            existingEvents.put(mutationEvent, mutationEvent);
-        }
-        ProgressMonitor.setCurrentMessage("Loaded " + existingEvents.size() + " existing mutation events.");
-        Set<MutationEvent> newEvents = new HashSet<MutationEvent>();
-
-        Map<ExtendedMutation,ExtendedMutation> mutations = new HashMap<ExtendedMutation,ExtendedMutation>();
-        long mutationEventId = DaoMutation.getLargestMutationEventId();
+        // existing mutation events are looked up per chromosome as the file needs them
+        existingEvents = new MutationEventIndex();
+        mutationEventId = DaoMutation.getLargestMutationEventId();
 
-        List<AlleleSpecificCopyNumber> ascnRecords = new ArrayList<AlleleSpecificCopyNumber>();
+        currentSampleId = null;
+        currentSampleMutations = null;
+        writtenEventIds = new HashMap<Integer, long[]>();
+        lateRepeats = new LinkedHashMap<ExtendedMutation, List<ExtendedMutation>>();
+        processedSamples = new HashSet<Integer>();
 
-        DaoGeneOptimized daoGene = DaoGeneOptimized.getInstance();
+        daoGene = DaoGeneOptimized.getInstance();
 
-        try (FileReader reader = new FileReader(mutationFile);
-             BufferedReader buf = new BufferedReader(reader)) {
+        try (BufferedReader buf = FileUtil.openProgressReader(mutationFile)) {
 
         // process MAF header and return line immediately following it
         String line = processMAFHeader(buf);
 
-        MafUtil mafUtil = new MafUtil(line, namespaces);
+        mafUtil = new MafUtil(line, namespaces);
 
         boolean fileHasOMAData = false;
 
@@ -173,329 +208,68 @@ public class ImportExtendedMutationData {
         }
 
         GeneticProfile geneticProfile = DaoGeneticProfile.getGeneticProfileById(geneticProfileId);
+        cancerStudyId = geneticProfile.getCancerStudyId();
 
         CancerStudy cancerStudy = DaoCancerStudy.getCancerStudyByInternalId(geneticProfile.getCancerStudyId());
         String referenceGenome = cancerStudy.getReferenceGenome();
         if (referenceGenome == null) {
             referenceGenome = GlobalProperties.getReferenceGenomeName();
         }
-        String genomeBuildName = DaoReferenceGenome.getReferenceGenomeByGenomeName(referenceGenome).getBuildName();
-        Set<Integer> processedSamples = new HashSet<>();
-        while((line=buf.readLine()) != null)
-        {
-            ProgressMonitor.incrementCurValue();
-            ConsoleUtil.showProgress();
-
-            if(TsvUtil.isDataLine(line))
+        genomeBuildName = DaoReferenceGenome.getReferenceGenomeByGenomeName(referenceGenome).getBuildName();
+
+        // fill the chromosome lookup before rows are resolved on several threads
+        DaoGeneOptimized.normalizeChr("1");
+
+        // rows are parsed and resolved to genes in parallel, in chunks, and ingested in file order
+        ExecutorService executor = null;
+        if (parseThreads > 1) {
+            executor = Executors.newFixedThreadPool(parseThreads, runnable -> {
+                Thread thread = new Thread(runnable, "parse-mutations");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ArrayDeque<Future<List<MafRow>>> pending = new ArrayDeque<>();
+        try {
+            List<String> chunk = new ArrayList<>(ROWS_PER_TASK);
+            int rows = 0;
+            while((line=buf.readLine()) != null)
             {
-                String[] parts = TsvUtil.splitTsvLine(line);
-                MafRecord record = mafUtil.parseRecord(line);
+                ProgressMonitor.incrementCurValue();
+                ConsoleUtil.showProgress();
 
-                if (!record.getNcbiBuild().equalsIgnoreCase(genomeBuildName)) {
-                    ProgressMonitor.logWarning("Genome Build Name does not match, expecting " + genomeBuildName);
-                }
-                // process case id
-                String barCode = record.getTumorSampleID();
-                Sample sample = DaoSample.getSampleByCancerStudyAndSampleId(geneticProfile.getCancerStudyId(),
-                        StableIdUtil.getSampleId(barCode));
-                // can be null in case of 'normal' sample:
-                // (if data files are run through validator, this condition should be minimal)
-                if (sample == null) {
-                    if (StableIdUtil.isNormal(barCode)) {
-                        //if new sample:
-                        if (sampleSet.add(barCode))
-                            samplesSkipped++;
-                        continue;
-                    }
-                    else {
-                        throw new RuntimeException("Unknown sample id '" + StableIdUtil.getSampleId(barCode) + "' found in MAF file: " + this.mutationFile.getCanonicalPath());
-                    }
-                } else if (overwriteExisting && !processedSamples.contains(sample.getInternalId())) {
-                    DaoMutation.deleteAllRecordsInGeneticProfileForSample(geneticProfileId, sample.getInternalId());
-                    processedSamples.add(sample.getInternalId());
-                }
-
-                String validationStatus = record.getValidationStatus();
-
-                if (validationStatus == null ||
-                    validationStatus.equalsIgnoreCase("Wildtype"))
+                if(TsvUtil.isDataLine(line))
                 {
-                    ProgressMonitor.logWarning("Skipping entry with Validation_Status: Wildtype");
-                    entriesSkipped++;
-                    continue;
-                }
-
-                String chr = DaoGeneOptimized.normalizeChr(record.getChr().toUpperCase());
-                if (chr==null) {
-                    ProgressMonitor.logWarning("Skipping entry with chromosome value: " + record.getChr());
-                    entriesSkipped++;
-                    continue;
-                }
-                record.setChr(chr);
-
-                if (record.getStartPosition() < 0)
-                    record.setStartPosition(0);
-
-                if (record.getEndPosition() < 0)
-                    record.setEndPosition(0);
-
-                String mutationType,
-                    proteinChange,
-                    aaChange,
-                    codonChange,
-                    refseqMrnaId,
-                    uniprotAccession;
-
-                int proteinPosStart,
-                    proteinPosEnd;
-
-                // determine whether to use canonical or best effect transcript
-
-                // try canonical first
-                if (ExtendedMutationUtil.isAcceptableMutation(record.getVariantClassification()))
-                {
-                    mutationType = record.getVariantClassification();
-                }
-                // if not acceptable either, use the default value
-                else
-                {
-                    mutationType = ExtendedMutationUtil.getMutationType(record);
-                }
-
-                // skip RNA mutations
-                if (mutationType != null && mutationType.equalsIgnoreCase("rna"))
-                {
-                    ProgressMonitor.logWarning("Skipping entry with mutation type: RNA");
-                    entriesSkipped++;
-                    continue;
-                }
-
-                proteinChange = ExtendedMutationUtil.getProteinChange(parts, record);
-                //proteinChange = record.getProteinChange();
-                aaChange = record.getAminoAcidChange();
-                codonChange = record.getCodons();
-                refseqMrnaId = record.getRefSeq();
-                //always uniprot accession
-                uniprotAccession = record.getSwissprot();
-                
-                proteinPosStart = ExtendedMutationUtil.getProteinPosStart(
-                        record.getProteinPosition(), proteinChange);
-                proteinPosEnd = ExtendedMutationUtil.getProteinPosEnd(
-                        record.getProteinPosition(), proteinChange);
-
-                //  Assume we are dealing with Entrez Gene Ids (this is the best / most stable option)
-                String geneSymbol = record.getHugoGeneSymbol();
-                String entrezIdString = record.getGivenEntrezGeneId();
-
-                CanonicalGene gene = null;
-                // try to parse entrez if it is not empty nor 0:
-                if (!(entrezIdString.isEmpty() ||
-                      entrezIdString.equals("0"))) {
-                    Long entrezGeneId;
-                    try {
-                        entrezGeneId = Long.parseLong(entrezIdString);
-                    } catch (NumberFormatException e) {
-                        entrezGeneId = null;
-                    }
-                    //non numeric values or negative values should not be allowed:
-                    if (entrezGeneId == null || entrezGeneId < 0) {
-                        ProgressMonitor.logWarning(
-                                "Ignoring line with invalid Entrez_Id " +
-                                entrezIdString);
-                        entriesSkipped++;
-                        continue;
-                    } else {
-                        gene = daoGene.getGene(entrezGeneId);
-                        if (gene == null) {
-                            //skip if not in DB:
-                            ProgressMonitor.logWarning(
-                                    "Entrez gene ID " + entrezGeneId +
-                                    " not found. Record will be skipped.");
-                            entriesSkipped++;
-                            continue;
-                        }
-                    }
-                }
-
-                // If Entrez Gene ID Fails, try Symbol.
-                if (gene == null &&
-                        !(geneSymbol.equals("") ||
-                          geneSymbol.equals("Unknown"))) {
-                    gene = daoGene.getNonAmbiguousGene(geneSymbol, true);
-                }
-
-                // assume symbol=Unknown and entrez=0 (or missing Entrez column) to imply an
-                // intergenic, irrespective of what the column Variant_Classification says
-                if (geneSymbol.equals("Unknown") &&
-                        (entrezIdString.equals("0") || mafUtil.getEntrezGeneIdIndex() == -1)) {
-                    // give extra warning if mutationType is something different from IGR:
-                    if (mutationType != null &&
-                            !mutationType.equalsIgnoreCase("IGR")) {
-                        ProgressMonitor.logWarning(
-                            "Treating mutation with gene symbol 'Unknown' " +
-                            (mafUtil.getEntrezGeneIdIndex() == -1 ? "" : "and Entrez gene id 0") + " as intergenic ('IGR') " +
-                            "instead of '" + mutationType + "'. Entry filtered/skipped.");
-                    }
-                    // treat as IGR:
-                    myMutationFilter.decisions++;
-                    myMutationFilter.addRejectedVariant(myMutationFilter.rejectionMap, "IGR");
-                    // skip entry:
-                    entriesSkipped++;
-                    continue;
-                }
-
-                // skip the record if a gene was expected but not identified
-                if (gene == null) {
-                    ProgressMonitor.logWarning(
-                            "Ambiguous or missing gene: " + geneSymbol +
-                            " ["+ record.getGivenEntrezGeneId() +
-                            "] or ambiguous alias. Ignoring it " +
-                            "and all mutation data associated with it!");
-                    entriesSkipped++;
-                    continue;
-                } else {
-                    ExtendedMutation mutation = new ExtendedMutation();
-
-                    mutation.setGeneticProfileId(geneticProfileId);
-                    mutation.setSampleId(sample.getInternalId());
-                    mutation.setGene(gene);
-                    mutation.setSequencingCenter(record.getCenter());
-                    mutation.setSequencer(record.getSequencer());
-                    mutation.setProteinChange(proteinChange);
-                    mutation.setAminoAcidChange(aaChange);
-                    mutation.setMutationType(mutationType);
-                    mutation.setChr(record.getChr());
-                    mutation.setStartPosition(record.getStartPosition());
-                    mutation.setEndPosition(record.getEndPosition());
-                    mutation.setValidationStatus(record.getValidationStatus());
-                    mutation.setMutationStatus(record.getMutationStatus());
-                    mutation.setNcbiBuild(record.getNcbiBuild());
-                    mutation.setStrand(record.getStrand());
-                    mutation.setVariantType(record.getVariantType());
-                    mutation.setAllele(record.getTumorSeqAllele1(), record.getTumorSeqAllele2(), record.getReferenceAllele());
-                    // log whether tumor seq allele is empty (failed to resolve tumor seq allele because of invalid data values)
-                    if (mutation.getTumorSeqAllele().isEmpty()) {
-                        ProgressMonitor.logWarning("Tumor allele could not be resolved for sample '" + sample.getStableId() +
-                            "' (chr,start,end,ref,tum1,tum2) = (" + record.getChr() + "," + record.getStartPosition() + "," +
-                            record.getEndPosition() + "," + record.getReferenceAllele() + "," + record.getTumorSeqAllele1() +
-                            "," + record.getTumorSeqAllele2() + ")");
-                    }
-                    mutation.setDbSnpRs(record.getDbSNP_RS());
-                    mutation.setDbSnpValStatus(record.getDbSnpValStatus());
-                    mutation.setMatchedNormSampleBarcode(record.getMatchedNormSampleBarcode());
-                    mutation.setMatchNormSeqAllele1(record.getMatchNormSeqAllele1());
-                    mutation.setMatchNormSeqAllele2(record.getMatchNormSeqAllele2());
-                    mutation.setTumorValidationAllele1(record.getTumorValidationAllele1());
-                    mutation.setTumorValidationAllele2(record.getTumorValidationAllele2());
-                    mutation.setMatchNormValidationAllele1(record.getMatchNormValidationAllele1());
-                    mutation.setMatchNormValidationAllele2(record.getMatchNormValidationAllele2());
-                    mutation.setVerificationStatus(record.getVerificationStatus());
-                    mutation.setSequencingPhase(record.getSequencingPhase());
-                    mutation.setSequenceSource(record.getSequenceSource());
-                    mutation.setValidationMethod(record.getValidationMethod());
-                    mutation.setScore(record.getScore());
-                    mutation.setBamFile(record.getBamFile());
-                    mutation.setTumorAltCount(ExtendedMutationUtil.getTumorAltCount(record));
-                    mutation.setTumorRefCount(ExtendedMutationUtil.getTumorRefCount(record));
-                    mutation.setNormalAltCount(ExtendedMutationUtil.getNormalAltCount(record));
-                    mutation.setNormalRefCount(ExtendedMutationUtil.getNormalRefCount(record));
-
-                    //  renamed the oncotator column names to mutation
-                    mutation.setCodonChange(codonChange);
-                    mutation.setRefseqMrnaId(refseqMrnaId);
-                    mutation.setUniprotAccession(uniprotAccession);
-                    mutation.setProteinPosStart(proteinPosStart);
-                    mutation.setProteinPosEnd(proteinPosEnd);
-
-                    mutation.setDriverFilter(record.getDriverFilter());
-                    mutation.setDriverFilterAnn(record.getDriverFilterAnn());
-                    mutation.setDriverTiersFilter(record.getDriverTiersFilter());
-                    mutation.setDriverTiersFilterAnn(record.getDriverTiersFilterAnn());
-
-                    // TODO we don't use this info right now...
-                    mutation.setCanonicalTranscript(true);
-
-                    AlleleSpecificCopyNumber ascn = null;
-                    if (namespaces != null && namespaces.contains(ASCN_NAMESPACE)) {
-                        Map<String, Object> ascnData = record.getNamespacesMap().remove(ASCN_NAMESPACE);
-                        // The AlleleSpecificCopyNumber constructor will construct the record from
-                        // the ascnData hashmap and the ascnData will simultaneously be removed from
-                        // the record's namespaces map since it is going into its own table
-                        ascn = new AlleleSpecificCopyNumber(ascnData);
-                    }
-                    mutation.setAnnotationJson(
-                        mafUtil.getNamespaceColumnParser().writeValueAsString(record.getNamespacesMap())
-                    );
-
-                    sequencedCaseSet.add(sample.getStableId());
-
-                    //  Filter out Mutations
-                    if( myMutationFilter.acceptMutation( mutation, this.filteredMutations )) {
-                        MutationEvent event = existingEvents.get(mutation.getEvent());
-                        if (event!=null) {
-                            mutation.setEvent(event);
-                        } else {
-                            mutation.setMutationEventId(++mutationEventId);
-                            existingEvents.put(mutation.getEvent(), mutation.getEvent());
-                            newEvents.add(mutation.getEvent());
-                        }
-
-                        ExtendedMutation exist = mutations.get(mutation);
-                        if (exist!=null) {
-                            ExtendedMutation merged = mergeMutationData(exist, mutation);
-                            mutations.put(merged, merged);
-                        } else {
-                            mutations.put(mutation,mutation);
-                        }
-                        // update ascn object with mutation unique key details
-                        if (ascn != null){
-                            ascn.updateAscnUniqueKeyDetails(mutation);
-                            ascnRecords.add(ascn);
-                        }
-
-                        //keep track:
-                        sampleSet.add(sample.getStableId());
-                        internalSampleIds.add(sample.getInternalId());
-                        geneSet.add(mutation.getEntrezGeneId()+"");
-                    }
-                    else {
-                        entriesSkipped++;
+                    chunk.add(line);
+                    if (chunk.size() == ROWS_PER_TASK) {
+                        submit(executor, pending, chunk, rows);
+                        rows += chunk.size();
+                        chunk = new ArrayList<>(ROWS_PER_TASK);
                     }
                 }
             }
-        }
-        DaoSampleProfile.upsertSampleToProfileMapping(internalSampleIds, geneticProfileId, genePanelId);
-
-        for (MutationEvent event : newEvents) {
-            try {
-                DaoMutation.addMutationEvent(event);
-            } catch (DaoException ex) {
-                throw ex;
+            if (!chunk.isEmpty()) {
+                submit(executor, pending, chunk, rows);
             }
-        }
-
-        for (ExtendedMutation mutation : mutations.values()) {
-            try {
-                DaoMutation.addMutation(mutation,false);
-            } catch (DaoException ex) {
-                throw ex;
+            while (!pending.isEmpty()) {
+                ingest(pending.poll());
             }
-        }
-
-        for (AlleleSpecificCopyNumber ascn : ascnRecords) {
-            try {
-                DaoAlleleSpecificCopyNumber.addAlleleSpecificCopyNumber(ascn);
-            } catch (DaoException ex) {
-                throw ex;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
+        // the last sample of the file
+        writeSample();
+        mergeLateRepeats();
+        DaoSampleProfile.upsertSampleToProfileMapping(internalSampleIds, geneticProfileId, genePanelId);
 
         if( ClickHouseBulkLoader.isBulkLoad()) {
             ClickHouseBulkLoader.flushAll();
         }
         // run sanity check on `mutation_event` to determine whether duplicate
         // events were introduced during current import
-        if (DaoMutation.hasDuplicateMutationEvents()) {
+        if (DaoMutation.hasDuplicateMutationEvents(existingEvents.getEvents())) {
             throw new DaoException("Duplicate mutation events were detected during this import. Aborting...");
         }
 
@@ -530,6 +304,456 @@ public class ImportExtendedMutationData {
         } // end try-with-resources
     }
 
+    /**
+     * Queues a chunk of data lines for parsing. When enough chunks are in flight, first
+     * ingests the oldest one, so at most twice the thread count are held in memory.
+     */
+    private void submit(ExecutorService executor, ArrayDeque<Future<List<MafRow>>> pending,
+            List<String> lines, int firstRow) throws IOException, DaoException {
+        if (executor == null) {
+            for (MafRow row : parseRows(lines, firstRow)) {
+                ingest(row);
+            }
+            return;
+        }
+        if (pending.size() >= 2 * parseThreads) {
+            ingest(pending.poll());
+        }
+        pending.add(executor.submit(() -> parseRows(lines, firstRow)));
+    }
+
+    private void ingest(Future<List<MafRow>> future) throws IOException, DaoException {
+        List<MafRow> rows;
+        try {
+            rows = future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        for (MafRow row : rows) {
+            ingest(row);
+        }
+    }
+
+    private List<MafRow> parseRows(List<String> lines, int firstRow) {
+        List<MafRow> rows = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            rows.add(parseRow(lines.get(i), firstRow + i));
+        }
+        return rows;
+    }
+
+    /**
+     * Parses a data line and resolves its gene. Runs on the parsing threads, so it only
+     * looks at the line itself; warnings and errors are kept on the row and reported when
+     * the row is ingested, in file order.
+     */
+    private MafRow parseRow(String line, int rowIndex) {
+        MafRow row = new MafRow(rowIndex);
+        try {
+            row.record = mafUtil.parseRecord(line);
+            resolveRow(row);
+        } catch (RuntimeException e) {
+            row.failure = e;
+        }
+        return row;
+    }
+
+    private void resolveRow(MafRow row) {
+        MafRecord record = row.record;
+        String validationStatus = record.getValidationStatus();
+
+        if (validationStatus == null ||
+            validationStatus.equalsIgnoreCase("Wildtype"))
+        {
+            row.skipWarning = "Skipping entry with Validation_Status: Wildtype";
+            return;
+        }
+
+        String chr = DaoGeneOptimized.normalizeChr(record.getChr().toUpperCase());
+        if (chr==null) {
+            row.skipWarning = "Skipping entry with chromosome value: " + record.getChr();
+            return;
+        }
+        record.setChr(chr);
+
+        if (record.getStartPosition() < 0)
+            record.setStartPosition(0);
+
+        if (record.getEndPosition() < 0)
+            record.setEndPosition(0);
+
+        String mutationType,
+            proteinChange,
+            aaChange,
+            codonChange,
+            refseqMrnaId,
+            uniprotAccession;
+
+        int proteinPosStart,
+            proteinPosEnd;
+
+        // determine whether to use canonical or best effect transcript
+
+        // try canonical first
+        if (ExtendedMutationUtil.isAcceptableMutation(record.getVariantClassification()))
+        {
+            mutationType = record.getVariantClassification();
+        }
+        // if not acceptable either, use the default value
+        else
+        {
+            mutationType = ExtendedMutationUtil.getMutationType(record);
+        }
+
+        // skip RNA mutations
+        if (mutationType != null && mutationType.equalsIgnoreCase("rna"))
+        {
+            row.skipWarning = "Skipping entry with mutation type: RNA";
+            return;
+        }
+
+        proteinChange = ExtendedMutationUtil.getProteinChange(record);
+        //proteinChange = record.getProteinChange();
+        aaChange = record.getAminoAcidChange();
+        codonChange = record.getCodons();
+        refseqMrnaId = record.getRefSeq();
+        //always uniprot accession
+        uniprotAccession = record.getSwissprot();
+
+        proteinPosStart = ExtendedMutationUtil.getProteinPosStart(
+                record.getProteinPosition(), proteinChange);
+        proteinPosEnd = ExtendedMutationUtil.getProteinPosEnd(
+                record.getProteinPosition(), proteinChange);
+
+        //  Assume we are dealing with Entrez Gene Ids (this is the best / most stable option)
+        String geneSymbol = record.getHugoGeneSymbol();
+        String entrezIdString = record.getGivenEntrezGeneId();
+
+        CanonicalGene gene = null;
+        // try to parse entrez if it is not empty nor 0:
+        if (!(entrezIdString.isEmpty() ||
+              entrezIdString.equals("0"))) {
+            Long entrezGeneId;
+            try {
+                entrezGeneId = Long.parseLong(entrezIdString);
+            } catch (NumberFormatException e) {
+                entrezGeneId = null;
+            }
+            //non numeric values or negative values should not be allowed:
+            if (entrezGeneId == null || entrezGeneId < 0) {
+                row.skipWarning = "Ignoring line with invalid Entrez_Id " + entrezIdString;
+                return;
+            } else {
+                gene = daoGene.getGene(entrezGeneId);
+                if (gene == null) {
+                    //skip if not in DB:
+                    row.skipWarning = "Entrez gene ID " + entrezGeneId + " not found. Record will be skipped.";
+                    return;
+                }
+            }
+        }
+
+        // If Entrez Gene ID Fails, try Symbol.
+        if (gene == null &&
+                !(geneSymbol.equals("") ||
+                  geneSymbol.equals("Unknown"))) {
+            gene = daoGene.getNonAmbiguousGene(geneSymbol, false);
+            row.symbolNotResolved = gene == null;
+        }
+
+        // assume symbol=Unknown and entrez=0 (or missing Entrez column) to imply an
+        // intergenic, irrespective of what the column Variant_Classification says
+        if (geneSymbol.equals("Unknown") &&
+                (entrezIdString.equals("0") || mafUtil.getEntrezGeneIdIndex() == -1)) {
+            row.intergenic = true;
+            // give extra warning if mutationType is something different from IGR:
+            if (mutationType != null &&
+                    !mutationType.equalsIgnoreCase("IGR")) {
+                row.intergenicWarning =
+                    "Treating mutation with gene symbol 'Unknown' " +
+                    (mafUtil.getEntrezGeneIdIndex() == -1 ? "" : "and Entrez gene id 0") + " as intergenic ('IGR') " +
+                    "instead of '" + mutationType + "'. Entry filtered/skipped.";
+            }
+            return;
+        }
+
+        // skip the record if a gene was expected but not identified
+        if (gene == null) {
+            row.skipWarning =
+                    "Ambiguous or missing gene: " + geneSymbol +
+                    " ["+ record.getGivenEntrezGeneId() +
+                    "] or ambiguous alias. Ignoring it " +
+                    "and all mutation data associated with it!";
+            return;
+        }
+
+        ExtendedMutation mutation = new ExtendedMutation();
+
+        mutation.setGeneticProfileId(geneticProfileId);
+        mutation.setGene(gene);
+        mutation.setSequencingCenter(record.getCenter());
+        mutation.setSequencer(record.getSequencer());
+        mutation.setProteinChange(proteinChange);
+        mutation.setAminoAcidChange(aaChange);
+        mutation.setMutationType(mutationType);
+        mutation.setChr(record.getChr());
+        mutation.setStartPosition(record.getStartPosition());
+        mutation.setEndPosition(record.getEndPosition());
+        mutation.setValidationStatus(record.getValidationStatus());
+        mutation.setMutationStatus(record.getMutationStatus());
+        mutation.setNcbiBuild(record.getNcbiBuild());
+        mutation.setStrand(record.getStrand());
+        mutation.setVariantType(record.getVariantType());
+        mutation.setAllele(record.getTumorSeqAllele1(), record.getTumorSeqAllele2(), record.getReferenceAllele());
+        mutation.setDbSnpRs(record.getDbSNP_RS());
+        mutation.setDbSnpValStatus(record.getDbSnpValStatus());
+        mutation.setMatchedNormSampleBarcode(record.getMatchedNormSampleBarcode());
+        mutation.setMatchNormSeqAllele1(record.getMatchNormSeqAllele1());
+        mutation.setMatchNormSeqAllele2(record.getMatchNormSeqAllele2());
+        mutation.setTumorValidationAllele1(record.getTumorValidationAllele1());
+        mutation.setTumorValidationAllele2(record.getTumorValidationAllele2());
+        mutation.setMatchNormValidationAllele1(record.getMatchNormValidationAllele1());
+        mutation.setMatchNormValidationAllele2(record.getMatchNormValidationAllele2());
+        mutation.setVerificationStatus(record.getVerificationStatus());
+        mutation.setSequencingPhase(record.getSequencingPhase());
+        mutation.setSequenceSource(record.getSequenceSource());
+        mutation.setValidationMethod(record.getValidationMethod());
+        mutation.setScore(record.getScore());
+        mutation.setBamFile(record.getBamFile());
+        mutation.setTumorAltCount(ExtendedMutationUtil.getTumorAltCount(record));
+        mutation.setTumorRefCount(ExtendedMutationUtil.getTumorRefCount(record));
+        mutation.setNormalAltCount(ExtendedMutationUtil.getNormalAltCount(record));
+        mutation.setNormalRefCount(ExtendedMutationUtil.getNormalRefCount(record));
+
+        //  renamed the oncotator column names to mutation
+        mutation.setCodonChange(codonChange);
+        mutation.setRefseqMrnaId(refseqMrnaId);
+        mutation.setUniprotAccession(uniprotAccession);
+        mutation.setProteinPosStart(proteinPosStart);
+        mutation.setProteinPosEnd(proteinPosEnd);
+
+        mutation.setDriverFilter(record.getDriverFilter());
+        mutation.setDriverFilterAnn(record.getDriverFilterAnn());
+        mutation.setDriverTiersFilter(record.getDriverTiersFilter());
+        mutation.setDriverTiersFilterAnn(record.getDriverTiersFilterAnn());
+
+        // TODO we don't use this info right now...
+        mutation.setCanonicalTranscript(true);
+
+        row.mutation = mutation;
+    }
+
+    /**
+     * Takes a parsed row into the import: resolves its sample, filters it, assigns its
+     * mutation event and merges it with earlier rows of the same sample. When a row of
+     * another sample follows, the previous sample's mutations are written.
+     */
+    private void ingest(MafRow row) throws IOException, DaoException {
+        if (row.record == null) {
+            throw row.failure;
+        }
+        MafRecord record = row.record;
+        if (!record.getNcbiBuild().equalsIgnoreCase(genomeBuildName)) {
+            ProgressMonitor.logWarning("Genome Build Name does not match, expecting " + genomeBuildName);
+        }
+        // process case id
+        String barCode = record.getTumorSampleID();
+        Sample sample = DaoSample.getSampleByCancerStudyAndSampleId(cancerStudyId,
+                StableIdUtil.getSampleId(barCode));
+        // can be null in case of 'normal' sample:
+        // (if data files are run through validator, this condition should be minimal)
+        if (sample == null) {
+            if (StableIdUtil.isNormal(barCode)) {
+                //if new sample:
+                if (sampleSet.add(barCode))
+                    samplesSkipped++;
+                return;
+            }
+            else {
+                throw new RuntimeException("Unknown sample id '" + StableIdUtil.getSampleId(barCode) + "' found in MAF file: " + this.mutationFile.getCanonicalPath());
+            }
+        } else if (overwriteExisting && !processedSamples.contains(sample.getInternalId())) {
+            DaoMutation.deleteAllRecordsInGeneticProfileForSample(geneticProfileId, sample.getInternalId());
+            processedSamples.add(sample.getInternalId());
+        }
+
+        if (currentSampleId != null && currentSampleId != sample.getInternalId()) {
+            writeSample();
+        }
+        currentSampleId = sample.getInternalId();
+
+        ingest(row, sample);
+    }
+
+    private void ingest(MafRow row, Sample sample) throws IOException, DaoException {
+        MafRecord record = row.record;
+        if (row.symbolNotResolved) {
+            // looked up again for its warning, which belongs at this point of the log
+            daoGene.getNonAmbiguousGene(record.getHugoGeneSymbol(), true);
+        }
+        if (row.failure != null) {
+            throw row.failure;
+        }
+        if (row.intergenic) {
+            if (row.intergenicWarning != null) {
+                ProgressMonitor.logWarning(row.intergenicWarning);
+            }
+            // treat as IGR:
+            myMutationFilter.decisions++;
+            myMutationFilter.addRejectedVariant(myMutationFilter.rejectionMap, "IGR");
+            // skip entry:
+            entriesSkipped++;
+            return;
+        }
+        if (row.skipWarning != null) {
+            ProgressMonitor.logWarning(row.skipWarning);
+            entriesSkipped++;
+            return;
+        }
+
+        ExtendedMutation mutation = row.mutation;
+        mutation.setSampleId(sample.getInternalId());
+        // log whether tumor seq allele is empty (failed to resolve tumor seq allele because of invalid data values)
+        if (mutation.getTumorSeqAllele().isEmpty()) {
+            ProgressMonitor.logWarning("Tumor allele could not be resolved for sample '" + sample.getStableId() +
+                "' (chr,start,end,ref,tum1,tum2) = (" + record.getChr() + "," + record.getStartPosition() + "," +
+                record.getEndPosition() + "," + record.getReferenceAllele() + "," + record.getTumorSeqAllele1() +
+                "," + record.getTumorSeqAllele2() + ")");
+        }
+
+        AlleleSpecificCopyNumber ascn = null;
+        if (namespaces != null && namespaces.contains(ASCN_NAMESPACE)) {
+            Map<String, Object> ascnData = record.getNamespacesMap().remove(ASCN_NAMESPACE);
+            // The AlleleSpecificCopyNumber constructor will construct the record from
+            // the ascnData hashmap and the ascnData will simultaneously be removed from
+            // the record's namespaces map since it is going into its own table
+            ascn = new AlleleSpecificCopyNumber(ascnData);
+        }
+        mutation.setAnnotationJson(getAnnotationJson(mafUtil, record));
+
+        sequencedCaseSet.add(sample.getStableId());
+
+        //  Filter out Mutations
+        if( myMutationFilter.acceptMutation( mutation, this.filteredMutations )) {
+            MutationEvent event = existingEvents.get(mutation.getEvent());
+            if (event!=null) {
+                mutation.setEvent(event);
+            } else {
+                mutation.setMutationEventId(++mutationEventId);
+                existingEvents.add(mutation.getEvent());
+                DaoMutation.addMutationEvent(mutation.getEvent());
+            }
+
+            if (currentSampleMutations == null) {
+                currentSampleMutations = new SampleMutations();
+            }
+            SampleMutations sampleMutations = currentSampleMutations;
+            long[] written = writtenEventIds.get(sample.getInternalId());
+            if (written != null && Arrays.binarySearch(written, mutation.getMutationEventId()) >= 0) {
+                lateRepeats.computeIfAbsent(mutation, m -> new ArrayList<ExtendedMutation>()).add(mutation);
+            } else {
+                ExtendedMutation exist = sampleMutations.mutations.get(mutation);
+                if (exist!=null) {
+                    ExtendedMutation merged = mergeMutationData(exist, mutation);
+                    sampleMutations.mutations.put(merged, merged);
+                } else {
+                    sampleMutations.mutations.put(mutation,mutation);
+                }
+            }
+            // update ascn object with mutation unique key details
+            if (ascn != null){
+                ascn.updateAscnUniqueKeyDetails(mutation);
+                sampleMutations.ascnRecords.add(ascn);
+            }
+
+            //keep track:
+            sampleSet.add(sample.getStableId());
+            internalSampleIds.add(sample.getInternalId());
+            geneSet.add(mutation.getEntrezGeneId()+"");
+        }
+        else {
+            entriesSkipped++;
+        }
+    }
+
+    /**
+     * Hands the merged mutations of the current sample to the bulk loader and forgets them.
+     * The sample's event ids are kept, so that a later line of the same sample repeating
+     * one of them is merged with the written row at the end instead of written again.
+     */
+    private void writeSample() throws DaoException {
+        SampleMutations sampleMutations = currentSampleMutations;
+        currentSampleMutations = null;
+        if (sampleMutations == null) {
+            return;
+        }
+        long[] written = writtenEventIds.getOrDefault(currentSampleId, new long[0]);
+        long[] eventIds = Arrays.copyOf(written, written.length + sampleMutations.mutations.size());
+        int i = written.length;
+        for (ExtendedMutation mutation : sampleMutations.mutations.values()) {
+            DaoMutation.addMutation(mutation,false);
+            eventIds[i++] = mutation.getMutationEventId();
+        }
+        Arrays.sort(eventIds);
+        writtenEventIds.put(currentSampleId, eventIds);
+        for (AlleleSpecificCopyNumber ascn : sampleMutations.ascnRecords) {
+            DaoAlleleSpecificCopyNumber.addAlleleSpecificCopyNumber(ascn);
+        }
+    }
+
+    /**
+     * Merges the lines that repeated a mutation after its sample had been written (a file
+     * not grouped by sample) with the written row, in file order, as if the sample's lines
+     * had been together, and replaces that row with the result.
+     */
+    private void mergeLateRepeats() throws DaoException {
+        if (lateRepeats.isEmpty()) {
+            return;
+        }
+        ClickHouseBulkLoader.flushAll();
+        Set<Integer> sampleIds = new TreeSet<Integer>();
+        for (ExtendedMutation mutation : lateRepeats.keySet()) {
+            sampleIds.add(mutation.getSampleId());
+        }
+        Map<ExtendedMutation, List<ExtendedMutation>> writtenRows = new HashMap<ExtendedMutation, List<ExtendedMutation>>();
+        for (ExtendedMutation mutation : DaoMutation.getMutationsWithDriverAnnotations(geneticProfileId, new ArrayList<Integer>(sampleIds))) {
+            if (lateRepeats.containsKey(mutation)) {
+                writtenRows.computeIfAbsent(mutation, m -> new ArrayList<ExtendedMutation>()).add(mutation);
+            }
+        }
+        List<ExtendedMutation> replaced = new ArrayList<ExtendedMutation>();
+        List<ExtendedMutation> merged = new ArrayList<ExtendedMutation>();
+        for (Map.Entry<ExtendedMutation, List<ExtendedMutation>> repeats : lateRepeats.entrySet()) {
+            List<ExtendedMutation> written = writtenRows.getOrDefault(repeats.getKey(), Collections.emptyList());
+            ExtendedMutation result;
+            if (written.size() == 1) {
+                result = written.get(0);
+                replaced.add(result);
+            } else {
+                // an earlier import stored this mutation of the sample as well; keep those rows
+                ProgressMonitor.logWarning("Mutation event " + repeats.getKey().getMutationEventId() + " of sample " +
+                    repeats.getKey().getSampleId() + " is stored " + written.size() + " times in genetic profile " +
+                    geneticProfileId + "; its later lines are stored as one more row");
+                result = null;
+            }
+            for (ExtendedMutation repeat : repeats.getValue()) {
+                result = result == null ? repeat : mergeMutationData(result, repeat);
+            }
+            merged.add(result);
+        }
+        DaoMutation.deleteMutations(geneticProfileId, replaced);
+        for (ExtendedMutation mutation : merged) {
+            DaoMutation.addMutation(mutation, false);
+        }
+        lateRepeats.clear();
+    }
+
     /**
          * merge the current mutation
          * @return
@@ -571,6 +795,18 @@ public class ImportExtendedMutationData {
             return ret;
         }
 
+    private String getAnnotationJson(MafUtil mafUtil, MafRecord record) throws IOException {
+        Map<String, Map<String, Object>> namespacesMap = record.getNamespacesMap();
+        if (namespacesMap == null || !namespacesMap.isEmpty()) {
+            return mafUtil.getNamespaceColumnParser().writeValueAsString(namespacesMap);
+        }
+        if (!emptyAnnotationJsonKnown) {
+            emptyAnnotationJson = mafUtil.getNamespaceColumnParser().writeValueAsString(namespacesMap);
+            emptyAnnotationJsonKnown = true;
+        }
+        return emptyAnnotationJson;
+    }
+
     private String transformOMAScore( String omaScore) {
         if( omaScore == null || omaScore.length() ==0) {
             return omaScore;
@@ -624,4 +860,31 @@ public class ImportExtendedMutationData {
         throw new NullPointerException("Sample is not found in database (is it missing from clinical data file?): " + stableSampleID);
     }
 
+
+    /**
+     * A data line as parsed and resolved to a gene by a parsing thread. Whatever depends
+     * on the sample or on earlier lines is left to {@link #ingest(MafRow, Sample)}.
+     */
+    private static final class MafRow {
+        private final int rowIndex;
+        private MafRecord record;
+        private String skipWarning;
+        private boolean symbolNotResolved;
+        private boolean intergenic;
+        private String intergenicWarning;
+        private ExtendedMutation mutation;
+        private RuntimeException failure;
+
+        private MafRow(int rowIndex) {
+            this.rowIndex = rowIndex;
+        }
+    }
+
+    /**
+     * The merged mutations of one sample, kept until a line of another sample is ingested.
+     */
+    private static final class SampleMutations {
+        private final Map<ExtendedMutation, ExtendedMutation> mutations = new HashMap<ExtendedMutation, ExtendedMutation>();
+        private final List<AlleleSpecificCopyNumber> ascnRecords = new ArrayList<AlleleSpecificCopyNumber>();
+    }
 }
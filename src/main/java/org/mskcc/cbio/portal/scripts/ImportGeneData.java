@@ -70,8 +70,7 @@ public class ImportGeneData extends ConsoleRunnable {
         Map<String, Set<CanonicalGene>> genesWithoutSymbolFromNomenClatureAuthority = new LinkedHashMap<>();
         Map<String, Set<ReferenceGenomeGene>> refGenesWithSymbolFromNomenClatureAuthority = new LinkedHashMap<>();
         Map<String, Set<ReferenceGenomeGene>> refGenesWithoutSymbolFromNomenClatureAuthority = new LinkedHashMap<>();
-        try (FileReader reader = new FileReader(geneFile)) {
-            BufferedReader buf = new BufferedReader(reader);
+        try (BufferedReader buf = FileUtil.openProgressReader(geneFile)) {
             String line;
             while ((line = buf.readLine()) != null) {
                 ProgressMonitor.incrementCurValue();
@@ -186,8 +185,7 @@ public class ImportGeneData extends ConsoleRunnable {
     public static void importHGNCData(File geneFile, String genomeBuild) throws IOException, DaoException {
         Map<String, Set<CanonicalGene>> canonicalGeneMap = new LinkedHashMap<>();
         Map<String, Set<ReferenceGenomeGene>> refGeneMap = new LinkedHashMap<>();
-        try (FileReader reader = new FileReader(geneFile)) {
-            BufferedReader buf = new BufferedReader(reader);
+        try (BufferedReader buf = FileUtil.openProgressReader(geneFile)) {
             String line;
             buf.readLine(); // skip first (header) line
             ProgressMonitor.incrementCurValue(); // for header line
@@ -486,8 +484,7 @@ public class ImportGeneData extends ConsoleRunnable {
 
     public static void importGeneLength(File geneFile, String genomeBuild, String species, boolean hasGenes) throws IOException, DaoException {
         //Set the variables needed for the method
-        FileReader reader = new FileReader(geneFile);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(geneFile);
         int referenceGenomeId = DaoReferenceGenome.getReferenceGenomeByBuildName(genomeBuild).getReferenceGenomeId();
         String line;
         ProgressMonitor.setCurrentMessage("\nUpdating gene lengths... \n"); //Display a message in the console
@@ -660,8 +657,7 @@ public class ImportGeneData extends ConsoleRunnable {
 
     static void importSuppGeneData(File suppGeneFile, String referenceGenomeBuild) throws IOException, DaoException {
         ClickHouseBulkLoader.bulkLoadOff();
-        FileReader reader = new FileReader(suppGeneFile);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(suppGeneFile);
         String line;
         DaoGeneOptimized daoGene = DaoGeneOptimized.getInstance();
         DaoReferenceGenomeGene daoRefGene = DaoReferenceGenomeGene.getInstance();
@@ -685,7 +681,7 @@ public class ImportGeneData extends ConsoleRunnable {
                 daoRefGene.addOrUpdateGene(refGene);
             }
         }
-        reader.close();
+        buf.close();
     }
 
     @Override
@@ -721,9 +717,6 @@ public class ImportGeneData extends ConsoleRunnable {
             if(options.has("genes")) {
                 File geneFile = new File((String) options.valueOf("genes"));
                 System.out.println("Reading gene data from:  " + geneFile.getAbsolutePath());
-                int numLines = FileUtil.getNumLines(geneFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ClickHouseBulkLoader.bulkLoadOn();
                 ImportGeneData.importData(geneFile, (String)options.valueOf("genome-build"));
                 ClickHouseBulkLoader.flushAll(); //Gene and gene_alias should be updated before calculating gene length (gtf)!
@@ -732,9 +725,6 @@ public class ImportGeneData extends ConsoleRunnable {
             if(options.has("hgnc")) {
                 File geneFile = new File((String) options.valueOf("hgnc"));
                 System.out.println("Reading gene data from:  " + geneFile.getAbsolutePath());
-                int numLines = FileUtil.getNumLines(geneFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ClickHouseBulkLoader.bulkLoadOn();
                 ImportGeneData.importHGNCData(geneFile, (String)options.valueOf("genome-build"));
                 ClickHouseBulkLoader.flushAll(); //Gene and gene_alias should be updated before calculating gene length (gtf)!
@@ -743,9 +733,6 @@ public class ImportGeneData extends ConsoleRunnable {
             if(options.has("supp-genes")) {
                 File suppGeneFile = new File((String) options.valueOf("genes"));
                 System.out.println("Reading supp. gene data from:  " + suppGeneFile.getAbsolutePath());
-                int numLines = FileUtil.getNumLines(suppGeneFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ImportGeneData.importSuppGeneData(suppGeneFile,
                                     (String)options.valueOf("genome-build"));
             }
@@ -753,9 +740,6 @@ public class ImportGeneData extends ConsoleRunnable {
             if(options.has("microrna")) {
                 File miRNAFile = new File((String) options.valueOf("microrna"));
                 System.out.println("Reading miRNA data from:  " + miRNAFile.getAbsolutePath());
-                int numLines = FileUtil.getNumLines(miRNAFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ImportMicroRNAIDs.importData(miRNAFile);
             }
 
@@ -766,9 +750,6 @@ public class ImportGeneData extends ConsoleRunnable {
                     species = (String)options.valueOf("species");
                 }
                 System.out.println("Reading loci data from:  " + lociFile.getAbsolutePath());
-                int numLines = FileUtil.getNumLines(lociFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ImportGeneData.importGeneLength(lociFile, (String)options.valueOf("genome-build"),
                                     species, options.has("genes"));
             }
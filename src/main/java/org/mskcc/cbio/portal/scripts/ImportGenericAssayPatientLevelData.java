@@ -54,7 +54,6 @@ import org.mskcc.cbio.portal.util.TsvUtil;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -109,22 +108,31 @@ public class ImportGenericAssayPatientLevelData {
      * @throws DaoException Database Error.
      */
     public void importData() throws Exception {
-        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples"), this::importDataInternal);
+        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples"), List.of(geneticProfileId), this::importDataInternal);
     }
 
     void importDataInternal() throws Exception {
-        int numLines = FileUtil.getNumLines(dataFile);
+        boolean bulkLoadWasOn = ClickHouseBulkLoader.isBulkLoad();
+        ClickHouseBulkLoader.bulkLoadOn();
+        try {
+            importMatrix();
+        } finally {
+            if (!bulkLoadWasOn) {
+                ClickHouseBulkLoader.bulkLoadOff();
+            }
+        }
+    }
 
+    private void importMatrix() throws Exception {
         geneticProfile = DaoGeneticProfile.getGeneticProfileById(geneticProfileId);
 
         //Object to insert records in the generic 'genetic_alteration' table:
         DaoGeneticAlteration daoGeneticAlteration = DaoGeneticAlteration.getInstance();
 
+        long startTime = System.currentTimeMillis();
         int numRecordsToAdd = 0;
-        try (
-                FileReader reader = new FileReader(dataFile);
-                BufferedReader buf = new BufferedReader(reader);
-        ) {
+        int numDataLines = 0;
+        try (BufferedReader buf = FileUtil.openProgressReader(dataFile)) {
             ProgressMonitor.setCurrentMessage("Importing Generic Assay Patient Level data from file: " + dataFile.getCanonicalPath());
 
             String headerLine = buf.readLine();
@@ -162,8 +170,6 @@ public class ImportGenericAssayPatientLevelData {
             Integer genePanelID = (genePanel == null) ? null : GeneticProfileUtil.getGenePanelId(genePanel);
             DaoSampleProfile.upsertSampleToProfileMapping(orderedSampleList, geneticProfileId, genePanelID);
 
-            ProgressMonitor.setCurrentMessage(" --> total number of data lines:  " + (numLines-1));
-            
             DaoGeneticProfileSamples.addGeneticProfileSamples(geneticProfileId, orderedSampleList);
     
             // load entities map from database
@@ -174,6 +180,9 @@ public class ImportGenericAssayPatientLevelData {
                 ProgressMonitor.incrementCurValue();
                 ConsoleUtil.showProgress();
                 boolean recordAdded = false;
+                if (TsvUtil.isDataLine(line)) {
+                    numDataLines++;
+                }
                 
                 recordAdded = parseGenericAssayLine(line, parts.length, patientStartIndex, genericAssayIdIndex, numSamplesInPatient, sampleCount, daoGeneticAlteration, genericAssayStableIdToEntityIdMap);
                 
@@ -187,9 +196,9 @@ public class ImportGenericAssayPatientLevelData {
                 
                 line = buf.readLine();
             }
-            if (ClickHouseBulkLoader.isBulkLoad()) {
-               ClickHouseBulkLoader.flushAll();
-            }
+            ProgressMonitor.setCurrentMessage(" --> total number of data lines:  " + numDataLines);
+            ClickHouseBulkLoader.flushAll();
+            ImportTabDelimData.reportRowsWritten(numRecordsToAdd, System.currentTimeMillis() - startTime);
             
             if (entriesSkipped > 0) {
                 ProgressMonitor.setCurrentMessage(" --> total number of data entries skipped (see table below):  " + entriesSkipped);
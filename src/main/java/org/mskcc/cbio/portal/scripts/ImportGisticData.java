@@ -39,7 +39,6 @@ import org.mskcc.cbio.portal.dao.DaoException;
 import org.mskcc.cbio.portal.dao.DaoGistic;
 import org.mskcc.cbio.portal.model.Gistic;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
-import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.GisticReader;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 import org.mskcc.cbio.portal.validate.validationException;
@@ -67,11 +66,6 @@ public class ImportGisticData extends ConsoleRunnable {
 	        ProgressMonitor.setCurrentMessage(
 	                "CancerStudyId: " + cancerStudyInternalId);
 	
-	        int lines = FileUtil.getNumLines(gistic_f);
-	        ProgressMonitor.setCurrentMessage(
-	                " --> total number of lines: " + lines);
-	        ProgressMonitor.setMaxValue(lines);
-	
 	        GisticReader gisticReader = new GisticReader();
 	        ArrayList<Gistic> gistics = gisticReader.parse(gistic_f, cancerStudyInternalId);
 	
@@ -40,6 +40,7 @@ import org.mskcc.cbio.portal.dao.DaoException;
 import org.mskcc.cbio.portal.dao.DaoGeneOptimized;
 import org.mskcc.cbio.portal.model.CanonicalGene;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
+import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 
 /**
@@ -52,8 +53,7 @@ public class ImportMicroRNAIDs {
         DaoGeneOptimized daoGene = DaoGeneOptimized.getInstance();
         List<CanonicalGene> mirnas = new ArrayList<CanonicalGene>();
 
-        try (FileReader reader = new FileReader(geneFile);
-             BufferedReader buf = new BufferedReader(reader)) {
+        try (BufferedReader buf = FileUtil.openProgressReader(geneFile)) {
             String line = buf.readLine(); // skip first line
             while ((line=buf.readLine()) != null) {
                 ProgressMonitor.incrementCurValue();
@@ -36,7 +36,6 @@ import java.io.*;
 import joptsimple.OptionSet;
 import org.mskcc.cbio.portal.dao.DaoException;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
-import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.MutSigReader;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 
@@ -58,10 +57,6 @@ public class ImportMutSigData extends ConsoleRunnable {
 	        File mutSigFile = new File(dataFile);
 	        ProgressMonitor.setCurrentMessage(
 	                "Reading data from: " + mutSigFile.getAbsolutePath());
-	        int numLines = FileUtil.getNumLines(mutSigFile);
-	        ProgressMonitor.setCurrentMessage(
-	                " --> total number of lines:  " + numLines);
-	        ProgressMonitor.setMaxValue(numLines);
 	
 	        int internalId = ValidationUtils.getInternalStudyId(studyId);
 	        MutSigReader.loadMutSig(internalId, mutSigFile);
@@ -47,8 +47,7 @@ public class ImportReferenceGenome extends ConsoleRunnable {
      */
     public static void importData(File referenceGenomeFile) throws IOException, DaoException, ParseException {
 
-        try (FileReader reader = new FileReader(referenceGenomeFile)) {
-            BufferedReader buf = new BufferedReader(reader);
+        try (BufferedReader buf = FileUtil.openProgressReader(referenceGenomeFile)) {
             String line;
             Set<ReferenceGenome> referenceGenomes = new HashSet<ReferenceGenome>();
             while ((line = buf.readLine()) != null) {
@@ -133,14 +132,10 @@ public class ImportReferenceGenome extends ConsoleRunnable {
             ProgressMonitor.setConsoleMode(true);
 
             File referenceGenomeFile;
-            int numLines;
             if(options.has("ref-genome")) {
                 File referenceFile = new File((String) options.valueOf("ref-genome"));
 
                 System.out.println("Reading reference genome from:  " + referenceFile.getAbsolutePath());
-                numLines = FileUtil.getNumLines(referenceFile);
-                System.out.println(" --> total number of lines:  " + numLines);
-                ProgressMonitor.setMaxValue(numLines);
                 ClickHouseBulkLoader.bulkLoadOn();
                 ImportReferenceGenome.importData(referenceFile);
             }
@@ -65,8 +65,7 @@ public class ImportResourceData extends ConsoleRunnable {
             ClickHouseBulkLoader.relaxedModeOn();
         }
 
-        FileReader reader = new FileReader(resourceDataFile);
-        BufferedReader buff = new BufferedReader(reader);
+        BufferedReader buff = FileUtil.openProgressReader(resourceDataFile);
         List<ResourceDefinition> resources = DaoResourceDefinition.getDatumByStudy(cancerStudy.getInternalId());
         String currentLine = buff.readLine();
         String[] headerNames = currentLine.split("\t");
@@ -454,9 +453,6 @@ public class ImportResourceData extends ConsoleRunnable {
                 throw new IllegalArgumentException("Unknown cancer study: " + cancerStudyStableId);
             }
             ProgressMonitor.setCurrentMessage("Reading data from:  " + resourceFile.getAbsolutePath());
-            int numLines = FileUtil.getNumLines(resourceFile);
-            ProgressMonitor.setCurrentMessage(" --> total number of lines:  " + numLines);
-            ProgressMonitor.setMaxValue(numLines);
 
             setFile(cancerStudy, resourceFile, resourceType, relaxed);
             importData();
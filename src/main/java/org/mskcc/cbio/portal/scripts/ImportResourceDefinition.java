@@ -53,8 +53,7 @@ public class ImportResourceDefinition extends ConsoleRunnable {
             ClickHouseBulkLoader.relaxedModeOn();
         }
 
-        FileReader reader = new FileReader(resourceDataFile);
-        BufferedReader buff = new BufferedReader(reader);
+        BufferedReader buff = FileUtil.openProgressReader(resourceDataFile);
 
         String line = buff.readLine();
         String[] headerNames = splitFields(line);
@@ -310,9 +309,6 @@ public class ImportResourceDefinition extends ConsoleRunnable {
                 throw new IllegalArgumentException("Unknown cancer study: " + cancerStudyStableId);
             }
             ProgressMonitor.setCurrentMessage("Reading data from:  " + resourceFile.getAbsolutePath());
-            int numLines = FileUtil.getNumLines(resourceFile);
-            ProgressMonitor.setCurrentMessage(" --> total number of lines:  " + numLines);
-            ProgressMonitor.setMaxValue(numLines);
 
             setFile(cancerStudy, resourceFile, relaxed);
             importData();
@@ -38,6 +38,7 @@ import org.mskcc.cbio.portal.model.GeneticProfile;
 import org.mskcc.cbio.portal.model.Sample;
 import org.mskcc.cbio.portal.model.StructuralVariant;
 import org.mskcc.cbio.portal.util.ConsoleUtil;
+import org.mskcc.cbio.portal.util.FileUtil;
 import org.mskcc.cbio.portal.util.GeneticProfileUtil;
 import org.mskcc.cbio.portal.util.ProgressMonitor;
 import org.mskcc.cbio.portal.util.StableIdUtil;
@@ -75,8 +76,7 @@ public class ImportStructuralVariantData {
 
     public void importData() throws IOException, DaoException {
 
-        FileReader reader = new FileReader(this.structuralVariantFile);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(this.structuralVariantFile);
         DaoGeneOptimized daoGene = DaoGeneOptimized.getInstance();
         String line = buf.readLine();
         StructuralVariantUtil structuralVariantUtil = new StructuralVariantUtil(line, namespaces);
@@ -34,10 +34,19 @@ package org.mskcc.cbio.portal.scripts;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
 import java.util.regex.*;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import org.apache.commons.lang3.ArrayUtils;
 import org.mskcc.cbio.portal.dao.BackupUtil;
 import org.mskcc.cbio.portal.dao.ClickHouseBulkLoader;
 import org.mskcc.cbio.portal.dao.DaoCnaEvent;
@@ -71,6 +80,10 @@ public class ImportTabDelimData {
     public static final String CNA_VALUE_AMPLIFICATION = "2";
     public static final String CNA_VALUE_HOMOZYGOUS_DELETION = "-2";
     public static final String CNA_VALUE_PARTIAL_DELETION = "-1.5";
+    // a batch is cut at whichever limit is reached first; wide matrices have very long lines
+    private static final int PIPELINE_BATCH_LINES = 256;
+    private static final int PIPELINE_BATCH_CHARS = 1 << 20;
+    private static final Future<List<ResolvedLine>> END_OF_FILE = CompletableFuture.completedFuture(List.of());
     private File dataFile;
     private String targetLine;
     private int geneticProfileId;
@@ -83,8 +96,6 @@ public class ImportTabDelimData {
     private Map<Map.Entry<Integer, Long>, Map<String, String>> pdAnnotations;
     private GeneticAlterationImporter geneticAlterationImporter;
 
-    private int numLines;
-
     private DaoGeneOptimized daoGene;
 
     private boolean isIncrementalUpdateMode;
@@ -172,14 +183,29 @@ public class ImportTabDelimData {
      *
      */
     public void importData() throws Exception {
-        this.numLines = FileUtil.getNumLines(dataFile);
-        ProgressMonitor.setMaxValue(numLines);
-        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples", "sample_profile"), this::importDataInternal);
+        BackupUtil.conditionalBackup(isIncrementalUpdateMode, List.of("genetic_alteration", "genetic_profile_samples", "sample_profile"), List.of(geneticProfileId), this::importDataInternal);
     }
 
+    /**
+     * Rows for every matrix profile type are written through ClickHouseBulkLoader, so a
+     * 20k-gene file becomes a handful of batched inserts instead of one INSERT per line.
+     * The previous bulk load setting is restored afterwards.
+     */
     void importDataInternal() throws Exception {
-        try (FileReader reader = new FileReader(dataFile);
-            BufferedReader buf = new BufferedReader(reader)) {
+        boolean bulkLoadWasOn = ClickHouseBulkLoader.isBulkLoad();
+        ClickHouseBulkLoader.bulkLoadOn();
+        try {
+            importMatrix();
+        } finally {
+            if (!bulkLoadWasOn) {
+                ClickHouseBulkLoader.bulkLoadOff();
+            }
+        }
+    }
+
+    private void importMatrix() throws Exception {
+        long startTime = System.currentTimeMillis();
+        try (BufferedReader buf = FileUtil.openProgressReader(dataFile)) {
 
             String headerLine = buf.readLine();
             String[] headerParts = TsvUtil.splitTsvLine(headerLine);
@@ -203,6 +229,7 @@ public class ImportTabDelimData {
             }
 
             int numRecordsToAdd = 0;
+            int numDataLines = 0;
             int samplesSkipped = 0;
             int hugoSymbolIndex = getHugoSymbolIndex(headerParts);
             int entrezGeneIdIndex = getEntrezGeneIdIndex(headerParts);
@@ -273,7 +300,6 @@ public class ImportTabDelimData {
             if (samplesSkipped > 0) {
                 ProgressMonitor.setCurrentMessage(" --> total number of samples skipped (normal samples): " + samplesSkipped);
             }
-            ProgressMonitor.setCurrentMessage(" --> total number of data lines:  " + (numLines - 1));
 
             this.geneticAlterationImporter = isIncrementalUpdateMode ? new GeneticAlterationIncrementalImporter(geneticProfileId, orderedSampleList)
                     : new GeneticAlterationImporter(geneticProfileId, orderedSampleList);
@@ -284,7 +310,6 @@ public class ImportTabDelimData {
             Set<CnaEvent.Event> existingCnaEvents = new HashSet<>();
             if (isDiscretizedCnaProfile) {
                 existingCnaEvents.addAll(DaoCnaEvent.getAllCnaEvents());
-                ClickHouseBulkLoader.bulkLoadOn();
             }
 
             // load entities map from database
@@ -298,78 +323,60 @@ public class ImportTabDelimData {
                 DaoCnaEvent.removeSampleCnaEvents(geneticProfileId, orderedSampleList);
             }
 
-            String line = buf.readLine();
-            while (line != null) {
-
-                ProgressMonitor.incrementCurValue();
-                ConsoleUtil.showProgress();
-                boolean recordAdded = false;
-
-                if (TsvUtil.isDataLine(line)) {
-                    String[] rowParts = TsvUtil.splitTsvLine(line);
-
-                    TsvUtil.ensureHeaderAndRowMatch(headerParts, rowParts);
-                    String[] sampleValues = ArrayUtils.subarray(rowParts, sampleStartIndex, rowParts.length);
-
-                    // trim whitespace from values
-                    sampleValues = Stream.of(sampleValues).map(String::trim).toArray(String[]::new);
-                    sampleValues = filterOutNormalValues(filteredSampleIndices, sampleValues);
-
-                    // either parse line as geneset or gene for importing into 'genetic_alteration' table
-                    if (isGsvaProfile) {
-                        String genesetId = rowParts[genesetIdIndex];
-                        recordAdded = saveGenesetLine(sampleValues, genesetId);
-                    } else if (isGenericAssayProfile) {
-                        String genericAssayId = rowParts[genericAssayIdIndex];
-                        recordAdded = saveGenericAssayLine(sampleValues, genericAssayId, genericAssayStableIdToEntityIdMap);
-                    } else {
-                        String geneSymbol = null;
-                        if (hugoSymbolIndex != -1) {
-                            geneSymbol = rowParts[hugoSymbolIndex];
-                        }
-                        if (rppaGeneRefIndex != -1) {
-                            geneSymbol = rowParts[rppaGeneRefIndex];
+            // Pipeline: a reader thread cuts the file into batches, a pool of resolver threads
+            // splits, normalizes and resolves them, and this thread stores the resolved lines
+            // strictly in file order, so duplicate detection and warnings come out exactly as
+            // they would from a single-threaded run. Storing RPPA lines adds phosphoprotein genes
+            // to the DaoGeneOptimized caches, which are not safe to read meanwhile, so RPPA
+            // batches are resolved on this thread instead.
+            LineResolver lineResolver = new LineResolver(headerParts, sampleStartIndex, filteredSampleIndices,
+                hugoSymbolIndex, entrezGeneIdIndex, rppaGeneRefIndex, genesetIdIndex, genericAssayIdIndex,
+                isRppaProfile, isGsvaProfile, isGenericAssayProfile, genericAssayStableIdToEntityIdMap);
+            int resolverThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            ExecutorService resolvers = isRppaProfile ? null : Executors.newFixedThreadPool(resolverThreads, runnable -> {
+                Thread thread = new Thread(runnable, "tab-delim-resolve");
+                thread.setDaemon(true);
+                return thread;
+            });
+            BlockingQueue<Future<List<ResolvedLine>>> resolvedBatches = new ArrayBlockingQueue<>(2 * resolverThreads);
+            Thread readerThread = new Thread(() -> readBatches(buf, lineResolver, resolvers, resolvedBatches), "tab-delim-read");
+            readerThread.setDaemon(true);
+            readerThread.start();
+            try {
+                Future<List<ResolvedLine>> batch = resolvedBatches.take();
+                while (batch != END_OF_FILE) {
+                    for (ResolvedLine resolvedLine : awaitBatch(batch, resolvers == null)) {
+                        ProgressMonitor.incrementCurValue();
+                        ConsoleUtil.showProgress();
+                        if (resolvedLine.values != null) {
+                            numDataLines++;
                         }
-                        if (geneSymbol != null && geneSymbol.isEmpty()) {
-                            geneSymbol = null;
-                        }
-                        //get entrez
-                        String entrez = null;
-                        if (entrezGeneIdIndex != -1) {
-                            entrez = rowParts[entrezGeneIdIndex];
-                        }
-                        if (entrez != null && entrez.isEmpty()) {
-                            entrez = null;
+
+                        boolean recordAdded = storeLine(resolvedLine, isRppaProfile, isGsvaProfile,
+                            isGenericAssayProfile, isDiscretizedCnaProfile, existingCnaEvents);
+
+                        // increment number of records added or entries skipped
+                        if (recordAdded) {
+                            numRecordsToAdd++;
                         }
-                        if (entrez != null && !DataValidator.isValidNumericSequence(entrez)) {
-                            ProgressMonitor.logWarning("Ignoring line with invalid Entrez_Id " + entrez);
-                        } else {
-                            String firstCellValue = rowParts[0];
-                            if (targetLine == null || firstCellValue.equals(targetLine)) {
-                                recordAdded = saveLine(sampleValues,
-                                        entrez, geneSymbol,
-                                        isRppaProfile, isDiscretizedCnaProfile,
-                                        existingCnaEvents);
-                            }
+                        else {
+                            entriesSkipped++;
                         }
                     }
+                    batch = resolvedBatches.take();
                 }
-
-                // increment number of records added or entries skipped
-                if (recordAdded) {
-                    numRecordsToAdd++;
-                }
-                else {
-                    entriesSkipped++;
+            } finally {
+                readerThread.interrupt();
+                if (resolvers != null) {
+                    resolvers.shutdownNow();
                 }
-
-                line = buf.readLine();
+                readerThread.join();
             }
+            ProgressMonitor.setCurrentMessage(" --> total number of data lines:  " + numDataLines);
             DaoSampleProfile.upsertSampleToProfileMapping(orderedSampleList, geneticProfileId, genePanelId);
-            if (ClickHouseBulkLoader.isBulkLoad()) {
-                ClickHouseBulkLoader.flushAll();
-            }
+            ClickHouseBulkLoader.flushAll();
             geneticAlterationImporter.complete();
+            reportRowsWritten(numRecordsToAdd, System.currentTimeMillis() - startTime);
 
             if (isRppaProfile) {
                 ProgressMonitor.setCurrentMessage(" --> total number of extra records added because of multiple genes in one line:  " + nrExtraRecords);
@@ -385,6 +392,17 @@ public class ImportTabDelimData {
         }
     }
 
+    /**
+     * Reports the genetic_alteration rows written by this import and their rate. No baseline
+     * is measured; compare the figure with a run of the same file under another load mode.
+     */
+    static void reportRowsWritten(int numRecordsAdded, long elapsedMillis) {
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        ProgressMonitor.setCurrentMessage(String.format(
+            " --> genetic_alteration rows written: %d in %.1f s (%.0f rows/sec)",
+            numRecordsAdded, seconds, numRecordsAdded / seconds));
+    }
+
     private Map<Map.Entry<String, Long>, Map<String, String>> readPdAnnotations(File pdAnnotationsFile) {
         Map<Map.Entry<String, Long>, Map<String, String>> pdAnnotations = new HashMap<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(pdAnnotationsFile))) {
@@ -533,55 +551,35 @@ public class ImportTabDelimData {
      * <tr><td>AMIXED<td>0<td>...
      * </table>
      *
+     * <p>
+     * The splitting of the line and the gene lookups that only read the DaoGeneOptimized caches (steps 1 to 3, apart
+     * from the RPPA rules) run beforehand on the resolver threads, see {@link LineResolver}; everything from the RPPA
+     * parsing onwards runs here, on the single thread that stores lines in file order.
+     *
+     * @param resolvedLine            the line as prepared by {@link LineResolver#resolve(String)}
      * @param isRppaProfile           true if this is an rppa profile (i.e. alteration type is PROTEIN_LEVEL and the first column is Composite.Element.Ref)
      * @param isDiscretizedCnaProfile true if this is a discretized CNA profile (i.e. alteration type COPY_NUMBER_ALTERATION and showProfileInAnalysisTab is true)
      * @param existingCnaEvents       a collection of CnaEvents, to be added to or updated during parsing of individual lines
      * @return true if any record was stored in genetic_alteration, else false
      * @throws DaoException if any DaoException is thrown while using daoGene or daoGeneticAlteration
      */
-    private boolean saveLine(String[] values,
-                             String entrez,
-                             String geneSymbol,
+    private boolean saveLine(ResolvedLine resolvedLine,
                              boolean isRppaProfile,
                              boolean isDiscretizedCnaProfile,
                              Set<CnaEvent.Event> existingCnaEvents
     ) throws DaoException {
 
         boolean recordStored = false;
-
-        if (isRppaProfile && geneSymbol == null) {
-            ProgressMonitor.logWarning("Ignoring line with no Composite.Element.REF value");
-            return false;
-        }
-
-        //If all are empty, skip line:
-        boolean noGeneSpecified = geneSymbol == null && entrez == null;
-        if (noGeneSpecified) {
-            ProgressMonitor.logWarning("Ignoring line with no Hugo_Symbol and no Entrez_Id");
-            return false;
-        }
-
-        if (geneSymbol != null) {
-            boolean multipleGenesLine = geneSymbol.contains("///");
-            if (multipleGenesLine) {
-                ProgressMonitor.logWarning("Ignoring gene symbol:  " + geneSymbol
-                        + " It is separated by ///.  This indicates that the line contains information regarding multiple genes, and we cannot currently handle this");
-                return false;
-            }
-            boolean unknownGene = geneSymbol.contains("---");
-            if (unknownGene) {
-                ProgressMonitor.logWarning("Ignoring gene symbol:  " + geneSymbol
-                        + " It is specified as ---.  This indicates that the line contains information regarding an unknown gene, and we cannot currently handle this");
-                return false;
-            }
-        }
+        String[] values = resolvedLine.values;
+        String entrez = resolvedLine.entrez;
+        String geneSymbol = resolvedLine.geneSymbol;
 
         List<CanonicalGene> genes;
         //If rppa, parse genes from "Composite.Element.REF" column:
         if (isRppaProfile) {
             genes = parseRPPAGenes(geneSymbol);
         } else {
-            genes = parseGenes(entrez, geneSymbol);
+            genes = resolvedLine.genes;
         }
 
         //if genes still null, skip current record
@@ -590,10 +588,7 @@ public class ImportTabDelimData {
             return false;
         }
 
-        List<CanonicalGene> genesMatchingAnAlias = Collections.emptyList();
-        if (geneSymbol != null) {
-            genesMatchingAnAlias = daoGene.getGenesForAlias(geneSymbol);
-        }
+        List<CanonicalGene> genesMatchingAnAlias = resolvedLine.genesMatchingAnAlias;
 
         Set<CanonicalGene> microRNAGenes = new HashSet<>();
         Set<CanonicalGene> nonMicroRNAGenes = new HashSet<>();
@@ -719,40 +714,280 @@ public class ImportTabDelimData {
     }
 
     /**
-     * Parses line for gene set record and stores record in 'genetic_alteration' table.
-     * @param genesetId
-     * @return
-     * @throws DaoException
+     * Stores a resolved line in 'genetic_alteration'. Runs on the importing thread only, in file order.
+     * @return true if any record was stored, else false
      */
-    private boolean saveGenesetLine(String[] values, String genesetId) throws DaoException {
-        boolean storedRecord = false;
+    private boolean storeLine(ResolvedLine resolvedLine,
+                              boolean isRppaProfile,
+                              boolean isGsvaProfile,
+                              boolean isGenericAssayProfile,
+                              boolean isDiscretizedCnaProfile,
+                              Set<CnaEvent.Event> existingCnaEvents
+    ) throws DaoException {
+        if (resolvedLine.warning != null) {
+            ProgressMonitor.logWarning(resolvedLine.warning);
+        }
+        if (resolvedLine.skipped) {
+            return false;
+        }
+        if (isGsvaProfile || isGenericAssayProfile) {
+            return this.geneticAlterationImporter.store(resolvedLine.geneticEntityId, resolvedLine.values);
+        }
+        return saveLine(resolvedLine, isRppaProfile, isDiscretizedCnaProfile, existingCnaEvents);
+    }
+
+    /**
+     * Reader stage: cuts the rest of the file into batches of lines, hands each batch to the resolver
+     * pool and queues the pending result in file order. Without a pool, the queued batches are left
+     * for the importing thread to resolve. The queue is bounded, so reading stalls when the importing
+     * thread falls behind instead of pulling the whole matrix into memory. Every marker is queued
+     * with put, so a failure or the end of the file is never dropped when the queue is full.
+     */
+    private static void readBatches(BufferedReader buf,
+                                    LineResolver lineResolver,
+                                    ExecutorService resolvers,
+                                    BlockingQueue<Future<List<ResolvedLine>>> resolvedBatches) {
+        try {
+            List<String> lines = new ArrayList<>(PIPELINE_BATCH_LINES);
+            long batchChars = 0;
+            String line = buf.readLine();
+            while (line != null) {
+                lines.add(line);
+                batchChars += line.length();
+                if (lines.size() >= PIPELINE_BATCH_LINES || batchChars >= PIPELINE_BATCH_CHARS) {
+                    resolvedBatches.put(resolveBatch(lines, lineResolver, resolvers));
+                    lines = new ArrayList<>(PIPELINE_BATCH_LINES);
+                    batchChars = 0;
+                }
+                line = buf.readLine();
+            }
+            if (!lines.isEmpty()) {
+                resolvedBatches.put(resolveBatch(lines, lineResolver, resolvers));
+            }
+            resolvedBatches.put(END_OF_FILE);
+        } catch (InterruptedException e) {
+            // the importing thread gave up; nobody is waiting for more batches
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<List<ResolvedLine>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                resolvedBatches.put(failed);
+            } catch (InterruptedException interrupted) {
+                // the importing thread gave up; nobody is waiting for the failure
+            }
+        }
+    }
 
-        Geneset geneset = DaoGeneset.getGenesetByExternalId(genesetId);
-        if (geneset != null) {
-            storedRecord = this.geneticAlterationImporter.store(geneset.getGeneticEntityId(), values);
+    private static Future<List<ResolvedLine>> resolveBatch(List<String> lines, LineResolver lineResolver,
+                                                           ExecutorService resolvers) {
+        Callable<List<ResolvedLine>> resolve = () -> lineResolver.resolve(lines);
+        return resolvers == null ? new FutureTask<>(resolve) : resolvers.submit(resolve);
+    }
+
+    /**
+     * @param resolveHere true if batches were queued without a resolver pool and must be
+     *                    resolved on the calling thread
+     */
+    private static List<ResolvedLine> awaitBatch(Future<List<ResolvedLine>> batch, boolean resolveHere) throws Exception {
+        if (resolveHere && batch instanceof RunnableFuture) {
+            ((RunnableFuture<?>) batch).run();
         }
-        else {
-            ProgressMonitor.logWarning("Geneset " + genesetId + " not found in DB. Record will be skipped.");
+        try {
+            return batch.get();
+        } catch (ExecutionException e) {
+            // rethrow what the resolver threw, as the single-threaded import did
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
         }
-        return storedRecord;
     }
 
     /**
-     * Parses line for generic assay profile record and stores record in 'genetic_alteration' table.
+     * A data file line after the split, normalize and resolve stages.
      */
-    private boolean saveGenericAssayLine(String[] values, String genericAssayId, Map<String, Integer> genericAssayStableIdToEntityIdMap) throws DaoException {
+    private static final class ResolvedLine {
+        /** true if the line must be counted as skipped without trying to store it */
+        boolean skipped;
+        /** warning to log, in file order, when the line is stored */
+        String warning;
+        String[] values;
+        String entrez;
+        String geneSymbol;
+        List<CanonicalGene> genes;
+        List<CanonicalGene> genesMatchingAnAlias = Collections.emptyList();
+        int geneticEntityId;
 
-        boolean recordIsStored = false;
+        ResolvedLine skip(String warning) {
+            this.skipped = true;
+            this.warning = warning;
+            return this;
+        }
+    }
 
-        Integer entityId = genericAssayStableIdToEntityIdMap.getOrDefault(genericAssayId, null);
+    /**
+     * Split/normalize and resolve stages of the import. One instance is shared by all resolver
+     * threads, so it only reads state: the header, the DaoGeneOptimized caches, the generic assay
+     * entity map and the geneset table. Lookups with side effects (RPPA array ids, new
+     * phosphoprotein genes) and duplicate checks stay in {@link #saveLine}; as those write to the
+     * DaoGeneOptimized caches, RPPA lines are resolved on the storing thread.
+     */
+    private final class LineResolver {
+        private final String[] headerParts;
+        private final int sampleStartIndex;
+        private final boolean[] normalSampleColumns;
+        private final int keptSampleCount;
+        private final int hugoSymbolIndex;
+        private final int entrezGeneIdIndex;
+        private final int rppaGeneRefIndex;
+        private final int genesetIdIndex;
+        private final int genericAssayIdIndex;
+        private final boolean isRppaProfile;
+        private final boolean isGsvaProfile;
+        private final boolean isGenericAssayProfile;
+        private final Map<String, Integer> genericAssayStableIdToEntityIdMap;
+
+        LineResolver(String[] headerParts,
+                     int sampleStartIndex,
+                     List<Integer> filteredSampleIndices,
+                     int hugoSymbolIndex,
+                     int entrezGeneIdIndex,
+                     int rppaGeneRefIndex,
+                     int genesetIdIndex,
+                     int genericAssayIdIndex,
+                     boolean isRppaProfile,
+                     boolean isGsvaProfile,
+                     boolean isGenericAssayProfile,
+                     Map<String, Integer> genericAssayStableIdToEntityIdMap) {
+            this.headerParts = headerParts;
+            this.sampleStartIndex = sampleStartIndex;
+            this.normalSampleColumns = new boolean[headerParts.length - sampleStartIndex];
+            for (int index : filteredSampleIndices) {
+                normalSampleColumns[index] = true;
+            }
+            this.keptSampleCount = normalSampleColumns.length - filteredSampleIndices.size();
+            this.hugoSymbolIndex = hugoSymbolIndex;
+            this.entrezGeneIdIndex = entrezGeneIdIndex;
+            this.rppaGeneRefIndex = rppaGeneRefIndex;
+            this.genesetIdIndex = genesetIdIndex;
+            this.genericAssayIdIndex = genericAssayIdIndex;
+            this.isRppaProfile = isRppaProfile;
+            this.isGsvaProfile = isGsvaProfile;
+            this.isGenericAssayProfile = isGenericAssayProfile;
+            this.genericAssayStableIdToEntityIdMap = genericAssayStableIdToEntityIdMap;
+        }
 
-        if (entityId == null) {
-            ProgressMonitor.logWarning("Generic Assay entity " + genericAssayId + " not found in DB. Record will be skipped.");
-        } else {
-            recordIsStored = this.geneticAlterationImporter.store(entityId, values);
+        List<ResolvedLine> resolve(List<String> lines) throws DaoException {
+            List<ResolvedLine> resolved = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                resolved.add(resolve(line));
+            }
+            return resolved;
         }
 
-        return recordIsStored;
+        ResolvedLine resolve(String line) throws DaoException {
+            ResolvedLine resolved = new ResolvedLine();
+            if (!TsvUtil.isDataLine(line)) {
+                return resolved.skip(null);
+            }
+            String[] rowParts = TsvUtil.splitTsvLine(line);
+            TsvUtil.ensureHeaderAndRowMatch(headerParts, rowParts);
+            resolved.values = sampleValues(rowParts);
+
+            // either parse line as geneset or gene for importing into 'genetic_alteration' table
+            if (isGsvaProfile) {
+                String genesetId = rowParts[genesetIdIndex];
+                Geneset geneset = DaoGeneset.getGenesetByExternalId(genesetId);
+                if (geneset == null) {
+                    return resolved.skip("Geneset " + genesetId + " not found in DB. Record will be skipped.");
+                }
+                resolved.geneticEntityId = geneset.getGeneticEntityId();
+                return resolved;
+            }
+            if (isGenericAssayProfile) {
+                String genericAssayId = rowParts[genericAssayIdIndex];
+                Integer entityId = genericAssayStableIdToEntityIdMap.get(genericAssayId);
+                if (entityId == null) {
+                    return resolved.skip("Generic Assay entity " + genericAssayId + " not found in DB. Record will be skipped.");
+                }
+                resolved.geneticEntityId = entityId;
+                return resolved;
+            }
+            return resolveGenes(resolved, rowParts);
+        }
+
+        private ResolvedLine resolveGenes(ResolvedLine resolved, String[] rowParts) {
+            String geneSymbol = null;
+            if (hugoSymbolIndex != -1) {
+                geneSymbol = rowParts[hugoSymbolIndex];
+            }
+            if (rppaGeneRefIndex != -1) {
+                geneSymbol = rowParts[rppaGeneRefIndex];
+            }
+            if (geneSymbol != null && geneSymbol.isEmpty()) {
+                geneSymbol = null;
+            }
+            //get entrez
+            String entrez = null;
+            if (entrezGeneIdIndex != -1) {
+                entrez = rowParts[entrezGeneIdIndex];
+            }
+            if (entrez != null && entrez.isEmpty()) {
+                entrez = null;
+            }
+            if (entrez != null && !DataValidator.isValidNumericSequence(entrez)) {
+                return resolved.skip("Ignoring line with invalid Entrez_Id " + entrez);
+            }
+            if (targetLine != null && !rowParts[0].equals(targetLine)) {
+                return resolved.skip(null);
+            }
+            resolved.entrez = entrez;
+            resolved.geneSymbol = geneSymbol;
+
+            if (isRppaProfile && geneSymbol == null) {
+                return resolved.skip("Ignoring line with no Composite.Element.REF value");
+            }
+
+            //If all are empty, skip line:
+            boolean noGeneSpecified = geneSymbol == null && entrez == null;
+            if (noGeneSpecified) {
+                return resolved.skip("Ignoring line with no Hugo_Symbol and no Entrez_Id");
+            }
+
+            if (geneSymbol != null) {
+                boolean multipleGenesLine = geneSymbol.contains("///");
+                if (multipleGenesLine) {
+                    return resolved.skip("Ignoring gene symbol:  " + geneSymbol
+                            + " It is separated by ///.  This indicates that the line contains information regarding multiple genes, and we cannot currently handle this");
+                }
+                boolean unknownGene = geneSymbol.contains("---");
+                if (unknownGene) {
+                    return resolved.skip("Ignoring gene symbol:  " + geneSymbol
+                            + " It is specified as ---.  This indicates that the line contains information regarding an unknown gene, and we cannot currently handle this");
+                }
+                resolved.genesMatchingAnAlias = daoGene.getGenesForAlias(geneSymbol);
+            }
+            // RPPA genes are parsed when the line is stored, see parseRPPAGenes
+            if (!isRppaProfile) {
+                resolved.genes = parseGenes(entrez, geneSymbol);
+            }
+            return resolved;
+        }
+
+        /**
+         * The sample columns of a row, trimmed, without the columns of 'normal' samples.
+         */
+        private String[] sampleValues(String[] rowParts) {
+            String[] values = new String[keptSampleCount];
+            int kept = 0;
+            for (int i = 0; i < normalSampleColumns.length; i++) {
+                if (!normalSampleColumns[i]) {
+                    values[kept++] = rowParts[sampleStartIndex + i].trim();
+                }
+            }
+            return values;
+        }
     }
 
     /**
@@ -914,17 +1149,6 @@ public class ImportTabDelimData {
         return startIndex;
     }
 
-    private String[] filterOutNormalValues(List <Integer> filteredSampleIndices, String[] values)
-    {
-        ArrayList<String> filteredValues = new ArrayList<String>();
-        for (int lc = 0; lc < values.length; lc++) {
-            if (!filteredSampleIndices.contains(lc)) {
-                filteredValues.add(values[lc]);
-            }
-        }
-        return filteredValues.toArray(new String[filteredValues.size()]);
-    }
-
     public File getPdAnnotationsFile() {
         return pdAnnotationsFile;
     }
@@ -34,6 +34,10 @@ package org.mskcc.cbio.portal.scripts;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.mskcc.cbio.portal.dao.DaoGeneOptimized;
 import org.mskcc.cbio.portal.model.CanonicalGene;
 import org.slf4j.Logger;
@@ -77,10 +81,10 @@ import org.slf4j.LoggerFactory;
  * }
  * 
  * implementation:
- * read CNA: build hash geneCopyNumberStatus: gene -> Array of (caseID, value ) pairs
- * read exp: skip normal cases; 
- * for each gene{
- *    get mean and s.d. of elements of diploids
+ * read CNA: build CopyNumberIndex: gene -> row of a packed byte matrix of calls per CNA column
+ * read exp: skip normal cases; map each tumor case to its CNA column
+ * for each chunk of genes, in parallel, written in input order{
+ *    get mean and s.d. of elements of diploids in one pass
  *    get zScore for each case
  * }
  * 
@@ -97,7 +101,9 @@ public class NormalizeExpressionLevels{
     private static final int NO_POSITION = -1;
     private static DaoGeneOptimized daoGeneOptimized;
 
-    private static HashMap<Long, ArrayList<String[]>> geneCopyNumberStatus = null;
+    private static final int ROWS_PER_TASK = 64;
+
+    private static CopyNumberIndex geneCopyNumberStatus = null;
     private static int SAMPLES;
     private static String zScoresFile;
     private static String normalSampleSuffix;
@@ -185,7 +191,7 @@ public class NormalizeExpressionLevels{
         PrintWriter zscoreFileWriter = null;
 
         try {
-            zscoreFileWriter = new PrintWriter(new FileWriter( zScoresFile ));
+            zscoreFileWriter = new PrintWriter(new BufferedWriter(new FileWriter( zScoresFile )));
         } catch (IOException e) {
             fatalError( "cannot open <output_file> '" + zScoresFile + "' for writing.");
         }
@@ -231,105 +237,82 @@ public class NormalizeExpressionLevels{
             outputLine.add("Hugo_Symbol");
             outputLine.add("Entrez_Gene_Id");
         }
+        // expression file column of each tumor sample
+        int[] tumorColumns = new int[SAMPLES];
+        int tumorCount = 0;
         for (int i=firstSamplePosition;i<samples.length;i++) {
             if (!normalSamples.contains(samples[i])) {
                 // use values array for sample id - if tcga, we want the full barcode (as passed into utility)
                 // if not tcga, values and sample are equal
                 outputLine.add(values[i]);            
+                tumorColumns[tumorCount++] = i;
             }
         }
+        tumorColumns = Arrays.copyOf(tumorColumns, tumorCount);
         zscoreFileWriter.println( join( outputLine, "\t") );
 
         // SAMPLES is number of tumors
         SAMPLES = SAMPLES-normalSamples.size()-firstSamplePosition;
         LOG.info(file+":  "+SAMPLES+" SAMPLES ("+normalSamples.size()+" normals)");
 
+        // copy number file column of each tumor sample
+        int[] copyNumberColumns = new int[tumorCount];
+        for (int k=0;k<tumorCount;k++) {
+            copyNumberColumns[k] = geneCopyNumberStatus==null ? NO_POSITION : geneCopyNumberStatus.getColumn(samples[tumorColumns[k]]);
+        }
+
         // discards second line from expr file: it should be: "Composite Element REF  signal   ... "
         // TODO: check that 2nd line does not contain data
         in.readLine();
 
         String line;
-        int genes = 0;
-        int genesWithValidScores = 0;
         int genesFound=0;
         int rowsWithSomeDiploidCases = 0;
 
-        // process expression file
-        while((line = in.readLine())!=null) {
-            outputLine.clear();
-
-            values = line.split("\t");
-
-            CanonicalGene gene = resolveCanonicalGene(values, entrezGeneIdIndex, hugoGeneSymbolIndex);
-            if (gene==null && geneCopyNumberStatus!=null) {
-                continue;
-            }
+        // rows are z-scored in parallel, in chunks, and written in input order
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "normalize-expression");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<NormalizedChunk>> pending = new ArrayDeque<>();
+        try {
+            List<ExpressionRow> chunk = new ArrayList<>(ROWS_PER_TASK);
+            // process expression file
+            while((line = in.readLine())!=null) {
+                values = line.split("\t");
 
-            // ignore gene's data if its copy number status is unknown
-            if (geneCopyNumberStatus==null || geneCopyNumberStatus.containsKey(gene.getEntrezGeneId())) {
-                genesFound++;
-
-                ArrayList<String[]> tumorSampleExpressions = new ArrayList<String[]>();
-                for (int i=firstSamplePosition;i<values.length;i++) {
-                    if (!normalSamples.contains(samples[i])) {
-                        String[] p = new String[2];
-                        p[0] = samples[i];
-                        p[1] = values[i];
-                        tumorSampleExpressions.add(p);
-                    }
+                CanonicalGene gene = resolveCanonicalGene(values, entrezGeneIdIndex, hugoGeneSymbolIndex);
+                if (gene==null && geneCopyNumberStatus!=null) {
+                    continue;
                 }
 
-                ArrayList<String[]> cnStatus = geneCopyNumberStatus==null ? null : geneCopyNumberStatus.get(gene.getEntrezGeneId());
-                double[] zscores = getZscore( tumorSampleExpressions, cnStatus );
-
-                if (zscores != null) {
-                    rowsWithSomeDiploidCases++;
-
-                    if (firstSamplePosition==1) {
-                        outputLine.add(values[0]);
-                    } else {
-                        outputLine.add(gene.getHugoGeneSymbolAllCaps());
-                        outputLine.add(Long.toString(gene.getEntrezGeneId()));
-                    }
-
-                    for (int k =0;k<zscores.length;k++) {
-                        // Double.NaN indicates an invalid expression value
-                        if (zscores[k] != Double.NaN) {
-                            // limit precision
-                            outputLine.add( String.format( Locale.US, "%.4f", zscores[k] ) ); 
-                        } else {
-                            outputLine.add( NOT_AVAILABLE );
-                        }
-                    }
-                    zscoreFileWriter.println( join( outputLine, "\t") );
-                    genesWithValidScores++;
-                } else {
-                    outputLine.clear();
-
-                    if (firstSamplePosition==1) {
-                        outputLine.add(values[0]);
-                    } else {
-                        outputLine.add(gene.getHugoGeneSymbolAllCaps());
-                        outputLine.add(Long.toString(gene.getEntrezGeneId()));
-                    }
-                    for (int k =0;k<SAMPLES;k++) {
-                        outputLine.add( NOT_AVAILABLE );
-                    }
-                    zscoreFileWriter.println( join( outputLine, "\t") );
-                }
-                genes++;
-            } else {
-                if (firstSamplePosition==1) {
-                    outputLine.add(values[0]);
+                String prefix = firstSamplePosition==1
+                        ? values[0]
+                        : gene.getHugoGeneSymbolAllCaps() + "\t" + gene.getEntrezGeneId();
+
+                // ignore gene's data if its copy number status is unknown
+                if (geneCopyNumberStatus==null || geneCopyNumberStatus.containsGene(gene.getEntrezGeneId())) {
+                    genesFound++;
+                    int copyNumberRow = geneCopyNumberStatus==null ? NO_POSITION : geneCopyNumberStatus.getRow(gene.getEntrezGeneId());
+                    chunk.add(new ExpressionRow(prefix, values, copyNumberRow, true));
                 } else {
-                    outputLine.add(gene.getHugoGeneSymbolAllCaps());
-                    outputLine.add(Long.toString(gene.getEntrezGeneId()));
+                    chunk.add(new ExpressionRow(prefix, values, NO_POSITION, false));
                 }
-                for (int k =0;k<SAMPLES;k++) {
-                    outputLine.add( NOT_AVAILABLE );
+                if (chunk.size() == ROWS_PER_TASK) {
+                    rowsWithSomeDiploidCases += submit(executor, pending, chunk, tumorColumns, copyNumberColumns, samples, threads, zscoreFileWriter);
+                    chunk = new ArrayList<>(ROWS_PER_TASK);
                 }
-                zscoreFileWriter.println( join( outputLine, "\t") );
             }
+            if (!chunk.isEmpty()) {
+                rowsWithSomeDiploidCases += submit(executor, pending, chunk, tumorColumns, copyNumberColumns, samples, threads, zscoreFileWriter);
+            }
+            while (!pending.isEmpty()) {
+                rowsWithSomeDiploidCases += write(pending.poll(), zscoreFileWriter);
+            }
+        } finally {
+            executor.shutdownNow();
         }
         if ( 0 == genesFound ) {
             fatalError( "none of the genes in the expression file '" + file + "' were in the copy number file." );
@@ -342,7 +325,74 @@ public class NormalizeExpressionLevels{
         }
         zscoreFileWriter.close();
     }
-   
+
+    /**
+     * Queues a chunk of rows for normalization. When enough chunks are in flight, first
+     * writes out the oldest one, so at most twice the thread count are held in memory.
+     *
+     * @return number of rows with z-scores among the chunks written
+     */
+    private static int submit(ExecutorService executor, ArrayDeque<Future<NormalizedChunk>> pending,
+            List<ExpressionRow> chunk, int[] tumorColumns, int[] copyNumberColumns, String[] samples, int threads,
+            PrintWriter writer) {
+        int written = 0;
+        if (pending.size() >= 2 * threads) {
+            written = write(pending.poll(), writer);
+        }
+        pending.add(executor.submit(() -> normalizeChunk(chunk, tumorColumns, copyNumberColumns, samples)));
+        return written;
+    }
+
+    private static int write(Future<NormalizedChunk> future, PrintWriter writer) {
+        NormalizedChunk normalized;
+        try {
+            normalized = future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        for (String line : normalized.lines) {
+            writer.println(line);
+        }
+        return normalized.rowsWithZscores;
+    }
+
+    private static NormalizedChunk normalizeChunk(List<ExpressionRow> rows, int[] tumorColumns, int[] copyNumberColumns,
+            String[] samples) {
+        // buffers shared by the rows of this chunk
+        double[] parsed = new double[tumorColumns.length];
+        double[] z = new double[tumorColumns.length];
+        StringBuilder line = new StringBuilder();
+        Formatter formatter = new Formatter(line, Locale.US);
+        String[] lines = new String[rows.size()];
+        int rowsWithZscores = 0;
+        for (int r = 0; r < rows.size(); r++) {
+            ExpressionRow row = rows.get(r);
+            line.setLength(0);
+            line.append(row.prefix);
+            int n = row.scored ? getZscore(row.values, tumorColumns, samples, row.copyNumberRow, copyNumberColumns, parsed, z) : -1;
+            if (n >= 0) {
+                rowsWithZscores++;
+                for (int k = 0; k < n; k++) {
+                    // missing values are NaN and written as such
+                    line.append('\t');
+                    formatter.format("%.4f", z[k]);
+                }
+            } else {
+                for (int k = 0; k < SAMPLES; k++) {
+                    line.append('\t').append(NOT_AVAILABLE);
+                }
+            }
+            lines[r] = line.toString();
+        }
+        return new NormalizedChunk(lines, rowsWithZscores);
+    }
+
     private static int getFirstDataColumn( String[] values) {
         // TODO: instead of guessing, we should normalizing
         for (int i=0;i<values.length;i++) {
@@ -362,102 +412,112 @@ public class NormalizeExpressionLevels{
     }
    
     /**
-    * Given expression and copy number data for a set of cases for one gene
-    * return array of z-Scores for the expression data.
+    * Given expression and copy number status for one gene, computes the z-Scores of the
+    * expression values of the tumor samples present in the row.
     * 
-    * @param exp ArrayList of String[] = [ sampleID, expression ] 
-    * @param cn  ArrayList< [sampleID, copyNumber] >
-    * @return array of z-Scores for the expression data; null if there were no diploid values
+    * Each value is parsed once: diploid values while accumulating their mean and variance
+    * in a single pass, the others only if z-Scores are computed.
+    * 
+    * @param values       the expression row, split on tabs
+    * @param tumorColumns the column of each tumor sample in the row
+    * @param samples      truncated sample name per column, for error messages
+    * @param copyNumberRow the gene's row in geneCopyNumberStatus; ignored if there is no
+    *                     copy number data, in which case every sample counts as diploid
+    * @param copyNumberColumns the copy number column of each tumor sample, -1 if it has none
+    * @param parsed       buffer for the parsed values, one per tumor sample
+    * @param z            receives the z-Scores, NaN for missing values
+    * @return number of z-Scores written to z; -1 if there were too few diploid values or
+    *         their standard deviation is 0
     */
-    private static double[] getZscore( ArrayList<String[]> xp, ArrayList<String[]> cn) {
-        double[] z = null;
-        double[] diploid = new double[SAMPLES];
-        HashSet<String> diploidSamples = new HashSet<String>();
-        String DiploidSample = "0"; // CN value of 0 indicates diploid
-
-        if (cn!=null) {
-            for (int i=0;i<cn.size();i++) {
-                if (cn.get(i)[1].equals( DiploidSample ))  {
-                    diploidSamples.add(cn.get(i)[0]);  // entry [0] is the sampleID; TODO: put in a named record (class)
-                }
-            }
+    private static int getZscore(String[] values, int[] tumorColumns, String[] samples, int copyNumberRow,
+            int[] copyNumberColumns, double[] parsed, double[] z) {
+        // tumor samples beyond the end of a short row are left out, as split drops trailing empty values
+        int n = 0;
+        while (n < tumorColumns.length && tumorColumns[n] < values.length) {
+            n++;
         }
 
-        int xPos = 0;
+        // mean and sum of squared deviations of the diploid values (Welford)
         int count = 0;
-
-        // for each expression measurement
-        for (int i=0;i<xp.size();i++) {
-            // if the sample is diploid
-            if (cn==null || diploidSamples.contains(xp.get(i)[0])) {
-                count++;
-                // and the expression value is not NA or NaN or null
-                if (xp.get(i)[1].compareTo("NA")!=0 && xp.get(i)[1].compareTo("NaN")!=0 
-                        && xp.get(i)[1].compareTo("null")!=0) {
-                    // then add the measurement to the array of diploid values
-                    try {
-                        diploid[xPos++] = Double.parseDouble(xp.get(i)[1]);
-                    } catch (NumberFormatException e) {
-                        fatalError( "expression value '" + xp.get(i)[1] + "' of line " + i + " in sample " +  xp.get(i)[0] + " is not a floating point number." );
-                    }
+        double mean = 0;
+        double m2 = 0;
+        for (int k = 0; k < n; k++) {
+            if (isDiploid(copyNumberRow, copyNumberColumns[k])) {
+                String value = values[tumorColumns[k]];
+                if (isMissing(value)) {
+                    parsed[k] = Double.NaN;
+                    continue;
+                }
+                try {
+                    parsed[k] = Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    fatalError( "expression value '" + value + "' of line " + k + " in sample " + samples[tumorColumns[k]] + " is not a floating point number." );
                 }
+                count++;
+                double delta = parsed[k] - mean;
+                mean += delta / count;
+                m2 += delta * (parsed[k] - mean);
             }
         }
 
         // make sure there are enough diploid values to normalize to the distribution
         // perhaps TODO: also make sure that the distribution of diploids is close enough to normal
-        if ( MIN_NUM_DIPLOIDS <= xPos ) {
-            // remove empty elements at end of diploid
-            diploid = resize(diploid,xPos);
-            // get mean and s.d. of elements of diploid
-            double avg = avg(diploid);
-            double std = std(diploid, avg);
-
-            // create an array of z-Scores
-            // do not compute z-Score if std == 0
-            // TODO: use some minimum threshold for std
-            if ( 0.0d < std ) {
-                z = getZ(xp, avg, std);
-            }
+        if ( count < MIN_NUM_DIPLOIDS ) {
+            return -1;
         }
-        return z;
+        double std = Math.sqrt(m2 / (count - 1));
+        // do not compute z-Score if std == 0
+        // TODO: use some minimum threshold for std
+        if ( !(0.0d < std) ) {
+            return -1;
+        }
+        getZ(values, tumorColumns, samples, copyNumberRow, copyNumberColumns, parsed, mean, std, z, n);
+        return n;
     }
-   
-    public static double[] getZ(ArrayList<String[]> xp, double avg, double std) {
-        double[]z = new double[xp.size()];
 
-        if ( 0.0d == std) {
-            // this should not happen
-            fatalError( "cannot normalize relative to distribution with standard deviation of 0.0." );         
-        }
-        for (int i=0;i<xp.size();i++) {
-            if (xp.get(i)[1].compareTo("NA")!=0 && xp.get(i)[1].compareTo("NaN")!=0 
-                    && xp.get(i)[1].compareTo("null")!=0) {
-                double s;
+    /**
+     * Computes z = (value - avg) / std for the first n tumor samples, reusing the values
+     * already parsed for diploid samples.
+     */
+    private static void getZ(String[] values, int[] tumorColumns, String[] samples, int copyNumberRow,
+            int[] copyNumberColumns, double[] parsed, double avg, double std, double[] z, int n) {
+        for (int k = 0; k < n; k++) {
+            String value = values[tumorColumns[k]];
+            if (isMissing(value)) {
+                z[k] = Double.NaN;
+                continue;
+            }
+            double s = parsed[k];
+            if (!isDiploid(copyNumberRow, copyNumberColumns[k])) {
                 try {
-                    s = Double.parseDouble(xp.get(i)[1]);
-                    s = s - avg;
-                    s = s/std;
-                    z[i] = s;
+                    s = Double.parseDouble(value);
                 } catch (NumberFormatException e) {
-                    fatalError( "expression value '" + xp.get(i)[1] + " in sample " +  xp.get(i)[0] + " is not a floating point number." );
+                    fatalError( "expression value '" + value + " in sample " +  samples[tumorColumns[k]] + " is not a floating point number." );
                 }
-            } else {
-                z[i] = Double.NaN;
             }
+            z[k] = (s - avg) / std;
         }
-        return z;
     }
-   
-   
+
+    private static boolean isMissing(String value) {
+        return value.equals("NA") || value.equals("NaN") || value.equals("null");
+    }
+
+    /**
+     * CN value of 0 indicates diploid; without copy number data every sample counts as diploid.
+     */
+    private static boolean isDiploid(int copyNumberRow, int copyNumberColumn) {
+        return geneCopyNumberStatus == null || geneCopyNumberStatus.isDiploid(copyNumberRow, copyNumberColumn);
+    }
+
     /**
     * Read the copy number file and generate copy number status table
-    * returns: HashMap<Long,ArrayList<String[]>> that
-    * maps geneName -> ArrayList< [ sampleName, value ] >  
+    * returns: CopyNumberIndex holding the call of every gene in every sample column,
+    * samples named by their truncated name
     */
-    public static HashMap<Long,ArrayList<String[]>> readCopyNumberFile(String file) {
+    public static CopyNumberIndex readCopyNumberFile(String file) {
 
-        HashMap<Long,ArrayList<String[]>> map = new HashMap<Long,ArrayList<String[]>>();
+        CopyNumberIndex map = null;
         BufferedReader in = null;
         try {
             in = new BufferedReader(new FileReader(file));
@@ -492,6 +552,7 @@ public class NormalizeExpressionLevels{
                 }
                 tempSamplesNames.add( samples[i] );
             }
+            map = new CopyNumberIndex(samples);
             LOG.info(file+":  "+(SAMPLES-firstSamplePosition)+" SAMPLES");
 
             String line;
@@ -503,26 +564,19 @@ public class NormalizeExpressionLevels{
                 }
 
                 Long entrez = gene.getEntrezGeneId();
-                if (!map.containsKey(entrez)) {
-                    ArrayList<String[]> tmp = new ArrayList<String[]>(); 
-                    for (int i = firstSamplePosition;i<values.length;i++) {
-                        String[] p = new String[2];
-                        p[0] = samples[i];
-                        p[1] = values[i];
-                        tmp.add(p);
-                    }
-                    map.put(entrez,tmp);  
+                if (!map.containsGene(entrez)) {
+                    map.putGene(entrez, map.addRow(values, firstSamplePosition));
                 } else {
                     // remove duplicate ids, and report a warning
                     // TODO: this is a subtle bug; if a gene appears an even number of times in the input, then it doesn't appear in the output;
                     // if it appears an odd number, then the last one appears in the output; fix by creating a list of dupes
-                    map.remove(entrez);
+                    map.removeGene(entrez);
                     warning( "duplicate entry for gene " + entrez + " in <CopyNumberFile>, '" + file + "'.");
                 }
             }
 
-            LOG.info(file+":  "+ map.size() +" GENES");
-            if ( map.isEmpty() ) {
+            LOG.info(file+":  "+ map.getGeneCount() +" GENES");
+            if ( map.getGeneCount() == 0 ) {
                 fatalError( "no gene IDs in copy number file '" + file + "'.");
             }
         } catch (IOException e) {
@@ -593,33 +647,6 @@ public class NormalizeExpressionLevels{
     }
 
    
-    private static double avg(double[]v) {
-        double avg = 0;
-        for (int i=0;i<v.length;i++) {
-            avg=avg+v[i];
-        }
-        avg=avg/(double)v.length;
-        return avg;
-    }
-   
-    private static double std(double[]v,double avg) {
-        double std = 0;
-        for (int i=0;i<v.length;i++) {
-            std=std+Math.pow((v[i]-avg),2);
-        }
-        std=std/(double)(v.length-1);
-        std=Math.sqrt(std);
-        return std;
-    }
-
-    private static double[] resize(double[]v, int s) {
-        double[]tmp = new double[s];
-        for (int i=0;i<s;i++) {
-            tmp[i]=v[i];
-        }
-        return tmp;
-    }
-
     private static Integer findColumnIndex(String[] values, String column) {
         for (int i=0;i<values.length;i++) {
             if (values[i].equalsIgnoreCase(column)) {
@@ -649,5 +676,31 @@ public class NormalizeExpressionLevels{
         }
         return buffer.toString();
     }
-   
+
+    /**
+     * An expression row waiting to be normalized, with its output prefix (gene columns).
+     */
+    private static final class ExpressionRow {
+        private final String prefix;
+        private final String[] values;
+        private final int copyNumberRow;
+        private final boolean scored;
+
+        private ExpressionRow(String prefix, String[] values, int copyNumberRow, boolean scored) {
+            this.prefix = prefix;
+            this.values = values;
+            this.copyNumberRow = copyNumberRow;
+            this.scored = scored;
+        }
+    }
+
+    private static final class NormalizedChunk {
+        private final String[] lines;
+        private final int rowsWithZscores;
+
+        private NormalizedChunk(String[] lines, int rowsWithZscores) {
+            this.lines = lines;
+            this.rowsWithZscores = rowsWithZscores;
+        }
+    }
 }
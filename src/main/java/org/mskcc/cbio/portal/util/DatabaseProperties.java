@@ -45,6 +45,13 @@ public class DatabaseProperties {
     private String dbDriverClassName;
     private String dbUseSSL;
     private String dbEnablePooling;
+    private String dbBulkLoadMaxRows;
+    private String dbBulkLoadMaxBytes;
+    private String dbBulkLoadFormat;
+    private String dbBulkLoadFlushThreads;
+    private String dbBulkLoadCompression;
+    private String dbDeleteByPartition;
+    private String dbUploadInlineMaxIds;
     private String connectionURL;
     private String springDbUser;
     private String springDbPassword;
@@ -66,6 +73,13 @@ public class DatabaseProperties {
             dbProperties.setDbDriverClassName(GlobalProperties.getProperty("db.driver"));
             dbProperties.setDbUseSSL(GlobalProperties.getProperty("db.use_ssl"));
             dbProperties.setDbEnablePooling(GlobalProperties.getProperty("db.enable_pooling"));
+            dbProperties.setDbBulkLoadMaxRows(GlobalProperties.getProperty("db.bulk_load_max_rows"));
+            dbProperties.setDbBulkLoadMaxBytes(GlobalProperties.getProperty("db.bulk_load_max_bytes"));
+            dbProperties.setDbBulkLoadFormat(GlobalProperties.getProperty("db.bulk_load_format"));
+            dbProperties.setDbBulkLoadFlushThreads(GlobalProperties.getProperty("db.bulk_load_flush_threads"));
+            dbProperties.setDbBulkLoadCompression(GlobalProperties.getProperty("db.bulk_load_compression"));
+            dbProperties.setDbDeleteByPartition(GlobalProperties.getProperty("db.delete_by_partition"));
+            dbProperties.setDbUploadInlineMaxIds(GlobalProperties.getProperty("db.upload_inline_max_ids"));
             dbProperties.setConnectionURL(GlobalProperties.getProperty("db.connection_string"));
             dbProperties.setSpringDbUser(GlobalProperties.getProperty("spring.datasource.username"));
             dbProperties.setSpringDbPassword(GlobalProperties.getProperty("spring.datasource.password"));
@@ -143,6 +157,62 @@ public class DatabaseProperties {
         this.dbEnablePooling = dbEnablePooling;
     }
 
+    public String getDbBulkLoadMaxRows() {
+        return dbBulkLoadMaxRows;
+    }
+
+    public void setDbBulkLoadMaxRows(String dbBulkLoadMaxRows) {
+        this.dbBulkLoadMaxRows = dbBulkLoadMaxRows;
+    }
+
+    public String getDbBulkLoadMaxBytes() {
+        return dbBulkLoadMaxBytes;
+    }
+
+    public void setDbBulkLoadMaxBytes(String dbBulkLoadMaxBytes) {
+        this.dbBulkLoadMaxBytes = dbBulkLoadMaxBytes;
+    }
+
+    public String getDbBulkLoadFormat() {
+        return dbBulkLoadFormat;
+    }
+
+    public void setDbBulkLoadFormat(String dbBulkLoadFormat) {
+        this.dbBulkLoadFormat = dbBulkLoadFormat;
+    }
+
+    public String getDbBulkLoadFlushThreads() {
+        return dbBulkLoadFlushThreads;
+    }
+
+    public void setDbBulkLoadFlushThreads(String dbBulkLoadFlushThreads) {
+        this.dbBulkLoadFlushThreads = dbBulkLoadFlushThreads;
+    }
+
+    public String getDbBulkLoadCompression() {
+        return dbBulkLoadCompression;
+    }
+
+    public void setDbBulkLoadCompression(String dbBulkLoadCompression) {
+        this.dbBulkLoadCompression = dbBulkLoadCompression;
+    }
+
+    public String getDbDeleteByPartition() {
+        return dbDeleteByPartition;
+    }
+
+    public void setDbDeleteByPartition(String dbDeleteByPartition) {
+        this.dbDeleteByPartition = dbDeleteByPartition;
+    }
+
+    public String getDbUploadInlineMaxIds() {
+        return dbUploadInlineMaxIds;
+    }
+
+    public void setDbUploadInlineMaxIds(String dbUploadInlineMaxIds) {
+        this.dbUploadInlineMaxIds = dbUploadInlineMaxIds;
+    }
+
     public String getConnectionURL() {
         return connectionURL;
     }
@@ -55,11 +55,10 @@ public class ExtendedMutationUtil {
      * If no annotator value, then tries Amino Acid Change value.
      * If none of the above is valid then returns "MUTATED".
      *
-     * @param parts     current mutation as split parts of the line
      * @param record    MAF record for the current line
      * @return          most accurate protein change
      */
-    public static String getProteinChange(String[] parts, MafRecord record) {
+    public static String getProteinChange(MafRecord record) {
         // try annotator value first
         String proteinChange = record.getProteinChange();
 
@@ -79,6 +78,15 @@ public class ExtendedMutationUtil {
         return proteinChange;
     }
 
+    /**
+     * @deprecated  parts was never read; use {@link #getProteinChange(MafRecord)}, which
+     *              saves splitting the line a second time.
+     */
+    @Deprecated
+    public static String getProteinChange(String[] parts, MafRecord record) {
+        return getProteinChange(record);
+    }
+
     /**
      * Removes the starting "p." (if any) from the given
      * amino acid change string.
@@ -33,6 +33,7 @@
 package org.mskcc.cbio.portal.util;
 
 import java.io.*;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Misc File Utilities.
@@ -62,4 +63,70 @@ public class FileUtil {
         }
     }
 
+    /**
+     * Opens a text file for a single pass, reporting progress to the {@link ProgressMonitor} as bytes
+     * are read from disk. This replaces counting the lines with {@link #getNumLines(File)} first, which
+     * read the whole file twice. Gzip files are decompressed on the fly; their progress is measured in
+     * compressed bytes.
+     *
+     * @param file File.
+     * @return reader over the (decompressed) content of the file.
+     * @throws java.io.IOException Error Opening File.
+     */
+    public static BufferedReader openProgressReader(File file) throws IOException {
+        ProgressMonitor.setMaxBytes(file.length());
+        InputStream in = new BufferedInputStream(new ProgressInputStream(new FileInputStream(file)), 64 * 1024);
+        try {
+            if (isGzip(in)) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in));
+    }
+
+    private static boolean isGzip(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Counts the bytes read from the underlying file towards the ProgressMonitor.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+
+        ProgressInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ProgressMonitor.addBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                ProgressMonitor.addBytesRead(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            ProgressMonitor.addBytesRead(skipped);
+            return skipped;
+        }
+    }
 }
@@ -49,8 +49,7 @@ public class GisticReader {
 
         ArrayList<Gistic> gistics = new ArrayList<Gistic>();
 
-        FileReader reader = new FileReader(gistic_f);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(gistic_f);
         try {
 	        String line = buf.readLine();
 	
@@ -142,7 +141,6 @@ public class GisticReader {
 	        }
 	
 	        buf.close();
-	        reader.close();
 	        return gistics;
         }
         finally {
@@ -64,8 +64,7 @@ public class MutSigReader {
     public static int loadMutSig(int internalId, File mutSigFile) throws IOException, DaoException {
         int loadedMutSigs = 0;
         ClickHouseBulkLoader.bulkLoadOff();
-        FileReader reader = new FileReader(mutSigFile);
-        BufferedReader buf = new BufferedReader(reader);
+        BufferedReader buf = FileUtil.openProgressReader(mutSigFile);
         try {
 	        // parse field names of a mutsig data file
 	        int rankField = -1;
@@ -32,113 +32,181 @@
 
 package org.mskcc.cbio.portal.util;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.*;
 
 /**
+ * Guesses the mutation keyword of a protein change.
+ *
+ * All patterns are compiled once. Before a pattern is tried the protein change is reduced
+ * to a few shape features (does it contain '*', '>', '_', "del", "ins", ...), and patterns
+ * that need a feature the string does not have are skipped. Keywords of recently seen
+ * (protein change, mutation type) pairs are remembered, since an import writes the same
+ * hotspots over and over.
  *
  * @author jgao
  */
 public final class MutationKeywordUtils {
     private MutationKeywordUtils() {}
-    
-    public static String guessOncotatorMutationKeyword(String aminoAcidChange, String mutationType) {
-        if (mutationType.equals("Nonsense_Mutation") ||
-            mutationType.equals("Splice_Site") || 
-            mutationType.startsWith("Frame_Shift_") || 
-            mutationType.equals("Nonstop_Mutation") ||
-            mutationType.equals("Translation_Start_Site")) {
-            return "truncating";
-        }
-        
-        if (mutationType.equals("Missense_Mutation")) {
-            if (aminoAcidChange.matches("M1[A-LN-Z][A-Z]*")) { // how about indels on the first position?
-                // non-start
-                return "truncating";
+
+    private static final int STAR = 1;
+    private static final int GT = 1 << 1;
+    private static final int UNDERSCORE = 1 << 2;
+    private static final int FS = 1 << 3;
+    private static final int DEL = 1 << 4;
+    private static final int INS = 1 << 5;
+    private static final int DUP = 1 << 6;
+    private static final int EXT = 1 << 7;
+    private static final int START_M1 = 1 << 8;
+
+    private static final String TRUNCATING = "truncating";
+    private static final int MAX_REMEMBERED_KEYWORDS = 16384;
+    // keywords can be null, which this stands in for
+    private static final String NO_KEYWORD = new String("null");
+
+    private static final Map<String, String> rememberedKeywords =
+        new LinkedHashMap<String, String>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_REMEMBERED_KEYWORDS;
             }
-            
-            Pattern p = Pattern.compile("([A-Z][0-9]+)[A-Z]");
-            Matcher m = p.matcher(aminoAcidChange);
-            if (m.matches()) {
-                return m.group(1) + " missense";
+        };
+
+    private static final Rule[] ONCOTATOR_MISSENSE = {
+        // how about indels on the first position?
+        new Rule(START_M1, "M1[A-LN-Z][A-Z]*", m -> TRUNCATING), // non-start
+        new Rule(0, "([A-Z][0-9]+)[A-Z]", m -> m.group(1) + " missense"),
+        new Rule(UNDERSCORE | GT, "([0-9]+)_([0-9]+)[A-Z]+>[A-Z]+", m -> m.group(1) + "-" + m.group(2) + " missense"),
+    };
+
+    private static final Rule[] ONCOTATOR_IN_FRAME_INS = {
+        new Rule(STAR | UNDERSCORE, "[0-9]+_[0-9]+[A-Z]*((ins)|(>)).*\\*.*", m -> TRUNCATING), // insertion of *
+        // insertion in the start position
+        new Rule(UNDERSCORE, "1_1M>?[A-LN-Z][A-Z]*", m -> TRUNCATING),
+        new Rule(UNDERSCORE | INS, "1_2ins[A-LN-Z][A-Z]*", m -> TRUNCATING),
+        Rule.find(UNDERSCORE, "([0-9]+)_([0-9]+)[A-Z]*((ins)|(>))[A-Z]+", m -> m.group(1) + " insertion"),
+    };
+
+    private static final Rule[] ONCOTATOR_IN_FRAME_DEL = {
+        // deletion of M1
+        new Rule(DEL, "M[A-Z]*1del", m -> TRUNCATING),
+        new Rule(UNDERSCORE | GT, "1_[0-9]+M[A-Z]*>[A-LN-Z][A-Z]*", m -> TRUNCATING),
+        // deletion of *
+        new Rule(STAR | DEL, "[A-Z]*\\*[0-9]+del", m -> TRUNCATING),
+        new Rule(STAR | UNDERSCORE | GT, "[0-9]+_[0-9]+[A-Z]*\\*>[A-Z]+", m -> TRUNCATING),
+        new Rule(STAR | UNDERSCORE | GT, "[0-9]+_[0-9]+[A-Z]*>.*\\*.*", m -> TRUNCATING),
+        // only the first deleted residue was considered
+        new Rule(DEL, "([A-Z]+)([0-9]+)del",
+            m -> m.group(2) + "-" + (Integer.parseInt(m.group(2)) + m.group(1).length() - 1) + " deletion"),
+        Rule.find(UNDERSCORE | GT, "([0-9]+)_([0-9]+)[A-Z]*>[A-Z]+", m -> m.group(1) + "-" + m.group(2) + " deletion"),
+    };
+
+    private static final Rule[] ONCOTATOR_SILENT = {
+        Rule.find(0, "([0-9]+)", m -> m.group(1) + "silent"),
+    };
+
+    private static final Rule[] COSMIC = {
+        new Rule(FS, "\\(?[A-Z\\*]?[0-9]+[A-Z\\*]?\\)?fs\\*?>?\\??[0-9]*", m -> TRUNCATING), // frameshift
+        new Rule(FS, "\\?fs", m -> TRUNCATING), // frameshift
+        new Rule(STAR, "[A-Z][0-9]+>?\\*", m -> TRUNCATING), // non sense
+        new Rule(START_M1, "M1>?[A-LN-Z]", m -> TRUNCATING), // non start
+        new Rule(START_M1 | DEL, "M1delM", m -> TRUNCATING), // non start, deletion of M1
+        new Rule(START_M1 | UNDERSCORE | INS, "M1_M1ins[A-LN-Z][A-Z]*", m -> TRUNCATING), // non start, insertion of non M at start
+        new Rule(STAR, "([A-Z][0-9]+_)?\\*[0-9]+>?[A-Z]", m -> TRUNCATING), // non stop
+        new Rule(STAR | UNDERSCORE | DEL, "([A-Z][0-9]+_)\\*[0-9]+del([A-Z]+\\*)?", m -> TRUNCATING), // delete *
+        new Rule(STAR | DEL, "\\*[0-9]+del\\*", m -> TRUNCATING), // delete *
+        new Rule(STAR, "[A-Z][0-9]+(_[A-Z][0-9]+)?((ins)|(>)).*\\*.*", m -> TRUNCATING), // inserting a stop
+        new Rule(STAR | UNDERSCORE | GT, "[A-Z][0-9]+_[A-Z][0-9]+>.*\\*.*", m -> TRUNCATING), // repleacing/inserting/deletion a stop
+        new Rule(START_M1 | UNDERSCORE | GT, "M1_[A-Z][0-9]+>[A-LN-Z][A-Z]*", m -> TRUNCATING), // repleacing/inserting/deletion the first codon
+
+        new Rule(0, "(([A-Z\\*])[0-9]+)>?((\\2)|(=)|(%3D))", m -> m.group(1) + " silent"), // cosmic encodes = as %3D
+        new Rule(0, "([A-Z]([0-9]+))>?([A-Z]+)", m -> {
+            if (m.group(3).length() > 1) {
+                return m.group(2) + " insertion";
             }
-            
-            p = Pattern.compile("([0-9]+)_([0-9]+)[A-Z]+>[A-Z]+");
-            m = p.matcher(aminoAcidChange);
-            if (m.matches()) {
+            return m.group(1) + " missense";
+        }),
+        new Rule(UNDERSCORE | INS, "[A-Z]?([0-9]+)_[A-Z\\*]?[0-9]+ins(([A-Z]+)|([0-9]+))", m -> m.group(1) + " insertion"), //incl. ins before stop codon
+        new Rule(STAR | EXT, "\\*([0-9]+)[A-Z]?ext\\*(([0-9]+)|(\\?))", m -> m.group(1) + " insertion"), //extension of stop codon
+        new Rule(DUP, "[A-Z*]([0-9]+)(_[A-Z*][0-9]+)?dup", m -> m.group(1) + " insertion"), //duplication treated as insertion
+        new Rule(GT, "[A-Z]?([0-9]+)>[A-Z][A-Z]+", m -> m.group(1) + " insertion"),
+        new Rule(STAR | UNDERSCORE | INS, "\\*([0-9]+)_\\*[0-9]+ins[A-Z]+\\*?", m -> m.group(1) + " insertion"),
+        new Rule(DEL, "[A-Z]([0-9]+)del[A-Z]?", m -> m.group(1) + "-" + m.group(1) + " deletion"),
+        new Rule(UNDERSCORE | DEL, "[A-Z]([0-9]+)_[A-Z]([0-9]+)del(([A-Z]+)|([0-9]+))?", m -> m.group(1) + "-" + m.group(2) + " deletion"),
+        // this is actually similar to missense mutation for more than 1 amino acid
+        new Rule(UNDERSCORE, "[A-Z]([0-9]+)_[A-Z*]([0-9]+)((>)|(delins))([A-Z*]+)", m -> {
+            int n1 = Integer.parseInt(m.group(2)) - Integer.parseInt(m.group(1)) + 1;
+            int n2 = m.group(6).length();
+            if (n1 == n2) {
                 return m.group(1) + "-" + m.group(2) + " missense";
             }
-        }
-        
-        if (mutationType.equals("In_Frame_Ins")) {
-            if (aminoAcidChange.matches("[0-9]+_[0-9]+[A-Z]*((ins)|(>)).*\\*.*")) {
-                // insertion of *
-                return "truncating";
+            if (n1 > n2) {
+                return m.group(1) + "-" + m.group(2) + " deletion";
             }
-            
-            if (aminoAcidChange.matches("1_1M>?[A-LN-Z][A-Z]*")
-                    || aminoAcidChange.matches("1_2ins[A-LN-Z][A-Z]*")) {// insertion in the start position
-                return "truncating";
+            return m.group(1) + " insertion";
+        }),
+        new Rule(DEL | INS, "[A-Z*]([0-9]+)delins[A-Z*]+[0-9]*", m -> m.group(1) + " insertion"), //delins with 1 del & >1 ins
+        new Rule(STAR | DEL | EXT, "([A-Z*]+)([0-9]+)delext\\*([0-9]+)", m -> { //delext
+            int n1 = m.group(1).length(); // no. of AA deleted
+            int n2 = Integer.parseInt(m.group(3));  // no. of AA added
+            int n3 = Integer.parseInt(m.group(2)); // location of AA1
+            if (n1 == n2) {
+                return m.group(2) + "-" + (n3 + n2 - 1) + " missense";
             }
-            
-            Pattern p = Pattern.compile("([0-9]+)_([0-9]+)[A-Z]*((ins)|(>))[A-Z]+");
-            Matcher m = p.matcher(aminoAcidChange);
-            if (m.find()) {
-               return "" + m.group(1) + " insertion";
+            if (n1 < n2) {
+                return m.group(2) + " insertion";
             }
+            return null;
+        }),
+    };
+
+    public static String guessOncotatorMutationKeyword(String aminoAcidChange, String mutationType) {
+        if (aminoAcidChange == null || mutationType == null) {
+            return classifyOncotator(aminoAcidChange, mutationType);
         }
-        
-        if (mutationType.equals("In_Frame_Del")) {
-            if (aminoAcidChange.matches("M[A-Z]*1del")
-                    || aminoAcidChange.matches("1_[0-9]+M[A-Z]*>[A-LN-Z][A-Z]*")) {
-                // deletion of M1
-                return "truncating";
-            }
-            
-            if (aminoAcidChange.matches("[A-Z]*\\*[0-9]+del")
-                    || aminoAcidChange.matches("[0-9]+_[0-9]+[A-Z]*\\*>[A-Z]+")) {
-                // deletion of *
-                return "truncating";
-            }
-            
-            if (aminoAcidChange.matches("[0-9]+_[0-9]+[A-Z]*>.*\\*.*")) {
-                // deletion of *
-                return "truncating";
-            }
-            
-            // only the first deleted residue was considered
-            Pattern p = Pattern.compile("([A-Z]+)([0-9]+)del");
-            Matcher m = p.matcher(aminoAcidChange);
-            if (m.matches()) {
-               return "" + m.group(2) + "-" + (Integer.parseInt(m.group(2))+m.group(1).length()-1) + " deletion";
-            }
-            
-            p = Pattern.compile("([0-9]+)_([0-9]+)[A-Z]*>[A-Z]+");
-            m = p.matcher(aminoAcidChange);
-            if (m.find()) {
-               return m.group(1) + "-" + m.group(2) + " deletion";
+        String key = aminoAcidChange + '\t' + mutationType;
+        synchronized (rememberedKeywords) {
+            String keyword = rememberedKeywords.get(key);
+            if (keyword != null) {
+                return keyword == NO_KEYWORD ? null : keyword;
             }
         }
-        
-        if (mutationType.equals("Silent")) {
-            Pattern p = Pattern.compile("([0-9]+)");
-            Matcher m = p.matcher(aminoAcidChange);
-            if (m.find()) {
-               return "" + m.group(1) + "silent";
-            }
+        String keyword = classifyOncotator(aminoAcidChange, mutationType);
+        synchronized (rememberedKeywords) {
+            rememberedKeywords.put(key, keyword == null ? NO_KEYWORD : keyword);
         }
-        
-        if (mutationType.equals("Exon skipping")
-                || mutationType.equals("vIII deletion")) {
-            return aminoAcidChange;
+        return keyword;
+    }
+
+    private static String classifyOncotator(String aminoAcidChange, String mutationType) {
+        if (mutationType.equals("Nonsense_Mutation") ||
+            mutationType.equals("Splice_Site") || 
+            mutationType.startsWith("Frame_Shift_") || 
+            mutationType.equals("Nonstop_Mutation") ||
+            mutationType.equals("Translation_Start_Site")) {
+            return TRUNCATING;
         }
-        
-        if (mutationType.equals("NA")) {
-            return guessCosmicKeyword(aminoAcidChange);
+
+        switch (mutationType) {
+            case "Missense_Mutation":
+                return classify(ONCOTATOR_MISSENSE, aminoAcidChange);
+            case "In_Frame_Ins":
+                return classify(ONCOTATOR_IN_FRAME_INS, aminoAcidChange);
+            case "In_Frame_Del":
+                return classify(ONCOTATOR_IN_FRAME_DEL, aminoAcidChange);
+            case "Silent":
+                return classify(ONCOTATOR_SILENT, aminoAcidChange);
+            case "Exon skipping":
+            case "vIII deletion":
+                return aminoAcidChange;
+            case "NA":
+                return guessCosmicKeyword(aminoAcidChange);
+            default:
+                // how about RNA or Translation_Start_Site
+                return null;
         }
-            
-        // how about RNA or Translation_Start_Site
-        
-        return null;
     }
     
     /**
@@ -149,117 +217,83 @@ public final class MutationKeywordUtils {
      * @return 
      */
     public static String guessCosmicKeyword(String aminoAcidChange) {
-        if (aminoAcidChange.matches("\\(?[A-Z\\*]?[0-9]+[A-Z\\*]?\\)?fs\\*?>?\\??[0-9]*") // frameshift
-                || aminoAcidChange.equals("?fs") // frameshift
-                || aminoAcidChange.matches("[A-Z][0-9]+>?\\*") // non sense
-                || aminoAcidChange.matches("M1>?[A-LN-Z]") // non start
-                || aminoAcidChange.matches("M1delM") // non start, deletion of M1
-                || aminoAcidChange.matches("M1_M1ins[A-LN-Z][A-Z]*") // non start, insertion of non M at start
-                || aminoAcidChange.matches("([A-Z][0-9]+_)?\\*[0-9]+>?[A-Z]") // non stop
-                || aminoAcidChange.matches("([A-Z][0-9]+_)\\*[0-9]+del([A-Z]+\\*)?") // delete *
-                || aminoAcidChange.matches("\\*[0-9]+del\\*") // delete *
-                || aminoAcidChange.matches("[A-Z][0-9]+(_[A-Z][0-9]+)?((ins)|(>)).*\\*.*") // inserting a stop
-                || aminoAcidChange.matches("[A-Z][0-9]+_[A-Z][0-9]+>.*\\*.*") // repleacing/inserting/deletion a stop
-                || aminoAcidChange.matches("M1_[A-Z][0-9]+>[A-LN-Z][A-Z]*") // repleacing/inserting/deletion the first codon
-                ) {
-            return "truncating";
-        }
-        
-        Pattern p = Pattern.compile("(([A-Z\\*])[0-9]+)>?((\\2)|(=)|(%3D))");  // cosmic encodes = as %3D
-        Matcher m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" silent";
-        }
-        
-        p = Pattern.compile("([A-Z]([0-9]+))>?([A-Z]+)");
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            if (m.group(3).length()>1) {
-                return m.group(2)+" insertion";
+        return classify(COSMIC, aminoAcidChange);
+    }
+
+    /**
+     * Returns the keyword of the first rule that matches and gives one, or null.
+     */
+    private static String classify(Rule[] rules, String aminoAcidChange) {
+        int shape = shapeOf(aminoAcidChange);
+        for (Rule rule : rules) {
+            if ((shape & rule.requiredShape) != rule.requiredShape) {
+                continue;
+            }
+            Matcher m = rule.pattern.matcher(aminoAcidChange);
+            if (rule.find ? m.find() : m.matches()) {
+                String keyword = rule.keyword.apply(m);
+                if (keyword != null) {
+                    return keyword;
+                }
             }
-            return m.group(1)+" missense";
-        }
-        
-        p = Pattern.compile("[A-Z]?([0-9]+)_[A-Z\\*]?[0-9]+ins(([A-Z]+)|([0-9]+))"); //incl. ins before stop codon
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";
         }
+        return null;
+    }
 
-        p = Pattern.compile("\\*([0-9]+)[A-Z]?ext\\*(([0-9]+)|(\\?))"); //extension of stop codon
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";
+    /**
+     * Returns the shape features of a protein change. A rule is only tried when the
+     * string has every feature its pattern cannot match without.
+     */
+    private static int shapeOf(String aminoAcidChange) {
+        int shape = 0;
+        for (int i = 0; i < aminoAcidChange.length(); i++) {
+            switch (aminoAcidChange.charAt(i)) {
+                case '*': shape |= STAR; break;
+                case '>': shape |= GT; break;
+                case '_': shape |= UNDERSCORE; break;
+                default: break;
+            }
         }
-
-        p = Pattern.compile("[A-Z*]([0-9]+)(_[A-Z*][0-9]+)?dup"); //duplication treated as insertion
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";  
+        if (aminoAcidChange.contains("fs")) {
+            shape |= FS;
         }
-        
-        p = Pattern.compile("[A-Z]?([0-9]+)>[A-Z][A-Z]+");
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";
+        if (aminoAcidChange.contains("del")) {
+            shape |= DEL;
         }
-        
-        p = Pattern.compile("\\*([0-9]+)_\\*[0-9]+ins[A-Z]+\\*?");
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";
+        if (aminoAcidChange.contains("ins")) {
+            shape |= INS;
         }
-        
-        p = Pattern.compile("[A-Z]([0-9]+)del[A-Z]?");
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1) + "-" + m.group(1) + " deletion";
+        if (aminoAcidChange.contains("dup")) {
+            shape |= DUP;
         }
-        
-        p = Pattern.compile("[A-Z]([0-9]+)_[A-Z]([0-9]+)del(([A-Z]+)|([0-9]+))?");
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1) + "-" + m.group(2) + " deletion";
+        if (aminoAcidChange.contains("ext")) {
+            shape |= EXT;
         }
-        
-        p = Pattern.compile("[A-Z]([0-9]+)_[A-Z*]([0-9]+)((>)|(delins))([A-Z*]+)"); // this is actually similar to missense mutation for more than 1 amino acid
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            int n1 = Integer.parseInt(m.group(2)) - Integer.parseInt(m.group(1)) + 1;
-            int n2 = m.group(6).length();
-            if (n1==n2) {
-                return m.group(1) + "-" + m.group(2) + " missense";
-            }
-            
-            if (n1 > n2) {
-                return m.group(1) + "-" + m.group(2) + " deletion";
-            }
-            
-            return m.group(1) + " insertion";
+        if (aminoAcidChange.startsWith("M1")) {
+            shape |= START_M1;
         }
+        return shape;
+    }
+
+    private static final class Rule {
+        private final int requiredShape;
+        private final Pattern pattern;
+        private final boolean find;
+        private final Function<Matcher, String> keyword;
 
-        p = Pattern.compile("[A-Z*]([0-9]+)delins[A-Z*]+[0-9]*"); //delins with 1 del & >1 ins
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            return m.group(1)+" insertion";
+        private Rule(int requiredShape, String regex, Function<Matcher, String> keyword) {
+            this(requiredShape, regex, false, keyword);
         }
 
-        p = Pattern.compile("([A-Z*]+)([0-9]+)delext\\*([0-9]+)"); //delext
-        m = p.matcher(aminoAcidChange);
-        if (m.matches()) {
-            int n1 = m.group(1).length(); // no. of AA deleted
-            int n2 = Integer.parseInt(m.group(3));  // no. of AA added
-            int n3 = Integer.parseInt(m.group(2)); // location of AA1
-            if (n1==n2) {
-                return m.group(2) + "-" + Integer.toString(n3 + n2 - 1) + " missense";
-            }
+        private Rule(int requiredShape, String regex, boolean find, Function<Matcher, String> keyword) {
+            this.requiredShape = requiredShape;
+            this.pattern = Pattern.compile(regex);
+            this.find = find;
+            this.keyword = keyword;
+        }
 
-            if (n1 < n2) {
-                return m.group(2) + " insertion";
-            }
+        private static Rule find(int requiredShape, String regex, Function<Matcher, String> keyword) {
+            return new Rule(requiredShape, regex, true, keyword);
         }
-        
-        return null;
     }
-    
 }
@@ -33,6 +33,7 @@
 package org.mskcc.cbio.portal.util;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +45,8 @@ import org.slf4j.LoggerFactory;
 public class ProgressMonitor {
     private int maxValue;
     private int curValue;
+    private long maxBytes;
+    private final AtomicLong bytesRead = new AtomicLong();
     private String currentMessage;
     private StringBuffer log = new StringBuffer();
     private static Logger logger = LoggerFactory.getLogger(ProgressMonitor.class);
@@ -121,10 +124,14 @@ public class ProgressMonitor {
 
     /**
      * Gets Percentage Complete.
+     * Based on bytes read when a file is tracked with {@link #setMaxBytes(long)}, else on the current value.
      *
      * @return double value.
      */
     public static double getPercentComplete() {
+        if (progressMonitor.maxBytes > 0) {
+            return Math.min(1.0, progressMonitor.bytesRead.get() / (double) progressMonitor.maxBytes);
+        }
         if (progressMonitor.curValue == 0) {
             return 0.0;
         } else {
@@ -149,6 +156,38 @@ public class ProgressMonitor {
     public static void setMaxValue(int maxValue) {
         progressMonitor.maxValue = maxValue;
         progressMonitor.curValue = 0;
+        progressMonitor.maxBytes = 0;
+    }
+
+    /**
+     * Tracks progress by bytes read instead of by a known number of records.
+     * The current value still counts records, but no longer determines the percentage.
+     *
+     * @param maxBytes total number of bytes that will be read.
+     */
+    public static void setMaxBytes(long maxBytes) {
+        progressMonitor.maxValue = 0;
+        progressMonitor.curValue = 0;
+        progressMonitor.maxBytes = maxBytes;
+        progressMonitor.bytesRead.set(0);
+    }
+
+    /**
+     * Adds to the number of bytes read.
+     *
+     * @param bytes number of bytes read since the last call.
+     */
+    public static void addBytesRead(long bytes) {
+        progressMonitor.bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Gets the number of bytes read since {@link #setMaxBytes(long)}.
+     *
+     * @return number of bytes.
+     */
+    public static long getBytesRead() {
+        return progressMonitor.bytesRead.get();
     }
 
     /**
@@ -163,7 +202,7 @@ public class ProgressMonitor {
     /**
      * Increments the Current Value.
      */
-    public static void incrementCurValue() {
+    public static synchronized void incrementCurValue() {
         progressMonitor.curValue++;
     }
 
@@ -199,7 +238,7 @@ public class ProgressMonitor {
      *
      * @param currentMessage Current Task Message.
      */
-    public static void setCurrentMessage(String currentMessage) {
+    public static synchronized void setCurrentMessage(String currentMessage) {
         progressMonitor.currentMessage = currentMessage;
         progressMonitor.log.append(currentMessage + "\n");
         if (progressMonitor.consoleMode) {
@@ -207,7 +246,7 @@ public class ProgressMonitor {
         }
     }
 
-    public static void logWarning(String warning) {
+    public static synchronized void logWarning(String warning) {
         logger.warn(warning);
         progressMonitor.warnings.add(warning);
         if (!progressMonitor.warningCounts.containsKey(warning)) {
@@ -216,7 +255,7 @@ public class ProgressMonitor {
         progressMonitor.warningCounts.put(warning, progressMonitor.warningCounts.get(warning)+1);
     }
 
-    public static void logDebug(String debugMessage) {
+    public static synchronized void logDebug(String debugMessage) {
         logger.debug(debugMessage);
         if (isShowProgress())
         	progressMonitor.debugMessages.add(debugMessage);
@@ -239,6 +278,13 @@ public class ProgressMonitor {
     	progressMonitor.warningCounts.clear();
     }
     
+    /**
+     * Reset the debug messages list.
+     */
+    public static synchronized void resetDebugMessages() {
+        progressMonitor.debugMessages.clear();
+    }
+
     public static ArrayList<String> getMessages() {
     	ArrayList<String> ret = getWarnings();
     	ret.addAll(progressMonitor.debugMessages);
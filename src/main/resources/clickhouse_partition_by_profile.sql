@@ -0,0 +1,82 @@
+-- Opt-in storage layout: partitions the per-profile tables by genetic_profile_id so that
+-- removing a study can drop whole partitions (set db.delete_by_partition=true).
+--
+-- Each table is rebuilt under a temporary name, filled from the original and swapped in
+-- with EXCHANGE TABLES. Run it while no import is in progress. Keep the number of genetic
+-- profiles in mind: every profile becomes one partition in each of these tables.
+--
+-- Each copy writes rows of every genetic profile in one INSERT. ClickHouse refuses an
+-- INSERT block that touches more than max_partitions_per_insert_block (100 by default)
+-- partitions, so the copies lift that limit for their own statement only.
+
+CREATE TABLE sample_cna_event_partitioned AS sample_cna_event
+    ENGINE = MergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple();
+INSERT INTO sample_cna_event_partitioned SELECT * FROM sample_cna_event
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES sample_cna_event_partitioned AND sample_cna_event;
+DROP TABLE sample_cna_event_partitioned;
+
+CREATE TABLE genetic_alteration_partitioned AS genetic_alteration
+    ENGINE = ReplacingMergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple(`genetic_profile_id`, `genetic_entity_id`);
+INSERT INTO genetic_alteration_partitioned SELECT * FROM genetic_alteration
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES genetic_alteration_partitioned AND genetic_alteration;
+DROP TABLE genetic_alteration_partitioned;
+
+CREATE TABLE genetic_profile_samples_partitioned AS genetic_profile_samples
+    ENGINE = ReplacingMergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple(`genetic_profile_id`);
+INSERT INTO genetic_profile_samples_partitioned SELECT * FROM genetic_profile_samples
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES genetic_profile_samples_partitioned AND genetic_profile_samples;
+DROP TABLE genetic_profile_samples_partitioned;
+
+CREATE TABLE sample_profile_partitioned AS sample_profile
+    ENGINE = ReplacingMergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple(`sample_id`, `genetic_profile_id`);
+INSERT INTO sample_profile_partitioned SELECT * FROM sample_profile
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES sample_profile_partitioned AND sample_profile;
+DROP TABLE sample_profile_partitioned;
+
+CREATE TABLE mutation_partitioned AS mutation
+    ENGINE = MergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple();
+INSERT INTO mutation_partitioned SELECT * FROM mutation
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES mutation_partitioned AND mutation;
+DROP TABLE mutation_partitioned;
+
+CREATE TABLE alteration_driver_annotation_partitioned AS alteration_driver_annotation
+    ENGINE = MergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple();
+INSERT INTO alteration_driver_annotation_partitioned SELECT * FROM alteration_driver_annotation
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES alteration_driver_annotation_partitioned AND alteration_driver_annotation;
+DROP TABLE alteration_driver_annotation_partitioned;
+
+CREATE TABLE mutation_count_by_keyword_partitioned AS mutation_count_by_keyword
+    ENGINE = MergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple();
+INSERT INTO mutation_count_by_keyword_partitioned SELECT * FROM mutation_count_by_keyword
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES mutation_count_by_keyword_partitioned AND mutation_count_by_keyword;
+DROP TABLE mutation_count_by_keyword_partitioned;
+
+CREATE TABLE structural_variant_partitioned AS structural_variant
+    ENGINE = MergeTree
+PARTITION BY assumeNotNull(`genetic_profile_id`)
+ORDER BY tuple();
+INSERT INTO structural_variant_partitioned SELECT * FROM structural_variant
+SETTINGS max_partitions_per_insert_block = 0;
+EXCHANGE TABLES structural_variant_partitioned AND structural_variant;
+DROP TABLE structural_variant_partitioned;
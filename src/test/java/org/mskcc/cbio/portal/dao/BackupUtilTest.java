@@ -0,0 +1,76 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that BackupUtil only copies the rows of the affected genetic profiles and
+ * puts back exactly those rows when the wrapped update fails.
+ */
+public class BackupUtilTest {
+
+    private final List<String> capturedSql = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // forget any partition layout seen by another test
+        ClickHouseProfilePartitions.setEnabled(false);
+
+        ResultSet noTables = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(noTables.next()).andReturn(false).anyTimes();
+        EasyMock.replay(noTables);
+
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(stmt.executeQuery()).andReturn(noTables).anyTimes();
+        EasyMock.replay(stmt);
+
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return stmt;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+
+    @Test
+    public void backup_success_copiesOnlyAffectedProfiles() throws Exception {
+        BackupUtil.backup(List.of("genetic_alteration"), List.of(3, 5), () -> { });
+
+        assertTrue(capturedSql.contains(
+            "INSERT INTO genetic_alteration_backup SELECT * FROM genetic_alteration WHERE genetic_profile_id IN (3,5);"));
+        assertFalse(capturedSql.stream().anyMatch(sql -> sql.startsWith("EXCHANGE TABLES")));
+        assertEquals("DROP TABLE IF EXISTS genetic_alteration_backup;", capturedSql.get(capturedSql.size() - 1));
+    }
+
+    @Test
+    public void backup_failure_restoresAffectedProfiles() {
+        try {
+            BackupUtil.backup(List.of("genetic_profile_samples"), List.of(3), () -> {
+                throw new IllegalStateException("import failed");
+            });
+            fail("Expected the import failure to be rethrown");
+        } catch (Exception e) {
+            assertEquals("import failed", e.getMessage());
+        }
+
+        int delete = capturedSql.indexOf("DELETE FROM genetic_profile_samples WHERE genetic_profile_id IN (3);");
+        int reinsert = capturedSql.indexOf("INSERT INTO genetic_profile_samples SELECT * FROM genetic_profile_samples_backup;");
+        assertTrue(delete >= 0);
+        assertTrue(reinsert > delete);
+    }
+}
@@ -0,0 +1,291 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that ClickHouseAutoIncrement leases growing blocks of ids, hands them out without
+ * going back to the database, and retries when another process won the same range.
+ */
+public class ClickHouseAutoIncrementTest {
+
+    private List<String> capturedSql;
+    private Deque<Long> persistedMaxValues;
+    private Deque<long[]> leaseChecks;
+
+    @Before
+    public void setUp() throws Exception {
+        capturedSql = Collections.synchronizedList(new ArrayList<>());
+        persistedMaxValues = new ArrayDeque<>();
+        leaseChecks = new ArrayDeque<>();
+
+        PreparedStatement mockStmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(mockStmt.executeQuery()).andAnswer(() -> {
+            String sql = capturedSql.get(capturedSql.size() - 1);
+            synchronized (this) {
+                if (sql.contains("countIf(lease_owner")) {
+                    long[] counts = leaseChecks.isEmpty() ? new long[]{1, 0} : leaseChecks.poll();
+                    return singleRowResultSet(counts[0], counts[1]);
+                }
+                if (sql.contains("max(last_value)")) {
+                    return singleRowResultSet(persistedMaxValues.isEmpty() ? 0L : persistedMaxValues.poll());
+                }
+            }
+            return singleRowResultSet(0L);
+        }).anyTimes();
+        EasyMock.replay(mockStmt);
+
+        Connection mockCon = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(mockCon.prepareStatement(EasyMock.anyString()))
+                .andAnswer(() -> {
+                    capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+                    return mockStmt;
+                })
+                .anyTimes();
+        EasyMock.replay(mockCon);
+
+        DataSource mockDs = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(mockDs.getConnection()).andReturn(mockCon).anyTimes();
+        EasyMock.replay(mockDs);
+
+        JdbcUtil.setDataSource(mockDs);
+        ClickHouseAutoIncrement.resetCounters();
+    }
+
+    @After
+    public void tearDown() {
+        ClickHouseAutoIncrement.resetCounters();
+    }
+
+    @Test
+    public void nextBlockSize_growsWhenFastAndShrinksWhenSlow() {
+        assertEquals(8, ClickHouseAutoIncrement.nextBlockSize(4, 10));
+        assertEquals(4, ClickHouseAutoIncrement.nextBlockSize(4, ClickHouseAutoIncrement.FAST_LEASE_MILLIS * 5));
+        assertEquals(2, ClickHouseAutoIncrement.nextBlockSize(4, ClickHouseAutoIncrement.FAST_LEASE_MILLIS * 11));
+        assertEquals(ClickHouseAutoIncrement.MIN_BLOCK_SIZE, ClickHouseAutoIncrement.nextBlockSize(1, Long.MAX_VALUE));
+        assertEquals(ClickHouseAutoIncrement.MAX_BLOCK_SIZE,
+            ClickHouseAutoIncrement.nextBlockSize(ClickHouseAutoIncrement.MAX_BLOCK_SIZE, 0));
+    }
+
+    @Test
+    public void nextId_idsWithinLeaseDoNotQueryTheDatabase() throws DaoException {
+        assertEquals(1, ClickHouseAutoIncrement.nextId("seq_sample"));
+        // the first block was used up at once, so the second one holds ids 2 and 3
+        assertEquals(2, ClickHouseAutoIncrement.nextId("seq_sample"));
+        int statements = capturedSql.size();
+
+        assertEquals(3, ClickHouseAutoIncrement.nextId("seq_sample"));
+
+        assertEquals(statements, capturedSql.size());
+        assertEquals(2, leaseInserts());
+    }
+
+    @Test
+    public void nextId_leaseLostToAnotherProcess_retriesAboveTheirLease() throws DaoException {
+        persistedMaxValues.add(0L);
+        persistedMaxValues.add(5L);
+        leaseChecks.add(new long[]{1, 1});
+
+        assertEquals(6, ClickHouseAutoIncrement.nextId("seq_patient"));
+        assertEquals(2, leaseInserts());
+    }
+
+    @Test
+    public void nextId_concurrentCallers_getDistinctIds() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 500; j++) {
+                    ids.add(ClickHouseAutoIncrement.nextId("seq_cna_event"));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(4000, ids.size());
+        assertTrue("leases should grow instead of one per id", leaseInserts() < 20);
+    }
+
+    @Test
+    public void nextId_competingLeaseMergedInBetween_neitherRowIsCollapsed() throws Exception {
+        LeaseTable table = new LeaseTable();
+        // another process reads the same high-water mark and wins ids 1..10; its row lands before
+        // ours, then a merge runs before our check
+        table.beforeFirstLease = () -> table.rows.add(new Object[]{"seq_sample", 10L, "other"});
+        table.afterFirstLease = table::optimizeFinal;
+        useLeaseTable(table);
+
+        assertEquals(11, ClickHouseAutoIncrement.nextId("seq_sample"));
+        assertTrue(table.createSql.contains("ENGINE = MergeTree ORDER BY (sequence_name, last_value)"));
+        assertEquals(3, table.rows.size());
+    }
+
+    @Test
+    public void nextId_legacySequenceTable_highWaterMarksCopiedOnce() throws Exception {
+        LeaseTable table = new LeaseTable();
+        table.legacyTableExists = true;
+        useLeaseTable(table);
+
+        ClickHouseAutoIncrement.nextId("seq_sample");
+        ClickHouseAutoIncrement.nextId("seq_patient");
+
+        List<String> migrations = capturedSql.stream()
+            .filter(sql -> sql.startsWith("INSERT INTO cbioportal_sequence_lease") && sql.contains("FROM cbioportal_sequence_state"))
+            .toList();
+        assertEquals(1, migrations.size());
+        assertTrue(migrations.get(0).contains("max(last_value)"));
+    }
+
+    @Test(expected = DaoException.class)
+    public void nextId_unknownSequence_throws() throws DaoException {
+        ClickHouseAutoIncrement.nextId("seq_unknown");
+    }
+
+    private long leaseInserts() {
+        return capturedSql.stream()
+            .filter(sql -> sql.startsWith("INSERT INTO cbioportal_sequence_lease (sequence_name, last_value, lease_owner) VALUES"))
+            .count();
+    }
+
+    /**
+     * Routes the allocator's statements to an in-memory lease table that merges like the
+     * engine it was created with.
+     */
+    private void useLeaseTable(LeaseTable table) throws Exception {
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            String sql = (String) EasyMock.getCurrentArguments()[0];
+            capturedSql.add(sql);
+            return leaseTableStatement(sql, table);
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+
+    private static PreparedStatement leaseTableStatement(String sql, LeaseTable table) throws Exception {
+        Map<Integer, Object> params = new HashMap<>();
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        stmt.setString(EasyMock.anyInt(), EasyMock.anyString());
+        EasyMock.expectLastCall().andAnswer(() -> {
+            params.put((Integer) EasyMock.getCurrentArguments()[0], EasyMock.getCurrentArguments()[1]);
+            return null;
+        }).anyTimes();
+        stmt.setLong(EasyMock.anyInt(), EasyMock.anyLong());
+        EasyMock.expectLastCall().andAnswer(() -> {
+            params.put((Integer) EasyMock.getCurrentArguments()[0], EasyMock.getCurrentArguments()[1]);
+            return null;
+        }).anyTimes();
+        EasyMock.expect(stmt.executeQuery()).andAnswer(() -> singleRowResultSet(table.query(sql, params))).anyTimes();
+        EasyMock.expect(stmt.executeUpdate()).andAnswer(() -> table.update(sql, params)).anyTimes();
+        EasyMock.expect(stmt.execute()).andAnswer(() -> table.update(sql, params) < 0).anyTimes();
+        EasyMock.replay(stmt);
+        return stmt;
+    }
+
+    private static final class LeaseTable {
+        private final List<Object[]> rows = new ArrayList<>();
+        private String createSql = "";
+        private boolean legacyTableExists = false;
+        private Runnable beforeFirstLease = () -> { };
+        private Runnable afterFirstLease = () -> { };
+        private boolean leased = false;
+
+        long[] query(String sql, Map<Integer, Object> params) {
+            if (sql.contains("system.tables")) {
+                return new long[]{legacyTableExists ? 1 : 0};
+            }
+            if (sql.contains("countIf(lease_owner")) {
+                long own = 0;
+                long others = 0;
+                for (Object[] row : rows) {
+                    if (row[0].equals(params.get(3)) && (Long) row[1] > (Long) params.get(4)) {
+                        if (row[2].equals(params.get(1))) {
+                            own++;
+                        } else {
+                            others++;
+                        }
+                    }
+                }
+                return new long[]{own, others};
+            }
+            if (sql.contains("max(last_value)")) {
+                return new long[]{rows.stream().filter(row -> row[0].equals(params.get(1)))
+                    .mapToLong(row -> (Long) row[1]).max().orElse(0L)};
+            }
+            return new long[]{0L};
+        }
+
+        int update(String sql, Map<Integer, Object> params) {
+            if (sql.startsWith("CREATE TABLE")) {
+                createSql = sql;
+            } else if (sql.contains("VALUES (?, ?, ?)")) {
+                boolean first = !leased;
+                leased = true;
+                if (first) {
+                    beforeFirstLease.run();
+                }
+                rows.add(new Object[]{params.get(1), params.get(2), params.get(3)});
+                if (first) {
+                    afterFirstLease.run();
+                }
+            }
+            return 1;
+        }
+
+        /**
+         * OPTIMIZE TABLE ... FINAL: a ReplacingMergeTree keyed by sequence name keeps only the
+         * last inserted row of each sequence; a MergeTree keeps every row.
+         */
+        void optimizeFinal() {
+            if (createSql.contains("ReplacingMergeTree") && createSql.contains("ORDER BY sequence_name")) {
+                Map<Object, Object[]> lastRows = new LinkedHashMap<>();
+                for (Object[] row : rows) {
+                    lastRows.put(row[0], row);
+                }
+                rows.retainAll(lastRows.values());
+            }
+        }
+    }
+
+    private static ResultSet singleRowResultSet(long... values) throws Exception {
+        ResultSet rs = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(rs.next()).andReturn(true).once().andReturn(false).anyTimes();
+        for (int i = 0; i < values.length; i++) {
+            EasyMock.expect(rs.getLong(i + 1)).andReturn(values[i]).anyTimes();
+        }
+        EasyMock.replay(rs);
+        return rs;
+    }
+}
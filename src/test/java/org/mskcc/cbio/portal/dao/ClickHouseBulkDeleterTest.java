@@ -0,0 +1,109 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that ClickHouseBulkDeleter stages each distinct ID set once and deletes from
+ * every target table against the shared staging table.
+ */
+public class ClickHouseBulkDeleterTest {
+
+    private List<String> capturedSql;
+
+    @Before
+    public void setUp() throws Exception {
+        capturedSql = Collections.synchronizedList(new ArrayList<>());
+
+        PreparedStatement mockStmt = EasyMock.createNiceMock(PreparedStatement.class);
+        mockStmt.setBinaryStream(EasyMock.eq(1), EasyMock.anyObject(InputStream.class), EasyMock.anyInt());
+        EasyMock.expectLastCall().anyTimes();
+        EasyMock.expect(mockStmt.executeUpdate()).andReturn(1).anyTimes();
+        EasyMock.replay(mockStmt);
+
+        Connection mockCon = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(mockCon.prepareStatement(EasyMock.anyString()))
+                .andAnswer(() -> {
+                    capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+                    return mockStmt;
+                })
+                .anyTimes();
+        EasyMock.replay(mockCon);
+
+        DataSource mockDs = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(mockDs.getConnection()).andReturn(mockCon).anyTimes();
+        EasyMock.replay(mockDs);
+
+        JdbcUtil.setDataSource(mockDs);
+    }
+
+    @After
+    public void tearDown() throws DaoException {
+        ClickHouseBulkDeleter.flushAll();
+        ClickHouseBulkLoader.resetFlushSettings();
+    }
+
+    @Test
+    public void planStagingTables_sameIdsInAnyOrder_shareOneTable() {
+        ClickHouseBulkDeleter sample = ClickHouseBulkDeleter.getBulkDeleter("sample", "internal_id");
+        ClickHouseBulkDeleter clinical = ClickHouseBulkDeleter.getBulkDeleter("clinical_sample", "internal_id");
+        ClickHouseBulkDeleter profile = ClickHouseBulkDeleter.getBulkDeleter("genetic_profile", "genetic_profile_id");
+        ClickHouseBulkDeleter.getBulkDeleter("gistic", "gistic_roi_id");
+        sample.addIds(List.of(3, 1, 2));
+        clinical.addIds(List.of(1, 2, 3, 3));
+        profile.addIds(List.of(1, 2));
+
+        List<ClickHouseBulkDeleter.StagingTable> plan =
+            ClickHouseBulkDeleter.planStagingTables(List.of(sample, clinical, profile));
+
+        assertEquals(2, plan.size());
+        assertEquals("staging_delete_sample", plan.get(0).name);
+        assertEquals(List.of(1L, 2L, 3L), plan.get(0).ids);
+        assertEquals(List.of(sample, clinical), plan.get(0).deleters);
+        assertEquals(List.of(profile), plan.get(1).deleters);
+    }
+
+    @Test
+    public void flushAll_sharedIds_stagedOnceAndEveryTableDeleted() throws DaoException {
+        for (String table : new String[]{"sample", "clinical_sample", "resource_sample"}) {
+            ClickHouseBulkDeleter.getBulkDeleter(table, "internal_id").addIds(List.of(1, 2));
+        }
+
+        assertEquals(3, ClickHouseBulkDeleter.flushAll());
+
+        assertEquals(1, count("CREATE TABLE "));
+        assertEquals(1, count("INSERT INTO staging_delete_sample"));
+        for (String table : new String[]{"sample", "clinical_sample", "resource_sample"}) {
+            assertTrue(capturedSql.contains(
+                "DELETE FROM " + table + " WHERE internal_id IN (SELECT id FROM staging_delete_sample)"));
+        }
+        assertEquals("leftover and final drop", 2, count("DROP TABLE IF EXISTS staging_delete_sample"));
+    }
+
+    @Test
+    public void flushAll_sequential_deletesEveryTable() throws DaoException {
+        ClickHouseBulkLoader.setFlushParallelism(1);
+        ClickHouseBulkDeleter.getBulkDeleter("sample", "internal_id").addId(1);
+        ClickHouseBulkDeleter.getBulkDeleter("patient", "internal_id").addId(2);
+
+        assertEquals(2, ClickHouseBulkDeleter.flushAll());
+        assertEquals(2, count("CREATE TABLE "));
+        assertEquals(2, count("DELETE FROM "));
+    }
+
+    private long count(String prefix) {
+        return capturedSql.stream().filter(sql -> sql.startsWith(prefix)).count();
+    }
+}
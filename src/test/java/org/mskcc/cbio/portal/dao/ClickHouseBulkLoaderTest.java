@@ -0,0 +1,228 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that ClickHouseBulkLoader sends a table on its own once the configured row or
+ * byte threshold is reached, instead of holding every record until flushAll().
+ */
+public class ClickHouseBulkLoaderTest {
+
+    private List<String> capturedSql;
+    private List<String> capturedPayloads;
+    private Set<Thread> flushThreads;
+
+    @Before
+    public void setUp() throws Exception {
+        capturedSql = Collections.synchronizedList(new ArrayList<>());
+        capturedPayloads = Collections.synchronizedList(new ArrayList<>());
+        flushThreads = ConcurrentHashMap.newKeySet();
+
+        PreparedStatement mockStmt = EasyMock.createNiceMock(PreparedStatement.class);
+        mockStmt.setBinaryStream(EasyMock.eq(1), EasyMock.anyObject(InputStream.class), EasyMock.anyInt());
+        EasyMock.expectLastCall().andAnswer(() -> {
+            InputStream in = (InputStream) EasyMock.getCurrentArguments()[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            capturedPayloads.add(out.toString(StandardCharsets.UTF_8));
+            flushThreads.add(Thread.currentThread());
+            return null;
+        }).anyTimes();
+        EasyMock.expect(mockStmt.executeUpdate()).andReturn(0).anyTimes();
+        EasyMock.replay(mockStmt);
+
+        Connection mockCon = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(mockCon.prepareStatement(EasyMock.anyString()))
+                .andAnswer(() -> {
+                    capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+                    return mockStmt;
+                })
+                .anyTimes();
+        EasyMock.replay(mockCon);
+
+        DataSource mockDs = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(mockDs.getConnection()).andReturn(mockCon).anyTimes();
+        EasyMock.replay(mockDs);
+
+        JdbcUtil.setDataSource(mockDs);
+    }
+
+    @After
+    public void tearDown() throws DaoException {
+        ClickHouseBulkLoader.flushAll();
+        ClickHouseBulkLoader.resetFlushSettings();
+    }
+
+    @Test
+    public void insertRecord_rowThresholdReached_flushesWithoutWaitingForFlushAll() throws DaoException {
+        ClickHouseBulkLoader.setFlushThresholds(2, 0);
+        ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table");
+        loader.setFieldNames(new String[]{"a", "b"});
+
+        for (int i = 0; i < 5; i++) {
+            loader.insertRecord(Integer.toString(i), "value" + i);
+        }
+
+        assertEquals("Two full chunks should have been sent before flushAll()", 2, insertCount());
+
+        int inserted = ClickHouseBulkLoader.flushAll();
+
+        assertEquals(3, insertCount());
+        assertEquals("flushAll() should count rows sent by automatic flushes", 5, inserted);
+        assertEquals("0\tvalue0\n1\tvalue1\n", capturedPayloads.get(0));
+        assertEquals("4\tvalue4\n", capturedPayloads.get(2));
+    }
+
+    @Test
+    public void insertRecord_byteThresholdReached_flushesWithoutWaitingForFlushAll() throws DaoException {
+        ClickHouseBulkLoader.setFlushThresholds(0, 16);
+        ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table");
+        loader.setFieldNames(new String[]{"a"});
+
+        loader.insertRecord("0123456789");
+        assertEquals(0, insertCount());
+        loader.insertRecord("0123456789");
+        assertEquals(1, insertCount());
+    }
+
+    @Test
+    public void insertRecord_childThresholdReached_sendsBufferedParentRowsFirst() throws DaoException {
+        ClickHouseBulkLoader.setFlushThresholds(2, 0);
+        ClickHouseBulkLoader entity = ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_entity");
+        entity.setFieldNames(new String[]{"id"});
+        ClickHouseBulkLoader alteration = ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_alteration");
+        alteration.setFieldNames(new String[]{"genetic_entity_id"});
+
+        entity.insertRecord("1");
+        alteration.insertRecord("1");
+        alteration.insertRecord("1");
+
+        List<String> inserts = capturedSql.stream().filter(sql -> sql.startsWith("INSERT INTO")).toList();
+        assertEquals(2, inserts.size());
+        assertTrue(inserts.get(0).startsWith("INSERT INTO genetic_entity "));
+        assertTrue(inserts.get(1).startsWith("INSERT INTO genetic_alteration "));
+    }
+
+    @Test
+    public void insertRecord_valuesAreEscapedAsTabSeparated() throws DaoException {
+        ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table");
+        loader.setFieldNames(new String[]{"a", "b"});
+
+        loader.insertRecord("tab\there", null);
+        ClickHouseBulkLoader.flushAll();
+
+        assertEquals("tab\\there\t\\N\n", capturedPayloads.get(0));
+        assertTrue(capturedSql.contains("INSERT INTO test_table (a,b) FORMAT TabSeparated"));
+    }
+
+    @Test(expected = DaoException.class)
+    public void flushAll_recordWidthMismatch_throws() throws DaoException {
+        ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table");
+        loader.setFieldNames(new String[]{"a", "b"});
+
+        loader.insertRecord("1", "2");
+        loader.insertRecord("1");
+        ClickHouseBulkLoader.flushAll();
+    }
+
+    @Test
+    public void planFlushWaves_referencedTablesGoFirst() {
+        ClickHouseBulkLoader alteration = ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_alteration");
+        ClickHouseBulkLoader profile = ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_profile");
+        ClickHouseBulkLoader entity = ClickHouseBulkLoader.getClickHouseBulkLoader("genetic_entity");
+
+        List<List<ClickHouseBulkLoader>> waves = ClickHouseBulkLoader.planFlushWaves(List.of(alteration, profile, entity));
+
+        assertEquals(2, waves.size());
+        assertEquals(List.of(profile, entity), waves.get(0));
+        assertEquals(List.of(alteration), waves.get(1));
+    }
+
+    @Test
+    public void flushAll_independentTables_allFlushed() throws DaoException {
+        for (int i = 0; i < 6; i++) {
+            ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table_" + i);
+            loader.setFieldNames(new String[]{"a"});
+            loader.insertRecord(Integer.toString(i));
+        }
+
+        assertEquals(6, ClickHouseBulkLoader.flushAll());
+        assertEquals(6, capturedPayloads.size());
+    }
+
+    @Test
+    public void flushAll_repeatedFlushes_reuseBoundedThreads() throws DaoException {
+        ClickHouseBulkLoader.setFlushParallelism(2);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("test_table_" + i);
+                loader.setFieldNames(new String[]{"a"});
+                loader.insertRecord(Integer.toString(i));
+            }
+            assertEquals(4, ClickHouseBulkLoader.flushAll());
+        }
+
+        assertEquals(12, capturedPayloads.size());
+        assertTrue(flushThreads.size() <= 2);
+    }
+
+    @Test
+    public void getClickHouseBulkLoader_calledFromSeveralThreads_everyTableFlushed() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String table = "test_table_" + i;
+            threads.add(new Thread(() -> {
+                ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader(table);
+                loader.setFieldNames(new String[]{"a"});
+                loader.insertRecord("1");
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8, ClickHouseBulkLoader.flushAll());
+        assertEquals(8, capturedPayloads.size());
+    }
+
+    @Test
+    public void flushAll_severalTablesFail_reportsEveryTable() {
+        for (String table : new String[]{"first_table", "second_table"}) {
+            ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader(table);
+            loader.setFieldNames(new String[]{"a", "b"});
+            loader.insertRecord("1", "2");
+            loader.insertRecord("1");
+        }
+
+        try {
+            ClickHouseBulkLoader.flushAll();
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertTrue(e.getMessage().contains("first_table"));
+            assertTrue(e.getMessage().contains("second_table"));
+            assertEquals(2, e.getSuppressed().length);
+        }
+    }
+
+    private long insertCount() {
+        return capturedSql.stream().filter(sql -> sql.startsWith("INSERT INTO test_table")).count();
+    }
+}
@@ -1,6 +1,7 @@
 package org.mskcc.cbio.portal.dao;
 
 import org.easymock.EasyMock;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -49,6 +50,12 @@ public class ClickHouseBulkUploaderTest {
         JdbcUtil.setDataSource(mockDs);
     }
 
+    @After
+    public void tearDown() {
+        ClickHouseBulkUploader.endSession();
+        ClickHouseBulkUploader.setInlineMaxIds(1000);
+    }
+
     @Test
     public void upload_withLargeIdSet_allSqlUnderMaxQuerySize() throws DaoException {
         Set<Integer> ids = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toSet());
@@ -118,4 +125,47 @@ public class ClickHouseBulkUploaderTest {
         assertNull("Callback should receive null table name when ids is null", receivedTable[0]);
         assertTrue("No SQL should be issued when ids is null", capturedSql.isEmpty());
     }
+
+    @Test
+    public void upload_withSmallIdSet_inlinedWithoutSql() throws DaoException {
+        String table = ClickHouseBulkUploader.upload(List.of(3, 1, 2), stagingTable -> stagingTable);
+
+        assertEquals("values('id Int64', 3, 1, 2)", table);
+        assertTrue("No staging table should be created for a small set", capturedSql.isEmpty());
+    }
+
+    @Test
+    public void uploadStrings_withSmallIdSet_quotesValues() throws DaoException {
+        String table = ClickHouseBulkUploader.uploadStrings(List.of("a'b", "c\\d"), stagingTable -> stagingTable);
+
+        assertEquals("values('id String', 'a\\'b', 'c\\\\d')", table);
+    }
+
+    @Test
+    public void upload_withEmptyIdSet_matchesNothing() throws DaoException {
+        String table = ClickHouseBulkUploader.upload(List.of(), stagingTable -> stagingTable);
+
+        assertEquals("(SELECT defaultValueOfTypeName('Int64') AS id LIMIT 0)", table);
+    }
+
+    @Test
+    public void upload_inSession_identicalSetsShareOneStagingTable() throws DaoException {
+        ClickHouseBulkUploader.setInlineMaxIds(0);
+        ClickHouseBulkUploader.beginSession();
+
+        String first = ClickHouseBulkUploader.upload(List.of(1, 2, 3), stagingTable -> stagingTable);
+        String second = ClickHouseBulkUploader.upload(List.of(3, 2, 1), stagingTable -> stagingTable);
+        String other = ClickHouseBulkUploader.upload(List.of(4), stagingTable -> stagingTable);
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(2, capturedSql.stream().filter(sql -> sql.startsWith("CREATE TABLE")).count());
+        assertEquals("Only the safety drop before CREATE while the session is open",
+                1, capturedSql.stream().filter(sql -> sql.equals("DROP TABLE IF EXISTS " + first)).count());
+
+        ClickHouseBulkUploader.endSession();
+
+        assertEquals(2, capturedSql.stream().filter(sql -> sql.equals("DROP TABLE IF EXISTS " + first)).count());
+        assertEquals(2, capturedSql.stream().filter(sql -> sql.equals("DROP TABLE IF EXISTS " + other)).count());
+    }
 }
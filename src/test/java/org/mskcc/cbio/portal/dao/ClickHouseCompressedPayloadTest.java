@@ -0,0 +1,81 @@
+package org.mskcc.cbio.portal.dao;
+
+import com.clickhouse.data.ClickHouseCompression;
+import com.clickhouse.data.stream.Lz4InputStream;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that compressed insert payloads decode back to the original bytes and that
+ * unsupported algorithms fall back to uncompressed transfers.
+ */
+public class ClickHouseCompressedPayloadTest {
+
+    private static final byte[] PAYLOAD = "1\tTP53\t-2\n2\tTP53\t0\n3\tTP53\t2\n".repeat(1000)
+        .getBytes(StandardCharsets.UTF_8);
+
+    @After
+    public void tearDown() {
+        ClickHouseCompressedPayload.setCompression(ClickHouseCompression.NONE);
+    }
+
+    @Test
+    public void compress_lz4_roundTrips() throws Exception {
+        byte[] compressed = ClickHouseCompressedPayload.compress(ClickHouseCompression.LZ4, PAYLOAD, PAYLOAD.length);
+
+        assertTrue(compressed.length < PAYLOAD.length);
+        try (InputStream in = new Lz4InputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(PAYLOAD, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void compress_gzip_roundTrips() throws Exception {
+        byte[] compressed = ClickHouseCompressedPayload.compress(ClickHouseCompression.GZIP, PAYLOAD, PAYLOAD.length);
+
+        assertTrue(compressed.length < PAYLOAD.length);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(PAYLOAD, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void bind_noCompression_sendsRawBytes() throws Exception {
+        PreparedStatement stmt = EasyMock.createMock(PreparedStatement.class);
+        stmt.setBinaryStream(EasyMock.eq(1), EasyMock.anyObject(InputStream.class), EasyMock.eq(10));
+        EasyMock.replay(stmt);
+
+        ClickHouseCompressedPayload payload = ClickHouseCompressedPayload.bind(stmt, 1, PAYLOAD, 10, "TabSeparated");
+
+        EasyMock.verify(stmt);
+        assertEquals("", payload.summary());
+    }
+
+    @Test
+    public void bind_lz4_reportsRatio() throws Exception {
+        ClickHouseCompressedPayload.setCompression(ClickHouseCompression.LZ4);
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.replay(stmt);
+
+        ClickHouseCompressedPayload payload = ClickHouseCompressedPayload.bind(stmt, 1, PAYLOAD, "TabSeparated");
+
+        assertTrue(payload.summary(1_000_000_000L).contains("lz4 (ratio "));
+    }
+
+    @Test
+    public void parseCompression_unsupportedValue_disablesCompression() {
+        assertEquals(ClickHouseCompression.LZ4, ClickHouseCompressedPayload.parseCompression(" LZ4 "));
+        assertEquals(ClickHouseCompression.NONE, ClickHouseCompressedPayload.parseCompression("none"));
+        assertEquals(ClickHouseCompression.NONE, ClickHouseCompressedPayload.parseCompression("brotli"));
+        assertEquals(ClickHouseCompression.NONE, ClickHouseCompressedPayload.parseCompression("bogus"));
+    }
+}
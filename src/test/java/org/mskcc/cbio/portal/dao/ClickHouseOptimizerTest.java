@@ -0,0 +1,112 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that ClickHouseOptimizer coalesces deferred requests into one OPTIMIZE per
+ * table and limits it to the requested partitions on a partitioned schema.
+ */
+public class ClickHouseOptimizerTest {
+
+    private final List<String> capturedSql = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        ClickHouseOptimizer.discardDeferredOptimizations();
+        ClickHouseProfilePartitions.setEnabled(false);
+    }
+
+    @Test
+    public void runDeferredOptimizations_repeatedRequests_optimizeEachTableOnce() throws Exception {
+        useSchema(false);
+        ClickHouseOptimizer.deferOptimizations();
+        ClickHouseOptimizer.optimizeTables("clinical_sample");
+        ClickHouseOptimizer.optimizeProfiles(List.of(1), "sample_profile");
+        ClickHouseOptimizer.optimizeTables("clinical_sample", "clinical_patient");
+        ClickHouseOptimizer.optimizeProfiles(List.of(2), "sample_profile");
+        assertTrue(optimizeStatements().isEmpty());
+
+        ClickHouseOptimizer.runDeferredOptimizations();
+
+        assertEquals(List.of(
+            "OPTIMIZE TABLE clinical_sample FINAL",
+            "OPTIMIZE TABLE sample_profile FINAL",
+            "OPTIMIZE TABLE clinical_patient FINAL"), optimizeStatements());
+    }
+
+    @Test
+    public void optimizeProfiles_partitionedSchema_optimizesOnlyThosePartitions() throws Exception {
+        useSchema(true);
+        ClickHouseOptimizer.deferOptimizations();
+        ClickHouseOptimizer.optimizeProfiles(List.of(7), "genetic_alteration");
+        ClickHouseOptimizer.optimizeProfiles(List.of(3, 7), "genetic_alteration");
+        ClickHouseOptimizer.runDeferredOptimizations();
+
+        assertEquals(List.of(
+            "OPTIMIZE TABLE genetic_alteration PARTITION 3 FINAL",
+            "OPTIMIZE TABLE genetic_alteration PARTITION 7 FINAL"), optimizeStatements());
+        assertTrue(ClickHouseOptimizer.getOptimizeMillis().containsKey("genetic_alteration"));
+    }
+
+    @Test
+    public void runDeferredOptimizations_nested_runsWhenOutermostEnds() throws Exception {
+        useSchema(false);
+        ClickHouseOptimizer.deferOptimizations();
+        ClickHouseOptimizer.deferOptimizations();
+        ClickHouseOptimizer.optimizeTables("clinical_sample");
+        ClickHouseOptimizer.runDeferredOptimizations();
+        assertTrue(optimizeStatements().isEmpty());
+
+        ClickHouseOptimizer.runDeferredOptimizations();
+        assertEquals(List.of("OPTIMIZE TABLE clinical_sample FINAL"), optimizeStatements());
+    }
+
+    private List<String> optimizeStatements() {
+        return capturedSql.stream().filter(sql -> sql.startsWith("OPTIMIZE")).toList();
+    }
+
+    private void useSchema(boolean partitioned) throws Exception {
+        // forget the layout seen by another test
+        ClickHouseProfilePartitions.setEnabled(false);
+        Iterator<String> tables = partitioned
+            ? ClickHouseProfilePartitions.PARTITIONED_TABLES.iterator()
+            : List.<String>of().iterator();
+        String[] current = new String[1];
+        ResultSet rs = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(rs.next()).andAnswer(() -> {
+            current[0] = tables.hasNext() ? tables.next() : null;
+            return current[0] != null;
+        }).anyTimes();
+        EasyMock.expect(rs.getString("name")).andAnswer(() -> current[0]).anyTimes();
+        EasyMock.expect(rs.getString("partition_key")).andReturn("genetic_profile_id").anyTimes();
+        EasyMock.replay(rs);
+
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(stmt.executeQuery()).andReturn(rs).anyTimes();
+        EasyMock.replay(stmt);
+
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return stmt;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+}
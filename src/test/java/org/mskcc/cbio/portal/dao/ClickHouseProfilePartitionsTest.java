@@ -0,0 +1,100 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that partition-based study removal is refused on an unpartitioned schema and
+ * drops one partition per profile and table otherwise.
+ */
+public class ClickHouseProfilePartitionsTest {
+
+    private final List<String> capturedSql = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        ClickHouseProfilePartitions.setEnabled(false);
+    }
+
+    @Test
+    public void isProfilePartitionKey_acceptsPlainAndAssumeNotNull() {
+        assertTrue(ClickHouseProfilePartitions.isProfilePartitionKey("genetic_profile_id"));
+        assertTrue(ClickHouseProfilePartitions.isProfilePartitionKey("assumeNotNull(`genetic_profile_id`)"));
+        assertFalse(ClickHouseProfilePartitions.isProfilePartitionKey(""));
+        assertFalse(ClickHouseProfilePartitions.isProfilePartitionKey(null));
+        assertFalse(ClickHouseProfilePartitions.isProfilePartitionKey("intDiv(genetic_profile_id, 10)"));
+    }
+
+    @Test
+    public void verifyLayout_tableWithoutPartitionKey_refused() throws Exception {
+        useSystemTables(Map.of("genetic_alteration", "genetic_profile_id", "mutation", ""));
+        ClickHouseProfilePartitions.setEnabled(true);
+
+        try {
+            ClickHouseProfilePartitions.verifyLayout();
+            fail("Expected DaoException");
+        } catch (DaoException e) {
+            assertTrue(e.getMessage().contains("mutation"));
+            assertTrue(e.getMessage().contains("structural_variant"));
+        }
+    }
+
+    @Test
+    public void dropProfilePartitions_partitionedSchema_dropsEachProfileFromEachTable() throws Exception {
+        Map<String, String> keys = new HashMap<>();
+        for (String table : ClickHouseProfilePartitions.PARTITIONED_TABLES) {
+            keys.put(table, "assumeNotNull(genetic_profile_id)");
+        }
+        useSystemTables(keys);
+        ClickHouseProfilePartitions.setEnabled(true);
+
+        ClickHouseProfilePartitions.dropProfilePartitions(List.of(7, 9));
+
+        assertTrue(capturedSql.contains("ALTER TABLE genetic_alteration DROP PARTITION 7"));
+        assertTrue(capturedSql.contains("ALTER TABLE mutation DROP PARTITION 9"));
+        long drops = capturedSql.stream().filter(sql -> sql.contains("DROP PARTITION")).count();
+        assertEquals(2 * ClickHouseProfilePartitions.PARTITIONED_TABLES.size(), drops);
+    }
+
+    private void useSystemTables(Map<String, String> partitionKeys) throws Exception {
+        Iterator<Map.Entry<String, String>> rows = new ArrayList<>(partitionKeys.entrySet()).iterator();
+        Map.Entry<String, String>[] current = new Map.Entry[1];
+        ResultSet rs = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(rs.next()).andAnswer(() -> {
+            current[0] = rows.hasNext() ? rows.next() : null;
+            return current[0] != null;
+        }).anyTimes();
+        EasyMock.expect(rs.getString("name")).andAnswer(() -> current[0].getKey()).anyTimes();
+        EasyMock.expect(rs.getString("partition_key")).andAnswer(() -> current[0].getValue()).anyTimes();
+        EasyMock.replay(rs);
+
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(stmt.executeQuery()).andReturn(rs).anyTimes();
+        EasyMock.replay(stmt);
+
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return stmt;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+}
@@ -0,0 +1,96 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies the byte layout written by ClickHouseRowBinaryEncoder and that it refuses
+ * column types it cannot represent, so that the bulk loader falls back to TSV.
+ */
+public class ClickHouseRowBinaryEncoderTest {
+
+    @Test
+    public void forColumnTypes_unsupportedType_returnsNull() {
+        assertNull(ClickHouseRowBinaryEncoder.forColumnTypes(List.of("Int64", "Decimal(10, 2)")));
+        assertNull(ClickHouseRowBinaryEncoder.forColumnTypes(List.of("Array(String)")));
+    }
+
+    @Test
+    public void writeRow_numbersAreLittleEndian() {
+        ClickHouseRowBinaryEncoder encoder = ClickHouseRowBinaryEncoder.forColumnTypes(List.of("Int64", "Int32", "UInt8"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encoder.writeRow(new Object[]{258L, "-1", Boolean.TRUE}, out);
+
+        assertArrayEquals(new byte[]{
+            2, 1, 0, 0, 0, 0, 0, 0,
+            -1, -1, -1, -1,
+            1
+        }, out.toByteArray());
+    }
+
+    @Test
+    public void writeRow_nullableColumnsWriteNullFlag() {
+        ClickHouseRowBinaryEncoder encoder = ClickHouseRowBinaryEncoder.forColumnTypes(
+            List.of("Nullable(Int64)", "Nullable(String)", "LowCardinality(Nullable(String))"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encoder.writeRow(new Object[]{"", "\\N", "ab"}, out);
+
+        assertArrayEquals(new byte[]{1, 1, 0, 2, 'a', 'b'}, out.toByteArray());
+    }
+
+    @Test
+    public void writeRow_stringsArePrefixedWithVarIntLength() {
+        ClickHouseRowBinaryEncoder encoder = ClickHouseRowBinaryEncoder.forColumnTypes(List.of("String"));
+        String value = "x".repeat(200);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encoder.writeRow(new Object[]{value}, out);
+
+        byte[] bytes = out.toByteArray();
+        assertEquals(202, bytes.length);
+        assertEquals((byte) 0xC8, bytes[0]);
+        assertEquals((byte) 0x01, bytes[1]);
+        assertEquals(value, new String(bytes, 2, 200, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writeRow_floatAcceptsTsvSpecialValues() {
+        ClickHouseRowBinaryEncoder encoder = ClickHouseRowBinaryEncoder.forColumnTypes(List.of("Float64"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encoder.writeRow(new Object[]{"nan"}, out);
+
+        long bits = 0;
+        byte[] bytes = out.toByteArray();
+        for (int i = 7; i >= 0; i--) {
+            bits = (bits << 8) | (bytes[i] & 0xFF);
+        }
+        assertTrue(Double.isNaN(Double.longBitsToDouble(bits)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeRow_wrongWidth_throws() {
+        ClickHouseRowBinaryEncoder encoder = ClickHouseRowBinaryEncoder.forColumnTypes(List.of("Int64", "String"));
+        encoder.writeRow(new Object[]{1L}, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void tsvEncoder_typedValuesMatchStringValues() {
+        ClickHouseTsvRowEncoder encoder = new ClickHouseTsvRowEncoder();
+        ByteArrayOutputStream typed = new ByteArrayOutputStream();
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+
+        encoder.writeRow(new Object[]{12L, 7, null, "a\tb"}, typed);
+        encoder.writeRow(new Object[]{"12", "7", "\\N", "a\tb"}, strings);
+
+        assertEquals(strings.toString(StandardCharsets.UTF_8), typed.toString(StandardCharsets.UTF_8));
+        assertEquals("12\t7\t\\N\ta\\tb\n", typed.toString(StandardCharsets.UTF_8));
+    }
+}
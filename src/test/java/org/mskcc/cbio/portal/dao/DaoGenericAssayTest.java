@@ -35,14 +35,6 @@ public class DaoGenericAssayTest {
         EasyMock.expect(emptyRs.isClosed()).andReturn(false).anyTimes();
         EasyMock.replay(emptyRs);
 
-        // Build a mock ResultSet that returns a single value of 0L
-        ResultSet zeroRs = EasyMock.createNiceMock(ResultSet.class);
-        EasyMock.expect(zeroRs.next()).andReturn(true).times(2);
-        EasyMock.expect(zeroRs.getLong(1)).andReturn(0L).times(2);
-        EasyMock.expect(zeroRs.next()).andReturn(false).anyTimes();
-        EasyMock.expect(zeroRs.isClosed()).andReturn(false).anyTimes();
-        EasyMock.replay(zeroRs);
-
         // Mock PreparedStatement that captures SQL and parameters
         PreparedStatement mockStmt = EasyMock.createNiceMock(PreparedStatement.class);
 
@@ -50,10 +42,18 @@ public class DaoGenericAssayTest {
         EasyMock.expect(mockStmt.executeUpdate()).andReturn(0).anyTimes();
         EasyMock.expect(mockStmt.executeBatch()).andReturn(new int[]{1}).anyTimes();
 
-        // For executeQuery (SELECT) — return zeroRs for max queries, emptyRs otherwise
-        EasyMock.expect(mockStmt.executeQuery())
-                .andReturn(zeroRs).times(2)  // two max() queries during init
-                .andReturn(emptyRs).anyTimes();
+        // For executeQuery (SELECT) — max() queries see an empty database, the id lease check
+        // sees only the lease just written, anything else gets emptyRs
+        EasyMock.expect(mockStmt.executeQuery()).andAnswer(() -> {
+            String sql = capturedSql.get(capturedSql.size() - 1);
+            if (sql.contains("countIf(lease_owner")) {
+                return singleRowResultSet(1L, 0L);
+            }
+            if (sql.contains("max(")) {
+                return singleRowResultSet(0L);
+            }
+            return emptyRs;
+        }).anyTimes();
 
         // For CREATE TABLE — return false
         EasyMock.expect(mockStmt.execute()).andReturn(false).anyTimes();
@@ -260,4 +260,14 @@ public class DaoGenericAssayTest {
         assertEquals("name should be NAME", "NAME", params.get(2));
         assertEquals("value should be Test Entity", "Test Entity", params.get(3));
     }
+
+    private static ResultSet singleRowResultSet(long... values) throws Exception {
+        ResultSet rs = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(rs.next()).andReturn(true).once().andReturn(false).anyTimes();
+        for (int i = 0; i < values.length; i++) {
+            EasyMock.expect(rs.getLong(i + 1)).andReturn(values[i]).anyTimes();
+        }
+        EasyMock.replay(rs);
+        return rs;
+    }
 }
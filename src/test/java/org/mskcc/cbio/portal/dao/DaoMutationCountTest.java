@@ -96,4 +96,20 @@ public class DaoMutationCountTest {
                 .anyMatch(sql -> sql.contains("MUTATION_COUNT") && sql.toUpperCase().startsWith("SELECT"));
         assertTrue("A SELECT for MUTATION_COUNT must be issued", hasCountSelect);
     }
+
+    @Test
+    public void createMutationCountClinicalData_optimizeDeferred_readsSampleProfileWithFinal() throws DaoException {
+        ClickHouseOptimizer.deferOptimizations();
+        try {
+            DaoMutation.createMutationCountClinicalData(makeProfile());
+        } finally {
+            ClickHouseOptimizer.discardDeferredOptimizations();
+        }
+
+        assertTrue("No OPTIMIZE must run while optimizations are deferred",
+                capturedSql.stream().noneMatch(sql -> sql.toUpperCase().contains("OPTIMIZE TABLE")));
+        boolean readsFinal = capturedSql.stream()
+                .anyMatch(sql -> sql.contains("MUTATION_COUNT") && sql.contains("FROM `sample_profile` FINAL"));
+        assertTrue("Unmerged sample_profile rows must be collapsed when counting", readsFinal);
+    }
 }
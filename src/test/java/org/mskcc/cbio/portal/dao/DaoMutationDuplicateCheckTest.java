@@ -0,0 +1,51 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.junit.Test;
+import org.mskcc.cbio.portal.model.CanonicalGene;
+import org.mskcc.cbio.portal.model.ExtendedMutation;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that the duplicate mutation event check compares the events of an import by
+ * their stored key, without reading mutation_event.
+ */
+public class DaoMutationDuplicateCheckTest {
+
+    @Test
+    public void hasDuplicateMutationEvents_noEvents_returnsFalse() {
+        assertFalse(DaoMutation.hasDuplicateMutationEvents(List.of()));
+    }
+
+    @Test
+    public void hasDuplicateMutationEvents_sameEventTwice_returnsFalse() {
+        ExtendedMutation.MutationEvent event = event(11, "p.V600E");
+        assertFalse(DaoMutation.hasDuplicateMutationEvents(List.of(event, event)));
+    }
+
+    @Test
+    public void hasDuplicateMutationEvents_sameKeyUnderTwoIds_returnsTrue() {
+        assertTrue(DaoMutation.hasDuplicateMutationEvents(List.of(event(11, "p.V600E"), event(12, "p.V600E"))));
+    }
+
+    @Test
+    public void hasDuplicateMutationEvents_keysDifferInCaseOnly_returnsFalse() {
+        // stored values are compared exactly, as the former GROUP BY over mutation_event did
+        assertFalse(DaoMutation.hasDuplicateMutationEvents(List.of(event(11, "p.V600E"), event(12, "p.v600e"))));
+    }
+
+    private static ExtendedMutation.MutationEvent event(long id, String proteinChange) {
+        ExtendedMutation mutation = new ExtendedMutation();
+        mutation.setGene(new CanonicalGene(673, "BRAF"));
+        mutation.setChr("7");
+        mutation.setStartPosition(140453136);
+        mutation.setEndPosition(140453136);
+        mutation.setProteinChange(proteinChange);
+        mutation.setAllele("T", "A", "T");
+        mutation.setMutationType("Missense_Mutation");
+        mutation.setMutationEventId(id);
+        return mutation.getEvent();
+    }
+}
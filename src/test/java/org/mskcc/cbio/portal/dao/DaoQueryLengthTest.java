@@ -1,10 +1,13 @@
 package org.mskcc.cbio.portal.dao;
 
+import com.clickhouse.client.ClickHouseRequest;
+import com.clickhouse.data.ClickHouseExternalTable;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -19,6 +22,7 @@ import static org.junit.Assert.*;
  * input collection. Each test feeds 50,000 IDs — enough to exceed ClickHouse's default
  * max_query_size of 262,144 bytes under the old IN (?,?,…) pattern — and asserts that
  * every SQL string captured at the PreparedStatement level stays well under the limit.
+ * Read paths that send their IDs as external data are also checked to create no table.
  */
 public class DaoQueryLengthTest {
 
@@ -26,10 +30,22 @@ public class DaoQueryLengthTest {
     private static final int LARGE_ID_COUNT = 50_000;
 
     private List<String> capturedSql;
+    private List<ClickHouseExternalTable> externalTables;
 
     @Before
     public void setUp() throws Exception {
         capturedSql = new ArrayList<>();
+        externalTables = new ArrayList<>();
+
+        // Request behind the ClickHouse statement; records the external tables attached to it.
+        ClickHouseRequest<?> request = EasyMock.createNiceMock(ClickHouseRequest.class);
+        EasyMock.expect(request.addExternal(EasyMock.anyObject(ClickHouseExternalTable.class)))
+                .andAnswer(() -> {
+                    externalTables.add((ClickHouseExternalTable) EasyMock.getCurrentArguments()[0]);
+                    return null;
+                })
+                .anyTimes();
+        EasyMock.replay(request);
 
         // Empty result set used for most queries (DELETEs, and the main SELECT in DaoGeneticAlteration).
         ResultSet emptyRs = EasyMock.createNiceMock(ResultSet.class);
@@ -52,6 +68,8 @@ public class DaoQueryLengthTest {
         PreparedStatement genericStmt = EasyMock.createNiceMock(PreparedStatement.class);
         EasyMock.expect(genericStmt.executeUpdate()).andReturn(0).anyTimes();
         EasyMock.expect(genericStmt.executeQuery()).andReturn(emptyRs).anyTimes();
+        EasyMock.expect(genericStmt.isWrapperFor(ClickHouseRequest.class)).andReturn(true).anyTimes();
+        EasyMock.expect(genericStmt.unwrap(ClickHouseRequest.class)).andReturn(request).anyTimes();
         EasyMock.replay(genericStmt);
 
         Connection mockCon = EasyMock.createNiceMock(Connection.class);
@@ -82,6 +100,21 @@ public class DaoQueryLengthTest {
         }
     }
 
+    /**
+     * Asserts that the IDs went out as a single external table with one row per ID,
+     * referenced by the query, and that no staging table was created.
+     */
+    private void assertIdsSentAsExternalData(int idCount) throws IOException {
+        for (String sql : capturedSql) {
+            assertFalse("Unexpected staging table: " + sql, sql.startsWith("CREATE TABLE"));
+        }
+        assertEquals(1, externalTables.size());
+        ClickHouseExternalTable external = externalTables.get(0);
+        assertTrue(capturedSql.stream().anyMatch(sql -> sql.contains("SELECT id FROM " + external.getName())));
+        String content = new String(external.getContent().readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+        assertEquals(idCount, content.split("\n").length);
+    }
+
     // ── DaoCopyNumberSegment ──────────────────────────────────────────────────────
 
     @Test
@@ -129,7 +162,7 @@ public class DaoQueryLengthTest {
     // ── DaoGeneticAlteration ─────────────────────────────────────────────────────
 
     @Test
-    public void daoGeneticAlteration_getGeneticAlterationMapForEntityIds_sqlUnderLimit() throws DaoException {
+    public void daoGeneticAlteration_getGeneticAlterationMapForEntityIds_sqlUnderLimit() throws DaoException, IOException {
         // The mock returns an ordered_sample_list of "1,2,3" for the profile-samples lookup,
         // then an empty result set for the main SELECT, so the method returns an empty map.
         Set<Integer> entityIds = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toSet());
@@ -137,32 +170,35 @@ public class DaoQueryLengthTest {
         DaoGeneticAlteration.getInstance().getGeneticAlterationMapForEntityIds(1, entityIds);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     // ── DaoCopyNumberSegment (read paths) ────────────────────────────────────────
 
     @Test
-    public void daoCopyNumberSegment_getSegmentForSamples_sqlUnderLimit() throws DaoException {
+    public void daoCopyNumberSegment_getSegmentForSamples_sqlUnderLimit() throws DaoException, IOException {
         Collection<Integer> sampleIds = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toSet());
 
         DaoCopyNumberSegment.getSegmentForSamples(sampleIds, 1);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     @Test
-    public void daoCopyNumberSegment_getCopyNumberActeredFraction_sqlUnderLimit() throws DaoException {
+    public void daoCopyNumberSegment_getCopyNumberActeredFraction_sqlUnderLimit() throws DaoException, IOException {
         Collection<Integer> sampleIds = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toSet());
 
         DaoCopyNumberSegment.getCopyNumberActeredFraction(sampleIds, 1, 0.2);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     // ── DaoClinicalData (read paths) ─────────────────────────────────────────────
 
     @Test
-    public void daoClinicalData_getCancerTypeInfoBySamples_sqlUnderLimit() throws DaoException {
+    public void daoClinicalData_getCancerTypeInfoBySamples_sqlUnderLimit() throws DaoException, IOException {
         List<String> sampleIds = IntStream.rangeClosed(1, LARGE_ID_COUNT)
                 .mapToObj(i -> "SAMPLE_" + i)
                 .collect(Collectors.toList());
@@ -170,26 +206,29 @@ public class DaoQueryLengthTest {
         DaoClinicalData.getCancerTypeInfoBySamples(sampleIds);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     // ── DaoMutation ──────────────────────────────────────────────────────────────
 
     @Test
-    public void daoMutation_getMutationsWithSampleCollection_sqlUnderLimit() throws DaoException {
+    public void daoMutation_getMutationsWithSampleCollection_sqlUnderLimit() throws DaoException, IOException {
         Collection<Integer> sampleIds = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toList());
 
         DaoMutation.getMutations(1, sampleIds, 672L);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     @Test
-    public void daoMutation_getMutationsWithSampleList_sqlUnderLimit() throws DaoException {
+    public void daoMutation_getMutationsWithSampleList_sqlUnderLimit() throws DaoException, IOException {
         List<Integer> sampleIds = IntStream.rangeClosed(1, LARGE_ID_COUNT).boxed().collect(Collectors.toList());
 
         DaoMutation.getMutations(1, sampleIds);
 
         assertNoSqlExceedsLimit();
+        assertIdsSentAsExternalData(LARGE_ID_COUNT);
     }
 
     @Test
@@ -0,0 +1,101 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that an import session pins one connection per thread, reuses prepared
+ * statements by SQL text and keeps per-requester connection metrics.
+ */
+public class JdbcUtilTest {
+
+    private final List<String> preparedSql = new ArrayList<>();
+    private int borrowed = 0;
+    private int closed = 0;
+    private Connection con;
+
+    @Before
+    public void setUp() throws Exception {
+        con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            preparedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return EasyMock.createNiceMock(PreparedStatement.class);
+        }).anyTimes();
+        con.close();
+        EasyMock.expectLastCall().andAnswer(() -> {
+            closed++;
+            return null;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andAnswer(() -> {
+            borrowed++;
+            return con;
+        }).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() {
+        JdbcUtil.endImportSession();
+    }
+
+    @Test
+    public void importSession_repeatedCalls_borrowOnceAndPrepareOnce() throws Exception {
+        JdbcUtil.beginImportSession();
+        for (int i = 0; i < 3; i++) {
+            Connection session = JdbcUtil.getDbConnection(JdbcUtilTest.class);
+            PreparedStatement stmt = session.prepareStatement("SELECT 1 FROM sample WHERE internal_id = ?");
+            JdbcUtil.closeAll(JdbcUtilTest.class, session, stmt, null);
+        }
+
+        assertEquals(1, borrowed);
+        assertEquals(1, preparedSql.size());
+        assertEquals(0, closed);
+
+        JdbcUtil.endImportSession();
+        assertEquals(1, closed);
+    }
+
+    @Test
+    public void importSession_statementStillOpen_getsFreshStatement() throws Exception {
+        JdbcUtil.beginImportSession();
+        Connection session = JdbcUtil.getDbConnection(JdbcUtilTest.class);
+        PreparedStatement outer = session.prepareStatement("SELECT * FROM mutation");
+        PreparedStatement inner = session.prepareStatement("SELECT * FROM mutation");
+
+        assertNotSame(outer, inner);
+        assertEquals(2, preparedSql.size());
+        JdbcUtil.closeAll(JdbcUtilTest.class, session, outer, null);
+        inner.close();
+    }
+
+    @Test
+    public void connectionMetrics_unclosedConnection_countedAsOpen() throws Exception {
+        String requester = DaoSample.class.getName();
+        long openBefore = openConnections(requester);
+
+        Connection leaked = JdbcUtil.getDbConnection(DaoSample.class);
+        assertEquals(openBefore + 1, openConnections(requester));
+
+        JdbcUtil.closeConnection(DaoSample.class, leaked);
+        assertEquals(openBefore, openConnections(requester));
+    }
+
+    private static long openConnections(String requester) {
+        ConnectionMetrics metrics = JdbcUtil.getConnectionMetrics().get(requester);
+        return metrics == null ? 0 : metrics.getOpen();
+    }
+}
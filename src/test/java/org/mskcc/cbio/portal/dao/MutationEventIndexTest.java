@@ -0,0 +1,84 @@
+package org.mskcc.cbio.portal.dao;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.cbio.portal.model.CanonicalGene;
+import org.mskcc.cbio.portal.model.ExtendedMutation.MutationEvent;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that MutationEventIndex hashes event keys the way MutationEvent compares them
+ * and reads existing keys once per chromosome.
+ */
+public class MutationEventIndexTest {
+
+    private final List<String> capturedSql = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        ResultSet noEvents = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(noEvents.next()).andReturn(false).anyTimes();
+        EasyMock.replay(noEvents);
+
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(stmt.executeQuery()).andReturn(noEvents).anyTimes();
+        EasyMock.replay(stmt);
+
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return stmt;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+
+    @Test
+    public void hash_followsEventEquality() {
+        MutationEvent event = event("17", "p.R273H", "Missense_Mutation");
+
+        assertEquals(MutationEventIndex.hash(event), MutationEventIndex.hash(event("17", "P.r273h", "MISSENSE_MUTATION")));
+        assertNotEquals(MutationEventIndex.hash(event), MutationEventIndex.hash(event("17", "p.R273C", "Missense_Mutation")));
+        assertNotEquals(MutationEventIndex.hash(event("17", null, "Missense_Mutation")),
+            MutationEventIndex.hash(event("17", "", "Missense_Mutation")));
+    }
+
+    @Test
+    public void get_addedEvent_foundIgnoringCase() throws DaoException {
+        MutationEventIndex index = new MutationEventIndex();
+        MutationEvent added = event("17", "p.R273H", "Missense_Mutation");
+        assertNull(index.get(added));
+        added.setMutationEventId(42);
+        index.add(added);
+
+        assertSame(added, index.get(event("17", "p.r273h", "Missense_Mutation")));
+        assertNull(index.get(event("17", "p.R248Q", "Missense_Mutation")));
+        assertNull(index.get(event("X", "p.R273H", "Missense_Mutation")));
+        assertEquals("one key query per chromosome", 2, capturedSql.size());
+    }
+
+    private static MutationEvent event(String chr, String proteinChange, String mutationType) {
+        MutationEvent event = new MutationEvent();
+        event.setGene(new CanonicalGene(7157, "TP53"));
+        event.setChr(chr);
+        event.setStartPosition(7577120);
+        event.setEndPosition(7577120);
+        event.setProteinChange(proteinChange);
+        event.setTumorSeqAllele("T");
+        event.setMutationType(mutationType);
+        return event;
+    }
+}
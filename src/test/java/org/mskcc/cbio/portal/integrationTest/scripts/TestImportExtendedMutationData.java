@@ -66,6 +66,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.mskcc.cbio.portal.integrationTest.IntegrationTestBase;
 import static com.google.common.collect.Sets.newHashSet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -380,7 +381,36 @@ public class TestImportExtendedMutationData extends IntegrationTestBase {
             events.add(mut.getMutationEventId());
         }
         assertEquals(1, events.size());
-    }    
+    }
+
+    /**
+     * Test that a line repeating a mutation of a sample after other samples' lines
+     * is merged into the stored mutation, as if the sample's lines were contiguous.
+     * @throws IOException
+     * @throws DaoException
+     */
+    @Test
+    public void testImportExtendedMutationDataExtendedUnsortedRepeatedMutation() throws IOException, DaoException {
+        // import maf
+        ClickHouseBulkLoader.bulkLoadOn();
+        File file = new File("src/test/resources/data_mutations_extended_unsorted_repeats.txt");
+        ImportExtendedMutationData parser = new ImportExtendedMutationData(file, testGeneticProfileId, null);
+        parser.importData();
+        ClickHouseBulkLoader.flushAll();
+        ConsoleUtil.showMessages();
+
+        int sampleId = DaoSample.getSampleByCancerStudyAndSampleId(studyId, "TCGA-AA-3664-01").getInternalId();
+        List<ExtendedMutation> mutations = DaoMutation.getMutations(testGeneticProfileId, sampleId, 114548);
+        // the two lines of TCGA-AA-3664-01 are stored as one mutation
+        assertEquals(1, mutations.size());
+        assertEquals("broad.mit.edu;ucsc.edu", mutations.get(0).getSequencingCenter());
+        assertEquals("Valid", mutations.get(0).getValidationStatus());
+
+        sampleId = DaoSample.getSampleByCancerStudyAndSampleId(studyId, "TCGA-AA-3665-01").getInternalId();
+        mutations = DaoMutation.getMutations(testGeneticProfileId, sampleId, 114548);
+        assertEquals(1, mutations.size());
+        assertEquals("broad.mit.edu", mutations.get(0).getSequencingCenter());
+    }
 
     @Test
     public void testImportExtendedMutationDataExtendedWithoutNamespacesResultsInNull() throws IOException, DaoException {
@@ -401,4 +431,28 @@ public class TestImportExtendedMutationData extends IntegrationTestBase {
 
         assertNull(mutations.get(0).getAnnotationJson());
     }
+
+    /**
+     * Deleting a study purges the mutation events only it referenced, with a lightweight
+     * DELETE on mutation_event. The import must leave that table deletable.
+     */
+    @Test
+    public void testDeleteStudyAfterImportExtendedMutationData() throws IOException, DaoException {
+        Set<ExtendedMutation.MutationEvent> eventsBefore = DaoMutation.getAllMutationEvents();
+        ClickHouseBulkLoader.bulkLoadOn();
+        File file = new File("src/test/resources/data_mutations_extended.txt");
+        ImportExtendedMutationData parser = new ImportExtendedMutationData(file, geneticProfileId, null);
+        parser.importData();
+        ClickHouseBulkLoader.flushAll();
+        ConsoleUtil.showMessages();
+        Set<ExtendedMutation.MutationEvent> importedEvents = DaoMutation.getAllMutationEvents();
+        importedEvents.removeAll(eventsBefore);
+
+        DaoCancerStudy.deleteCancerStudy(studyId);
+
+        assertNull(DaoCancerStudy.getCancerStudyByStableId("study_tcga_pub"));
+        Set<ExtendedMutation.MutationEvent> eventsAfter = DaoMutation.getAllMutationEvents();
+        assertFalse(importedEvents.isEmpty());
+        assertFalse(eventsAfter.removeAll(importedEvents));
+    }
 }
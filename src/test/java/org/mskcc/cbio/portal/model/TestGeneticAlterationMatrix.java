@@ -0,0 +1,82 @@
+package org.mskcc.cbio.portal.model;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that GeneticAlterationMatrix gives back exactly the stored strings, whether a
+ * row ends up held as floats or as strings.
+ */
+public class TestGeneticAlterationMatrix {
+
+    private final GeneticAlterationMatrix matrix = new GeneticAlterationMatrix(List.of(11, 12, 13, 14));
+
+    @Test
+    public void numericRow_roundTripsValues() {
+        String[] values = {"-2", "0", "1.5", "NA"};
+        matrix.put(1, values);
+
+        assertTrue(matrix.isNumeric(1));
+        assertArrayEquals(values, matrix.getValues(1));
+        assertEquals(1.5f, matrix.getFloat(1, 2), 0f);
+        assertTrue(Float.isNaN(matrix.getFloat(1, 3)));
+    }
+
+    @Test
+    public void valuesFloatsCannotReproduce_areKeptAsStrings() {
+        String[] values = {"1.50", "", "1e5", "x"};
+        matrix.put(2, values);
+
+        assertFalse(matrix.isNumeric(2));
+        assertArrayEquals(values, matrix.getValues(2));
+        assertEquals(1.5f, matrix.getFloat(2, 0), 0f);
+    }
+
+    @Test
+    public void highPrecisionRow_isKeptAsGivenStrings() {
+        String[] values = {"0.12345678901234567", "-1.2345678901234567", "3.1415926535897931", "NA"};
+        matrix.put(6, values);
+
+        assertFalse(matrix.isNumeric(6));
+        String[] stored = matrix.getValues(6);
+        assertArrayEquals(values, stored);
+        for (int i = 0; i < values.length; i++) {
+            assertSame(values[i], stored[i]);
+        }
+        assertEquals(3.1415927f, matrix.getFloat(6, 2), 0f);
+    }
+
+    @Test
+    public void shortTokens_shareOneInstanceAcrossRows() {
+        matrix.put(7, new String[]{"1", "2", "3", new String("NA")});
+        matrix.put(8, new String[]{"4", "5", "6", new String("NA")});
+
+        assertSame(matrix.getValue(7, 3), matrix.getValue(8, 3));
+    }
+
+    @Test
+    public void samplesAreLookedUpByInternalId() {
+        matrix.put(3, new String[]{"a", "b", "c", "d"});
+
+        assertEquals(2, matrix.indexOfSample(13));
+        assertEquals(-1, matrix.indexOfSample(99));
+        assertEquals("c", matrix.getValue(3, matrix.indexOfSample(13)));
+    }
+
+    @Test
+    public void remove_returnsValuesAndForgetsEntity() {
+        matrix.put(4, new String[]{"1", "2", "3", "4"});
+
+        assertArrayEquals(new String[]{"1", "2", "3", "4"}, matrix.remove(4));
+        assertFalse(matrix.containsGeneticEntity(4));
+        assertNull(matrix.remove(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_wrongNumberOfValues_throws() {
+        matrix.put(5, new String[]{"1"});
+    }
+}
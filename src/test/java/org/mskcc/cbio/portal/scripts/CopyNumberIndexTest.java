@@ -0,0 +1,55 @@
+package org.mskcc.cbio.portal.scripts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that CopyNumberIndex packs discrete calls by gene row and sample column,
+ * across row blocks and for short rows.
+ */
+public class CopyNumberIndexTest {
+
+    private static final String[] SAMPLES = {null, null, "S1", "S2", "S3"};
+
+    @Test
+    public void addRow_discreteCalls_storedBySampleColumn() {
+        CopyNumberIndex index = new CopyNumberIndex(SAMPLES);
+        index.putGene(7157, index.addRow(new String[]{"TP53", "7157", "-2", "0", "2"}, 2));
+
+        int row = index.getRow(7157);
+        assertEquals(-2, index.getCall(row, index.getColumn("S1")));
+        assertTrue(index.isDiploid(row, index.getColumn("S2")));
+        assertEquals(2, index.getCall(row, index.getColumn("S3")));
+        assertEquals(-1, index.getColumn("S4"));
+        assertFalse(index.isDiploid(row, -1));
+        assertEquals(-1, index.getRow(367));
+    }
+
+    @Test
+    public void addRow_nonDiscreteOrMissingValues_noCall() {
+        CopyNumberIndex index = new CopyNumberIndex(SAMPLES);
+        int row = index.addRow(new String[]{"AR", "367", "0.0", "NA"}, 2);
+
+        assertEquals(CopyNumberIndex.NO_CALL, index.getCall(row, 2));
+        assertEquals(CopyNumberIndex.NO_CALL, index.getCall(row, 3));
+        // column dropped from the end of a short row
+        assertFalse(index.isDiploid(row, 4));
+    }
+
+    @Test
+    public void addRow_manyRows_spanBlocks() {
+        CopyNumberIndex index = new CopyNumberIndex(SAMPLES);
+        for (int gene = 1; gene <= 3000; gene++) {
+            String call = Integer.toString(gene % 5 - 2);
+            index.putGene(gene, index.addRow(new String[]{"G" + gene, Integer.toString(gene), call, call, call}, 2));
+        }
+
+        assertEquals(3000, index.getGeneCount());
+        for (int gene = 1; gene <= 3000; gene++) {
+            assertEquals(gene % 5 - 2, index.getCall(index.getRow(gene), 3));
+        }
+        index.removeGene(42);
+        assertFalse(index.containsGene(42));
+    }
+}
@@ -0,0 +1,109 @@
+package org.mskcc.cbio.portal.scripts;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.cbio.portal.dao.ClickHouseBulkLoader;
+import org.mskcc.cbio.portal.dao.DaoException;
+import org.mskcc.cbio.portal.dao.JdbcUtil;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that a failed step of ImportBatch leaves neither its load modes nor its buffered
+ * rows behind for the step that runs after it.
+ */
+public class ImportBatchTest {
+
+    private static boolean bulkLoadSeen;
+    private static boolean relaxedModeSeen;
+
+    private final List<String> capturedSql = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        ResultSet rs = EasyMock.createNiceMock(ResultSet.class);
+        EasyMock.expect(rs.next()).andReturn(false).anyTimes();
+        EasyMock.replay(rs);
+
+        PreparedStatement stmt = EasyMock.createNiceMock(PreparedStatement.class);
+        EasyMock.expect(stmt.executeQuery()).andReturn(rs).anyTimes();
+        EasyMock.replay(stmt);
+
+        Connection con = EasyMock.createNiceMock(Connection.class);
+        EasyMock.expect(con.prepareStatement(EasyMock.anyString())).andAnswer(() -> {
+            capturedSql.add((String) EasyMock.getCurrentArguments()[0]);
+            return stmt;
+        }).anyTimes();
+        EasyMock.replay(con);
+
+        DataSource ds = EasyMock.createNiceMock(DataSource.class);
+        EasyMock.expect(ds.getConnection()).andReturn(con).anyTimes();
+        EasyMock.replay(ds);
+        JdbcUtil.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() {
+        ClickHouseBulkLoader.discardAll();
+        ClickHouseBulkLoader.bulkLoadOff();
+        ClickHouseBulkLoader.relaxedModeOff();
+    }
+
+    @Test
+    public void runStep_previousStepFailed_nextStepStartsClean() {
+        ImportBatch batch = new ImportBatch(new String[0]);
+        try {
+            batch.runStep(1, 2, new String[]{FailingStep.class.getName()});
+            fail("Expected the failing step to be rethrown");
+        } catch (RuntimeException e) {
+            assertEquals("step failed", e.getMessage());
+        }
+
+        batch.runStep(2, 2, new String[]{RecordingStep.class.getName()});
+
+        assertFalse(bulkLoadSeen);
+        assertFalse(relaxedModeSeen);
+        assertTrue(capturedSql.stream().noneMatch(sql -> sql.startsWith("INSERT INTO failed_step_table")));
+    }
+
+    public static class FailingStep extends ConsoleRunnable {
+        public FailingStep(String[] args) {
+            super(args);
+        }
+
+        public void run() {
+            ClickHouseBulkLoader.bulkLoadOn();
+            ClickHouseBulkLoader.relaxedModeOn();
+            ClickHouseBulkLoader loader = ClickHouseBulkLoader.getClickHouseBulkLoader("failed_step_table");
+            loader.setFieldNames(new String[]{"a"});
+            loader.insertRecord("1");
+            throw new RuntimeException("step failed");
+        }
+    }
+
+    public static class RecordingStep extends ConsoleRunnable {
+        public RecordingStep(String[] args) {
+            super(args);
+        }
+
+        public void run() {
+            bulkLoadSeen = ClickHouseBulkLoader.isBulkLoad();
+            relaxedModeSeen = ClickHouseBulkLoader.isRelaxedMode();
+            try {
+                ClickHouseBulkLoader.flushAll();
+            } catch (DaoException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.mskcc.cbio.portal.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileUtilTest {
+
+    private static final String CONTENT = "Hugo_Symbol\tS1\nTP53\t1.5\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOpenProgressReader_plainFile_countsBytesRead() throws Exception {
+        File file = folder.newFile("data.txt");
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        assertContent(file);
+        assertEquals(file.length(), ProgressMonitor.getBytesRead());
+        assertEquals(1.0, ProgressMonitor.getPercentComplete(), 0.0);
+    }
+
+    @Test
+    public void testOpenProgressReader_gzipFile_decompressesAndCountsCompressedBytes() throws Exception {
+        File file = folder.newFile("data.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertContent(file);
+        assertEquals(file.length(), ProgressMonitor.getBytesRead());
+        assertEquals(1.0, ProgressMonitor.getPercentComplete(), 0.0);
+    }
+
+    private void assertContent(File file) throws Exception {
+        try (BufferedReader reader = FileUtil.openProgressReader(file)) {
+            assertEquals("Hugo_Symbol\tS1", reader.readLine());
+            assertEquals("TP53\t1.5", reader.readLine());
+            assertNull(reader.readLine());
+        }
+    }
+}
@@ -33,6 +33,11 @@
 package org.mskcc.cbio.portal.util;
 
 import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -210,4 +215,26 @@ public class TestMutationKeywordUtils {
         assertEquals("truncating", MutationKeywordUtils.guessCosmicKeyword("T473_*477>R"));
         
     }
+
+    /**
+     * mutation_keywords_golden.txt holds the keywords the regex-per-call implementation gave
+     * for the protein changes of the test MAFs and about 2500 synthetic ones.
+     */
+    @Test
+    public void testGuessOncotatorKeywordMatchesGoldenCorpus() throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/mutation_keywords_golden.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                String expected = parts[2].equals("NULL") ? null : parts[2];
+                // asked twice so that the remembered keyword is checked as well
+                assertEquals(line, expected, MutationKeywordUtils.guessOncotatorMutationKeyword(parts[0], parts[1]));
+                assertEquals(line, expected, MutationKeywordUtils.guessOncotatorMutationKeyword(parts[0], parts[1]));
+            }
+        }
+    }
 }
@@ -9,6 +9,7 @@ import unittest
 from unittest import mock
 from unittest.mock import call
 from importer import cbioportalImporter
+from importer.cbioportal_common import JavaRunException
 
 common_part = ('-Dspring.profiles.active=dbcp', '-cp', 'test.jar')
 
@@ -187,6 +188,27 @@ class DataImporterTests(unittest.TestCase):
                 call(*common_part, 'org.mskcc.cbio.portal.scripts.RemoveSamples', '--study_ids', 'STUDY1,STUDY2', '--sample_ids', 'SAMPLE1,SAMPLE2'),
             ])
 
+    @mock.patch('importer.cbioportalImporter.locate_jar')
+    @mock.patch('importer.cbioportalImporter.run_java')
+    def test_remove_samples_single_jvm_failure(self, run_java, locate_jar):
+            '''
+            Tests that with --single-jvm a failed sample removal still reports its own error
+            '''
+            locate_jar.return_value = "test.jar"
+            def fail_remove_samples(*args):
+                if 'org.mskcc.cbio.portal.scripts.RemoveSamples' in args:
+                    raise JavaRunException(1, 'Aborting due to error while executing step.')
+            run_java.side_effect = fail_remove_samples
+
+            args = ['--single-jvm', 'remove-samples', '--study_ids', 'STUDY1', '--sample_ids', 'SAMPLE1']
+            parsed_args = cbioportalImporter.interface(args)
+            with self.assertLogs(level='ERROR') as logs, self.assertRaises(JavaRunException):
+                cbioportalImporter.main(parsed_args)
+
+            self.assertIn('exit status returned by the java process was 1', '\n'.join(logs.output))
+            self.assertEqual(run_java.call_args_list[-1],
+                call(*common_part, 'org.mskcc.cbio.portal.scripts.RemoveSamples', '--study_ids', 'STUDY1', '--sample_ids', 'SAMPLE1'))
+
     @mock.patch('importer.cbioportalImporter.locate_jar')
     @mock.patch('importer.cbioportalImporter.run_java')
     def test_remove_patients(self, run_java, locate_jar):
@@ -204,5 +226,27 @@ class DataImporterTests(unittest.TestCase):
                 call(*common_part, 'org.mskcc.cbio.portal.scripts.RemovePatients', '--study_ids', 'STUDY1,STUDY2', '--patient_ids', 'PATIENT1,PATIENT2'),
             ])
 
+    @mock.patch('importer.cbioportalImporter.locate_jar')
+    @mock.patch('importer.cbioportalImporter.run_java')
+    def test_incremental_load_single_jvm(self, run_java, locate_jar):
+        '''
+        Tests that --single-jvm runs all steps through one ImportBatch call
+        '''
+        locate_jar.return_value = "test.jar"
+        manifests = []
+        run_java.side_effect = lambda *args: manifests.append(open(args[-2]).read()) if 'ImportBatch' in ' '.join(args) else None
+
+        data_directory = 'test_data/study_es_0_inc/cna_long'
+        args = ['--data_directory', data_directory, '--single-jvm']
+        parsed_args = cbioportalImporter.interface(args)
+        cbioportalImporter.main(parsed_args)
+
+        self.assertEqual(len(run_java.call_args_list), 2)
+        self.assertEqual(run_java.call_args_list[0], call(*common_part, 'org.mskcc.cbio.portal.util.VersionUtil',))
+        self.assertEqual(run_java.call_args_list[1][0][:4], (*common_part, 'org.mskcc.cbio.portal.scripts.ImportBatch'))
+        self.assertEqual(manifests, ['\t'.join(['org.mskcc.cbio.portal.scripts.ImportProfileData', '--overwrite-existing',
+                '--meta', f'{data_directory}/meta_cna_discrete_long.txt', '--loadMode', 'bulkload', '--update-info', 'False',
+                '--data', f'{data_directory}/data_cna_discrete_long.txt', '--noprogress']) + '\n'])
+
 if __name__ == '__main__':
     unittest.main(buffer=True)